@@ -0,0 +1,21 @@
+package com.mmoscovich.webcontab;
+
+import javax.cache.CacheManager;
+
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configura la cache de segundo nivel de Hibernate para que use el mismo CacheManager (JCache) que Spring.
+ * <br>Asi las regiones de Hibernate se pueden consultar y redimensionar en runtime (ver {@link com.mmoscovich.webcontab.services.CacheRegionService}).
+ */
+@Configuration
+public class CacheConfig {
+
+	@Bean
+	public HibernatePropertiesCustomizer cacheManagerCustomizer(CacheManager cacheManager) {
+		return props -> props.put(ConfigSettings.CACHE_MANAGER, cacheManager);
+	}
+}
@@ -0,0 +1,513 @@
+package com.mmoscovich.webcontab.dao;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.hibernate.query.NativeQuery;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.mmoscovich.webcontab.dao.helper.QueryAsientos;
+import com.mmoscovich.webcontab.dao.helper.QueryBalance.FiltroBalance;
+import com.mmoscovich.webcontab.dao.helper.SQLCondition;
+import com.mmoscovich.webcontab.dto.AsientoFilter;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO.Campo;
+import com.mmoscovich.webcontab.exception.ServerException;
+import com.mmoscovich.webcontab.model.Asiento;
+import com.mmoscovich.webcontab.model.Cuenta;
+import com.mmoscovich.webcontab.model.Ejercicio;
+import com.mmoscovich.webcontab.model.Imputacion;
+import com.mmoscovich.webcontab.util.JpaUtils;
+
+/**
+ * DAO del archivo de ejercicios.
+ * <p>Un ejercicio archivado no tiene asientos ni imputaciones en las tablas normales. Todo se guarda en
+ * <code>IMPUTACION_ARCHIVADA</code>, una sola tabla sin foreign keys donde cada fila es una imputacion con los datos de su asiento.</p>
+ * <p>Las lecturas (diario, mayor y balance) devuelven asientos e imputaciones <b>no persistidos</b> armados a partir de las filas,
+ * por lo que los servicios y reportes los usan igual que los normales.</p>
+ * <p>Se usan queries nativas porque la tabla no tiene entidad.</p>
+ */
+@Repository
+public class ArchivoRepository {
+
+	/** Columnas a leer para armar imputaciones y asientos (ver {@link #crearImputacion(Ejercicio, Object[])}) */
+	private static final String SELECT = "SELECT i.ID, i.ASIENTO_ID, i.NUMERO, i.FECHA, i.ASIENTO_DETALLE, i.ORDEN, i.CUENTA_ID, i.IMPORTE, i.DETALLE\n";
+
+	private static final String FROM = "FROM IMPUTACION_ARCHIVADA i\n";
+
+	/** Columnas a leer para armar solo los asientos (una fila por asiento) */
+	private static final String SELECT_ASIENTOS = "SELECT DISTINCT i.ASIENTO_ID, i.NUMERO, i.FECHA, i.ASIENTO_DETALLE\n";
+
+	/** Copia las imputaciones del ejercicio (con los datos de su asiento) al archivo */
+	private static final String ARCHIVAR_QUERY =
+			"INSERT INTO IMPUTACION_ARCHIVADA (ID, EJERCICIO_ID, ASIENTO_ID, NUMERO, FECHA, ASIENTO_DETALLE, " +
+			"ASIENTO_CREATION_DATE, ASIENTO_CREATION_USER_ID, ASIENTO_UPDATE_DATE, ASIENTO_UPDATE_USER_ID, " +
+			"ORDEN, CUENTA_ID, IMPORTE, DETALLE, CREATION_DATE, CREATION_USER_ID, UPDATE_DATE, UPDATE_USER_ID) " +
+			"SELECT i.ID, a.EJERCICIO_ID, a.ID, a.NUMERO, a.FECHA, a.DETALLE, " +
+			"a.CREATION_DATE, a.CREATION_USER_ID, a.UPDATE_DATE, a.UPDATE_USER_ID, " +
+			"i.ORDEN, i.CUENTA_ID, i.IMPORTE, i.DETALLE, i.CREATION_DATE, i.CREATION_USER_ID, i.UPDATE_DATE, i.UPDATE_USER_ID " +
+			"FROM IMPUTACION i INNER JOIN ASIENTO a ON i.ASIENTO_ID = a.ID WHERE a.EJERCICIO_ID = :ejercicioId";
+
+	/** Vuelve a crear los asientos del ejercicio a partir del archivo (mismos ids) */
+	private static final String RESTAURAR_ASIENTOS_QUERY =
+			"INSERT INTO ASIENTO (ID, EJERCICIO_ID, NUMERO, FECHA, DETALLE, CREATION_DATE, CREATION_USER_ID, UPDATE_DATE, UPDATE_USER_ID) " +
+			"SELECT DISTINCT ASIENTO_ID, EJERCICIO_ID, NUMERO, FECHA, ASIENTO_DETALLE, " +
+			"ASIENTO_CREATION_DATE, ASIENTO_CREATION_USER_ID, ASIENTO_UPDATE_DATE, ASIENTO_UPDATE_USER_ID " +
+			"FROM IMPUTACION_ARCHIVADA WHERE EJERCICIO_ID = :ejercicioId";
+
+	/** Vuelve a crear las imputaciones del ejercicio a partir del archivo (mismos ids) */
+	private static final String RESTAURAR_IMPUTACIONES_QUERY =
+			"INSERT INTO IMPUTACION (ID, ASIENTO_ID, ORDEN, CUENTA_ID, IMPORTE, DETALLE, CREATION_DATE, CREATION_USER_ID, UPDATE_DATE, UPDATE_USER_ID) " +
+			"SELECT ID, ASIENTO_ID, ORDEN, CUENTA_ID, IMPORTE, DETALLE, CREATION_DATE, CREATION_USER_ID, UPDATE_DATE, UPDATE_USER_ID " +
+			"FROM IMPUTACION_ARCHIVADA WHERE EJERCICIO_ID = :ejercicioId";
+
+	private static final String CONTAR_ASIENTOS_QUERY = "SELECT COUNT(*) FROM ASIENTO WHERE EJERCICIO_ID = :ejercicioId";
+	private static final String CONTAR_ARCHIVADOS_QUERY = "SELECT COUNT(DISTINCT ASIENTO_ID) FROM IMPUTACION_ARCHIVADA WHERE EJERCICIO_ID = :ejercicioId";
+
+	private static final String ELIMINAR_IMPUTACIONES_QUERY = "DELETE FROM IMPUTACION WHERE ASIENTO_ID IN (SELECT ID FROM ASIENTO WHERE EJERCICIO_ID = :ejercicioId)";
+	private static final String ELIMINAR_ASIENTOS_QUERY = "DELETE FROM ASIENTO WHERE EJERCICIO_ID = :ejercicioId";
+	private static final String ELIMINAR_ARCHIVO_QUERY = "DELETE FROM IMPUTACION_ARCHIVADA WHERE EJERCICIO_ID = :ejercicioId";
+
+	/** Query para obtener el saldo anterior del mayor (igual a la de {@link InformeRepository}) */
+	private static final String MAYOR_SALDO_ANTERIOR_QUERY =
+			"SELECT i.CUENTA_ID, SUM(i.IMPORTE) " + FROM +
+			"WHERE i.EJERCICIO_ID = :ejercicioId AND i.CUENTA_ID IN (:cuentasIds) AND " +
+			"(i.FECHA < :hasta OR (i.FECHA = :hasta AND i.NUMERO < :numeroAsiento) OR (i.FECHA = :hasta AND i.NUMERO = :numeroAsiento AND i.ID < :firstId)) " +
+			"GROUP BY i.CUENTA_ID";
+
+	/**
+	 * Espacio de sincronizacion de las queries sobre el archivo.
+	 * <p>No coincide con ninguna entidad, para que Hibernate no invalide la cache de segundo nivel.</p>
+	 */
+	private static final String QUERY_SPACE = "IMPUTACION_ARCHIVADA";
+
+	@Inject
+	private EntityManager em;
+
+	/**
+	 * Mueve todos los asientos e imputaciones del ejercicio al archivo.
+	 * <p>Se ejecuta con queries masivas (copia y borrado), sin cargar entidades.</p>
+	 * @param ejercicio
+	 * @return cantidad de asientos archivados
+	 * @throws ServerException si algun asiento no se pudo archivar (por ejemplo, por no tener imputaciones)
+	 */
+	public int archivar(Ejercicio ejercicio) throws ServerException {
+		// Como las queries no se sincronizan con las entidades, se bajan los cambios pendientes antes de ejecutarlas
+		em.flush();
+
+		long asientos = this.count(CONTAR_ASIENTOS_QUERY, ejercicio);
+		this.update(ARCHIVAR_QUERY, ejercicio, false);
+
+		// Cada asiento debe quedar en el archivo, ya que se guarda a traves de sus imputaciones
+		long archivados = this.count(CONTAR_ARCHIVADOS_QUERY, ejercicio);
+		if(archivados != asientos) throw new ServerException("No se pudieron archivar todos los asientos del ejercicio (" + archivados + " de " + asientos + ")");
+
+		this.update(ELIMINAR_IMPUTACIONES_QUERY, ejercicio, true);
+		this.update(ELIMINAR_ASIENTOS_QUERY, ejercicio, true);
+
+		return (int) asientos;
+	}
+
+	/**
+	 * Vuelve los asientos e imputaciones del archivo a las tablas normales, con los mismos ids.
+	 * @param ejercicio
+	 * @return cantidad de asientos restaurados
+	 */
+	public int desarchivar(Ejercicio ejercicio) {
+		em.flush();
+
+		int asientos = this.update(RESTAURAR_ASIENTOS_QUERY, ejercicio, true);
+		this.update(RESTAURAR_IMPUTACIONES_QUERY, ejercicio, true);
+		this.update(ELIMINAR_ARCHIVO_QUERY, ejercicio, false);
+
+		return asientos;
+	}
+
+	/** Cantidad de asientos archivados del ejercicio */
+	public long contarAsientos(Ejercicio ejercicio) {
+		return this.count(CONTAR_ARCHIVADOS_QUERY, ejercicio);
+	}
+
+	/**
+	 * Elimina del archivo las imputaciones de un lote de asientos del ejercicio.
+	 * @param ejercicio
+	 * @param cantidad cantidad maxima de asientos
+	 * @return cantidad de asientos eliminados (cero si ya no quedan)
+	 */
+	@SuppressWarnings("unchecked")
+	public int eliminarLote(Ejercicio ejercicio, int cantidad) {
+		List<Object> ids = em.createNativeQuery("SELECT DISTINCT ASIENTO_ID FROM IMPUTACION_ARCHIVADA WHERE EJERCICIO_ID = :ejercicioId LIMIT :cantidad")
+				.setParameter("ejercicioId", ejercicio.getId())
+				.setParameter("cantidad", cantidad)
+				.getResultList();
+		if(ids.isEmpty()) return 0;
+
+		Query query = em.createNativeQuery("DELETE FROM IMPUTACION_ARCHIVADA WHERE EJERCICIO_ID = :ejercicioId AND ASIENTO_ID IN (:ids)")
+				.setParameter("ejercicioId", ejercicio.getId())
+				.setParameter("ids", ids.stream().map(id -> ((Number) id).longValue()).collect(Collectors.toList()));
+		query.unwrap(NativeQuery.class).addSynchronizedQuerySpace(QUERY_SPACE);
+		query.executeUpdate();
+
+		return ids.size();
+	}
+
+	/** Determina si existen imputaciones archivadas para una cuenta en <b>cualquier</b> ejercicio */
+	public boolean existsByCuenta(Cuenta cuenta) {
+		return !em.createNativeQuery("SELECT ID FROM IMPUTACION_ARCHIVADA WHERE CUENTA_ID = :cuentaId LIMIT 1")
+				.setParameter("cuentaId", cuenta.getId())
+				.getResultList().isEmpty();
+	}
+
+	/** Obtiene, de las cuentas especificadas, las que tienen imputaciones archivadas en <b>cualquier</b> ejercicio */
+	public List<Long> findCuentasConImputaciones(Collection<Long> cuentaIds) {
+		if(cuentaIds.isEmpty()) return List.of();
+
+		@SuppressWarnings("unchecked")
+		List<Number> rows = em.createNativeQuery("SELECT DISTINCT CUENTA_ID FROM IMPUTACION_ARCHIVADA WHERE CUENTA_ID IN (:ids)")
+				.setParameter("ids", cuentaIds)
+				.getResultList();
+		return rows.stream().map(Number::longValue).collect(Collectors.toList());
+	}
+
+	/**
+	 * Busca un asiento archivado con sus imputaciones.
+	 * @param ejercicio
+	 * @param asientoId
+	 * @return el asiento (no persistido) o vacio si no existe
+	 */
+	@Transactional(readOnly = true)
+	public Optional<Asiento> findAsiento(Ejercicio ejercicio, Long asientoId) {
+		Query query = em.createNativeQuery(SELECT + FROM + "WHERE i.EJERCICIO_ID = :ejercicioId AND i.ASIENTO_ID = :asientoId ORDER BY i.ORDEN")
+				.setParameter("ejercicioId", ejercicio.getId())
+				.setParameter("asientoId", asientoId);
+
+		try(Stream<Asiento> asientos = this.agruparPorAsiento(ejercicio, JpaUtils.getStreamFromQuery(query, 100))) {
+			return asientos.findFirst();
+		}
+	}
+
+	// ASIENTOS
+
+	/**
+	 * Obtiene una pagina de asientos archivados de un ejercicio en un periodo.
+	 * <p>Equivalente a {@link AsientoRepository#findByPeriodo}</p>
+	 * @param incluirImputaciones indica si se deben buscar las imputaciones de cada asiento
+	 */
+	@Transactional(readOnly = true)
+	public Page<Asiento> findAsientosPorPeriodo(Ejercicio ejercicio, LocalDate desde, LocalDate hasta, boolean incluirImputaciones, Pageable page) {
+		return this.findAsientos(ejercicio, "i.FECHA BETWEEN :desde AND :hasta", Map.of("desde", desde, "hasta", hasta), incluirImputaciones, page);
+	}
+
+	/**
+	 * Obtiene una pagina de asientos archivados de un ejercicio dentro de un rango de numeros.
+	 * <p>Equivalente a {@link AsientoRepository#findByNumeros}</p>
+	 * @param incluirImputaciones indica si se deben buscar las imputaciones de cada asiento
+	 */
+	@Transactional(readOnly = true)
+	public Page<Asiento> findAsientosPorNumeros(Ejercicio ejercicio, Short min, Short max, boolean incluirImputaciones, Pageable page) {
+		return this.findAsientos(ejercicio, "i.NUMERO BETWEEN :min AND :max", Map.of("min", min, "max", max), incluirImputaciones, page);
+	}
+
+	/**
+	 * Obtiene una pagina de asientos archivados para la grilla.
+	 * <p>Equivalente a {@link AsientoExtraRepository#findResumen}</p>
+	 */
+	@Transactional(readOnly = true)
+	public Page<AsientoResumenDTO> findResumen(Ejercicio ejercicio, AsientoFilter filtro, Set<Campo> campos, Pageable page) {
+		return new QueryAsientos(ejercicio, filtro, campos, page, true).getPage(em);
+	}
+
+	// DIARIO
+
+	/**
+	 * Obtiene un stream de los asientos archivados de un ejercicio en un periodo, con sus imputaciones.
+	 * <p>Equivalente a {@link AsientoRepository#findByPeriodoReport}</p>
+	 */
+	@Transactional(readOnly = true)
+	public Stream<Asiento> streamDiarioPorPeriodo(Ejercicio ejercicio, LocalDate desde, LocalDate hasta) {
+		Query query = em.createNativeQuery(SELECT + FROM + "WHERE i.EJERCICIO_ID = :ejercicioId AND i.FECHA BETWEEN :desde AND :hasta ORDER BY i.FECHA, i.NUMERO, i.ORDEN")
+				.setParameter("ejercicioId", ejercicio.getId())
+				.setParameter("desde", desde)
+				.setParameter("hasta", hasta);
+
+		return this.agruparPorAsiento(ejercicio, JpaUtils.getStreamFromQuery(query, 1000));
+	}
+
+	/**
+	 * Obtiene un stream de los asientos archivados de un ejercicio dentro de un rango de numeros, con sus imputaciones.
+	 * <p>Equivalente a {@link AsientoRepository#findByNumerosReport}</p>
+	 */
+	@Transactional(readOnly = true)
+	public Stream<Asiento> streamDiarioPorNumeros(Ejercicio ejercicio, Short min, Short max) {
+		Query query = em.createNativeQuery(SELECT + FROM + "WHERE i.EJERCICIO_ID = :ejercicioId AND i.NUMERO BETWEEN :min AND :max ORDER BY i.FECHA, i.NUMERO, i.ORDEN")
+				.setParameter("ejercicioId", ejercicio.getId())
+				.setParameter("min", min)
+				.setParameter("max", max);
+
+		return this.agruparPorAsiento(ejercicio, JpaUtils.getStreamFromQuery(query, 1000));
+	}
+
+	// MAYOR
+
+	/**
+	 * Obtiene una pagina del mayor de una cuenta en un ejercicio archivado.
+	 * <p>Equivalente a {@link InformeRepository#getMayor}</p>
+	 */
+	@Transactional(readOnly = true)
+	@SuppressWarnings("unchecked")
+	public Page<Imputacion> getMayor(Ejercicio ejercicio, Cuenta cuenta, AsientoFilter filtro, Pageable pagination) {
+		Set<Long> cuentasIds = Set.of(cuenta.getId());
+		String where = this.whereMayor(filtro);
+
+		Query query = em.createNativeQuery(SELECT + FROM + where + "ORDER BY i.FECHA, i.NUMERO, i.ID LIMIT :size OFFSET :offset");
+		this.addMayorParameters(query, ejercicio, cuentasIds, filtro);
+		query.setParameter("size", pagination.getPageSize());
+		query.setParameter("offset", pagination.getOffset());
+
+		List<Imputacion> items = ((List<Object[]>) query.getResultList()).stream().map(row -> this.crearImputacion(ejercicio, row)).collect(Collectors.toList());
+
+		Query countQuery = em.createNativeQuery("SELECT COUNT(*) " + FROM + where);
+		this.addMayorParameters(countQuery, ejercicio, cuentasIds, filtro);
+
+		return new PageImpl<>(items, pagination, ((Number) countQuery.getSingleResult()).longValue());
+	}
+
+	/**
+	 * Obtiene un stream con las imputaciones archivadas de las cuentas indicadas.
+	 * <p>Equivalente a {@link InformeRepository#streamMayor}. Si hay mas de una cuenta, se ordena primero por cuenta.</p>
+	 */
+	@Transactional(readOnly = true)
+	public Stream<Imputacion> streamMayor(Ejercicio ejercicio, Set<Long> cuentasIds, AsientoFilter filtro) {
+		boolean porCuenta = cuentasIds.size() > 1;
+
+		String sql = SELECT + FROM +
+				(porCuenta ? "INNER JOIN CUENTA c ON c.ID = i.CUENTA_ID\n" : "") +
+				this.whereMayor(filtro) +
+				"ORDER BY " + (porCuenta ? "c.ORDEN, " : "") + "i.FECHA, i.NUMERO, i.ID";
+
+		Query query = em.createNativeQuery(sql);
+		this.addMayorParameters(query, ejercicio, cuentasIds, filtro);
+
+		Stream<Object[]> rows = JpaUtils.getStreamFromQuery(query, 1000);
+		return rows.map(row -> this.crearImputacion(ejercicio, row));
+	}
+
+	/**
+	 * Obtiene los saldos anteriores a las imputaciones que se mostraran en el mayor. Uno por cada cuenta.
+	 * <p>Equivalente a {@link InformeRepository#getMayorSaldoAnterior}</p>
+	 */
+	@Transactional(readOnly = true)
+	@SuppressWarnings("unchecked")
+	public Map<Long, BigDecimal> getMayorSaldoAnterior(Ejercicio ejercicio, Set<Long> cuentasIds, LocalDate hasta, Short numeroAsiento, Long firstId) {
+		List<Object[]> rows = em.createNativeQuery(MAYOR_SALDO_ANTERIOR_QUERY)
+				.setParameter("ejercicioId", ejercicio.getId())
+				.setParameter("cuentasIds", cuentasIds)
+				.setParameter("hasta", hasta)
+				.setParameter("numeroAsiento", numeroAsiento == null ? 0 : numeroAsiento)
+				.setParameter("firstId", firstId == null ? 0 : firstId)
+				.getResultList();
+
+		return rows.stream().collect(Collectors.toMap(r -> ((Number) r[0]).longValue(), r -> r[1] == null ? BigDecimal.ZERO : (BigDecimal) r[1]));
+	}
+
+	// BALANCE
+
+	/**
+	 * Obtiene los saldos globales del balance por moneda en un ejercicio archivado.
+	 * <p>Equivalente a {@link InformeRepository#getBalanceTotales}</p>
+	 */
+	@Transactional(readOnly = true)
+	@SuppressWarnings("unchecked")
+	public Map<Long, BigDecimal> getBalanceTotales(FiltroBalance filtro) {
+		SQLCondition cond = new SQLCondition()
+				.equals("i.EJERCICIO_ID", ":ejercicioId")
+				.between("i.FECHA", ":desde", ":hasta");
+
+		if(filtro.getCategorias() != null && !filtro.getCategorias().isEmpty()) {
+			cond.like("c.CODIGO", filtro.getCategorias().stream().map(cat -> cat.getCodigo() + ".%").collect(Collectors.toList()));
+		}
+
+		String sql = "SELECT c.MONEDA_ID, SUM(i.IMPORTE) " + FROM + "INNER JOIN CUENTA c ON c.ID = i.CUENTA_ID\n" +
+				"WHERE " + cond.buildAnd() + "\nGROUP BY c.MONEDA_ID";
+
+		List<Object[]> rows = em.createNativeQuery(sql)
+				.setParameter("ejercicioId", filtro.getEjercicio().getId())
+				.setParameter("desde", filtro.getDesde())
+				.setParameter("hasta", filtro.getHasta())
+				.getResultList();
+
+		return rows.stream().collect(Collectors.toMap(r -> ((Number) r[0]).longValue(), r -> (BigDecimal) r[1]));
+	}
+
+	/**
+	 * Obtiene una pagina de asientos archivados del ejercicio que cumplen la condicion.
+	 * <p>Se pagina por asiento y, si se piden, las imputaciones de toda la pagina se buscan en una sola query.</p>
+	 * @param condicion condicion sobre las columnas de <code>IMPUTACION_ARCHIVADA</code> (alias <code>i</code>)
+	 * @param params parametros de la condicion
+	 */
+	@SuppressWarnings("unchecked")
+	private Page<Asiento> findAsientos(Ejercicio ejercicio, String condicion, Map<String, Object> params, boolean incluirImputaciones, Pageable page) {
+		String where = "WHERE i.EJERCICIO_ID = :ejercicioId AND " + condicion + "\n";
+
+		Query query = em.createNativeQuery(SELECT_ASIENTOS + FROM + where + "ORDER BY i.FECHA, i.NUMERO LIMIT :size OFFSET :offset")
+				.setParameter("ejercicioId", ejercicio.getId())
+				.setParameter("size", page.getPageSize())
+				.setParameter("offset", page.getOffset());
+		params.forEach(query::setParameter);
+
+		List<Asiento> asientos = ((List<Object[]>) query.getResultList()).stream().map(row -> {
+			Asiento asiento = new Asiento(ejercicio, ((Number) row[1]).shortValue(), ((Date) row[2]).toLocalDate(), (String) row[3], null);
+			asiento.setId(toLong(row[0]));
+			return asiento;
+		}).collect(Collectors.toList());
+
+		if(incluirImputaciones && !asientos.isEmpty()) {
+			Map<Long, Asiento> porId = asientos.stream().collect(Collectors.toMap(Asiento::getId, Function.identity()));
+
+			List<Object[]> rows = em.createNativeQuery(SELECT + FROM + "WHERE i.EJERCICIO_ID = :ejercicioId AND i.ASIENTO_ID IN (:ids) ORDER BY i.ASIENTO_ID, i.ORDEN")
+					.setParameter("ejercicioId", ejercicio.getId())
+					.setParameter("ids", porId.keySet())
+					.getResultList();
+			for(Object[] row : rows) porId.get(toLong(row[1])).agregarImputacion(this.crearImputacion(null, row));
+		}
+
+		Query countQuery = em.createNativeQuery("SELECT COUNT(DISTINCT i.ASIENTO_ID) " + FROM + where)
+				.setParameter("ejercicioId", ejercicio.getId());
+		params.forEach(countQuery::setParameter);
+
+		return new PageImpl<>(asientos, page, ((Number) countQuery.getSingleResult()).longValue());
+	}
+
+	/** Construye el WHERE del mayor (ejercicio, cuentas y fechas o numeros de asiento) */
+	private String whereMayor(AsientoFilter filtro) {
+		SQLCondition cond = new SQLCondition()
+				.equals("i.EJERCICIO_ID", ":ejercicioId")
+				.in("i.CUENTA_ID", ":cuentasIds");
+
+		if(filtro.esFiltroFechas()) {
+			if(filtro.getDesde() != null) cond.greaterThanOrEqual("i.FECHA", ":desde");
+			if(filtro.getHasta() != null) cond.lessThanOrEqual("i.FECHA", ":hasta");
+		} else {
+			if(filtro.getMin() != null) cond.greaterThanOrEqual("i.NUMERO", ":min");
+			if(filtro.getMax() != null) cond.lessThanOrEqual("i.NUMERO", ":max");
+		}
+
+		return "WHERE " + cond.buildAnd() + "\n";
+	}
+
+	/** Agrega los parametros usados en {@link #whereMayor(AsientoFilter)} */
+	private void addMayorParameters(Query query, Ejercicio ejercicio, Set<Long> cuentasIds, AsientoFilter filtro) {
+		query.setParameter("ejercicioId", ejercicio.getId());
+		query.setParameter("cuentasIds", cuentasIds);
+
+		if(filtro.esFiltroFechas()) {
+			if(filtro.getDesde() != null) query.setParameter("desde", filtro.getDesde());
+			if(filtro.getHasta() != null) query.setParameter("hasta", filtro.getHasta());
+		} else {
+			if(filtro.getMin() != null) query.setParameter("min", filtro.getMin());
+			if(filtro.getMax() != null) query.setParameter("max", filtro.getMax());
+		}
+	}
+
+	/**
+	 * Agrupa las filas (ordenadas por asiento) en asientos con sus imputaciones.
+	 * <p>Se recorren a medida que se piden, sin cargar todo el ejercicio en memoria.</p>
+	 */
+	private Stream<Asiento> agruparPorAsiento(Ejercicio ejercicio, Stream<Object[]> rows) {
+		Iterator<Object[]> it = rows.iterator();
+
+		Iterator<Asiento> asientos = new Iterator<Asiento>() {
+			/** Primera fila del proximo asiento */
+			private Object[] pendiente = it.hasNext() ? it.next() : null;
+
+			@Override
+			public boolean hasNext() {
+				return pendiente != null;
+			}
+
+			@Override
+			public Asiento next() {
+				if(pendiente == null) throw new NoSuchElementException();
+
+				Asiento asiento = crearImputacion(ejercicio, pendiente).getAsiento();
+				pendiente = it.hasNext() ? it.next() : null;
+
+				// Se agregan las imputaciones siguientes mientras sean del mismo asiento
+				while(pendiente != null && asiento.getId().equals(toLong(pendiente[1]))) {
+					asiento.agregarImputacion(crearImputacion(null, pendiente));
+					pendiente = it.hasNext() ? it.next() : null;
+				}
+				return asiento;
+			}
+		};
+
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(asientos, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(rows::close);
+	}
+
+	/**
+	 * Crea una imputacion (no persistida) a partir de una fila de {@link #SELECT}.
+	 * <p>La cuenta es una referencia (se carga al usarla, normalmente desde la cache).</p>
+	 * @param ejercicio si no es null, tambien se crea el asiento de la imputacion (solo con sus datos basicos) en ese ejercicio
+	 * @param row [id, asientoId, numero, fecha, detalle asiento, orden, cuentaId, importe, detalle]
+	 */
+	private Imputacion crearImputacion(Ejercicio ejercicio, Object[] row) {
+		Imputacion imputacion = new Imputacion(em.getReference(Cuenta.class, toLong(row[6])), (BigDecimal) row[7], (String) row[8]);
+		imputacion.setId(toLong(row[0]));
+		imputacion.setOrden(((Number) row[5]).shortValue());
+
+		if(ejercicio != null) {
+			Asiento asiento = new Asiento(ejercicio, ((Number) row[2]).shortValue(), ((Date) row[3]).toLocalDate(), (String) row[4], null);
+			asiento.setId(toLong(row[1]));
+			asiento.agregarImputacion(imputacion);
+		}
+		return imputacion;
+	}
+
+	private long count(String sql, Ejercicio ejercicio) {
+		return ((Number) em.createNativeQuery(sql).setParameter("ejercicioId", ejercicio.getId()).getSingleResult()).longValue();
+	}
+
+	/**
+	 * Ejecuta una query de modificacion sobre el ejercicio.
+	 * @param modificaAsientos indica si la query modifica asientos o imputaciones (se invalidan de la cache de segundo nivel)
+	 */
+	private int update(String sql, Ejercicio ejercicio, boolean modificaAsientos) {
+		Query query = em.createNativeQuery(sql).setParameter("ejercicioId", ejercicio.getId());
+
+		// Archivar es poco frecuente, por lo que se invalida la region completa de asientos
+		NativeQuery<?> nativeQuery = query.unwrap(NativeQuery.class);
+		if(modificaAsientos) {
+			nativeQuery.addSynchronizedEntityClass(Asiento.class);
+			nativeQuery.addSynchronizedEntityClass(Imputacion.class);
+		} else {
+			nativeQuery.addSynchronizedQuerySpace(QUERY_SPACE);
+		}
+		return query.executeUpdate();
+	}
+
+	private static Long toLong(Object value) {
+		return ((Number) value).longValue();
+	}
+}
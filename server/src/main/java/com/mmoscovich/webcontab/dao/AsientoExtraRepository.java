@@ -0,0 +1,47 @@
+package com.mmoscovich.webcontab.dao;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import com.mmoscovich.webcontab.dto.AsientoFilter;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO.Campo;
+import com.mmoscovich.webcontab.model.Ejercicio;
+
+/**
+ * Interfaz que "aumenta" el repositorio de Asientos con operaciones mas complejas.
+ *
+ */
+public interface AsientoExtraRepository {
+
+	/**
+	 * Renumera los asientos de un ejercicio por fecha y en caso de misma fecha, por orden de creacion.
+	 * <p>Solo se reescriben los asientos cuyo numero cambia, a partir del primero que esta fuera de orden.
+	 * <br>Los asientos anteriores a ese no se modifican.</p>
+	 * @param ejercicioId id del ejercicio
+	 * @return cantidad de asientos cuyo numero cambio
+	 */
+	int renumerar(Long ejercicioId);
+	
+	/**
+	 * Borra multiples asientos de un ejercicio por id en una sola query, invalidando de la cache solo los asientos borrados.
+	 * <p>No borra las imputaciones, deben eliminarse antes.</p>
+	 * @param ejercicioId id del ejercicio al que corresponden
+	 * @param ids lista de ids a borrar
+	 * @return cantidad de asientos borrados
+	 */
+	int eliminar(Long ejercicioId, Collection<Long> ids);
+	
+	/**
+	 * Obtiene una pagina de asientos (y opcionalmente sus imputaciones) para la grilla, sin cargar entidades.
+	 * <p>Se resuelve con una sola query nativa (mas la del total).</p>
+	 * @param ejercicio ejercicio de los asientos
+	 * @param filtro filtro por fechas o por numeros
+	 * @param campos campos a incluir
+	 * @param page datos de paginacion
+	 */
+	Page<AsientoResumenDTO> findResumen(Ejercicio ejercicio, AsientoFilter filtro, Set<Campo> campos, Pageable page);
+}
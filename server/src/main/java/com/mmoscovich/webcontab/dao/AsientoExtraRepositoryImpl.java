@@ -0,0 +1,151 @@
+package com.mmoscovich.webcontab.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.hibernate.query.NativeQuery;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import com.mmoscovich.webcontab.dao.helper.QueryAsientos;
+import com.mmoscovich.webcontab.dto.AsientoFilter;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO.Campo;
+import com.mmoscovich.webcontab.model.Asiento;
+import com.mmoscovich.webcontab.model.Ejercicio;
+import com.mmoscovich.webcontab.util.JpaUtils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Implementacion de {@link AsientoExtraRepository}.
+ *
+ */
+@Slf4j
+public class AsientoExtraRepositoryImpl implements AsientoExtraRepository {
+
+	/**
+	 * Query Nativa que obtiene los asientos cuyo numero no coincide con su posicion por (fecha, id).
+	 * <p>Devuelve [id, numero actual, numero nuevo], ordenados por el numero nuevo.</p>
+	 */
+	private static final String CAMBIOS_QUERY =
+			"SELECT ID, NUMERO, RN FROM (" +
+			" SELECT ID, NUMERO, ROW_NUMBER() OVER (ORDER BY FECHA, ID) RN FROM ASIENTO WHERE EJERCICIO_ID = ?1" +
+			") WHERE RN <> NUMERO ORDER BY RN";
+
+	/**
+	 * Subquery con la numeracion nueva de los asientos a partir del primero desordenado (?2).
+	 * <p>Los asientos anteriores tienen numeros 1 a (?2 - 1) y estan en orden, por lo que todos los demas
+	 * tienen numero >= ?2 (o su negativo si ya se invirtio).</p>
+	 */
+	private static final String SUFIJO_SUBQUERY =
+			"SELECT ID, NUMERO, ROW_NUMBER() OVER (ORDER BY FECHA, ID) + ?2 - 1 RN FROM ASIENTO WHERE EJERCICIO_ID = ?1 AND ABS(NUMERO) >= ?2";
+
+	/**
+	 * Convierte a negativo el numero de los asientos que cambian, para evitar errores de duplicados al convertirlos al valor final
+	 * (hay una unique constraint por ejercicio y numero).
+	 */
+	private static final String NEGAR_QUERY =
+			"UPDATE ASIENTO SET NUMERO = NUMERO * -1 WHERE ID IN (SELECT ID FROM (" + SUFIJO_SUBQUERY + ") WHERE RN <> NUMERO)";
+
+	/**
+	 * Asigna el numero nuevo solo a los asientos que cambian.
+	 * <br>Ejecuta un MERGE INTO que permite hacer un Update a partir de un SELECT.
+	 */
+	private static final String RENUMERAR_QUERY =
+			"MERGE INTO ASIENTO(ID, NUMERO) KEY(ID) SELECT ID, RN FROM (" + SUFIJO_SUBQUERY + ") WHERE RN <> NUMERO";
+
+	/** Borra un conjunto de asientos de un ejercicio */
+	private static final String ELIMINAR_QUERY = "DELETE FROM ASIENTO WHERE EJERCICIO_ID = ?1 AND ID IN (?2)";
+
+	/**
+	 * Espacio de sincronizacion de las queries nativas de modificacion.
+	 * <p>No coincide con ninguna entidad, para que Hibernate no invalide toda la cache de segundo nivel
+	 * (ni la region completa de Asientos). Se invalidan a mano solo los asientos modificados.</p>
+	 */
+	private static final String QUERY_SPACE = "ASIENTO_BULK";
+
+	@Inject
+	private EntityManager em;
+
+	@Override
+	public int renumerar(Long ejercicioId) {
+		// Como las queries no se sincronizan con las entidades, se bajan los cambios pendientes antes de ejecutarlas
+		em.flush();
+		
+		// Se buscan los asientos cuyo numero no corresponde con el orden (una sola lectura)
+		@SuppressWarnings("unchecked")
+		List<Object[]> cambios = em.createNativeQuery(CAMBIOS_QUERY)
+				.setParameter(1, ejercicioId)
+				.getResultList();
+
+		// Si estan todos en orden, no hay nada que modificar
+		if(cambios.isEmpty()) return 0;
+
+		// El primer asiento desordenado (los anteriores no se tocan)
+		long desde = ((Number) cambios.get(0)[2]).longValue();
+
+		// Se determina si algun numero nuevo esta ocupado actualmente por otro asiento que cambia.
+		// Los que no cambian tienen su propio numero, que no es destino de ningun otro.
+		List<Long> ids = new ArrayList<>(cambios.size());
+		Set<Long> actuales = new HashSet<>();
+		for(Object[] row : cambios) {
+			ids.add(((Number) row[0]).longValue());
+			actuales.add(((Number) row[1]).longValue());
+		}
+		boolean hayColisiones = cambios.stream().anyMatch(row -> actuales.contains(((Number) row[2]).longValue()));
+
+		log.debug("Se renumeran {} asientos a partir del numero {} (colisiones: {})", cambios.size(), desde, hayColisiones);
+
+		// Solo si hay colisiones es necesario pasar por los negativos
+		if(hayColisiones) this.createUpdate(NEGAR_QUERY, ejercicioId, desde).executeUpdate();
+
+		int modificados = this.createUpdate(RENUMERAR_QUERY, ejercicioId, desde).executeUpdate();
+
+		// Se invalidan de la cache solo los asientos modificados (tambien al terminar la transaccion)
+		JpaUtils.evict(em, Asiento.class, ids);
+
+		return modificados;
+	}
+	
+	@Override
+	public int eliminar(Long ejercicioId, Collection<Long> ids) {
+		if(ids.isEmpty()) return 0;
+		
+		// Como la query no se sincroniza con las entidades, se bajan los cambios pendientes antes de ejecutarla
+		em.flush();
+		
+		int eliminados = this.createUpdate(ELIMINAR_QUERY, ejercicioId, ids).executeUpdate();
+		
+		// Se invalidan de la cache solo los asientos eliminados (tambien al terminar la transaccion)
+		JpaUtils.evict(em, Asiento.class, ids);
+		
+		return eliminados;
+	}
+
+	@Override
+	public Page<AsientoResumenDTO> findResumen(Ejercicio ejercicio, AsientoFilter filtro, Set<Campo> campos, Pageable page) {
+		return new QueryAsientos(ejercicio, filtro, campos, page, false).getPage(em);
+	}
+
+	/**
+	 * Crea una query nativa de modificacion sobre los asientos de un ejercicio, sincronizada con {@link #QUERY_SPACE}.
+	 * @param sql query a ejecutar
+	 * @param ejercicioId id del ejercicio (parametro 1)
+	 * @param param parametro 2 de la query
+	 */
+	private Query createUpdate(String sql, Long ejercicioId, Object param) {
+		Query query = em.createNativeQuery(sql)
+				.setParameter(1, ejercicioId)
+				.setParameter(2, param);
+		query.unwrap(NativeQuery.class).addSynchronizedQuerySpace(QUERY_SPACE);
+		return query;
+	}
+}
@@ -9,7 +9,6 @@ import java.util.stream.Stream;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
 import com.mmoscovich.webcontab.model.Asiento;
@@ -18,43 +17,18 @@ import com.mmoscovich.webcontab.model.Ejercicio;
 /**
  * DAO de Asientos 
  */
-public interface AsientoRepository extends JpaRepository<Asiento, Long> {
-	/**
-	 * Query Nativa de renumeracion.
-	 * <p>Primero convierte todos los numeros a negativo para evitar errores de duplicados al convertirlos al valor final
-	 * (hay una unique constraint por ejercicio y numero).
-	 * <br>Luego ejecuta un MERGE INTO que permite hacer un Update a partir de un SELECT.
-	 * </p>
-	 */
-	static final String RENUMERAR_QUERY = 
-			"UPDATE ASIENTO SET NUMERO = NUMERO * -1 WHERE EJERCICIO_ID = ?1 ;" + 
-			" MERGE INTO ASIENTO(ID, NUMERO) KEY(ID)" + 
-			" SELECT ID, ROW_NUMBER() OVER (ORDER BY FECHA, ID) FROM ASIENTO WHERE EJERCICIO_ID = ?1";
+public interface AsientoRepository extends JpaRepository<Asiento, Long>, AsientoExtraRepository {
 
 	/**
-	 * Borra multiples asientos de un ejercicio por id 
-	 * @param ejercicio ejercicio al que corresponden
-	 * @param ids lista de ids a borrar
+	 * Obtiene los ids de los asientos de un ejercicio, ordenados por id.
+	 * <p>Se usa con una pagina para eliminar el ejercicio por lotes.</p>
 	 */
-	@Modifying
-	@Query("DELETE FROM Asiento WHERE ejercicio = :ejercicio AND id in :ids")
-	void deleteByIds(Ejercicio ejercicio, Collection<Long> ids);
+	@Query("SELECT id FROM Asiento WHERE ejercicio = :ejercicio ORDER BY id")
+	List<Long> findIdsByEjercicio(Ejercicio ejercicio, Pageable page);
 	
-	/**
-	 * Borra todos los asientos de un ejercicio
-	 */
-	@Modifying
-	@Query("DELETE FROM Asiento WHERE ejercicio = :ejercicio")
-	void deleteByEjercicio(Ejercicio ejercicio);
+	/** Cantidad de asientos de un ejercicio */
+	long countByEjercicio(Ejercicio ejercicio);
 
-	/**
-	 * Renumera los asientos de un ejercicio por fecha y en caso de misma fecha, por orden de creacion.
-	 * @param ejercicioId id del ejercicio
-	 */
-	@Modifying
-	@Query(nativeQuery = true, value = RENUMERAR_QUERY)
-	void renumerarByEjercicio(Long ejercicioId);
-	
 	/** Obtiene una lista de asientos de un ejercicio por ids */
 	@Query("FROM Asiento WHERE ejercicio = :ejercicio AND id IN :ids")
 	List<Asiento> findByIds(Ejercicio ejercicio, Collection<Long> ids);
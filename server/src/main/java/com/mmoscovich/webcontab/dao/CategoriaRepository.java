@@ -1,14 +1,12 @@
 package com.mmoscovich.webcontab.dao;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.stream.Stream;
 
-import javax.persistence.QueryHint;
-
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.jpa.repository.QueryHints;
 
 import com.mmoscovich.webcontab.model.Categoria;
 import com.mmoscovich.webcontab.model.CuentaBase;
@@ -20,11 +18,17 @@ import com.mmoscovich.webcontab.model.Organizacion;
 public interface CategoriaRepository extends JpaRepository<Categoria, Long> {
 	
 	/**
-	 * Busca todas las categorias de una organizacion (y las cachea)
+	 * Busca todas las categorias de una organizacion.
+	 * <br>Para listarlas usar {@link com.mmoscovich.webcontab.services.CategoriaService#list}, que no consulta la base
 	 */
-	@QueryHints({ @QueryHint(name = "org.hibernate.cacheable", value ="true") })
 	List<Categoria> findByOrganizacion(Organizacion org);
 	
+	/**
+	 * Busca las categorias de una organizacion con los codigos especificados.
+	 * <br>Se usa para obtener todos los ancestros de varias cuentas en una sola query (el codigo incluye el de sus ancestros).
+	 */
+	List<Categoria> findByOrganizacionAndCodigoIn(Organizacion org, Collection<String> codigos);
+	
 	/**
 	 * Obtiene las categorias de resultados de la organizacion (en general INGRESOS Y EGRESOS)
 	 */
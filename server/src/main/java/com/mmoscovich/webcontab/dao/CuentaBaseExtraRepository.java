@@ -1,15 +1,14 @@
 package com.mmoscovich.webcontab.dao;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Slice;
 
-import com.mmoscovich.webcontab.model.Categoria;
-import com.mmoscovich.webcontab.model.Cuenta;
 import com.mmoscovich.webcontab.model.CuentaBase;
+import com.mmoscovich.webcontab.model.Moneda;
 import com.mmoscovich.webcontab.model.Organizacion;
+import com.mmoscovich.webcontab.model.User;
 
 /**
  * Interfaz que "aumenta" el repositorio de CuentaBase con queries mas complejas.
@@ -27,29 +26,34 @@ public interface CuentaBaseExtraRepository {
 	Optional<Long> findDuplicado(CuentaBase catOCuenta, String newDescripcion, boolean checkCodigo);
 	
 	/**
-	 * Busca una pagina de cuentas dentro de la organizacion que cumplan <b>al menos una</b> de las siguientes condiciones:<br>
-	 * <ul>
-	 * <li>Incluyan el texto en la descripcion</li> 
-	 * <li>Incluyan el texto en el alias</li>
-	 * <li>Su codigo <b>empiece</b> con el texto</li>
-	 * <li>Son descendientes de las categorias indicadas.</li>
-	 * </ul>   
+	 * Copia todas las categorias y cuentas de una organizacion a otra (con su jerarquia, moneda y flags).
+	 * <p>Usa queries masivas (INSERT ... SELECT), sin cargar entidades. La organizacion destino no debe tener plan.</p>
+	 * @param origen organizacion cuyo plan se copia
+	 * @param destino organizacion destino
+	 * @param user usuario de creacion
+	 * @return cantidad de categorias y cuentas creadas
 	 */
-	Slice<Cuenta> searchCuentasByText(Organizacion org, String query, List<Categoria> categorias, Pageable pageParams);
+	int clonarPlan(Organizacion origen, Organizacion destino, User user);
 	
 	/**
-	 * Busca una pagina de categorias o cuentas dentro de la organizacion que cumplan <b>al menos una</b> de las siguientes condiciones:<br>
-	 * <ul>
-	 * <li>Incluyan el texto en la descripcion</li> 
-	 * <li>Incluyan el texto en el alias</li>
-	 * <li>Su codigo <b>empiece</b> con el texto</li>
-	 * <li>Son descendientes de las categorias indicadas.</li>
-	 * </ul>   
+	 * Modifica masivamente activa, moneda y/o ajustable de las cuentas especificadas (los valores null no se modifican).
+	 * <p>Usa queries de modificacion, sin cargar entidades, y solo invalida de la cache de segundo nivel las cuentas modificadas.
+	 * No valida los cambios.</p>
+	 * @param ids ids de las cuentas
+	 * @param activa nuevo valor de activa o null
+	 * @param moneda nueva moneda o null
+	 * @param ajustable nuevo valor de ajustable o null
+	 * @param user usuario de modificacion
+	 * @return cantidad de cuentas modificadas
 	 */
-	Slice<CuentaBase> searchAllByText(Organizacion org, String query, List<Categoria> categorias, Pageable pageParams);
+	int actualizarCuentas(Collection<Long> ids, Boolean activa, Moneda moneda, Boolean ajustable, User user);
 	
-	/** 
-	 * Obtiene todas las cuentas de la organizacion descendientes de las categorias especificadas.
+	/**
+	 * Busca categorias o cuentas por id, manteniendo el orden de los ids (los que no existen se ignoran).
+	 * <p>Las que estan en la cache de segundo nivel se obtienen de ahi y las demas se buscan juntas 
+	 * (una query cada 1000), en lugar de una query por cada una.</p>
+	 * @param ids ids de las categorias o cuentas
+	 * @return las categorias o cuentas encontradas
 	 */
-	List<Cuenta> getCuentasDescendientes(Organizacion org, List<Categoria> categorias);
+	List<CuentaBase> findByIdsEnOrden(List<Long> ids);
 }
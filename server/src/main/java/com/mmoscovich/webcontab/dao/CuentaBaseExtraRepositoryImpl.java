@@ -3,32 +3,29 @@ package com.mmoscovich.webcontab.dao;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
+import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaBuilder.Case;
 import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Expression;
-import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
-import org.apache.commons.lang3.StringUtils;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Slice;
+import org.hibernate.query.NativeQuery;
+import org.springframework.transaction.annotation.Transactional;
 
-import com.mmoscovich.webcontab.dao.helper.CriteriaCondition;
-import com.mmoscovich.webcontab.model.Categoria;
-import com.mmoscovich.webcontab.model.Cuenta;
 import com.mmoscovich.webcontab.model.CuentaBase;
 import com.mmoscovich.webcontab.model.CuentaBase_;
-import com.mmoscovich.webcontab.model.Cuenta_;
+import com.mmoscovich.webcontab.model.Moneda;
 import com.mmoscovich.webcontab.model.Organizacion;
-import com.mmoscovich.webcontab.util.CriteriaUtils;
+import com.mmoscovich.webcontab.model.User;
+import com.mmoscovich.webcontab.util.JpaUtils;
 
 /**
  * Implementacion de {@link CuentaBaseExtraRepository}. 
@@ -36,6 +33,42 @@ import com.mmoscovich.webcontab.util.CriteriaUtils;
  */
 public class CuentaBaseExtraRepositoryImpl implements CuentaBaseExtraRepository {
 
+	/** 
+	 * Copia las categorias y cuentas de una organizacion a otra, con ids nuevos de la secuencia de Hibernate.
+	 * <br>El padre se asigna luego (ver {@link #CLONAR_PADRES_QUERY}).
+	 */
+	private static final String CLONAR_QUERY =
+			"INSERT INTO CUENTA (ID, IMPUTABLE, ORGANIZACION_ID, NUMERO, CODIGO, ORDEN, LEGACY_CODIGO, ALIAS, DESCRIPCION, ACTIVA, " +
+			"MONEDA_ID, INDIVIDUAL, AJUSTABLE, BALANCEA_RESULTADOS, BALANCEA_AJUSTABLES, RESULTADO, " +
+			"CREATION_DATE, CREATION_USER_ID, UPDATE_DATE, UPDATE_USER_ID) " +
+			"SELECT NEXT VALUE FOR HIBERNATE_SEQUENCE, IMPUTABLE, :destinoId, NUMERO, CODIGO, ORDEN, LEGACY_CODIGO, ALIAS, DESCRIPCION, ACTIVA, " +
+			"MONEDA_ID, INDIVIDUAL, AJUSTABLE, BALANCEA_RESULTADOS, BALANCEA_AJUSTABLES, RESULTADO, " +
+			"CURRENT_TIMESTAMP, :userId, CURRENT_TIMESTAMP, :userId " +
+			"FROM CUENTA WHERE ORGANIZACION_ID = :origenId ORDER BY ORDEN";
+
+	/** 
+	 * Asigna a cada copia el padre copiado: la categoria del destino con el mismo codigo que el padre del original.
+	 * <br>Todo se resuelve con el indice unico (organizacion, codigo).
+	 */
+	private static final String CLONAR_PADRES_QUERY =
+			"UPDATE CUENTA d SET CATEGORIA_ID = (" +
+			"SELECT pd.ID FROM CUENTA s " +
+			"INNER JOIN CUENTA ps ON s.CATEGORIA_ID = ps.ID " +
+			"INNER JOIN CUENTA pd ON pd.ORGANIZACION_ID = :destinoId AND pd.CODIGO = ps.CODIGO " +
+			"WHERE s.ORGANIZACION_ID = :origenId AND s.CODIGO = d.CODIGO) " +
+			"WHERE d.ORGANIZACION_ID = :destinoId AND d.CODIGO LIKE '%.%'";
+
+	/** Cantidad maxima de ids por query de modificacion masiva */
+	private static final int IDS_POR_QUERY = 1000;
+
+	/**
+	 * Espacio de sincronizacion de las queries nativas de copia y modificacion.
+	 * <p>Sin un espacio, Hibernate invalida toda la cache de segundo nivel y con la tabla CUENTA, toda la region de cuentas 
+	 * (compartida entre organizaciones). Este no coincide con ninguna entidad, por lo que no se invalida nada:
+	 * la copia solo crea cuentas del destino (que no pueden estar en la cache) y la modificacion invalida a mano solo las cuentas modificadas.</p>
+	 */
+	private static final String QUERY_SPACE = "CUENTA_BULK";
+
 	@Inject
 	private EntityManager em;
 	
@@ -80,182 +113,76 @@ public class CuentaBaseExtraRepositoryImpl implements CuentaBaseExtraRepository
 	}
 	
 	@Override
-	public List<Cuenta> getCuentasDescendientes(Organizacion org, List<Categoria> categorias) {
-		// FROM Cuenta WHERE organizacion = :org [OR codigo LIKE :parent1% OR codigo LIKE :parent2%...])
+	public int clonarPlan(Organizacion origen, Organizacion destino, User user) {
+		Query insert = em.createNativeQuery(CLONAR_QUERY)
+				.setParameter("origenId", origen.getId())
+				.setParameter("destinoId", destino.getId())
+				.setParameter("userId", user == null ? null : user.getId());
 		
-		CriteriaBuilder builder = em.getCriteriaBuilder();
-        CriteriaQuery<Cuenta> criteria = builder.createQuery(Cuenta.class);
-        Root<Cuenta> cuenta = criteria.from(Cuenta.class);
-        
-        criteria.where(new CriteriaCondition()
-        	// Deben ser las cuentas de una organizacion
-        	.add(builder.equal(cuenta.get(Cuenta_.ORGANIZACION), org))
-
-        	// Se transforman las categorias a predicates que piden las cuentas que pertenecen y se incluyen en el WHERE
-        	.add(pertenecientesACategorias(builder, cuenta, categorias))
-        	
-        	.buildAnd(builder)
-        );
-        
-        return em.createQuery(criteria).getResultList();
-	}
-	
-	@Override
-	public Slice<Cuenta> searchCuentasByText(Organizacion org, String query, List<Categoria> categorias, Pageable pageParams) {
-		// FROM Cuenta WHERE organizacion = :org AND (lower(descripcion) LIKE :%query% OR lower(descripcion) LIKE :%query% OR codigo LIKE :query% [OR codigo LIKE :parent1% OR codigo LIKE :parent2%...])
+		Query padres = em.createNativeQuery(CLONAR_PADRES_QUERY)
+				.setParameter("origenId", origen.getId())
+				.setParameter("destinoId", destino.getId());
+		
+		// Solo se insertan y modifican cuentas del destino, que no tenia plan, por lo que no hay ninguna en la cache.
+		// Se usa el espacio propio para que no se invalide la region de cuentas de las demas organizaciones
+		insert.unwrap(NativeQuery.class).addSynchronizedQuerySpace(QUERY_SPACE);
+		padres.unwrap(NativeQuery.class).addSynchronizedQuerySpace(QUERY_SPACE);
 		
-		return this.searchBaseByText(Cuenta.class, org, query, categorias, pageParams);
+		int result = insert.executeUpdate();
+		padres.executeUpdate();
+		return result;
 	}
 	
 	@Override
-	public Slice<CuentaBase> searchAllByText(Organizacion org, String query, List<Categoria> categorias, Pageable pageParams) {
-		// FROM CuentaBase WHERE organizacion = :org AND (lower(descripcion) LIKE :%query% OR lower(alias) LIKE :%query% OR codigo LIKE :query% [OR codigo LIKE :parent1% OR codigo LIKE :parent2%...])
+	public int actualizarCuentas(Collection<Long> ids, Boolean activa, Moneda moneda, Boolean ajustable, User user) {
+		if(ids.isEmpty()) return 0;
 		
-		return this.searchBaseByText(CuentaBase.class, org, query, categorias, pageParams);
-	}
-	
-	/**
-	 * Crea un predicate para buscar todas las cuenta o categorias descendientes de las especificadas
-	 */
-	private <T extends CuentaBase> Optional<Predicate> pertenecientesACategorias(CriteriaBuilder cb, Path<T> cuenta, List<Categoria> categorias) {
-		// Se hace un filtrado para no incluir categorias hijas de otras que ya estan incluidas
-		Collection<String> codigos = new ArrayList<>();
+		// Solo se modifican las columnas pedidas
+		StringBuilder sql = new StringBuilder("UPDATE CUENTA SET UPDATE_DATE = CURRENT_TIMESTAMP, UPDATE_USER_ID = :userId");
+		if(activa != null) sql.append(", ACTIVA = :activa");
+		if(moneda != null) sql.append(", MONEDA_ID = :monedaId");
+		if(ajustable != null) sql.append(", AJUSTABLE = :ajustable");
+		sql.append(" WHERE IMPUTABLE = 1 AND ID IN (:ids)");
 		
-		for(Categoria cat : categorias) {
-			if(!tienePrefijo(codigos, cat.getCodigo())) codigos.add(cat.getCodigo());
-		}
+		// Como la query no se sincroniza con las entidades, se bajan los cambios pendientes antes de ejecutarla
+		em.flush();
 		
-		// Se crea la lista de predicates, uno por cada codigo
-		Collection<Predicate> p = codigos.stream()
-				.map(c -> cb.like(cuenta.get(Cuenta_.CODIGO), c + ".%"))
-				.collect(Collectors.toList());
+		List<Long> lista = new ArrayList<>(ids);
+		int result = 0;
+		for(int i = 0; i < lista.size(); i += IDS_POR_QUERY) {
+			List<Long> parte = lista.subList(i, Math.min(i + IDS_POR_QUERY, lista.size()));
+			
+			Query query = em.createNativeQuery(sql.toString())
+					.setParameter("userId", user == null ? null : user.getId())
+					.setParameter("ids", parte);
+			if(activa != null) query.setParameter("activa", activa);
+			if(moneda != null) query.setParameter("monedaId", moneda.getId());
+			if(ajustable != null) query.setParameter("ajustable", ajustable);
+			query.unwrap(NativeQuery.class).addSynchronizedQuerySpace(QUERY_SPACE);
+			
+			result += query.executeUpdate();
+		}
 		
-		if(p.isEmpty()) return Optional.empty();
+		// Se invalidan de la cache solo las cuentas modificadas (tambien al terminar la transaccion)
+		JpaUtils.evict(em, CuentaBase.class, ids);
 		
-		// Se devuelve un solo predicate de tipo OR
-		return Optional.of(cb.or(p.toArray(new Predicate[0])));
+		return result;
 	}
 	
-	/**
-	 * Determina si la coleccion ya tiene un codigo que contiene al que se especifica.
-	 * <p>Ej: Si el codigo es "1.2.34" y la coleccion ya tiene "1" o "1.2" devuelve true.
-	 */
-	private boolean tienePrefijo(Collection<String> codigos, String codigo) {
-		for(String prefijo : codigos) {
-			if(codigo.startsWith(prefijo + ".")) return true;
+	@Override
+	@Transactional(readOnly = true)
+	public List<CuentaBase> findByIdsEnOrden(List<Long> ids) {
+		Cache cache = em.getEntityManagerFactory().getCache();
+		
+		// Se buscan juntas las que no estan en la cache
+		List<Long> faltantes = ids.stream().filter(id -> !cache.contains(CuentaBase.class, id)).collect(Collectors.toList());
+		for(int i = 0; i < faltantes.size(); i += IDS_POR_QUERY) {
+			em.createQuery("FROM CuentaBase WHERE id IN :ids", CuentaBase.class)
+				.setParameter("ids", faltantes.subList(i, Math.min(i + IDS_POR_QUERY, faltantes.size())))
+				.getResultList();
 		}
-		return false;
-	}
-	
-	/**
-	 * Hace la busqueda por texto.
-	 */
-	private <T extends CuentaBase> Slice<T> searchBaseByText(Class<T> cls, Organizacion org, String text, List<Categoria> categorias, Pageable pageReq) {
-		CriteriaBuilder builder = em.getCriteriaBuilder();
-        CriteriaQuery<T> criteria = builder.createQuery(cls);
-        Root<T> cuenta = criteria.from(cls);
-        
-        // Expresion que equivale a "descripcion || alias", en minuscula
-        //Se usa para buscar el texto en ambos campos al mismo tiempo
-        // Si el alias es null, se usa un string vacio
-        Expression<String> descripcionAlias = builder.lower(CriteriaUtils.concat(builder, "|", cuenta.get(Cuenta_.DESCRIPCION), builder.coalesce(cuenta.get(Cuenta_.ALIAS), "")));
-        Expression<Integer> descripcionAliasIndexOf = builder.locate(descripcionAlias, text);
-
-        Predicate descripcionAliasCondition = builder.notEqual(descripcionAliasIndexOf, 0); 
-//        Predicate descripcionAliasCondition = builder.like(descripcionAlias, "%" + text + "%");
-        
-		CriteriaCondition cond = new CriteriaCondition().add(descripcionAliasCondition);
-//      .add(builder.like(builder.lower(cuenta.get(Cuenta_.DESCRIPCION)), "%" + text + "%"))
-//      .add(builder.like(builder.lower(cuenta.get(Cuenta_.ALIAS)), "%" + text + "%"));
-        
-		// Solo buscar en codigo si el texto puede ser un codigo (numeros y puntos)
-        if(StringUtils.isNumeric(text.replace(".", ""))) {
-        	cond.add(builder.like(cuenta.get(Cuenta_.CODIGO), text + "%"));
-        }
-
-    	// Se transforman las categorias a predicates que piden las cuentas que pertenecen
-        cond.add(pertenecientesACategorias(builder, cuenta, categorias));
-        	
-        criteria.where(
-    		// Deben ser las cuentas de una organizacion
-    		builder.equal(cuenta.get(Cuenta_.ORGANIZACION), org),
-    		cond.buildOr(builder)
-        );
-        
-        // Se ordenan los resultados
-        criteria.orderBy( 
-    		// Primero las que tienen el texto en la descripcion o alias
-        	// Luego las que son hijas, en el orden en que vinieron las categorias (que ya estaban ordenadas)
-    		builder.asc(this.getOrderPorCategorias(builder, cuenta, descripcionAliasCondition, categorias)),
-    		
-    		// En caso de ser iguales, van primero las categorias (imputable = 0)
-    		builder.asc(cuenta.type()),
-    		
-    		// En caso de ser iguales:
-    		// - Si es por descripcion/alias, se pone primero los que tienen la coindicencia primero
-    		// - Si es por categoria padre, se pone primero los de niveles superiores
-    		builder.asc(this.getOrderPorLongitud(builder, cuenta, descripcionAliasIndexOf)),
-    		
-    		// Finalmente, si todo lo demas es igual, se ordenan por numero de categoria/cuenta
-    		builder.asc(cuenta.get(Cuenta_.ORDEN))
-		);
-        
-        // Se limita la longitud
-        return CriteriaUtils.getSlice(em, criteria, pageReq);
-	}
-	
-	/**
-	 * Devuelve una expresion para ordenar las cuentas, colocando primero las que coinciden en texto o alias y
-	 * luego las que son hijas de las categorias que coinciden.
-	 * <p>
-	 * La query recibe una lista de categorias ordenada por prioridad para buscar sus subcuentas.
-	 * <br>Por lo tanto se debe ordenar de tal manera que las subcuentas queden en el orden en el que vinieron sus padres.
-	 * </p> 
-	 * @param builder
-	 * @param cuenta
-	 * @param categorias
-	 * @return
-	 */
-	private Expression<Object> getOrderPorCategorias(CriteriaBuilder builder, Root<?> cuenta, Predicate descripcionAliasCondition, List<Categoria> categorias) {
-		final Case<Object> select= builder.selectCase();
-			
-		// El primer orden es que coincidan en descripcion o alias directamente	
-		select.when(descripcionAliasCondition, 0);
-        
-	     // Se hace un filtrado para no incluir categorias hijas de otras que ya estan incluidas
-	     Collection<String> codigos = new ArrayList<>();
 		
-	     // Se recorre la lista de categorias ordenadas
-		 for(Categoria cat : categorias) {
-			if(!tienePrefijo(codigos, cat.getCodigo())) {
-				codigos.add(cat.getCodigo());
-				// Expresion que obtiene el prefijo del codigo
-				Expression<String> prefijo = builder.substring(cuenta.get(Cuenta_.CODIGO), 0, cat.getCodigo().length());
-				
-				// Cada cuenta tiene un valor equivalente a la posicion de su categoria padre en la lista
-				select.when(builder.equal(prefijo, cat.getCodigo()), codigos.size());
-			}
-		 }
-		 
-		 // Cualquier otra debe tener un valor mayor para ir al final
-		 return select.otherwise(codigos.size() + 1);
-	}
-	
-	/**
-	 * Devuelve una expresion para ordenar las cuentas en base a la descripcion/alias o el codigo.
-	 * <p>
-	 * Si matchea por descripcion o alias se usa la posicion del texto en la descripcion/alias (si aparece primero va antes)
-	 * <br>Si matchea por hijo, se ordena por la longitud del codigo (mientras menos niveles, mejor).
-	 * </p> 
-	 * @param builder
-	 * @param cuenta
-	 * @param categorias
-	 * @return
-	 */
-	private Expression<Object> getOrderPorLongitud(CriteriaBuilder builder, Root<?> cuenta, Expression<Integer> descripcionAliasIndexOf) {
-		return builder.selectCase()
-//				.when(descripcionAliasLike, builder.length(cuenta.get(Cuenta_.DESCRIPCION)))
-				.when(builder.notEqual(descripcionAliasIndexOf, 0), descripcionAliasIndexOf)
-				.otherwise(builder.length(cuenta.get(Cuenta_.ORDEN)));
+		// Las buscadas quedan en el contexto de persistencia y las demas en la cache, por lo que no se vuelve a consultar la base
+		return ids.stream().map(id -> em.find(CuentaBase.class, id)).filter(Objects::nonNull).collect(Collectors.toList());
 	}
 }
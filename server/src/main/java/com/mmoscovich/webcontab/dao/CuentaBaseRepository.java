@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import com.mmoscovich.webcontab.model.Categoria;
 import com.mmoscovich.webcontab.model.CuentaBase;
@@ -18,6 +19,17 @@ public interface CuentaBaseRepository extends JpaRepository<CuentaBase, Long>, C
 	/** Obtiene las categorias o cuentas que pertenecen a la especificada */
 	List<CuentaBase> findByCategoriaOrderByOrden(Categoria categoria);
 	
+	/** Indica si la organizacion tiene alguna categoria o cuenta */
+	boolean existsByOrganizacion(Organizacion org);
+	
 	/** Busca una categoria o cuenta de una organizacion por su codigo legacy */
 	Optional<CuentaBase> findByOrganizacionAndLegacyCodigo(Organizacion org, String legacyCodigo);
+	
+	/** 
+	 * Obtiene la jerarquia del plan de la organizacion (id, codigo, descripcion, alias, orden, imputable, categoria padre
+	 * y si balancea resultados o ajustables), ordenada por orden.
+	 * <br>Se usa para armar el indice del plan.
+	 */
+	@Query(value = "SELECT id, codigo, descripcion, alias, orden, imputable, categoria_id, balancea_resultados, balancea_ajustables FROM cuenta WHERE organizacion_id = :orgId ORDER BY orden", nativeQuery = true)
+	List<Object[]> findJerarquia(Long orgId);
 }
@@ -1,5 +1,6 @@
 package com.mmoscovich.webcontab.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -20,6 +21,14 @@ public interface CuentaRepository extends JpaRepository<Cuenta, Long> {
 	@Query("FROM Cuenta WHERE organizacion = :org AND id IN :ids")
 	List<Cuenta> findByIds(Organizacion org, List<Long> ids);
 	
+	/**
+	 * Obtiene el estado de las cuentas de una organizacion con los ids especificados, sin cargar las entidades.
+	 * <br>Cada fila tiene id, codigo, activa, moneda (id), ajustable, balanceaResultados y balanceaAjustables.
+	 */
+	@Query("SELECT c.id, c.codigo, c.activa, c.moneda.id, c.ajustable, c.balanceaResultados, c.balanceaAjustables "
+			+ "FROM Cuenta c WHERE c.organizacion = :org AND c.id IN :ids")
+	List<Object[]> findEstados(Organizacion org, Collection<Long> ids);
+	
 	/** 
 	 * Obtiene todas las cuentas de la organizacion que balancean resultados (una por moneda).
 	 * <br>Se usa para la refundicion de cuentas de resultados. 
@@ -15,25 +15,36 @@ import com.mmoscovich.webcontab.model.Organizacion;
  */
 public interface EjercicioRepository extends JpaRepository<Ejercicio, Long> {
 
-	/** Busca los ejercicios de una organizacion */
+	/** Busca los ejercicios de una organizacion (incluyendo los que se estan eliminando) */
 	List<Ejercicio> findByOrganizacion(Organizacion organizacion);
 	
+	/** Busca los ejercicios de una organizacion que no se estan eliminando */
+	@Query("FROM Ejercicio WHERE organizacion = :org AND eliminado = false")
+	List<Ejercicio> findNoEliminadosByOrganizacion(Organizacion org);
+	
+	/** Busca los ejercicios que se estan eliminando (de todas las organizaciones) */
+	List<Ejercicio> findByEliminadoTrue();
+	
 	/** 
 	 * Obtiene el ejercicio de la organizacion que termina ultimo, si existe.
 	 * Se filtra dos veces por la fecha, para obtener la fecha max y luego para traer ejercicio solo de ese ejercicio,
 	 * ya que si un ejercicio de otra org tambien finaliza en esa fecha, podria traerlo 
 	 */
-	@Query("FROM Ejercicio WHERE organizacion = :org AND finalizacion = (SELECT MAX(e.finalizacion) FROM Ejercicio e WHERE e.organizacion = :org)")
+	@Query("FROM Ejercicio WHERE organizacion = :org AND eliminado = false AND finalizacion = (SELECT MAX(e.finalizacion) FROM Ejercicio e WHERE e.organizacion = :org AND e.eliminado = false)")
 	Optional<Ejercicio> findEjercicioQueFinalizaUltimo(Organizacion org);
 
 	/** Busca los ejercicios de la organizacion que se solapan con las fechas especificadas */
-	@Query("FROM Ejercicio WHERE organizacion = :org AND inicio <= :fin2 AND :inicio2 <= finalizacion")
+	@Query("FROM Ejercicio WHERE organizacion = :org AND eliminado = false AND inicio <= :fin2 AND :inicio2 <= finalizacion")
 	List<Ejercicio> findEjerciciosQueSolapan(Organizacion org, LocalDate inicio2, LocalDate fin2);
 	
 	/** 
 	 * Obtiene el ultimo ejercicio de la organizacion en finalizar antes de una determinada fecha.
 	 * <p>Util para buscar el ejercicio anterior a uno deseado, usando la organizacion de dicho ejercicio y su fecha de inicio</p>
 	 */
-	@Query("FROM Ejercicio WHERE organizacion = :org AND finalizacion = (SELECT MAX(e.finalizacion) FROM Ejercicio e WHERE e.organizacion = :org AND e.finalizacion < :fecha)")
+	@Query("FROM Ejercicio WHERE organizacion = :org AND eliminado = false AND finalizacion = (SELECT MAX(e.finalizacion) FROM Ejercicio e WHERE e.organizacion = :org AND e.eliminado = false AND e.finalizacion < :fecha)")
 	Optional<Ejercicio> findUltimoEjercicioAnteriorA(Organizacion org, LocalDate fecha);
+	
+	/** Obtiene los ejercicios de la organizacion que comienzan despues de una fecha, ordenados por inicio */
+	@Query("FROM Ejercicio WHERE organizacion = :org AND eliminado = false AND inicio > :fecha ORDER BY inicio")
+	List<Ejercicio> findEjerciciosPosterioresA(Organizacion org, LocalDate fecha);
 }
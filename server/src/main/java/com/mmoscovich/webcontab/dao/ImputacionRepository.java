@@ -9,7 +9,6 @@ import org.springframework.data.jpa.repository.Query;
 
 import com.mmoscovich.webcontab.model.Asiento;
 import com.mmoscovich.webcontab.model.Cuenta;
-import com.mmoscovich.webcontab.model.Ejercicio;
 import com.mmoscovich.webcontab.model.Imputacion;
 
 /**
@@ -23,24 +22,26 @@ public interface ImputacionRepository extends JpaRepository<Imputacion, Long> {
 	 */
 	@Query("FROM Imputacion i join fetch i.cuenta WHERE i.asiento IN :asientos order by i.asiento, i.orden")
 	List<Imputacion> findByAsientos(Collection<Asiento> asientos);
-	
+
+	/** Busca las imputaciones con los ids especificados, con su asiento (sin orden) */
+	@Query("FROM Imputacion i join fetch i.asiento WHERE i.id IN :ids")
+	List<Imputacion> findByIdsWithAsiento(Collection<Long> ids);
+
 	/** Elimina las imputaciones que tienen los ids especificados */
 	@Modifying
 	@Query("DELETE FROM Imputacion WHERE id in :ids")
 	void deleteByIds(Collection<Long> ids);
 
+	/** Elimina las imputaciones de todos los asientos especificados */
+	@Modifying
+	@Query("DELETE FROM Imputacion WHERE asiento.id IN :asientoIds")
+	void deleteByAsientoIds(Collection<Long> asientoIds);
+
 	/** Elimina las imputaciones de un asiento */
 	@Modifying
 	@Query("DELETE FROM Imputacion WHERE asiento = :asiento")
 	void deleteByAsiento(Asiento asiento);
 	
-	/** 
-	 * Elimina <b>TODAS</b> las imputaciones de un ejercicio
-	 */
-	@Modifying
-	@Query("DELETE FROM Imputacion WHERE asiento.id IN (SELECT id FROM Asiento WHERE ejercicio = :ejercicio)")
-	void deleteByEjercicio(Ejercicio ejercicio);
-	
 	
 	/** Determina si existen imputaciones para una cuenta determinada en <b>cualquier</b> ejercicio */
 	@Query("SELECT count(i.id) > 0 " 
@@ -49,6 +50,10 @@ public interface ImputacionRepository extends JpaRepository<Imputacion, Long> {
 			 + "i.cuenta = :cuenta")
 	boolean existsByCuenta(Cuenta cuenta);
 	
+	/** Obtiene, de las cuentas especificadas, las que tienen imputaciones en <b>cualquier</b> ejercicio */
+	@Query("SELECT DISTINCT i.cuenta.id FROM Imputacion i WHERE i.cuenta.id IN :cuentaIds")
+	List<Long> findCuentasConImputaciones(Collection<Long> cuentaIds);
+	
 //	/** Determina si existen imputaciones para una cuenta determinada en un ejercicio especifico. */
 //	@Query("SELECT count(i.id) > 0 " 
 //			 + "FROM Imputacion i "
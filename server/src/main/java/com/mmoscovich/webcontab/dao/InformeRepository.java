@@ -1,6 +1,8 @@
 package com.mmoscovich.webcontab.dao;
 
 import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -13,6 +15,7 @@ import java.util.stream.Stream;
 
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Join;
@@ -44,6 +47,9 @@ import com.mmoscovich.webcontab.model.Imputacion;
 import com.mmoscovich.webcontab.model.Imputacion_;
 import com.mmoscovich.webcontab.model.Moneda_;
 import com.mmoscovich.webcontab.util.CriteriaUtils;
+import com.mmoscovich.webcontab.util.JpaUtils;
+import com.mmoscovich.webcontab.util.LibroColumnar;
+import com.mmoscovich.webcontab.util.LibroColumnarArchivo;
 
 /**
  * DAO de Informes (Mayor y Balance). 
@@ -60,6 +66,10 @@ public class InformeRepository {
 	@Inject
 	private EntityManager em;
 	
+	/** Los ejercicios archivados se leen del archivo */
+	@Inject
+	private ArchivoRepository archivoDao;
+	
 	/**
 	 * Obtiene los datos para el excel de Mayor (lista de imputaciones por cuenta).
 	 * <br>
@@ -72,6 +82,8 @@ public class InformeRepository {
 	 */
 	@Transactional(readOnly = true)
 	public Stream<Imputacion> streamMayor(Ejercicio ejercicio, Set<Long> cuentasIds, AsientoFilter asientoFilter) {
+		if(ejercicio.isArchivado()) return archivoDao.streamMayor(ejercicio, cuentasIds, asientoFilter);
+		
 		CriteriaQuery<Imputacion> criteria = this.buildMayorQuery(ejercicio, cuentasIds, asientoFilter, true);
 		
         return CriteriaUtils.getStream(em, criteria, 1000);
@@ -89,6 +101,8 @@ public class InformeRepository {
 	 * @return
 	 */
 	public Page<Imputacion> getMayor(Ejercicio ejercicio, Cuenta cuenta, AsientoFilter asientoFilter, Pageable pagination) {
+		if(ejercicio.isArchivado()) return archivoDao.getMayor(ejercicio, cuenta, asientoFilter, pagination);
+		
 		CriteriaQuery<Imputacion> criteria = this.buildMayorQuery(ejercicio, Set.of(cuenta.getId()), asientoFilter, false);
 		
 		return CriteriaUtils.getPage(em, criteria, pagination);
@@ -185,6 +199,7 @@ public class InformeRepository {
 	@SuppressWarnings("unchecked")
 	@Transactional(readOnly = true)
 	public Map<Long, BigDecimal> getMayorSaldoAnterior(Ejercicio ejercicio, Set<Long> cuentasIds, LocalDate hasta, Short numeroAsiento, Long firstId) {
+		if(ejercicio.isArchivado()) return archivoDao.getMayorSaldoAnterior(ejercicio, cuentasIds, hasta, numeroAsiento, firstId);
 		
 		String query = MAYOR_SALDO_ANTERIOR_QUERY + " GROUP BY i.cuenta";;
 		
@@ -240,6 +255,60 @@ public class InformeRepository {
 	}
 	
 	
+	/**
+	 * Obtiene las cuentas que incluye el balance segun el filtro, ordenadas y <b>sin</b> saldo.
+	 * @param filtro filtro de cuentas (no se tienen en cuenta las fechas ni los saldos en cero)
+	 */
+	@Transactional(readOnly = true)
+	public List<BalanceCuenta> findCuentasBalance(FiltroBalance filtro) {
+		return new QueryBalance(filtro).getCuentas(em);
+	}
+	
+	/** Query para obtener todas las imputaciones del ejercicio en el orden del {@link LibroColumnar} */
+	private static final String LIBRO_COLUMNAR_QUERY = 
+			"SELECT i.cuenta_id, a.fecha, a.numero, i.id, i.importe " +
+			"FROM imputacion i INNER JOIN asiento a ON i.asiento_id = a.id " +
+			"WHERE a.ejercicio_id = :ejercicioId " +
+			"ORDER BY i.cuenta_id, a.fecha, a.numero, i.id";
+	
+	/**
+	 * Carga todas las imputaciones del ejercicio en un {@link LibroColumnar} (una sola query).
+	 * @param ejercicio ejercicio (no archivado)
+	 * @param version version de datos del ejercicio, leida <b>antes</b> de llamar a este metodo
+	 * @param capacidad cantidad estimada de imputaciones
+	 */
+	@Transactional(readOnly = true)
+	public LibroColumnar cargarLibroColumnar(Ejercicio ejercicio, long version, int capacidad) {
+		Query query = em.createNativeQuery(LIBRO_COLUMNAR_QUERY).setParameter("ejercicioId", ejercicio.getId());
+		
+		LibroColumnar.Builder builder = new LibroColumnar.Builder(version, capacidad);
+		try(Stream<Object[]> rows = JpaUtils.getStreamFromQuery(query, 5000)) {
+			rows.forEach(r -> builder.add(((Number)r[0]).longValue(), ((Date)r[1]).toLocalDate(), ((Number)r[2]).shortValue(), ((Number)r[3]).longValue(), (BigDecimal)r[4]));
+		}
+		return builder.build();
+	}
+	
+	/** Query de la firma de los datos de un ejercicio (ver {@link LibroColumnarArchivo.Firma}) */
+	private static final String FIRMA_LIBRO_QUERY = 
+			"SELECT COUNT(*), " +
+			"(SELECT COUNT(*) FROM imputacion i INNER JOIN asiento ai ON i.asiento_id = ai.id WHERE ai.ejercicio_id = :ejercicioId), " +
+			"COALESCE(SUM(a.id * a.numero), 0), MAX(COALESCE(a.update_date, a.creation_date)) " +
+			"FROM asiento a WHERE a.ejercicio_id = :ejercicioId";
+	
+	/**
+	 * Calcula la firma de los datos actuales del ejercicio, para validar un libro guardado en archivo.
+	 * @param ejercicio ejercicio (no archivado)
+	 */
+	@Transactional(readOnly = true)
+	public LibroColumnarArchivo.Firma getFirmaLibro(Ejercicio ejercicio) {
+		Object[] r = (Object[]) em.createNativeQuery(FIRMA_LIBRO_QUERY).setParameter("ejercicioId", ejercicio.getId()).getSingleResult();
+		return new LibroColumnarArchivo.Firma(
+				((Number)r[0]).longValue(), 
+				((Number)r[1]).longValue(), 
+				((Number)r[2]).longValue(), 
+				r[3] == null ? 0 : ((Timestamp)r[3]).getTime());
+	}
+	
 	/**
 	 * Permite obtener los saldos globales del balance por moneda.
 	 * <p>
@@ -251,6 +320,8 @@ public class InformeRepository {
 	 */
 	@Transactional(readOnly = true)
 	public Map<Long, BigDecimal> getBalanceTotales(FiltroBalance filtro) {
+		if(filtro.getEjercicio().isArchivado()) return archivoDao.getBalanceTotales(filtro);
+		
 		//	SELECT c.moneda.id, SUM(i.importe)  FROM Imputacion i inner join i.asiento a inner join i.cuenta c
 		//	WHERE a.ejercicio = :ejercicio AND a.fecha BETWEEN :desde AND :hasta [AND c.codigo LIKE :query, ...] 
 		//	GROUP BY c.moneda.id 
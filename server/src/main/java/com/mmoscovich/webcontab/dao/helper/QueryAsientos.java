@@ -0,0 +1,183 @@
+package com.mmoscovich.webcontab.dao.helper;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import com.mmoscovich.webcontab.dto.AsientoFilter;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO.Campo;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO.ImputacionResumen;
+import com.mmoscovich.webcontab.model.Ejercicio;
+import com.mmoscovich.webcontab.util.JpaUtils;
+
+/**
+ * Clase que simplifica la query de la grilla de asientos.
+ * <p>Obtiene una pagina de asientos y sus imputaciones (con los datos de la cuenta) en una sola query nativa,
+ * sin cargar entidades.</p>
+ * <p>Si el ejercicio esta archivado, se leen del archivo (<code>IMPUTACION_ARCHIVADA</code>, ver {@link com.mmoscovich.webcontab.dao.ArchivoRepository}), 
+ * donde cada fila es una imputacion con los datos de su asiento.</p>
+ */
+public class QueryAsientos {
+
+	private static final String SELECT = "SELECT p.id, p.numero, p.fecha, p.detalle";
+	private static final String SELECT_IMPUTACIONES = ", i.id as imp_id, i.orden, c.id as cuenta_id, c.codigo, c.descripcion, i.detalle as imp_detalle, i.importe";
+
+	private static final String JOIN_CUENTA = " LEFT JOIN cuenta c ON c.id = i.cuenta_id\n";
+
+	/** Pagina de asientos */
+	private static final String SELECT_ASIENTOS = "SELECT a.id, a.numero, a.fecha, a.detalle FROM asiento a ";
+
+	/** Pagina de asientos del archivo (una fila por asiento) */
+	private static final String SELECT_ASIENTOS_ARCHIVO = "SELECT DISTINCT a.asiento_id as id, a.numero, a.fecha, a.asiento_detalle as detalle FROM imputacion_archivada a ";
+
+	private static final String ORDER_BY = "ORDER BY a.fecha, a.numero";
+
+	private Ejercicio ejercicio;
+	private AsientoFilter filtro;
+	private Set<Campo> campos;
+	private Pageable pageReq;
+	private boolean archivo;
+
+	/**
+	 * @param ejercicio ejercicio de los asientos
+	 * @param filtro filtro por fechas o por numeros
+	 * @param campos campos a incluir en el resultado
+	 * @param pageReq datos de paginacion
+	 * @param archivo indica si se leen del archivo (ejercicio archivado) en lugar de las tablas de asientos e imputaciones
+	 */
+	public QueryAsientos(Ejercicio ejercicio, AsientoFilter filtro, Set<Campo> campos, Pageable pageReq, boolean archivo) {
+		this.ejercicio = ejercicio;
+		this.filtro = filtro;
+		this.campos = campos;
+		this.pageReq = pageReq;
+		this.archivo = archivo;
+	}
+
+	/**
+	 * Ejecuta la query obteniendo una pagina <b>con</b> total ({@link Page}).
+	 * <p>No es un bean, se ejecuta en la transaccion del llamador (ver {@link com.mmoscovich.webcontab.services.AsientoService#findResumen}).</p>
+	 * @param em EntityManager
+	 */
+	public Page<AsientoResumenDTO> getPage(EntityManager em) {
+		Query query = em.createNativeQuery(this.buildSQL());
+		this.addParameters(query);
+		query.setParameter("offset", pageReq.getOffset());
+		query.setParameter("size", pageReq.getPageSize());
+
+		// Las filas llegan ordenadas por asiento, se agrupan a medida que se leen
+		List<AsientoResumenDTO> items = new ArrayList<>(pageReq.getPageSize());
+		try(Stream<Object[]> rows = JpaUtils.getStreamFromQuery(query, 500)) {
+			AsientoResumenDTO actual = null;
+			Iterator<Object[]> it = rows.iterator();
+			while(it.hasNext()) {
+				Object[] row = it.next();
+				Long id = ((Number) row[0]).longValue();
+
+				// Si cambia el asiento, se crea uno nuevo
+				if(actual == null || !actual.getId().equals(id)) {
+					actual = this.mapRowToAsiento(id, row);
+					items.add(actual);
+				}
+
+				// Si tiene imputacion (es LEFT JOIN), se agrega
+				if(campos.contains(Campo.IMPUTACIONES) && row[4] != null) actual.agregarImputacion(this.mapRowToImputacion(row));
+			}
+		}
+
+		// Se arma la query para el count
+		Query countQuery = em.createNativeQuery(this.buildCountSQL());
+		this.addParameters(countQuery);
+		long count = ((Number) countQuery.getSingleResult()).longValue();
+
+		return new PageImpl<>(items, pageReq, count);
+	}
+
+	/**
+	 * Mapea los datos del asiento de un row, incluyendo solo los campos pedidos.
+	 */
+	private AsientoResumenDTO mapRowToAsiento(Long id, Object[] row) {
+		AsientoResumenDTO asiento = new AsientoResumenDTO(id);
+		if(campos.contains(Campo.NUMERO)) asiento.setNumero(((Number) row[1]).shortValue());
+		if(campos.contains(Campo.FECHA)) asiento.setFecha(this.toLocalDate(row[2]));
+		if(campos.contains(Campo.DETALLE)) asiento.setDetalle((String) row[3]);
+		return asiento;
+	}
+
+	/**
+	 * Mapea los datos de la imputacion (y su cuenta) de un row.
+	 */
+	private ImputacionResumen mapRowToImputacion(Object[] row) {
+		return new ImputacionResumen(
+				((Number) row[4]).longValue(),
+				((Number) row[5]).shortValue(),
+				((Number) row[6]).longValue(),
+				(String) row[7],
+				(String) row[8],
+				(String) row[9],
+				(BigDecimal) row[10]
+		);
+	}
+
+	private LocalDate toLocalDate(Object value) {
+		return (value instanceof Date) ? ((Date) value).toLocalDate() : (LocalDate) value;
+	}
+
+	/** Agrega los parametros del filtro a la query */
+	private void addParameters(Query query) {
+		query.setParameter("ejercicioId", ejercicio.getId());
+
+		if(filtro.esFiltroFechas()) {
+			query.setParameter("desde", filtro.getDesde() != null ? filtro.getDesde() : ejercicio.getInicio());
+			query.setParameter("hasta", filtro.getHasta() != null ? filtro.getHasta() : ejercicio.getFinalizacion());
+		} else {
+			query.setParameter("min", filtro.getMin() != null ? filtro.getMin() : 0);
+			query.setParameter("max", filtro.getMax() != null ? filtro.getMax() : Short.MAX_VALUE);
+		}
+	}
+
+	/** Construye el SQL para obtener la pagina de asientos */
+	String buildSQL() {
+		String pagina = (archivo ? SELECT_ASIENTOS_ARCHIVO : SELECT_ASIENTOS) + where() + ORDER_BY + " LIMIT :size OFFSET :offset";
+
+		// Si no se piden las imputaciones, alcanza con la pagina de asientos
+		if(!campos.contains(Campo.IMPUTACIONES)) return pagina;
+
+		// Se hace join de la pagina de asientos con sus imputaciones y cuentas
+		return SELECT + SELECT_IMPUTACIONES + "\n" +
+				"FROM (" + pagina + ") p\n" +
+				(archivo ? " LEFT JOIN imputacion_archivada i ON i.asiento_id = p.id\n" : " LEFT JOIN imputacion i ON i.asiento_id = p.id\n") +
+				JOIN_CUENTA +
+				"ORDER BY p.fecha, p.numero, i.orden";
+	}
+
+	/** Construye el SQL para obtener el total de asientos */
+	String buildCountSQL() {
+		return archivo ? "SELECT count(DISTINCT a.asiento_id) FROM imputacion_archivada a " + where() : "SELECT count(*) FROM asiento a " + where();
+	}
+
+	/** Construye el WHERE */
+	private String where() {
+		SQLCondition cond = new SQLCondition().equals("a.ejercicio_id", ":ejercicioId");
+
+		if(filtro.esFiltroFechas()) {
+			cond.between("a.fecha", ":desde", ":hasta");
+		} else {
+			cond.between("a.numero", ":min", ":max");
+		}
+
+		return "WHERE " + cond.isRoot().buildAnd() + "\n";
+	}
+}
@@ -44,6 +44,10 @@ public class QueryBalance {
 		    						   " LEFT JOIN imputacion i on c.id = i.cuenta_id \n" +
 		    						   " LEFT JOIN asiento a on i.asiento_id = a.id\n";
 	
+	/** FROM para ejercicios archivados. Los datos del asiento estan en la misma imputacion */
+	private static final String FROM_ARCHIVO = "FROM Cuenta c \n" +
+		    						   " LEFT JOIN imputacion_archivada i on c.id = i.cuenta_id\n";
+	
 	private static final String GROUP_BY = "GROUP BY c.id, c.codigo, c.descripcion, c.moneda_id\n";
 	private static final String GROUP_BY_COUNT = "GROUP BY c.id\n";
 	private static final String ORDER_BY = "ORDER BY c.orden\n";
@@ -190,6 +194,24 @@ public class QueryBalance {
 		return this.createStream(em, fetchSize, this.buildSQLPorMes(), this::mapRowToBalanceMensualCuenta);
 	}
 	
+	/**
+	 * Obtiene las cuentas que incluye el balance segun los filtros de cuentas (organizacion, ajustables y categorias), <b>sin</b> saldo.
+	 * <p>No consulta imputaciones. Se usa cuando los saldos se calculan en memoria.</p>
+	 * @param em EntityManager
+	 * @return las cuentas ordenadas, con el saldo en null
+	 */
+	@Transactional(readOnly = true)
+	@SuppressWarnings("unchecked")
+	public List<BalanceCuenta> getCuentas(EntityManager em) {
+		Query query = em.createNativeQuery(this.buildCuentasSQL());
+		query.setParameter("organizacionId", filtro.ejercicio.getOrganizacion().getId());
+		
+		List<Object[]> rows = query.getResultList();
+		return rows.stream()
+				.map(row -> new BalanceCuenta(((BigInteger)row[0]).longValue(), (String)row[1], (String)row[2], ((BigInteger)row[3]).longValue(), null))
+				.collect(Collectors.toList());
+	}
+	
 	/**
 	 * Ejecuta el SQL indicado usando el EntityMapper y devuelve un Stream donde cada row se mapea usando
 	 * el mapper especificado
@@ -257,22 +279,49 @@ public class QueryBalance {
 	/** Construye el SQL para obtener los items de balance */
 	String buildSQL() {
 		
-		return SELECT + "\n" + FROM + where() + GROUP_BY + having() + ORDER_BY + pagination(); 
+		return SELECT + "\n" + from() + where() + GROUP_BY + having() + ORDER_BY + pagination(); 
 	}
 	
 	/** Construye el SQL para obtener el total de items de balance */
 	String buildCountSQL() {
 		// Count de la query anterior pero sin orden ni paginacion.
-		return "SELECT count(*) FROM (SELECT c.id\n" + FROM + where() + GROUP_BY_COUNT + having() + ")";  
+		return "SELECT count(*) FROM (SELECT c.id\n" + from() + where() + GROUP_BY_COUNT + having() + ")";  
+	}
+	
+	/** Construye el SQL para obtener solo las cuentas del balance (sin imputaciones) */
+	String buildCuentasSQL() {
+		String where = new SQLCondition()
+				.add(this.getOrganizacionFilter())
+				.add(this.getImputableFilter())
+				.add(this.getAjustableFilter())
+				.add(this.getCategoriaFilter())
+				.isRoot()
+				.buildAnd();
+		
+		return "SELECT c.id, c.codigo, c.descripcion, c.moneda_id\nFROM Cuenta c\nWHERE " + where + "\n" + ORDER_BY;
 	}
 	
 	/** Construye el SQL para obtener los items mensuales de balance */
 	String buildSQLPorMes() {
 		// Se incluye el mes en el select y en el group by
-		String select = SELECT + ", YEAR(a.fecha) || '-' || LPAD(MONTH(a.fecha), 2, '0') as MES";
+		String fecha = this.asiento() + ".fecha";
+		String select = SELECT + ", YEAR(" + fecha + ") || '-' || LPAD(MONTH(" + fecha + "), 2, '0') as MES";
 		String groupBy = GROUP_BY.replace("\n", ", mes\n");
 		
-		return select + "\n" + FROM + where() + groupBy + having() + ORDER_BY + pagination(); 
+		return select + "\n" + from() + where() + groupBy + having() + ORDER_BY + pagination(); 
+	}
+	
+	/** 
+	 * Construye el FROM.
+	 * <p>Si el ejercicio esta archivado, se usan las imputaciones archivadas (que incluyen los datos del asiento)</p> 
+	 */
+	private String from() {
+		return filtro.ejercicio.isArchivado() ? FROM_ARCHIVO : FROM;
+	}
+	
+	/** Alias de la tabla que tiene los datos del asiento */
+	private String asiento() {
+		return filtro.ejercicio.isArchivado() ? "i" : "a";
 	}
 	
 	
@@ -330,24 +379,25 @@ public class QueryBalance {
 	 */
 	private String getAsientoFilter() {
 		String filtroAsientos = new SQLCondition()
-		.equals("a.ejercicio_id", ":ejercicioId")
+		.equals(this.asiento() + ".ejercicio_id", ":ejercicioId")
 		.add(this.getDateFilter())
 		.buildAnd();
 		
 		return new SQLCondition()
-				.isNull("a.ejercicio_id")
+				.isNull(this.asiento() + ".ejercicio_id")
 				.add(filtroAsientos)
 				.buildOr();
 	}
 	
 	private String getDateFilter() {
 		SQLCondition cond = new SQLCondition();
+		String fecha = this.asiento() + ".fecha";
 		if(filtro.desde != null && filtro.hasta != null) {
-			cond.between("a.fecha", ":desde", ":hasta");
+			cond.between(fecha, ":desde", ":hasta");
 		} else if(filtro.desde != null) {
-			cond.greaterThanOrEqual("a.fecha", ":desde");
+			cond.greaterThanOrEqual(fecha, ":desde");
 		} else if(filtro.hasta != null) {
-			cond.lessThanOrEqual("a.fecha", ":hasta");
+			cond.lessThanOrEqual(fecha, ":hasta");
 		}
 		
 		return cond.buildAnd();
@@ -0,0 +1,82 @@
+package com.mmoscovich.webcontab.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.mmoscovich.webcontab.exception.InvalidRequestException;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * DTO de solo lectura de un asiento para la grilla de asientos.
+ * <p>Se obtiene directamente por SQL (sin cargar entidades) e incluye los datos de la cuenta de cada imputacion.
+ * <br>Los campos que no se pidieron quedan en null (y no se serializan).</p>
+ */
+@Data
+@NoArgsConstructor
+public class AsientoResumenDTO {
+
+	/** Campos opcionales que se pueden pedir */
+	public static enum Campo {
+		NUMERO, FECHA, DETALLE, IMPUTACIONES;
+
+		/**
+		 * Convierte un String de campos separados por coma en un Set.
+		 * <br>Si es vacio, devuelve todos los campos.
+		 * @throws InvalidRequestException si algun campo no existe
+		 */
+		public static Set<Campo> parse(String campos) throws InvalidRequestException {
+			if(StringUtils.isBlank(campos)) return EnumSet.allOf(Campo.class);
+
+			Set<Campo> result = EnumSet.noneOf(Campo.class);
+			for(String campo : campos.split(",")) {
+				try {
+					result.add(Campo.valueOf(campo.trim().toUpperCase()));
+				} catch(IllegalArgumentException e) {
+					throw new InvalidRequestException("El campo " + campo + " no es valido para el asiento");
+				}
+			}
+			return result;
+		}
+	}
+
+	private Long id;
+	private Short numero;
+	private LocalDate fecha;
+	private String detalle;
+	private List<ImputacionResumen> imputaciones;
+
+	public AsientoResumenDTO(Long id) {
+		this.id = id;
+	}
+
+	/** Agrega una imputacion al asiento */
+	public void agregarImputacion(ImputacionResumen imputacion) {
+		if(this.imputaciones == null) this.imputaciones = new ArrayList<>();
+		this.imputaciones.add(imputacion);
+	}
+
+	/**
+	 * DTO de solo lectura de una imputacion, con los datos de la cuenta desnormalizados.
+	 */
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	public static class ImputacionResumen {
+		private Long id;
+		private Short orden;
+		private Long cuentaId;
+		private String cuentaCodigo;
+		private String cuentaDescripcion;
+		private String detalle;
+		private BigDecimal importe;
+	}
+}
@@ -0,0 +1,48 @@
+package com.mmoscovich.webcontab.dto;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado del calculo de cierre de un ejercicio.
+ * <p>Contiene las imputaciones de los asientos de refundicion de cuentas de resultado y de cierre, y las de apertura
+ * del ejercicio siguiente (inversas a las de cierre).
+ * <br>Se usa tanto para persistir los asientos como para previsualizarlos sin modificar el ejercicio.</p>
+ */
+@Data
+@NoArgsConstructor
+public class CierreEjercicioDTO {
+
+	/** Imputaciones del asiento de refundicion. Si esta vacia, no se genera el asiento */
+	private List<Linea> refundicion = new ArrayList<>();
+
+	/** Imputaciones del asiento de cierre */
+	private List<Linea> cierre = new ArrayList<>();
+
+	/** Imputaciones del asiento de apertura del ejercicio siguiente */
+	private List<Linea> apertura = new ArrayList<>();
+
+	/**
+	 * Imputacion calculada, con los datos de la cuenta desnormalizados.
+	 */
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	public static class Linea {
+		private Long cuentaId;
+		private String cuentaCodigo;
+		private String cuentaDescripcion;
+		private Long monedaId;
+		private BigDecimal importe;
+
+		/** Crea una linea con el importe invertido */
+		public Linea crearInversa() {
+			return new Linea(cuentaId, cuentaCodigo, cuentaDescripcion, monedaId, importe.negate());
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.mmoscovich.webcontab.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Resultado de un cierre masivo de ejercicios de varias organizaciones.
+ */
+@Data
+@AllArgsConstructor
+public class CierreMasivoDTO {
+	/** Resultado de cada ejercicio, en el orden pedido */
+	private List<CierreOrganizacionDTO> items;
+	
+	/** Cantidad de ejercicios cerrados */
+	private int exitosos;
+	
+	/** Cantidad de ejercicios que fallaron */
+	private int fallidos;
+	
+	/** Cantidad de threads usados */
+	private int threads;
+	
+	/** Duracion total (ms) */
+	private long duracionMs;
+	
+	/** Ejercicios cerrados por segundo */
+	private double cierresPorSegundo;
+}
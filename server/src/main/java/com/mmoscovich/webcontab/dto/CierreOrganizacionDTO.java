@@ -0,0 +1,37 @@
+package com.mmoscovich.webcontab.dto;
+
+import javax.validation.constraints.NotNull;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Ejercicio a cerrar en un cierre masivo y resultado de su cierre.
+ * <p>En el pedido solo se indican la organizacion y el ejercicio. El resto de los campos se completa en la respuesta.</p>
+ */
+@Data
+@NoArgsConstructor
+public class CierreOrganizacionDTO {
+	@NotNull
+	private Long organizacionId;
+	
+	@NotNull
+	private Long ejercicioId;
+	
+	/** Indica si el ejercicio se cerro */
+	private Boolean exito;
+	
+	/** Mensaje de error, si fallo */
+	private String error;
+	
+	/** Id del asiento de cierre creado */
+	private Long asientoCierreId;
+	
+	/** Duracion del cierre de este ejercicio (ms) */
+	private Long duracionMs;
+	
+	public CierreOrganizacionDTO(Long organizacionId, Long ejercicioId) {
+		this.organizacionId = organizacionId;
+		this.ejercicioId = ejercicioId;
+	}
+}
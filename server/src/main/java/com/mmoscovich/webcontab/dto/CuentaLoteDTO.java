@@ -0,0 +1,28 @@
+package com.mmoscovich.webcontab.dto;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Modificacion masiva de cuentas.
+ * <p>Las cuentas se indican por id y/o por una categoria (se incluyen todas sus cuentas descendientes).
+ * <br>Solo se modifican los campos que no son null.</p>
+ */
+@Data
+public class CuentaLoteDTO {
+	/** Ids de las cuentas a modificar */
+	private List<Long> ids;
+	
+	/** Id de la categoria cuyas cuentas descendientes se modifican */
+	private Long categoriaId;
+	
+	/** Nuevo valor de activa */
+	private Boolean activa;
+	
+	/** Id de la nueva moneda (solo para cuentas sin imputaciones) */
+	private Long monedaId;
+	
+	/** Nuevo valor de ajustable */
+	private Boolean ajustable;
+}
@@ -0,0 +1,54 @@
+package com.mmoscovich.webcontab.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Resultado de una modificacion masiva de cuentas.
+ */
+@Data
+public class CuentaLoteResultadoDTO {
+	
+	public enum Estado { ACTUALIZADA, SIN_CAMBIOS, ERROR }
+	
+	/** Resultado de cada cuenta: primero las pedidas por id y luego las de la categoria (en el orden del plan) */
+	private List<Item> items = new ArrayList<>();
+	
+	/** Cantidad de cuentas modificadas */
+	private int actualizadas;
+	
+	/** Cantidad de cuentas que ya tenian los valores pedidos */
+	private int sinCambios;
+	
+	/** Cantidad de cuentas que no se pudieron modificar */
+	private int fallidas;
+	
+	/**
+	 * Resultado de una cuenta
+	 */
+	@Data
+	@AllArgsConstructor
+	public static class Item {
+		private Long id;
+		
+		/** Codigo de la cuenta (null si no existe) */
+		private String codigo;
+		
+		private Estado estado;
+		
+		/** Mensaje de error, si no se pudo modificar */
+		private String error;
+	}
+	
+	public void add(Item item) {
+		items.add(item);
+		switch(item.getEstado()) {
+		case ACTUALIZADA: actualizadas++; break;
+		case SIN_CAMBIOS: sinCambios++; break;
+		case ERROR: fallidas++; break;
+		}
+	}
+}
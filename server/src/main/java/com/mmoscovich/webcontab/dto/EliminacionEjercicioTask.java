@@ -0,0 +1,77 @@
+package com.mmoscovich.webcontab.dto;
+
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.Data;
+
+/**
+ * Datos de una tarea de eliminacion de un ejercicio.
+ * <p>
+ * Los asientos se eliminan por lotes, cada uno en su propia transaccion, y al final se elimina el ejercicio.
+ * <br>Es un proceso async, y mientras se ejecuta el usuario puede consultar el progreso.
+ * </p>
+ */
+@Data
+public class EliminacionEjercicioTask {
+
+	/** Posible status de la tarea */
+	public static enum EliminacionStatus {
+		PENDING, RUNNING, FINISHED, ERROR
+	}
+
+	private UUID uuid;
+
+	/** Organizacion del ejercicio */
+	@JsonIgnore
+	private Long organizacionId;
+
+	/** Ejercicio a eliminar */
+	private Long ejercicioId;
+
+	/** Status de la tarea */
+	private volatile EliminacionStatus status = EliminacionStatus.PENDING;
+
+	/** Cantidad de asientos que tenia el ejercicio al comenzar */
+	private volatile long total;
+
+	/** Cantidad de asientos eliminados */
+	private volatile long eliminados;
+
+	/** Cantidad de lotes ejecutados */
+	private volatile int lotes;
+
+	/** Duracion total de la tarea (ms) */
+	private volatile long duracionMs;
+
+	/** Mensaje de error, cuando ocurre uno */
+	private volatile String error;
+
+	public EliminacionEjercicioTask(Long organizacionId, Long ejercicioId) {
+		this.uuid = UUID.randomUUID();
+		this.organizacionId = organizacionId;
+		this.ejercicioId = ejercicioId;
+	}
+
+	/** Indica si la tarea ya termino (bien o con error) */
+	@JsonIgnore
+	public boolean isTerminada() {
+		return status == EliminacionStatus.FINISHED || status == EliminacionStatus.ERROR;
+	}
+
+	/** Registra un lote eliminado */
+	public void lote(int cantidad) {
+		this.eliminados += cantidad;
+		this.lotes++;
+	}
+
+	public void error(String error) {
+		this.error = error;
+		this.status = EliminacionStatus.ERROR;
+	}
+
+	public void success() {
+		this.status = EliminacionStatus.FINISHED;
+	}
+}
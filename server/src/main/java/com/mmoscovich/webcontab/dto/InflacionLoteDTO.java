@@ -0,0 +1,18 @@
+package com.mmoscovich.webcontab.dto;
+
+import lombok.Data;
+
+/**
+ * Resultado de una carga masiva de indices de inflacion.
+ */
+@Data
+public class InflacionLoteDTO {
+	/** Cantidad de indices nuevos */
+	private int creados;
+
+	/** Cantidad de indices existentes cuyo valor cambio */
+	private int actualizados;
+
+	/** Cantidad de indices existentes con el mismo valor */
+	private int sinCambios;
+}
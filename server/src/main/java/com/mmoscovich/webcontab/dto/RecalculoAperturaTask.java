@@ -0,0 +1,96 @@
+package com.mmoscovich.webcontab.dto;
+
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.Data;
+
+/**
+ * Datos de una tarea de recalculo encadenado de asientos de apertura.
+ * <p>
+ * Recorre los ejercicios posteriores a uno modificado, recalculando la apertura de cada uno
+ * con los saldos de cierre del anterior.
+ * <br>Es un proceso async, y mientras se ejecuta el usuario puede consultar el progreso.
+ * </p>
+ */
+@Data
+public class RecalculoAperturaTask {
+
+	/** Posible status de la tarea */
+	public static enum RecalculoStatus {
+		PENDING, RUNNING, FINISHED, ERROR
+	}
+
+	private UUID uuid;
+
+	/** Organizacion de los ejercicios */
+	@JsonIgnore
+	private Long organizacionId;
+
+	/** Ejercicio modificado, a partir del cual se recalculan las aperturas de los posteriores */
+	private Long ejercicioId;
+
+	/** Status de la tarea */
+	private volatile RecalculoStatus status = RecalculoStatus.PENDING;
+
+	/** Cantidad de ejercicios posteriores a recalcular */
+	private volatile int total;
+
+	/** Cantidad de ejercicios procesados */
+	private volatile int procesados;
+
+	/** Cantidad de aperturas que cambiaron y se actualizaron */
+	private volatile int actualizados;
+
+	/** Cantidad de aperturas que no cambiaron */
+	private volatile int sinCambios;
+
+	/** Cantidad de ejercicios omitidos (sin asiento de apertura o cerrados) */
+	private volatile int omitidos;
+
+	/** Ejercicio que se esta procesando */
+	private volatile Long ejercicioActualId;
+
+	/** Duracion total de la tarea (ms) */
+	private volatile long duracionMs;
+
+	/** Mensaje de error, cuando ocurre uno */
+	private volatile String error;
+
+	public RecalculoAperturaTask(Long organizacionId, Long ejercicioId) {
+		this.uuid = UUID.randomUUID();
+		this.organizacionId = organizacionId;
+		this.ejercicioId = ejercicioId;
+	}
+
+	/** Indica si la tarea ya termino (bien o con error) */
+	@JsonIgnore
+	public boolean isTerminada() {
+		return status == RecalculoStatus.FINISHED || status == RecalculoStatus.ERROR;
+	}
+
+	public void actualizado() {
+		this.actualizados++;
+		this.procesados++;
+	}
+
+	public void sinCambios() {
+		this.sinCambios++;
+		this.procesados++;
+	}
+
+	public void omitido() {
+		this.omitidos++;
+		this.procesados++;
+	}
+
+	public void error(String error) {
+		this.error = error;
+		this.status = RecalculoStatus.ERROR;
+	}
+
+	public void success() {
+		this.status = RecalculoStatus.FINISHED;
+	}
+}
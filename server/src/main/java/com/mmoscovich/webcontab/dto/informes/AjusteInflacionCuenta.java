@@ -0,0 +1,26 @@
+package com.mmoscovich.webcontab.dto.informes;
+
+import java.math.BigDecimal;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * DTO que contiene el ajuste por inflacion de una cuenta en un ejercicio.
+ * <p>Incluye datos basicos de la cuenta, el saldo nominal y el ajustado (acumulados en el ejercicio)
+ * y la diferencia entre ambos, que es el importe de la imputacion de ajuste.
+ * <br>Se utiliza para previsualizar el asiento de ajuste por inflacion.
+ * </p>
+ */
+@Data
+@AllArgsConstructor
+public class AjusteInflacionCuenta {
+	private Long id;
+	private String codigo;
+	private String descripcion;
+	private Long monedaId;
+
+	private BigDecimal saldo;
+	private BigDecimal saldoAjustado;
+	private BigDecimal ajuste;
+}
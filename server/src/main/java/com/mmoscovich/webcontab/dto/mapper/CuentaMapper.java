@@ -3,6 +3,7 @@ package com.mmoscovich.webcontab.dto.mapper;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.mapstruct.BeforeMapping;
 import org.mapstruct.InheritInverseConfiguration;
@@ -12,6 +13,7 @@ import org.springframework.data.domain.Slice;
 
 import com.mmoscovich.webcontab.dto.CuentaDTO;
 import com.mmoscovich.webcontab.dto.CuentaDTO.TipoItem;
+import com.mmoscovich.webcontab.dto.IdNameModel;
 import com.mmoscovich.webcontab.dto.PageDTO;
 import com.mmoscovich.webcontab.model.Categoria;
 import com.mmoscovich.webcontab.model.Cuenta;
@@ -98,14 +100,15 @@ public interface CuentaMapper {
 		return result;
 	}
 	
-	default List<CuentaDTO> toDtoWithPath(Collection<? extends CuentaBase> model) {
-		List<CuentaDTO> result = new ArrayList<>();
-		for(CuentaBase base : model) {
-			if(base instanceof Cuenta) {
-				result.add(this.toDtoWithPath((Cuenta)base));
-			} else {
-				result.add(this.toDtoWithPath((Categoria)base));
-			}
+	/**
+	 * Mapea las categorias o cuentas a DTO, incluyendo el path.
+	 * @param model categorias o cuentas
+	 * @param paths paths de todas juntas (ver {@link CategoriaService#getPaths(Collection)}), para no buscar el de cada una
+	 */
+	default List<CuentaDTO> toDtoWithPath(Collection<? extends CuentaBase> model, Map<Long, List<IdNameModel<Long>>> paths) {
+		List<CuentaDTO> result = this.toDto(model);
+		for(CuentaDTO dto : result) {
+			dto.setPath(paths.get(dto.getId()));
 		}
 		return result;
 	}
@@ -123,7 +126,7 @@ public interface CuentaMapper {
 	}
 	
 	/** Mapea un Page o Slice de CuentaBase a PageDTO de CuentaDTO con los path en cada uno */
-	default PageDTO<CuentaDTO> toDtoWithPath(Slice<? extends CuentaBase> page) {
-		return PageDTO.adapt(page, toDtoWithPath(page.getContent()));
+	default PageDTO<CuentaDTO> toDtoWithPath(Slice<? extends CuentaBase> page, Map<Long, List<IdNameModel<Long>>> paths) {
+		return PageDTO.adapt(page, toDtoWithPath(page.getContent(), paths));
 	}
 }
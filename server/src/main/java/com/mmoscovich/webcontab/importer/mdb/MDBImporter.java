@@ -23,7 +23,6 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.mmoscovich.webcontab.dao.CuentaBaseRepository;
 import com.mmoscovich.webcontab.dao.EjercicioRepository;
-import com.mmoscovich.webcontab.dao.MonedaRepository;
 import com.mmoscovich.webcontab.dao.OrganizacionRepository;
 import com.mmoscovich.webcontab.exception.EntityNotFoundException;
 import com.mmoscovich.webcontab.exception.InvalidRequestException;
@@ -49,6 +48,7 @@ import com.mmoscovich.webcontab.model.User;
 import com.mmoscovich.webcontab.services.AsientoService;
 import com.mmoscovich.webcontab.services.CategoriaService;
 import com.mmoscovich.webcontab.services.CuentaService;
+import com.mmoscovich.webcontab.services.MonedaService;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -75,7 +75,7 @@ public class MDBImporter implements Importer {
 	@Inject
 	private AsientoService asientoService;
 	@Inject
-	private MonedaRepository monedaDao;
+	private MonedaService monedaService;
 	
 	/** Directorio donde se almacenan los MDB a importar */
 	@Value("${webcontab.importer.backupDir}")
@@ -252,7 +252,7 @@ public class MDBImporter implements Importer {
 			}
 			
 			// Se obtienen las monedas
-			List<Moneda> monedas = monedaDao.findAll(); 
+			List<Moneda> monedas = monedaService.getMonedas(); 
 			if(monedas.isEmpty()) throw new ServerException("No se cargaron monedas");
 			
 			// Cuentas
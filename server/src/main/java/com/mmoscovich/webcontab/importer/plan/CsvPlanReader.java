@@ -0,0 +1,75 @@
+package com.mmoscovich.webcontab.importer.plan;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Lector de planes de cuentas en CSV (UTF-8).
+ * <p>
+ * El separador puede ser <code>;</code> (el que usa Excel en espanol) o <code>,</code>. Se toma el de la primera linea que tenga alguno.
+ * Los valores pueden estar entre comillas dobles.
+ * </p>
+ */
+public class CsvPlanReader extends PlanReader {
+
+	@Override
+	public void leer(Path file, Consumer<ImportedFila> consumer) throws IOException {
+		try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			Character separador = null;
+			String line;
+			int linea = 0;
+			while((line = reader.readLine()) != null) {
+				linea++;
+
+				// Se quita el BOM que agregan algunos editores
+				if(linea == 1 && line.startsWith("\uFEFF")) line = line.substring(1);
+				if(line.isBlank()) continue;
+
+				if(separador == null) {
+					if(line.indexOf(';') >= 0) separador = ';';
+					else if(line.indexOf(',') >= 0) separador = ',';
+				}
+
+				ImportedFila fila = this.crearFila(linea, separar(line, separador == null ? ';' : separador));
+				if(fila != null) consumer.accept(fila);
+			}
+		}
+	}
+
+	/** Separa la linea en valores, respetando las comillas */
+	private static List<String> separar(String line, char separador) {
+		List<String> result = new ArrayList<>();
+		StringBuilder actual = new StringBuilder();
+		boolean entreComillas = false;
+
+		for(int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if(entreComillas) {
+				if(c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					// Comilla escapada
+					actual.append('"');
+					i++;
+				} else if(c == '"') {
+					entreComillas = false;
+				} else {
+					actual.append(c);
+				}
+			} else if(c == '"') {
+				entreComillas = true;
+			} else if(c == separador) {
+				result.add(actual.toString());
+				actual.setLength(0);
+			} else {
+				actual.append(c);
+			}
+		}
+		result.add(actual.toString());
+		return result;
+	}
+}
@@ -0,0 +1,325 @@
+package com.mmoscovich.webcontab.importer.plan;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.mmoscovich.webcontab.exception.InvalidRequestException;
+import com.mmoscovich.webcontab.exception.ServerException;
+import com.mmoscovich.webcontab.importer.ImportTask.ImportTaskSummary;
+import com.mmoscovich.webcontab.importer.plan.PlanReader.ImportedFila;
+import com.mmoscovich.webcontab.model.Categoria;
+import com.mmoscovich.webcontab.model.Cuenta;
+import com.mmoscovich.webcontab.model.CuentaBase;
+import com.mmoscovich.webcontab.model.Moneda;
+import com.mmoscovich.webcontab.model.Organizacion;
+import com.mmoscovich.webcontab.model.User;
+import com.mmoscovich.webcontab.services.MonedaService;
+import com.mmoscovich.webcontab.services.PlanCuentasService;
+import com.mmoscovich.webcontab.util.PlanCuentas;
+import com.mmoscovich.webcontab.util.PlanCuentas.Nodo;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Importa masivamente un plan de cuentas desde una planilla (CSV o XLSX) a una organizacion.
+ * <p>
+ * A diferencia del {@link com.mmoscovich.webcontab.importer.mdb.MDBImporter}, no crea cada item con el servicio
+ * (que busca duplicados con una query por item):
+ * <ol>
+ * <li>Lee todas las filas (ver {@link PlanReader}).</li>
+ * <li>Valida la jerarquia completa en memoria contra el {@link PlanCuentas} de la organizacion: formato del codigo,
+ * padres, tipos y duplicados (codigo, descripcion dentro del padre y alias) con sets.</li>
+ * <li>Si hay errores, no se importa nada y se informan todos juntos (hasta {@value #MAX_ERRORES}).</li>
+ * <li>Persiste los items nuevos en orden (padres antes que hijos), con los inserts en batch de Hibernate,
+ * bajando y limpiando el contexto cada {@value #ITEMS_POR_FLUSH} items.</li>
+ * </ol>
+ * </p>
+ * <p>Las categorias y cuentas que ya existen con el mismo codigo (y tipo) se ignoran, por lo que se puede reimportar un plan.</p>
+ */
+@Slf4j
+@Service
+public class PlanImporter {
+
+	/** Maxima cantidad de errores a informar */
+	private static final int MAX_ERRORES = 20;
+
+	/** Cantidad de items a persistir antes de bajarlos a la base y limpiar el contexto */
+	private static final int ITEMS_POR_FLUSH = 1000;
+
+	/** Codigo: numeros separados por puntos */
+	private static final Pattern CODIGO = Pattern.compile("\\d+(\\.\\d+)*");
+
+	/** Largo maximo del codigo (y del orden) */
+	private static final int MAX_CODIGO = 35;
+	private static final int MAX_DESCRIPCION = 50;
+	private static final int MAX_ALIAS = 20;
+
+	@Inject
+	private EntityManager em;
+
+	@Inject
+	private MonedaService monedaService;
+
+	@Inject
+	private PlanCuentasService planService;
+
+	@Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+	private int batchSize;
+
+	/**
+	 * Item a importar, ya validado
+	 */
+	private static class Item {
+		final ImportedFila fila;
+		final String padreCodigo;
+		final short numero;
+		final String orden;
+		final Moneda moneda;
+
+		Item(ImportedFila fila, String padreCodigo, short numero, Moneda moneda) {
+			this.fila = fila;
+			this.padreCodigo = padreCodigo;
+			this.numero = numero;
+			this.orden = CuentaBase.calcularOrden(fila.codigo);
+			this.moneda = moneda;
+		}
+
+		boolean isImputable() {
+			return moneda != null;
+		}
+	}
+
+	/**
+	 * Importa el plan del archivo a la organizacion.
+	 * @param org organizacion destino
+	 * @param file archivo
+	 * @param fileName nombre original del archivo (para determinar el formato)
+	 * @param user usuario que importa
+	 * @return estadisticas de la importacion (categorias y cuentas totales e importadas)
+	 * @throws InvalidRequestException si el archivo no se puede leer o el plan tiene errores (en ese caso no se importa nada)
+	 */
+	@Transactional
+	public ImportTaskSummary importar(Organizacion org, Path file, String fileName, User user) throws InvalidRequestException {
+		final long inicio = System.currentTimeMillis();
+
+		List<ImportedFila> filas = new ArrayList<>();
+		try {
+			PlanReader.getReader(fileName).leer(file, filas::add);
+		} catch(IOException e) {
+			throw new InvalidRequestException("No se pudo leer el archivo " + fileName, e);
+		}
+		if(filas.isEmpty()) throw new InvalidRequestException("El archivo no tiene categorias ni cuentas");
+		log.info("Se leyeron {} filas del plan de cuentas {} en {} ms", filas.size(), fileName, System.currentTimeMillis() - inicio);
+
+		ImportTaskSummary summary = new ImportTaskSummary();
+		PlanCuentas plan = planService.getPlan(org);
+		List<Item> nuevos = this.validar(plan, filas, summary);
+
+		this.persistir(org, plan, nuevos, user, summary);
+
+		planService.invalidar(org);
+
+		log.info("Se importaron {} categorias y {} cuentas en la organizacion {} en {} ms", summary.getCategoriasImportadas(), summary.getCuentasImportadas(), org, System.currentTimeMillis() - inicio);
+		return summary;
+	}
+
+	/**
+	 * Valida las filas contra el plan existente y devuelve los items a crear, ordenados (padres antes que hijos).
+	 * @throws InvalidRequestException con todos los errores encontrados
+	 */
+	private List<Item> validar(PlanCuentas plan, List<ImportedFila> filas, ImportTaskSummary summary) throws InvalidRequestException {
+		List<String> errores = new ArrayList<>();
+
+		Map<String, Moneda> monedas = new HashMap<>();
+		monedaService.getMonedas().forEach(m -> monedas.put(m.getCodigo().toUpperCase(), m));
+
+		// Descripciones (por padre) y alias existentes
+		Set<String> descripciones = new HashSet<>();
+		Set<String> aliases = new HashSet<>();
+		plan.getRaices().forEach(n -> this.agregarExistente(null, n, descripciones, aliases));
+		plan.getCategorias().forEach(cat -> cat.getHijos().forEach(n -> this.agregarExistente(cat.getCodigo(), n, descripciones, aliases)));
+
+		// Primera pasada: formato de cada fila y codigos repetidos en el archivo
+		Map<String, Item> porCodigo = new LinkedHashMap<>();
+		for(ImportedFila fila : filas) {
+			String error = this.validarFila(fila, monedas);
+			if(error == null && porCodigo.containsKey(fila.codigo)) error = "El codigo esta repetido en el archivo (linea " + porCodigo.get(fila.codigo).fila.linea + ")";
+
+			if(error != null) {
+				if(!agregarError(errores, fila, error)) break;
+				continue;
+			}
+
+			int punto = fila.codigo.lastIndexOf('.');
+			String padreCodigo = punto < 0 ? null : fila.codigo.substring(0, punto);
+			short numero = Short.parseShort(fila.codigo.substring(punto + 1));
+			Moneda moneda = fila.moneda == null ? null : monedas.get(fila.moneda.toUpperCase());
+
+			porCodigo.put(fila.codigo, new Item(fila, padreCodigo, numero, moneda));
+		}
+
+		// Segunda pasada: jerarquia y duplicados contra la base y entre los nuevos
+		List<Item> nuevos = new ArrayList<>();
+		for(Item item : porCodigo.values()) {
+			if(errores.size() >= MAX_ERRORES) break;
+
+			if(item.isImputable()) summary.addCuenta();
+			else summary.addCategoria();
+
+			Optional<Nodo> existente = plan.getNodo(item.fila.codigo);
+			if(existente.isPresent()) {
+				// Si ya existe con el mismo tipo, se ignora
+				if(existente.get().isImputable() != item.isImputable()) {
+					agregarError(errores, item.fila, existente.get().isImputable() ? "Es una categoria en el archivo pero una cuenta en la organizacion" : "Es una cuenta en el archivo pero una categoria en la organizacion");
+				}
+				continue;
+			}
+
+			String error = this.validarPadre(item, porCodigo, plan);
+			if(error == null && !descripciones.add(claveDescripcion(item.padreCodigo, item.fila.descripcion))) error = "Ya existe otra categoria o cuenta con la descripcion '" + item.fila.descripcion + "' en la misma categoria";
+			if(error == null && item.fila.alias != null && !aliases.add(item.fila.alias)) error = "Ya existe otra categoria o cuenta con el alias '" + item.fila.alias + "'";
+
+			if(error != null) agregarError(errores, item.fila, error);
+			else nuevos.add(item);
+		}
+
+		if(!errores.isEmpty()) {
+			throw new InvalidRequestException("El plan de cuentas tiene errores, no se importo ninguna cuenta:\n" + String.join("\n", errores));
+		}
+
+		// Por orden, los padres quedan antes que sus hijos
+		nuevos.sort(Comparator.comparing(i -> i.orden));
+		return nuevos;
+	}
+
+	/** Valida los datos propios de la fila. Devuelve el error o null si es valida */
+	private String validarFila(ImportedFila fila, Map<String, Moneda> monedas) {
+		if(!CODIGO.matcher(fila.codigo).matches()) return "El codigo '" + fila.codigo + "' no es valido (deben ser numeros separados por puntos)";
+
+		String[] numeros = fila.codigo.split("\\.");
+		for(int i = 0; i < numeros.length; i++) {
+			// El orden usa 2 digitos para los primeros 2 niveles y 4 para los demas
+			int max = i < 2 ? 99 : 9999;
+			if(numeros[i].startsWith("0")) return "El codigo '" + fila.codigo + "' no es valido (los numeros no pueden empezar con 0)";
+			int numero = numeros[i].length() > 5 ? Integer.MAX_VALUE : Integer.parseInt(numeros[i]);
+			if(numero < 1 || numero > max) return "El numero " + numeros[i] + " del nivel " + (i + 1) + " debe estar entre 1 y " + max;
+		}
+		if(CuentaBase.calcularOrden(fila.codigo).length() > MAX_CODIGO) return "El codigo tiene demasiados niveles";
+
+		if(fila.descripcion.isEmpty()) return "No tiene descripcion";
+		if(fila.descripcion.length() > MAX_DESCRIPCION) return "La descripcion supera los " + MAX_DESCRIPCION + " caracteres";
+		if(fila.alias != null && fila.alias.length() > MAX_ALIAS) return "El alias supera los " + MAX_ALIAS + " caracteres";
+		if(fila.moneda != null) {
+			Moneda moneda = monedas.get(fila.moneda.toUpperCase());
+			if(moneda == null) return "No existe la moneda " + fila.moneda;
+			if(fila.ajustable && !moneda.isAjustable()) return "La cuenta no puede ser ajustable porque su moneda no lo es";
+		}
+
+		return null;
+	}
+
+	/** Valida que el padre exista (en el archivo o en la base) y sea una categoria. Devuelve el error o null si es valido */
+	private String validarPadre(Item item, Map<String, Item> porCodigo, PlanCuentas plan) {
+		if(item.padreCodigo == null) return null;
+
+		Item padre = porCodigo.get(item.padreCodigo);
+		if(padre != null) {
+			return padre.isImputable() ? "Su padre " + item.padreCodigo + " es una cuenta y no una categoria" : null;
+		}
+
+		Optional<Nodo> existente = plan.getNodo(item.padreCodigo);
+		if(existente.isEmpty()) return "No existe la categoria padre " + item.padreCodigo;
+		return existente.get().isImputable() ? "Su padre " + item.padreCodigo + " es una cuenta y no una categoria" : null;
+	}
+
+	private void agregarExistente(String padreCodigo, Nodo nodo, Set<String> descripciones, Set<String> aliases) {
+		descripciones.add(claveDescripcion(padreCodigo, nodo.getDescripcion()));
+		if(nodo.getAlias() != null) aliases.add(nodo.getAlias());
+	}
+
+	private static String claveDescripcion(String padreCodigo, String descripcion) {
+		return StringUtils.defaultString(padreCodigo) + "|" + descripcion;
+	}
+
+	/**
+	 * Agrega el error de la fila.
+	 * @return false si se llego al maximo de errores
+	 */
+	private static boolean agregarError(List<String> errores, ImportedFila fila, String error) {
+		errores.add("Linea " + fila.linea + " (" + fila.codigo + "): " + error);
+		return errores.size() < MAX_ERRORES;
+	}
+
+	/**
+	 * Persiste los items nuevos (ordenados), asociando cada uno a su padre.
+	 * <p>Los inserts se agrupan en batches de Hibernate (<code>hibernate.jdbc.batch_size</code>).</p>
+	 */
+	private void persistir(Organizacion org, PlanCuentas plan, List<Item> items, User user, ImportTaskSummary summary) {
+		// Categorias creadas, por codigo (quedan detached al limpiar el contexto, pero alcanza para referenciarlas)
+		Map<String, Categoria> creadas = new HashMap<>();
+
+		// Categorias existentes usadas como padre. Se vacia al limpiar el contexto
+		Map<String, Categoria> existentes = new HashMap<>();
+
+		// Como siempre hay que hacer flush antes de limpiar, que coincida con un batch completo
+		final int itemsPorFlush = Math.max(batchSize, ITEMS_POR_FLUSH / batchSize * batchSize);
+
+		int pendientes = 0;
+		for(Item item : items) {
+			Categoria padre = null;
+			if(item.padreCodigo != null) {
+				padre = creadas.get(item.padreCodigo);
+				if(padre == null) padre = existentes.computeIfAbsent(item.padreCodigo, codigo -> this.buscarCategoria(plan, codigo));
+			}
+
+			CuentaBase entity;
+			if(item.isImputable()) {
+				// Ya validado en validarFila, pero no se debe persistir una cuenta ajustable con moneda no ajustable
+				if(item.fila.ajustable && !item.moneda.isAjustable()) throw new ServerException("La cuenta " + item.fila.codigo + " no puede ser ajustable porque su moneda no lo es");
+				entity = new Cuenta(org, item.numero, item.fila.descripcion, padre, false, item.fila.ajustable, item.moneda);
+				summary.addCuentaImportada();
+			} else {
+				entity = new Categoria(org, item.numero, item.fila.descripcion, padre, false);
+				creadas.put(item.fila.codigo, (Categoria) entity);
+				summary.addCategoriaImportada();
+			}
+			entity.setAlias(item.fila.alias);
+			entity.setCreationUser(user);
+			entity.setUpdateUser(user);
+
+			em.persist(entity);
+
+			if(++pendientes == itemsPorFlush) {
+				em.flush();
+				em.clear();
+				existentes.clear();
+				pendientes = 0;
+			}
+		}
+		em.flush();
+	}
+
+	/** Busca una categoria existente por codigo (ya validado) */
+	private Categoria buscarCategoria(PlanCuentas plan, String codigo) {
+		Nodo nodo = plan.getNodo(codigo).orElseThrow(() -> new ServerException("No se encontro la categoria " + codigo));
+		return em.find(Categoria.class, nodo.getId());
+	}
+}
@@ -0,0 +1,97 @@
+package com.mmoscovich.webcontab.importer.plan;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.mmoscovich.webcontab.exception.InvalidRequestException;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Lector de un plan de cuentas en formato planilla (una fila por categoria o cuenta).
+ * <p>
+ * Las columnas son las mismas que genera la exportacion del plan ({@link com.mmoscovich.webcontab.exporter.ExcelPlanDeCuentasExporter}),
+ * por lo que un plan exportado se puede volver a importar:
+ * <ol>
+ * <li>Codigo (ej: 1.2.3)</li>
+ * <li>Descripcion</li>
+ * <li>Nivel (se ignora, se calcula a partir del codigo)</li>
+ * <li>Moneda (codigo). Si tiene, es una cuenta imputable. Sino, una categoria</li>
+ * <li>Alias (opcional)</li>
+ * <li>Ajustable (opcional, S/N)</li>
+ * </ol>
+ * </p>
+ * <p>Las filas cuyo codigo no empieza con un digito (titulo, encabezado, vacias) se ignoran.</p>
+ * <p>Los lectores recorren el archivo sin cargarlo entero en memoria y entregan las filas de a una.</p>
+ */
+public abstract class PlanReader {
+
+	/**
+	 * Fila del plan leida del archivo (sin validar)
+	 */
+	@AllArgsConstructor
+	public static class ImportedFila {
+		/** Numero de linea o fila en el archivo (desde 1) */
+		public int linea;
+		public String codigo;
+		public String descripcion;
+		public String moneda;
+		public String alias;
+		public boolean ajustable;
+	}
+
+	/**
+	 * Lee todas las filas del archivo.
+	 * @param file archivo
+	 * @param consumer recibe cada fila con datos
+	 * @throws IOException si no se puede leer el archivo
+	 */
+	public abstract void leer(Path file, Consumer<ImportedFila> consumer) throws IOException;
+
+	/**
+	 * Obtiene el lector segun la extension del archivo.
+	 * @param fileName nombre del archivo
+	 * @return el lector
+	 * @throws InvalidRequestException si el formato no es soportado
+	 */
+	public static PlanReader getReader(String fileName) throws InvalidRequestException {
+		String ext = FilenameUtils.getExtension(fileName).toLowerCase();
+		if(ext.equals("csv") || ext.equals("txt")) return new CsvPlanReader();
+		if(ext.equals("xlsx")) return new XlsxPlanReader();
+		throw new InvalidRequestException("Solo se pueden importar planes de cuentas en formato CSV o XLSX");
+	}
+
+	/**
+	 * Crea la fila a partir de los valores de sus celdas.
+	 * @param linea numero de linea o fila
+	 * @param celdas valores de las celdas, por columna (puede tener menos columnas que las esperadas)
+	 * @return la fila o null si no es una categoria o cuenta
+	 */
+	protected ImportedFila crearFila(int linea, List<String> celdas) {
+		String codigo = StringUtils.trimToEmpty(celda(celdas, 0));
+		if(codigo.isEmpty() || !Character.isDigit(codigo.charAt(0))) return null;
+
+		// La descripcion exportada esta indentada segun el nivel
+		return new ImportedFila(
+				linea,
+				codigo,
+				StringUtils.trimToEmpty(celda(celdas, 1)),
+				StringUtils.trimToNull(celda(celdas, 3)),
+				StringUtils.trimToNull(celda(celdas, 4)),
+				esVerdadero(celda(celdas, 5)));
+	}
+
+	private static String celda(List<String> celdas, int index) {
+		return index < celdas.size() ? celdas.get(index) : null;
+	}
+
+	private static boolean esVerdadero(String valor) {
+		String v = StringUtils.trimToEmpty(valor).toUpperCase();
+		return v.equals("S") || v.equals("SI") || v.equals("X") || v.equals("1") || v.equals("TRUE") || v.equals("VERDADERO");
+	}
+}
@@ -0,0 +1,91 @@
+package com.mmoscovich.webcontab.importer.plan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.poi.ooxml.util.SAXHelper;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Lector de planes de cuentas en Excel (XLSX).
+ * <p>
+ * Lee la primera hoja con la API de eventos (SAX) de POI, por lo que no arma el workbook en memoria
+ * (con el modelo de usuario, un plan de miles de filas ocupa cientos de MB).
+ * </p>
+ */
+public class XlsxPlanReader extends PlanReader {
+
+	@Override
+	public void leer(Path file, Consumer<ImportedFila> consumer) throws IOException {
+		try(OPCPackage pkg = OPCPackage.open(file.toFile(), PackageAccess.READ)) {
+			XSSFReader reader = new XSSFReader(pkg);
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+			StylesTable styles = reader.getStylesTable();
+
+			Iterator<InputStream> sheets = reader.getSheetsData();
+			if(!sheets.hasNext()) return;
+
+			try(InputStream sheet = sheets.next()) {
+				XMLReader parser = SAXHelper.newXMLReader();
+				parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings, new FilaHandler(consumer), new DataFormatter(), false));
+				parser.parse(new InputSource(sheet));
+			}
+		} catch(IOException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new IOException("No se pudo leer el archivo Excel", e);
+		}
+	}
+
+	/**
+	 * Arma cada fila con las celdas que se reciben (las vacias no se informan)
+	 */
+	private class FilaHandler implements SheetContentsHandler {
+		private final Consumer<ImportedFila> consumer;
+		private final List<String> celdas = new ArrayList<>();
+
+		FilaHandler(Consumer<ImportedFila> consumer) {
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void startRow(int rowNum) {
+			celdas.clear();
+		}
+
+		@Override
+		public void endRow(int rowNum) {
+			ImportedFila fila = crearFila(rowNum + 1, celdas);
+			if(fila != null) consumer.accept(fila);
+		}
+
+		@Override
+		public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+			// Si la celda no tiene referencia, se asume que es la siguiente
+			int col = cellReference == null ? celdas.size() : new CellReference(cellReference).getCol();
+			while(celdas.size() <= col) celdas.add(null);
+			celdas.set(col, formattedValue);
+		}
+
+		@Override
+		public void headerFooter(String text, boolean isHeader, String tagName) {
+			// No se usan
+		}
+	}
+}
@@ -5,7 +5,6 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +33,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.mmoscovich.webcontab.exception.EjercicioFechaInvalidaException;
 import com.mmoscovich.webcontab.exception.InvalidRequestException;
+import com.mmoscovich.webcontab.util.SaldosPorMoneda;
 import com.mmoscovich.webcontab.util.ValidationUtils;
 
 import lombok.Data;
@@ -136,9 +136,8 @@ public class Asiento extends PersistentEntity {
 	 * @throws InvalidRequestException
 	 */
 	public void validarSaldo() throws InvalidRequestException {
-		Map<Long, BigDecimal> saldos = this.getSaldos();
 		// Si cualquier saldo no es cero, debe fallar
-		if(saldos.entrySet().stream().anyMatch(e -> e.getValue().signum() != 0)) throw new InvalidRequestException("El saldo del asiento debe ser cero");
+		if(!this.calcularSaldos().todosEnCero()) throw new InvalidRequestException("El saldo del asiento debe ser cero");
 	}
 	
 	/**
@@ -147,13 +146,18 @@ public class Asiento extends PersistentEntity {
 	 */
 	@Transient
 	public Map<Long, BigDecimal> getSaldos() {
-		Map<Long, BigDecimal> saldos = new HashMap<>();
+		return this.calcularSaldos().toMap();
+	}
+	
+	/**
+	 * Calcula los saldos para cada moneda involucrada, acumulandolos en centavos.
+	 * @return los saldos por moneda
+	 * @throws InvalidRequestException si algun importe tiene mas de 2 decimales
+	 */
+	public SaldosPorMoneda calcularSaldos() throws InvalidRequestException {
+		SaldosPorMoneda saldos = new SaldosPorMoneda();
 		for(Imputacion i : this.imputaciones) {
-			Long monedaId = i.getCuenta().getMoneda().getId();
-			BigDecimal importe = i.getImporte();
-			
-			// Si ya habia saldo para esa moneda, se suma. Si no, se considera que era cero.
-			saldos.compute(monedaId, (k,v) -> (v == null) ? importe : v.add(importe));
+			saldos.sumar(i.getCuenta().getMoneda().getId(), i.getImporte());
 		}
 		return saldos;
 	}
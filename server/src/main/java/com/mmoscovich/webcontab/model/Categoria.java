@@ -6,6 +6,7 @@ import javax.persistence.Entity;
 import javax.validation.constraints.NotNull;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.mmoscovich.webcontab.dto.CierreEjercicioDTO;
 import com.mmoscovich.webcontab.services.AsientoService;
 
 import lombok.Data;
@@ -27,7 +28,7 @@ public class Categoria extends CuentaBase {
 	
 	/**
 	 * Indica que es una categoria con cuentas de resultado.
-	 * <br>Se usa para el asiento de Refundicion de cuentas de resultados ({@link AsientoService#crearRefundicion(Ejercicio, Short)}).
+	 * <br>Se usa para el asiento de Refundicion de cuentas de resultados ({@link AsientoService#crearRefundicion(Ejercicio, CierreEjercicioDTO, Short)}).
 	 */
 	@NotNull
 	private Boolean resultado = false;
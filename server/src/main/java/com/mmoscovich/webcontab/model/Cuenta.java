@@ -7,6 +7,7 @@ import javax.persistence.FetchType;
 import javax.persistence.ManyToOne;
 import javax.validation.constraints.NotNull;
 
+import com.mmoscovich.webcontab.dto.CierreEjercicioDTO;
 import com.mmoscovich.webcontab.services.AsientoService;
 import com.mmoscovich.webcontab.util.CreateValidation;
 
@@ -49,8 +50,8 @@ public class Cuenta extends CuentaBase {
 	
 	/**
 	 * Indica que es la cuenta que balancea los resultados para esta moneda.
-	 * <br>Se usa para el asiento de Refundicion de cuentas de resultados ({@link AsientoService#crearRefundicion(Ejercicio, Short)})
-	 * y en el asiento de cierre ({@link AsientoService#crearCierre(Ejercicio, Short)}).
+	 * <br>Se usa para el asiento de Refundicion de cuentas de resultados ({@link AsientoService#crearRefundicion(Ejercicio, CierreEjercicioDTO, Short)})
+	 * y en el asiento de cierre ({@link AsientoService#crearCierre(Ejercicio, CierreEjercicioDTO, Short)}).
 	 */
 	@NotNull
 	private Boolean balanceaResultados = false;
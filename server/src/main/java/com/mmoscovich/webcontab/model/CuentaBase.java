@@ -115,10 +115,17 @@ public abstract class CuentaBase extends PersistentEntity {
     	if(StringUtils.isEmpty(this.codigo)) return;
     	
     	// Calcula el orden a partir del codigo
-    	// Hace pad de ceros. Los primeros 2 niveles usan 2 digitos, los demas 4
-    	String[] parts = this.codigo.split("\\.");
+    	this.orden = calcularOrden(this.codigo);
+    }
+    
+    /**
+     * Calcula el orden jerarquico a partir de un codigo.
+     * <p>Hace pad de ceros. Los primeros 2 niveles usan 2 digitos, los demas 4</p>
+     */
+    public static String calcularOrden(String codigo) {
+    	String[] parts = codigo.split("\\.");
     	
-    	this.orden = IntStream.range(0, parts.length)
+    	return IntStream.range(0, parts.length)
     		.mapToObj(i -> StringUtils.leftPad(parts[i], (i < 2) ? 2 : 4, "0"))
     		.collect(Collectors.joining("/"));
     }
@@ -11,6 +11,8 @@ import javax.validation.constraints.NotNull;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import com.mmoscovich.webcontab.exception.EjercicioFechaInvalidaException;
 import com.mmoscovich.webcontab.exception.EjercicioFinalizadoException;
 import com.mmoscovich.webcontab.exception.InvalidRequestException;
@@ -62,6 +64,19 @@ public class Ejercicio extends PersistentEntity {
 	/** Id del asiento de ajuste por inflacion */
 	private Long asientoAjusteId;
 	
+	/** 
+	 * Indica si el ejercicio esta archivado.
+	 * <p>Sus asientos e imputaciones se movieron a la tabla de archivo. Es de solo lectura.</p>
+	 */
+	private boolean archivado;
+	
+	/** 
+	 * Indica que el ejercicio se esta eliminando (en background).
+	 * <p>Un ejercicio eliminado ya no es visible ni se puede usar, aunque todavia tenga asientos.</p>
+	 */
+	@JsonIgnore
+	private boolean eliminado;
+	
 	public Ejercicio(Organizacion organizacion, LocalDate inicio, LocalDate finalizacion) {
 		this.organizacion = organizacion;
 		this.inicio = inicio;
@@ -1,6 +1,10 @@
 package com.mmoscovich.webcontab.resources;
 
+import java.math.BigDecimal;
 import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -8,7 +12,9 @@ import javax.inject.Inject;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.BeanParam;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
@@ -16,9 +22,11 @@ import javax.ws.rs.core.MediaType;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 
 import com.mmoscovich.webcontab.dao.InflacionRepository;
 import com.mmoscovich.webcontab.dao.MonedaRepository;
+import com.mmoscovich.webcontab.dto.InflacionLoteDTO;
 import com.mmoscovich.webcontab.dto.Periodo;
 import com.mmoscovich.webcontab.dto.PeriodoMensual;
 import com.mmoscovich.webcontab.exception.EntityNotFoundException;
@@ -26,6 +34,8 @@ import com.mmoscovich.webcontab.exception.InvalidRequestException;
 import com.mmoscovich.webcontab.model.Ejercicio;
 import com.mmoscovich.webcontab.model.InflacionMes;
 import com.mmoscovich.webcontab.model.Moneda;
+import com.mmoscovich.webcontab.services.InflacionService;
+import com.mmoscovich.webcontab.services.MonedaService;
 import com.mmoscovich.webcontab.services.SessionService;
 
 import lombok.Data;
@@ -40,6 +50,9 @@ import lombok.EqualsAndHashCode;
 @Produces(MediaType.APPLICATION_JSON)
 public class InflacionResource extends SimpleResource<InflacionMes, InflacionMes> {
 
+	/** Formato alternativo de mes en CSV (ademas de yyyy-MM) */
+	private static final DateTimeFormatter FORMATO_MES_CSV = DateTimeFormatter.ofPattern("MM/yyyy");
+
 	@Inject
 	private InflacionRepository dao;
 	
@@ -49,6 +62,12 @@ public class InflacionResource extends SimpleResource<InflacionMes, InflacionMes
 	@Inject
 	private MonedaRepository monedaDao;
 	
+	@Inject
+	private InflacionService inflacionService;
+	
+	@Inject
+	private MonedaService monedaService;
+	
 	/**
      * Busca los indices de inflacion dentro del periodo especificado.
      * 
@@ -69,6 +88,90 @@ public class InflacionResource extends SimpleResource<InflacionMes, InflacionMes
     	return dao.findByMonedaAndPeriodo(moneda, periodo.getDesde().atDay(1), periodo.getHasta().atEndOfMonth());
     }
     
+    /**
+     * Crea o actualiza los indices de una moneda en una sola operacion.
+     * <p>Los meses que ya tienen indice se actualizan, el resto se crean.</p>
+     * 
+     * @param monedaId id de la moneda (ajustable)
+     * @param items indices (solo se usan mes e indice)
+     * @return la cantidad de indices creados, actualizados y sin cambios
+     * @throws InvalidRequestException si no se encuentra la moneda, no es ajustable o los indices son invalidos
+     */
+    @POST
+    @Path("lote")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public InflacionLoteDTO cargarLote(@NotNull @QueryParam("moneda") Long monedaId, @NotNull @Valid List<InflacionMes> items) throws InvalidRequestException {
+    	return inflacionService.guardar(this.getMonedaOrThrow(monedaId), items);
+    }
+    
+    /**
+     * Crea o actualiza los indices de una moneda a partir de un CSV.
+     * <p>Cada linea tiene el mes (<code>yyyy-MM</code> o <code>MM/yyyy</code>) y el indice, separados por coma, punto y coma o tab.
+     * <br>Si el separador no es coma, el indice puede usar coma decimal. Se ignoran las lineas vacias y un encabezado opcional.</p>
+     * 
+     * @param monedaId id de la moneda (ajustable)
+     * @param csv contenido del CSV
+     * @return la cantidad de indices creados, actualizados y sin cambios
+     * @throws InvalidRequestException si no se encuentra la moneda, no es ajustable o alguna linea es invalida
+     */
+    @POST
+    @Path("lote")
+    @Consumes({"text/csv", MediaType.TEXT_PLAIN})
+    public InflacionLoteDTO cargarLoteCsv(@NotNull @QueryParam("moneda") Long monedaId, String csv) throws InvalidRequestException {
+    	Moneda moneda = this.getMonedaOrThrow(monedaId);
+    	return inflacionService.guardar(moneda, this.parseCsv(csv));
+    }
+    
+    /**
+     * Convierte cada linea del CSV en un indice (sin moneda).
+     * @throws InvalidRequestException si alguna linea no tiene el formato esperado
+     */
+    private List<InflacionMes> parseCsv(String csv) throws InvalidRequestException {
+    	List<InflacionMes> result = new ArrayList<>();
+    	if(StringUtils.isEmpty(csv)) return result;
+    	
+    	String[] lineas = csv.split("\\r?\\n");
+    	boolean primera = true;
+    	for(int i = 0; i < lineas.length; i++) {
+    		String linea = lineas[i].trim();
+    		if(linea.isEmpty()) continue;
+    		
+    		final boolean encabezadoPosible = primera;
+    		primera = false;
+    		
+    		// Si hay punto y coma o tab, la coma puede ser decimal
+    		String separador = linea.contains(";") ? ";" : (linea.contains("\t") ? "\t" : ",");
+    		String[] campos = linea.split(separador);
+    		
+    		YearMonth mes = parseMes(campos[0].trim());
+    		if(mes == null) {
+    			// La primera linea puede ser el encabezado
+    			if(encabezadoPosible) continue;
+    			throw new InvalidRequestException("Mes invalido en la linea " + (i + 1) + ": " + campos[0]);
+    		}
+    		if(campos.length != 2) throw new InvalidRequestException("La linea " + (i + 1) + " debe tener mes e indice");
+    		
+    		InflacionMes item = new InflacionMes();
+    		item.setYearMonth(mes);
+    		try {
+    			item.setIndice(new BigDecimal(campos[1].trim().replace(',', '.')));
+    		} catch(NumberFormatException e) {
+    			throw new InvalidRequestException("Indice invalido en la linea " + (i + 1) + ": " + campos[1]);
+    		}
+    		result.add(item);
+    	}
+    	return result;
+    }
+    
+    /** Interpreta el mes en formato yyyy-MM o MM/yyyy. Devuelve null si no es valido */
+    private static YearMonth parseMes(String value) {
+    	try {
+    		return value.contains("/") ? YearMonth.parse(value, FORMATO_MES_CSV) : YearMonth.parse(value);
+    	} catch(DateTimeParseException e) {
+    		return null;
+    	}
+    }
+    
     /**
      * Obtiene la instancia persistida de la moneda, ya sea usando el id indicado o, si es null,
      * buscando la moneda default.
@@ -86,7 +189,7 @@ public class InflacionResource extends SimpleResource<InflacionMes, InflacionMes
     		result = monedaDao.findById(monedaId);
     	} else {
     		// Si no, se busca la default
-    		result = monedaDao.findAll().stream().filter(Moneda::isDefault).findFirst(); 
+    		result = monedaService.getDefault();
     	}
 
     	// Si no se encontro, lanzar error
@@ -143,6 +246,7 @@ public class InflacionResource extends SimpleResource<InflacionMes, InflacionMes
     		if(modified.getIndice().signum() <= 0) throw new InvalidRequestException("El indice debe ser un numero mayor a cero");
     		
     		existing.setIndice(modified.getIndice());
+    		inflacionService.invalidar();
     	}
 	}
 	
@@ -156,10 +260,12 @@ public class InflacionResource extends SimpleResource<InflacionMes, InflacionMes
 		
 		// Se asocia a la moneda persistida o lanza error si no existe
 		entity.setMoneda(this.getMonedaOrThrow(entity.getMoneda().getId()));
+		inflacionService.invalidar();
 	}
 
 	@Override
 	protected void beforeDelete(InflacionMes entity) {
+		inflacionService.invalidar();
 	}
 
 	@Override
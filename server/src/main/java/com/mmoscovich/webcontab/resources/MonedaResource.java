@@ -3,6 +3,7 @@ package com.mmoscovich.webcontab.resources;
 import java.util.List;
 
 import javax.inject.Inject;
+import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
@@ -15,6 +16,8 @@ import com.mmoscovich.webcontab.dao.InflacionRepository;
 import com.mmoscovich.webcontab.dao.MonedaRepository;
 import com.mmoscovich.webcontab.model.Moneda;
 import com.mmoscovich.webcontab.services.CuentaService;
+import com.mmoscovich.webcontab.services.InflacionService;
+import com.mmoscovich.webcontab.services.MonedaService;
 
 /**
  * Resource para ABM de monedas
@@ -33,6 +36,12 @@ public class MonedaResource extends ListableSimpleResource<Moneda, Moneda> {
 	
 	@Inject
 	private InflacionRepository inflacionDao;
+	
+	@Inject
+	private InflacionService inflacionService;
+	
+	@Inject
+	private MonedaService monedaService;
 
 	@Override
 	protected JpaRepository<Moneda, Long> getRepo() {
@@ -44,8 +53,19 @@ public class MonedaResource extends ListableSimpleResource<Moneda, Moneda> {
 		return Moneda.class;
 	}
 
+	/**
+	 * Obtiene todas las monedas (de la cache)
+	 */
+	@Override
+	@GET
+	public List<Moneda> list() {
+		return monedaService.getMonedas();
+	}
+
 	@Override
 	protected void updateItem(Moneda existing, Moneda modified) {
+		monedaService.invalidar();
+		
 		// Si se modifico el nombre, codigo o simbolo, actualizarlo
 		if(!StringUtils.isEmpty(modified.getNombre())) existing.setNombre(modified.getNombre());
 		if(!StringUtils.isEmpty(modified.getCodigo())) existing.setCodigo(modified.getCodigo());
@@ -67,6 +87,7 @@ public class MonedaResource extends ListableSimpleResource<Moneda, Moneda> {
 			if(!modified.isAjustable()) {
 				cuentaService.desactivarCuentasAjustablesYBalanceadora(existing);
 				inflacionDao.deleteByMoneda(existing);
+				inflacionService.invalidar();
 			}
 			
 			existing.setAjustable(modified.isAjustable());
@@ -79,6 +100,8 @@ public class MonedaResource extends ListableSimpleResource<Moneda, Moneda> {
 
 	@Override
 	protected void beforeCreate(Moneda entity) {
+		monedaService.invalidar();
+		
 		// Si se esta creando uno default, se quita el anterior
 		if(entity.isDefault()) {
 			dao.removeDefault();
@@ -87,6 +110,7 @@ public class MonedaResource extends ListableSimpleResource<Moneda, Moneda> {
 
 	@Override
 	protected void beforeDelete(Moneda entity) {
+		monedaService.invalidar();
 	}
 
 	@Override
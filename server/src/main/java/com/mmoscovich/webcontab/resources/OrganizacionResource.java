@@ -1,6 +1,7 @@
 package com.mmoscovich.webcontab.resources;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.validation.Valid;
@@ -13,6 +14,7 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -97,6 +99,28 @@ public class OrganizacionResource extends SimpleResource<Organizacion, Organizac
 		return ejercicioService.crearSiguiente(this.getByIdOrThrow(orgId), payload, payload.isCerrarUltimo());
 	}
 	
+	/**
+	 * Copia el plan de cuentas de otra organizacion a esta (que no debe tener plan).
+	 * @param orgId id de la organizacion destino
+	 * @param origenId id de la organizacion cuyo plan se copia (debe ser miembro, salvo que sea admin)
+	 * @return cantidad de categorias y cuentas copiadas
+	 * @throws EntityNotFoundException si alguna organizacion no existe o no tiene acceso
+	 */
+	@POST
+	@Path("{id}/plan")
+	public Map<String, Integer> clonarPlan(@PathParam("id") @NotNull @Min(1) Long orgId, @QueryParam("origen") @NotNull @Min(1) Long origenId) throws EntityNotFoundException {
+		Organizacion destino = this.getByIdOrThrow(orgId);
+		
+		Organizacion origen = orgDao.findById(origenId).orElseThrow(() -> new EntityNotFoundException(Organizacion.class, origenId));
+		
+		// Si no es admin, solo puede copiar de las organizaciones de las que es miembro
+		if(!session.isAdmin() && orgDao.findByUser(session.getUserOrThrow()).stream().noneMatch(o -> o.getId().equals(origenId))) {
+			throw new EntityNotFoundException(Organizacion.class, origenId);
+		}
+		
+		return Map.of("cantidad", catService.clonarPlan(destino, origen, session.getUserOrThrow()));
+	}
+	
 	/**
 	 * Obtiene los usuarios de una organizacion con sus roles
 	 * @param orgId
@@ -178,8 +202,8 @@ public class OrganizacionResource extends SimpleResource<Organizacion, Organizac
 
 	@Override
 	protected void beforeDelete(Organizacion org) {
-		List<Ejercicio> ejercicios = ejercicioService.findByOrganizacion(org);
-		if(!ejercicios.isEmpty()) throw new ConflictException("No puede eliminarse una organizacion con ejercicios");
+		// Se incluyen los ejercicios que se estan eliminando
+		if(ejercicioService.tieneEjercicios(org)) throw new ConflictException("No puede eliminarse una organizacion con ejercicios");
 		
 		// Elimina todas las cuentas
 		cuentaService.eliminarTodas(org);
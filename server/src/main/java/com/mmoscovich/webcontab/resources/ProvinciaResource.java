@@ -14,6 +14,7 @@ import org.springframework.util.StringUtils;
 
 import com.mmoscovich.webcontab.dao.ProvinciaRepository;
 import com.mmoscovich.webcontab.model.Provincia;
+import com.mmoscovich.webcontab.services.ProvinciaService;
 
 // TODO Se usara?
 @Component
@@ -24,9 +25,12 @@ public class ProvinciaResource extends SimpleResource<Provincia, Provincia> {
 	@Inject
 	private ProvinciaRepository dao;
 	
+	@Inject
+	private ProvinciaService provinciaService;
+	
     @GET
     public List<Provincia> list() {
-        return dao.findAll();
+        return provinciaService.getProvincias();
     }
     
 
@@ -43,6 +47,7 @@ public class ProvinciaResource extends SimpleResource<Provincia, Provincia> {
 
 	@Override
 	protected void updateItem(Provincia existing, Provincia modified) {
+		provinciaService.invalidar();
 		if(!StringUtils.isEmpty(modified.getNombre())) existing.setNombre(modified.getNombre());
     	if(modified.getPercepcion() != null) existing.setPercepcion(modified.getPercepcion());
 	}
@@ -53,10 +58,12 @@ public class ProvinciaResource extends SimpleResource<Provincia, Provincia> {
 
 	@Override
 	protected void beforeCreate(Provincia entity) {
+		provinciaService.invalidar();
 	}
 
 	@Override
 	protected void beforeDelete(Provincia entity) {
+		provinciaService.invalidar();
 	}
 
 	@Override
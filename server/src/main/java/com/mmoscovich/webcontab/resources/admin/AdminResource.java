@@ -6,7 +6,9 @@ import java.util.List;
 import java.util.Map;
 
 import javax.inject.Inject;
+import javax.validation.Valid;
 import javax.validation.constraints.Positive;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
@@ -19,10 +21,21 @@ import javax.ws.rs.core.Response;
 
 import org.springframework.stereotype.Component;
 
+import com.mmoscovich.webcontab.dto.CierreMasivoDTO;
+import com.mmoscovich.webcontab.dto.CierreOrganizacionDTO;
+import com.mmoscovich.webcontab.services.CacheRegionService;
+import com.mmoscovich.webcontab.services.CacheRegionService.EstadisticasRegion;
+import com.mmoscovich.webcontab.services.CierreMasivoService;
+import com.mmoscovich.webcontab.services.CierreSnapshotService;
 import com.mmoscovich.webcontab.services.DBService;
 import com.mmoscovich.webcontab.services.DBService.BackupItem;
 import com.mmoscovich.webcontab.services.DBService.BackupType;
+import com.mmoscovich.webcontab.services.EjercicioLockService;
+import com.mmoscovich.webcontab.services.EjercicioLockService.EstadisticasLock;
+import com.mmoscovich.webcontab.services.EjercicioLockService.TipoLock;
+import com.mmoscovich.webcontab.services.LibroColumnarService;
 import com.mmoscovich.webcontab.services.LogReader;
+import com.mmoscovich.webcontab.services.PrecargaService;
 import com.mmoscovich.webcontab.updater.SemVersion;
 import com.mmoscovich.webcontab.updater.UpdateService;
 import com.mmoscovich.webcontab.updater.Updater.UpdateStatus;
@@ -45,6 +58,24 @@ public class AdminResource {
 	@Inject
 	private LogReader logReader;
 	
+	@Inject
+	private EjercicioLockService ejercicioLock;
+	
+	@Inject
+	private CierreSnapshotService cierreSnapshots;
+	
+	@Inject
+	private CierreMasivoService cierreMasivoService;
+	
+	@Inject
+	private LibroColumnarService libroService;
+	
+	@Inject
+	private PrecargaService precargaService;
+	
+	@Inject
+	private CacheRegionService cacheRegionService;
+	
 	/*************************************
 	 * 			  DB BACKUP
 	 *************************************/
@@ -169,4 +200,98 @@ public class AdminResource {
 	public String getLog(@QueryParam("n") @NotNull @Positive int numLines) throws IOException {
 		return logReader.read(numLines);
 	}
+	
+	/***********************************
+	 * LOCKS
+	 ***********************************/
+	
+	/**
+	 * Obtiene las estadisticas de espera de los locks de ejercicio (compartido y exclusivo).
+	 */
+	@GET
+	@Path("locks")
+	public Map<TipoLock, EstadisticasLock> getLockStats() {
+		return ejercicioLock.getEstadisticas();
+	}
+	
+	/***********************************
+	 * CIERRE MASIVO
+	 ***********************************/
+	
+	/**
+	 * Cierra ejercicios de varias organizaciones en paralelo.
+	 * <p>Cada ejercicio se cierra en su propia transaccion. Si alguno falla, se informa en su resultado y los demas continuan.</p>
+	 * @param items organizacion y ejercicio a cerrar
+	 * @return el resultado y la duracion de cada cierre, y los totales
+	 */
+	@POST
+	@Path("ejercicios/cierre")
+	@Consumes(MediaType.APPLICATION_JSON)
+	public CierreMasivoDTO cerrarEjercicios(@Valid List<CierreOrganizacionDTO> items) {
+		return cierreMasivoService.cerrar(items);
+	}
+	
+	/***********************************
+	 * SNAPSHOTS DE CIERRE
+	 ***********************************/
+	
+	/**
+	 * Obtiene la cantidad de aciertos y consultas de la cache de saldos de cierre.
+	 */
+	@GET
+	@Path("cierres")
+	public Map<String, Long> getCierreSnapshotStats() {
+		return Map.of("hits", cierreSnapshots.getHits(), "misses", cierreSnapshots.getMisses());
+	}
+	
+	/***********************************
+	 * LIBROS EN MEMORIA
+	 ***********************************/
+	
+	/**
+	 * Obtiene el uso de memoria y la cantidad de aciertos, cargas y desalojos de los libros en memoria de los ejercicios.
+	 */
+	@GET
+	@Path("libros")
+	public Map<String, Long> getLibroStats() {
+		return libroService.getEstadisticas();
+	}
+	
+	/***********************************
+	 * PRECARGA DE CACHES
+	 ***********************************/
+	
+	/**
+	 * Obtiene la cantidad de precargas de organizaciones y ejercicios realizadas y cuantas encontraron las caches vacias.
+	 */
+	@GET
+	@Path("precarga")
+	public Map<String, Long> getPrecargaStats() {
+		return precargaService.getEstadisticas();
+	}
+	
+	/***********************************
+	 * CACHE DE SEGUNDO NIVEL
+	 ***********************************/
+	
+	/**
+	 * Obtiene el tamanio y las estadisticas (aciertos, fallos y desalojos) de cada region de la cache.
+	 */
+	@GET
+	@Path("caches")
+	public List<EstadisticasRegion> getCacheStats() {
+		return cacheRegionService.getRegiones();
+	}
+	
+	/**
+	 * Cambia el tamanio en memoria de una region de la cache (hasta que se reinicie la aplicacion).
+	 * @param region nombre de la region
+	 * @param heapMb nuevo tamanio en MB
+	 * @return la region con el nuevo tamanio
+	 */
+	@PUT
+	@Path("caches/{region}")
+	public EstadisticasRegion resizeCache(@PathParam("region") String region, @QueryParam("heapMb") @NotNull @Positive long heapMb) {
+		return cacheRegionService.redimensionar(region, heapMb);
+	}
 }
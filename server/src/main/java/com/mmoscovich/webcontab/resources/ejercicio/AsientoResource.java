@@ -1,6 +1,8 @@
 package com.mmoscovich.webcontab.resources.ejercicio;
 
 import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
 
 import javax.inject.Inject;
 import javax.validation.Valid;
@@ -22,6 +24,8 @@ import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Component;
 
 import com.mmoscovich.webcontab.dto.AsientoFilter;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO.Campo;
 import com.mmoscovich.webcontab.dto.PageDTO;
 import com.mmoscovich.webcontab.dto.PageReq;
 import com.mmoscovich.webcontab.exception.EjercicioFechaInvalidaException;
@@ -33,6 +37,7 @@ import com.mmoscovich.webcontab.model.Asiento;
 import com.mmoscovich.webcontab.model.Ejercicio;
 import com.mmoscovich.webcontab.services.AsientoService;
 import com.mmoscovich.webcontab.services.SessionService;
+import com.mmoscovich.webcontab.util.CollectionUtils;
 
 /**
  * Resource de Asientos
@@ -73,6 +78,27 @@ public class AsientoResource {
 		return PageDTO.adapt(asientos);
 	}
 
+	/**
+	 * Devuelve una pagina de asientos del ejercicio actual para la grilla, permite aplicar filtros.
+	 * <p>Es una version liviana de {@link #list}: no incluye datos de auditoria, las imputaciones traen codigo
+	 * y descripcion de la cuenta y se pueden pedir solo algunos campos.</p>
+	 * 
+	 * @param campos campos a incluir separados por coma (numero, fecha, detalle, imputaciones). Si no se envia, se incluyen todos.
+	 * @param filtro filtro para limitar los asientos devueltos.
+	 * @param page datos de paginacion
+	 * @return
+	 * @throws InvalidRequestException si algun campo no es valido
+	 */
+	@GET
+	@Path("resumen")
+	public PageDTO<AsientoResumenDTO> listResumen(
+			@QueryParam("fields") String campos,
+			@BeanParam AsientoFilter filtro,
+			@Valid @BeanParam PageReq page) throws InvalidRequestException {
+		
+		return PageDTO.adapt(asientoService.findResumen(session.getEjercicioOrThrow(), filtro, Campo.parse(campos), page.toPageable()));
+	}
+
 	/** 
 	 * Crea un nuevo asiento.
 	 * @param asiento
@@ -128,6 +154,24 @@ public class AsientoResource {
 		asientoService.eliminar(session.getEjercicioOrThrow(), id);
 	}
 
+	/**
+	 * Elimina multiples asientos en una sola operacion.
+	 * <p>Si alguno no se puede eliminar, no se elimina ninguno.</p>
+	 * @param ids ids de los asientos separados por coma
+	 * @throws InvalidRequestException si no se enviaron ids o no se pudieron parsear
+	 * @throws EntityNotFoundException si algun asiento no existe
+	 * @throws EjercicioFinalizadoException si el ejercicio esta finalizado (no se puede modificar)
+	 * @throws EjercicioNoSeleccionadoException si no se selecciono un ejercicio
+	 * @throws EjercicioFechaInvalidaException si algun asiento esta dentro de los confirmados (no se puede modificar)
+	 */
+	@DELETE
+	public void eliminarVarios(@QueryParam("ids") String ids) throws InvalidRequestException, EntityNotFoundException, EjercicioFinalizadoException, EjercicioFechaInvalidaException, EjercicioNoSeleccionadoException {
+		List<Long> idList = CollectionUtils.parseLongList(ids);
+		if(idList == null || idList.isEmpty()) throw new InvalidRequestException("No se especificaron los asientos a eliminar");
+		
+		asientoService.eliminar(session.getEjercicioOrThrow(), new HashSet<>(idList), false);
+	}
+
 	/**
 	 * Actualiza un asiento, incluyendo sus imputaciones
 	 * @param id
@@ -2,7 +2,6 @@ package com.mmoscovich.webcontab.resources.ejercicio;
 
 import java.math.BigDecimal;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -30,11 +29,9 @@ import com.mmoscovich.webcontab.dto.mapper.ImputacionMapper;
 import com.mmoscovich.webcontab.exception.EjercicioNoSeleccionadoException;
 import com.mmoscovich.webcontab.exception.EntityNotFoundException;
 import com.mmoscovich.webcontab.exception.InvalidRequestException;
-import com.mmoscovich.webcontab.model.Categoria;
 import com.mmoscovich.webcontab.model.Cuenta;
 import com.mmoscovich.webcontab.model.Ejercicio;
 import com.mmoscovich.webcontab.model.Organizacion;
-import com.mmoscovich.webcontab.services.CategoriaService;
 import com.mmoscovich.webcontab.services.CuentaService;
 import com.mmoscovich.webcontab.services.ImputacionService.ImputacionesCuenta;
 import com.mmoscovich.webcontab.services.InformeService;
@@ -60,9 +57,6 @@ public class InformeResource {
 	@Inject
 	private SessionService session;
 	
-	@Inject
-	private CategoriaService catService;
-	
 	@Inject
 	private CuentaService cuentaService;
 	
@@ -219,12 +213,8 @@ public class InformeResource {
 		Set<Long> ids = new HashSet<>(); 
 		
 		if(categorias != null) {
-			// Si hay categorias, se buscan
-			List<Categoria> parents = catService.findByIds(org, CollectionUtils.parseLongList(categorias));
-			
-			// Se buscan los ids de las cuentas descendientes de estas categorias
-			List<Cuenta> descendientes = cuentaService.findCuentasDescendientes(org, parents);
-			for(Cuenta c : descendientes) ids.add(c.getId());
+			// Si hay categorias, se buscan los ids de sus cuentas descendientes (en el indice del plan)
+			ids.addAll(cuentaService.findIdsCuentasDescendientes(org, CollectionUtils.parseLongList(categorias)));
 		}
 		
 		// Las cuentas se agregan directamente
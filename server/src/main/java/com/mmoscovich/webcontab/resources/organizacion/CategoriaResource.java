@@ -1,5 +1,8 @@
 package com.mmoscovich.webcontab.resources.organizacion;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Collection;
 import java.util.List;
 
@@ -22,6 +25,8 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
+import org.glassfish.jersey.media.multipart.FormDataParam;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
@@ -30,6 +35,8 @@ import com.mmoscovich.webcontab.dto.mapper.CuentaMapper;
 import com.mmoscovich.webcontab.exception.ConflictException;
 import com.mmoscovich.webcontab.exception.EntityNotFoundException;
 import com.mmoscovich.webcontab.exception.InvalidRequestException;
+import com.mmoscovich.webcontab.importer.ImportTask.ImportTaskSummary;
+import com.mmoscovich.webcontab.importer.plan.PlanImporter;
 import com.mmoscovich.webcontab.model.Categoria;
 import com.mmoscovich.webcontab.model.Organizacion;
 import com.mmoscovich.webcontab.services.CategoriaService;
@@ -52,6 +59,9 @@ public class CategoriaResource {
 	@Inject
 	private SessionService session;
 	
+	@Inject
+	private PlanImporter planImporter;
+	
 	/**
 	 * Obtiene una lista de categorias de una organizacion.
 	 * <p>Permite buscar todas las categorias, solo las raices o hacer una busqueda por descripcion, codigo o alias.</p> 
@@ -62,7 +72,10 @@ public class CategoriaResource {
 	public Collection<CuentaDTO> list(@BeanParam CategoriaQuery params) {
 		Organizacion org = session.getOrganizacionOrThrow();
 
-		if(params.isSearchQuery()) return mapper.toDtoWithPath(service.search(org, params.getSearchText()));
+		if(params.isSearchQuery()) {
+			List<Categoria> categorias = service.search(org, params.getSearchText());
+			return mapper.toDtoWithPath(categorias, service.getPaths(categorias));
+		}
 		
 		return mapper.toDto(params.isRoot() ? service.findRoots(org) : service.list(org));
 	}
@@ -124,6 +137,27 @@ public class CategoriaResource {
 				.build();
     }
     
+    /**
+     * Importa un plan de cuentas (CSV o XLSX) en la organizacion actual.
+     * <p>Las columnas son las mismas que las de la exportacion (ver {@link com.mmoscovich.webcontab.importer.plan.PlanReader}).
+     * Las categorias y cuentas existentes se ignoran.</p>
+     * @param file archivo subido
+     * @param fileInfo info del archivo
+     * @return cantidad de categorias y cuentas leidas e importadas
+     * @throws InvalidRequestException si el archivo no es valido o el plan tiene errores (no se importa nada)
+     * @throws IOException
+     */
+    @POST
+    @Path("importar")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    public ImportTaskSummary importarPlan(@NotNull @FormDataParam("file") File file, @NotNull @FormDataParam("file") FormDataContentDisposition fileInfo) throws InvalidRequestException, IOException {
+    	try {
+    		return planImporter.importar(session.getOrganizacionOrThrow(), file.toPath(), fileInfo.getFileName(), session.getUserOrThrow());
+    	} finally {
+    		Files.deleteIfExists(file.toPath());
+    	}
+    }
+    
     /**
      * Crea una nueva categoria
      * @param categoria
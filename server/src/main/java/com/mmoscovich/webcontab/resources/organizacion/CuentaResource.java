@@ -22,10 +22,13 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
 import com.mmoscovich.webcontab.dto.CuentaDTO;
+import com.mmoscovich.webcontab.dto.CuentaLoteDTO;
+import com.mmoscovich.webcontab.dto.CuentaLoteResultadoDTO;
 import com.mmoscovich.webcontab.dto.PageDTO;
 import com.mmoscovich.webcontab.dto.PageReq;
 import com.mmoscovich.webcontab.dto.mapper.CuentaMapper;
@@ -33,7 +36,9 @@ import com.mmoscovich.webcontab.exception.ConflictException;
 import com.mmoscovich.webcontab.exception.EntityNotFoundException;
 import com.mmoscovich.webcontab.exception.InvalidRequestException;
 import com.mmoscovich.webcontab.model.Cuenta;
+import com.mmoscovich.webcontab.model.CuentaBase;
 import com.mmoscovich.webcontab.model.Organizacion;
+import com.mmoscovich.webcontab.services.CategoriaService;
 import com.mmoscovich.webcontab.services.CuentaService;
 import com.mmoscovich.webcontab.services.SessionService;
 import com.mmoscovich.webcontab.util.CollectionUtils;
@@ -58,11 +63,14 @@ public class CuentaResource {
 	@Inject
 	private CuentaMapper mapper;
 	
+	@Inject
+	private CategoriaService catService;
+	
 	/**
 	 * Provee dos funcionalidades (segun los query param):
 	 * <ul>
 	 * <li>Busca por un texto en el codigo, descripcion o alias (para autocomplete) y devuelve una pagina de cuentas o de cuentas y categorias.</li>
-	 * <li>Busca cuentas por id y devuelve la lista (sin paginar).</li> 
+	 * <li>Busca cuentas por id y devuelve la lista (sin paginar). Con path=true incluye el path de cada una.</li> 
 	 * </ul>
 	 * @param params
 	 * @return page o list, segun el tipo de busqueda
@@ -73,11 +81,15 @@ public class CuentaResource {
     	Organizacion org = session.getOrganizacionOrThrow();
 		
         if(params.isSearchQuery()) {
-        	PageDTO<CuentaDTO> result = mapper.toDtoWithPath(service.search(org, params.getSearchText(), params.isIncludeCategories(), pageParams.toPageable()));
+        	Slice<? extends CuentaBase> page = service.search(org, params.getSearchText(), params.isIncludeCategories(), pageParams.toPageable());
+        	
+        	// Los paths de toda la pagina se obtienen juntos
+        	PageDTO<CuentaDTO> result = mapper.toDtoWithPath(page, catService.getPaths(page.getContent()));
         	return Response.ok(result).build();
         }
         if(params.isFindByIds()) {
-        	List<CuentaDTO> result = mapper.toDto(service.findByIds(org, params.getIds()));
+        	List<Cuenta> cuentas = service.findByIds(org, params.getIds());
+        	List<CuentaDTO> result = params.isIncludePath() ? mapper.toDtoWithPath(cuentas, catService.getPaths(cuentas)) : mapper.toDto(cuentas);
         	return Response.ok(result).build();
         }
         
@@ -130,6 +142,22 @@ public class CuentaResource {
     	return mapper.toDto(service.actualizar(session.getOrganizacionOrThrow(), mapper.toCuentaModel(cuenta)));
     }
     
+    /**
+     * Modifica activa, moneda y/o ajustable de varias cuentas (por ids y/o las descendientes de una categoria).
+     * <p>Las cuentas que no se pueden modificar no impiden modificar el resto.</p>
+     * 
+     * @param lote cuentas y cambios
+     * @return el resultado de cada cuenta
+     * @throws InvalidRequestException si no se indicaron cambios o cuentas
+     * @throws EntityNotFoundException si no existe la categoria o la moneda
+     */
+    @POST
+    @Path("lote")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public CuentaLoteResultadoDTO actualizarLote(@NotNull CuentaLoteDTO lote) throws InvalidRequestException, EntityNotFoundException {
+    	return service.actualizarLote(session.getOrganizacionOrThrow(), lote, session.getUserOrThrow());
+    }
+    
     /**
      * Elimina una cuenta
      */
@@ -157,6 +185,11 @@ public class CuentaResource {
     	@QueryParam("ids") 
     	private String idsString;
     	
+    	/** Indica si incluir el path de cada cuenta al buscar por ids */
+    	@QueryParam("path")
+    	@DefaultValue("false")
+    	private boolean includePath;
+    	
     	/**
     	 * Retorna la lista de ids
     	 */
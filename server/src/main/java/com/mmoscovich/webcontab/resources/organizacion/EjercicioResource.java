@@ -1,11 +1,15 @@
 package com.mmoscovich.webcontab.resources.organizacion;
 
 import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 import javax.inject.Inject;
 import javax.validation.constraints.Min;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -14,15 +18,23 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
+import com.mmoscovich.webcontab.dto.CierreEjercicioDTO;
+import com.mmoscovich.webcontab.dto.EliminacionEjercicioTask;
+import com.mmoscovich.webcontab.dto.RecalculoAperturaTask;
+import com.mmoscovich.webcontab.dto.informes.AjusteInflacionCuenta;
 import com.mmoscovich.webcontab.exception.ConflictException;
 import com.mmoscovich.webcontab.exception.EjercicioFechaInvalidaException;
 import com.mmoscovich.webcontab.exception.EntityNotFoundException;
+import com.mmoscovich.webcontab.exception.IndiceInflacionFaltante;
 import com.mmoscovich.webcontab.exception.InvalidRequestException;
 import com.mmoscovich.webcontab.exception.OrganizacionNoSeleccionadaException;
+import com.mmoscovich.webcontab.exception.ServerException;
 import com.mmoscovich.webcontab.model.Ejercicio;
 import com.mmoscovich.webcontab.services.EjercicioService;
+import com.mmoscovich.webcontab.services.EliminacionEjercicioService;
+import com.mmoscovich.webcontab.services.LibroColumnarService;
+import com.mmoscovich.webcontab.services.RecalculoAperturaService;
 import com.mmoscovich.webcontab.services.SessionService;
 
 /**
@@ -39,6 +51,15 @@ public class EjercicioResource {
 	@Inject
 	private SessionService session;
 	
+	@Inject
+	private RecalculoAperturaService recalculoService;
+	
+	@Inject
+	private EliminacionEjercicioService eliminacionService;
+	
+	@Inject
+	private LibroColumnarService libroService;
+	
 	/**
 	 * Obtiene un ejercicio de la organizacion
 	 * @throws EntityNotFoundException si no se encuentra el ejercicio en la organizacion actual
@@ -50,6 +71,21 @@ public class EjercicioResource {
 		return service.getByIdOrThrow(session.getOrganizacionOrThrow(), id);
 	}
 	
+	/**
+	 * Previsualiza el cierre de un ejercicio, sin modificarlo.
+	 * @return las imputaciones de los asientos de refundicion, cierre y apertura del ejercicio siguiente
+	 * 
+	 * @throws EntityNotFoundException si no se encuentra el ejercicio
+	 * @throws OrganizacionNoSeleccionadaException si no se selecciono organizacion
+	 * @throws InvalidRequestException si no hay cuentas que balanceen los resultados
+	 * @throws ConflictException si el ejercicio ya esta cerrado
+	 */
+	@GET
+	@Path("{id}/cierre")
+	public CierreEjercicioDTO previsualizarCierre(@PathParam("id") @Min(1) Long id) throws EntityNotFoundException, OrganizacionNoSeleccionadaException, InvalidRequestException, ConflictException {
+		return service.previsualizarCierre(this.getById(id));
+	}
+	
 	/**
 	 * Cierra un ejercicio.
 	 * @return el ejercicio actualizado
@@ -78,6 +114,63 @@ public class EjercicioResource {
 	public Ejercicio reabrir(@PathParam("id") @Min(1) Long id) throws EntityNotFoundException, OrganizacionNoSeleccionadaException, ConflictException {
 		return service.reabrirEjercicio(this.getById(id));
 	}
+
+	/**
+	 * Archiva un ejercicio cerrado. Sus asientos se siguen pudiendo consultar en los informes.
+	 * @return el ejercicio actualizado
+	 *
+	 * @throws EntityNotFoundException si no se encuentra el ejercicio
+	 * @throws OrganizacionNoSeleccionadaException si no se selecciono organizacion
+	 * @throws ConflictException si el ejercicio no esta cerrado o ya esta archivado
+	 */
+	@PUT
+	@Path("{id}/archivo")
+	public Ejercicio archivar(@PathParam("id") @Min(1) Long id) throws EntityNotFoundException, OrganizacionNoSeleccionadaException, ConflictException {
+		return service.archivar(this.getById(id));
+	}
+
+	/**
+	 * Desarchiva un ejercicio (sigue cerrado).
+	 * @return el ejercicio actualizado
+	 *
+	 * @throws EntityNotFoundException si no se encuentra el ejercicio
+	 * @throws OrganizacionNoSeleccionadaException si no se selecciono organizacion
+	 * @throws ConflictException si el ejercicio no esta archivado
+	 */
+	@DELETE
+	@Path("{id}/archivo")
+	public Ejercicio desarchivar(@PathParam("id") @Min(1) Long id) throws EntityNotFoundException, OrganizacionNoSeleccionadaException, ConflictException {
+		return service.desarchivar(this.getById(id));
+	}
+
+	/**
+	 * Genera (o regenera) el archivo del libro de un ejercicio cerrado, usado para los informes sin consultar las imputaciones.
+	 * <p>Normalmente se genera al cerrar el ejercicio.</p>
+	 * @return cantidad de cuentas, imputaciones y bytes del libro
+	 *
+	 * @throws EntityNotFoundException si no se encuentra el ejercicio
+	 * @throws OrganizacionNoSeleccionadaException si no se selecciono organizacion
+	 * @throws ConflictException si el ejercicio no esta cerrado o esta archivado
+	 * @throws ServerException si no se pudo escribir el archivo
+	 */
+	@PUT
+	@Path("{id}/libro")
+	public Map<String, Long> generarLibro(@PathParam("id") @Min(1) Long id) throws EntityNotFoundException, OrganizacionNoSeleccionadaException, ConflictException, ServerException {
+		return libroService.generarArchivo(this.getById(id));
+	}
+
+	/**
+	 * Previsualiza el ajuste por inflacion de cada cuenta ajustable del ejercicio, sin modificarlo.
+	 * @return el saldo nominal, el ajustado y la diferencia de cada cuenta
+	 * @throws EntityNotFoundException si no se encuentra el ejercicio en la organizacion actual
+	 * @throws OrganizacionNoSeleccionadaException si no se selecciono organizacion
+	 * @throws IndiceInflacionFaltante si falta el indice de inflacion de algun mes y moneda
+	 */
+	@GET
+	@Path("{id}/inflacion")
+	public List<AjusteInflacionCuenta> previsualizarAjustePorInflacion(@PathParam("id") @Min(1) Long id) throws EntityNotFoundException, OrganizacionNoSeleccionadaException, IndiceInflacionFaltante {
+		return service.previsualizarAjustePorInflacion(this.getById(id));
+	}
 	
 	/**
 	 * Crea el asiento de ajuste por inflacion del ejercicio
@@ -107,6 +200,36 @@ public class EjercicioResource {
 		return service.recalcularApertura(this.getById(id));
 	}
 	
+	/**
+	 * Inicia (en background) el recalculo de los asientos de apertura de todos los ejercicios posteriores al indicado.
+	 * <p>Se usa cuando se modifica un ejercicio que tiene ejercicios posteriores. 
+	 * Las aperturas que no cambian no se modifican.</p>
+	 * @return la tarea de recalculo, para consultar su progreso
+	 * @throws EntityNotFoundException si no se encuentra el ejercicio en la organizacion actual
+	 * @throws OrganizacionNoSeleccionadaException si no se selecciono organizacion
+	 * @throws ConflictException si ya hay un recalculo en curso en la organizacion
+	 */
+	@POST
+	@Path("{id}/aperturas")
+	public RecalculoAperturaTask recalcularAperturasPosteriores(@PathParam("id") @Min(1) Long id) throws EntityNotFoundException, OrganizacionNoSeleccionadaException, ConflictException {
+		Ejercicio ej = this.getById(id);
+		RecalculoAperturaTask task = recalculoService.create(ej);
+		recalculoService.run(task);
+		return task;
+	}
+	
+	/**
+	 * Obtiene el estado de una tarea de recalculo de aperturas
+	 * @param uuid id de la tarea
+	 * @throws EntityNotFoundException si no existe la tarea en la organizacion actual
+	 * @throws OrganizacionNoSeleccionadaException si no se selecciono organizacion
+	 */
+	@GET
+	@Path("aperturas/{uuid}")
+	public RecalculoAperturaTask getRecalculoAperturas(@PathParam("uuid") UUID uuid) throws EntityNotFoundException, OrganizacionNoSeleccionadaException {
+		return recalculoService.getOrThrow(session.getOrganizacionOrThrow(), uuid);
+	}
+	
 	/**
 	 * Renumera los asientos de un ejercicio y establece o actualiza la fecha de confirmacion de asientos del ejercicio.
 	 * <p>Se renumeran <b>TODOS</b> los asientos del ejercicio.
@@ -136,20 +259,35 @@ public class EjercicioResource {
 	
 	/**
 	 * Elimina un ejercicio.
+	 * <p>El ejercicio deja de estar disponible inmediatamente, pero sus asientos se eliminan en background.</p>
 	 * 
 	 * @param id id del ejercicio
 	 * @param nombreOrg nombre de la organizacion a la que pertenece (usado para confirmacion)
+	 * @return la tarea de eliminacion, para consultar su progreso
 	 * 
 	 * @throws InvalidRequestException si no se ingreso correctamente el nombre de la organizacion.
 	 */
 	@DELETE
 	@Path("{id}")
-	@Transactional
-	public void eliminar(@PathParam("id") @Min(1) Long id, @QueryParam("organizacion") String nombreOrg) {
+	public EliminacionEjercicioTask eliminar(@PathParam("id") @Min(1) Long id, @QueryParam("organizacion") String nombreOrg) {
 		Ejercicio ej = this.getById(id);
 		if(!ej.getOrganizacion().getNombre().equals(nombreOrg)) throw new InvalidRequestException("La confirmacion fallo");
 		
-		service.eliminar(session.getOrganizacionOrThrow(), ej);
+		EliminacionEjercicioTask task = eliminacionService.create(session.getOrganizacionOrThrow(), ej);
+		eliminacionService.run(task);
+		return task;
+	}
+	
+	/**
+	 * Obtiene el estado de una tarea de eliminacion de ejercicio
+	 * @param uuid id de la tarea
+	 * @throws EntityNotFoundException si no existe la tarea en la organizacion actual
+	 * @throws OrganizacionNoSeleccionadaException si no se selecciono organizacion
+	 */
+	@GET
+	@Path("eliminaciones/{uuid}")
+	public EliminacionEjercicioTask getEliminacion(@PathParam("uuid") UUID uuid) throws EntityNotFoundException, OrganizacionNoSeleccionadaException {
+		return eliminacionService.getOrThrow(session.getOrganizacionOrThrow(), uuid);
 	}
 	
 }
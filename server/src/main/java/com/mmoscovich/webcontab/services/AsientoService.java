@@ -5,26 +5,33 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.inject.Inject;
 
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.mmoscovich.webcontab.dao.ArchivoRepository;
 import com.mmoscovich.webcontab.dao.AsientoRepository;
 import com.mmoscovich.webcontab.dao.CuentaRepository;
-import com.mmoscovich.webcontab.dao.InflacionRepository;
 import com.mmoscovich.webcontab.dao.InformeRepository;
 import com.mmoscovich.webcontab.dao.helper.QueryBalance.FiltroBalance;
-import com.mmoscovich.webcontab.dto.informes.BalanceCuenta;
+import com.mmoscovich.webcontab.dto.AsientoFilter;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO;
+import com.mmoscovich.webcontab.dto.AsientoResumenDTO.Campo;
+import com.mmoscovich.webcontab.dto.CierreEjercicioDTO;
+import com.mmoscovich.webcontab.dto.CierreEjercicioDTO.Linea;
+import com.mmoscovich.webcontab.dto.informes.AjusteInflacionCuenta;
 import com.mmoscovich.webcontab.dto.informes.BalanceMensualCuenta;
 import com.mmoscovich.webcontab.exception.EjercicioFechaInvalidaException;
 import com.mmoscovich.webcontab.exception.EjercicioFinalizadoException;
@@ -32,11 +39,11 @@ import com.mmoscovich.webcontab.exception.EntityNotFoundException;
 import com.mmoscovich.webcontab.exception.IndiceInflacionFaltante;
 import com.mmoscovich.webcontab.exception.InvalidRequestException;
 import com.mmoscovich.webcontab.model.Asiento;
-import com.mmoscovich.webcontab.model.Categoria;
 import com.mmoscovich.webcontab.model.Cuenta;
 import com.mmoscovich.webcontab.model.Ejercicio;
 import com.mmoscovich.webcontab.model.Imputacion;
 import com.mmoscovich.webcontab.util.CollectionUtils;
+import com.mmoscovich.webcontab.util.SaldosPorMoneda;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -47,9 +54,15 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 @Service
 public class AsientoService {
+	
+	/** Cantidad maxima de asientos a eliminar por query (limita el tamanio del IN) */
+	private static final int LOTE_ELIMINACION = 500;
 
 	@Inject
 	private AsientoRepository asientoDao;
+	
+	@Inject
+	private ArchivoRepository archivoDao;
 
 	@Inject
 	private ImputacionService imputacionService;
@@ -67,13 +80,22 @@ public class AsientoService {
 	private CuentaRepository cuentaDao;
 	
 	@Inject
-	private InflacionRepository inflacionDao;
+	private InflacionService inflacionService;
 	
 	@Inject
 	private EjercicioService ejercicioService;
 	
 	@Inject
 	private SessionService session;
+	
+	@Inject
+	private EjercicioLockService ejercicioLock;
+	
+	@Inject
+	private CierreSnapshotService cierreSnapshots;
+	
+	@Inject
+	private LibroColumnarService libroService;
 
 	/**
 	 * Devuelve una pagina de asientos del ejercicio especificado, dentro del periodo indicado.
@@ -89,6 +111,8 @@ public class AsientoService {
 	public Page<Asiento> findByPeriodo(Ejercicio ejercicio, LocalDate desde, LocalDate hasta, boolean incluirImputaciones, Pageable page) {
 		if(desde == null) desde = ejercicio.getInicio();
 		if(hasta == null) hasta = ejercicio.getFinalizacion();
+		if(ejercicio.isArchivado()) return archivoDao.findAsientosPorPeriodo(ejercicio, desde, hasta, incluirImputaciones, page);
+		
 		Page<Asiento> pagina =  asientoDao.findByPeriodo(ejercicio, desde, hasta, page);
 		
 		if(incluirImputaciones) this.addImputaciones(pagina.getContent());
@@ -109,12 +133,30 @@ public class AsientoService {
 	public Page<Asiento> findByNumeros(Ejercicio ejercicio, Short min, Short max, boolean incluirImputaciones, Pageable page) {
 		if(min == null) min = 0;
 		if(max == null) max = Short.MAX_VALUE;
+		if(ejercicio.isArchivado()) return archivoDao.findAsientosPorNumeros(ejercicio, min, max, incluirImputaciones, page);
+		
 		Page<Asiento> pagina =  asientoDao.findByNumeros(ejercicio, min, max, page);
 		
 		if(incluirImputaciones) this.addImputaciones(pagina.getContent());
 		return pagina;
 	}
 
+	/**
+	 * Devuelve una pagina de asientos del ejercicio especificado para la grilla, filtrando por fechas o por numeros.
+	 * <p>A diferencia de {@link #findByPeriodo} y {@link #findByNumeros}, no carga entidades: obtiene los asientos
+	 * y sus imputaciones (con los datos de la cuenta) en una sola query nativa.</p>
+	 * @param ejercicio
+	 * @param filtro filtro por fechas o por numeros
+	 * @param campos campos a incluir en cada asiento
+	 * @param page datos de paginacion
+	 * @return
+	 */
+	@Transactional(readOnly = true)
+	public Page<AsientoResumenDTO> findResumen(Ejercicio ejercicio, AsientoFilter filtro, Set<Campo> campos, Pageable page) {
+		if(ejercicio.isArchivado()) return archivoDao.findResumen(ejercicio, filtro, campos, page);
+		return asientoDao.findResumen(ejercicio, filtro, campos, page);
+	}
+
 	/**
 	 * Busca y agrega las imputaciones a cada asiento del conjunto especificado.
 	 * <p>Esta optimizado para buscar las imputaciones de todos los asientos con una sola query.</p>
@@ -132,6 +174,7 @@ public class AsientoService {
 
 	/**
 	 * Obtiene un asiento por id o lanza un {@link EntityNotFoundException} si no existe
+	 * <p>Si el ejercicio esta archivado, se devuelve el asiento del archivo (no persistido y siempre con imputaciones).</p>
 	 * @param ejercicio ejercicio en el cual se busca el asiento
 	 * @param id id del asiento
 	 * @param includeImputaciones indica si se deben includir las imputaciones
@@ -139,6 +182,8 @@ public class AsientoService {
 	 * @throws EntityNotFoundException si no existe asiento con ese id para ese ejercicio
 	 */
 	public Asiento getByIdOrThrow(Ejercicio ejercicio, Long id, boolean includeImputaciones) throws EntityNotFoundException {
+		if(ejercicio.isArchivado()) return archivoDao.findAsiento(ejercicio, id).orElseThrow(() -> new EntityNotFoundException(Asiento.class, id));
+		
 		Asiento asiento = (includeImputaciones ? asientoDao.findByIdWithImputaciones(id) : asientoDao.findById(id))
 				.orElseThrow(() -> new EntityNotFoundException(Asiento.class, id));
 	
@@ -190,6 +235,10 @@ public class AsientoService {
 		
 		log.debug("Creando asiento de fecha {} en el ejercicio {}", asiento.getFecha(), ejercicio);
 		
+		// Se puede crear en paralelo con otros asientos, pero no durante una operacion sobre todo el ejercicio.
+		// Se valida el ejercicio leido luego de obtener el lock (pudo cerrarse o confirmarse mientras se esperaba)
+		ejercicio = ejercicioLock.lockCompartido(ejercicio);
+		
 		// No se puede crear un asiento luego de finalizado el ejercicio
 		ejercicio.validateActivo();
 
@@ -229,12 +278,14 @@ public class AsientoService {
 	 */
 	@Transactional
 	public Asiento actualizar(Ejercicio ejercicio, Asiento asiento) throws EntityNotFoundException, InvalidRequestException, EjercicioFinalizadoException, EjercicioFechaInvalidaException {
+		ejercicio = ejercicioLock.lockCompartido(ejercicio);
+		
 		Asiento existing = this.getByIdOrThrow(ejercicio, asiento.getId(), true);
 
 		log.debug("Actualizando asiento numero {} (id: {}) en el ejercicio {}", existing.getNumero(), asiento.getId(), ejercicio);
 		
 		// No se puede modificar un asiento luego de finalizado el ejercicio
-		existing.getEjercicio().validateActivo();
+		ejercicio.validateActivo();
 		
 		// No se puede modificar si esta dentro de los confirmados (se usa la fecha original del asiento).
 		ejercicio.validateFecha(existing.getFecha());
@@ -274,6 +325,8 @@ public class AsientoService {
 	 */
 	@Transactional
 	public void eliminar(Ejercicio ejercicio, Long id) throws EntityNotFoundException, EjercicioFinalizadoException, EjercicioFechaInvalidaException {
+		ejercicio = ejercicioLock.lockCompartido(ejercicio);
+		
 		Asiento asiento = this.getByIdOrThrow(ejercicio, id, false);
 
 		log.debug("Se elimina el asiento numero {} (id: {}) del ejercicio {}", asiento.getNumero(), id, ejercicio);
@@ -300,24 +353,37 @@ public class AsientoService {
 	/**
 	 * Elimina los asientos indicados y sus imputaciones.
 	 * <p>Es similar a ejecutar {@link #eliminar(Ejercicio, Long)} para cada id, pero optimizado.</p>
-	 * <p>Se ejecuta una query por cada asiento para eliminar sus imputaciones, pero todos los asientos se obtienen en una y se eliminan en otra.</p>
+	 * <p>Todos los asientos se obtienen en una query y se validan en memoria antes de borrar. Luego, por cada lote de
+	 * {@value #LOTE_ELIMINACION} asientos, se ejecuta una query para sus imputaciones y otra para los asientos.</p>
 	 * @param ejercicio
 	 * @param ids lista de ids de asientos
 	 * @param paraReapertura si es true, se estan borrando asientos para reapertura. Se ignoran algunos controles.
+	 * @return cantidad de asientos eliminados
 	 * 
+	 * @throws EntityNotFoundException si algun asiento no existe en el ejercicio
 	 * @throws EjercicioFinalizadoException si el ejercicio esta finalizado
 	 * @throws EjercicioFechaInvalidaException si algun asiento esta dentro de los confirmados (no se puede modificar)
 	 */
 	@Transactional
-	public void eliminar(Ejercicio ejercicio, Set<Long> ids, boolean paraReapertura) throws EjercicioFinalizadoException, EjercicioFechaInvalidaException {
+	public int eliminar(Ejercicio ejercicio, Set<Long> ids, boolean paraReapertura) throws EntityNotFoundException, EjercicioFinalizadoException, EjercicioFechaInvalidaException {
+		ejercicio = ejercicioLock.lockCompartido(ejercicio);
+		
 		// No se puede eliminar un asiento luego de finalizado el ejercicio
 		ejercicio.validateActivo();
 		
-		// Se recorren los asientos
-		for(Asiento asiento : asientoDao.findByIds(ejercicio, ids)) {
-			log.debug("Se elimina el asiento numero {} (id: {}) del ejercicio {}", asiento.getNumero(), asiento.getId(), ejercicio);
+		// Se buscan todos los asientos en una sola query
+		List<Asiento> asientos = asientoDao.findByIds(ejercicio, ids);
+		
+		if(!paraReapertura) {
+			// Todos los asientos deben existir en el ejercicio
+			if(asientos.size() != ids.size()) {
+				Set<Long> encontrados = CollectionUtils.toIdList(asientos);
+				Long faltante = ids.stream().filter(id -> !encontrados.contains(id)).findFirst().orElse(null);
+				throw new EntityNotFoundException(Asiento.class, faltante);
+			}
 			
-			if(!paraReapertura) {
+			// Se validan todos antes de borrar
+			for(Asiento asiento : asientos) {
 				// No se pueden borrar los asientos especiales (apertura, cierre, etc)
 				ejercicio.validateAsientoBorrable(asiento);
 				
@@ -325,38 +391,66 @@ public class AsientoService {
 				ejercicio.validateFecha(asiento.getFecha());
 			}
 			
-			// Se eliminan las imputaciones de todos los asientos
-			imputacionService.eliminarByAsiento(asiento);
+			// El unico asiento especial que se puede borrar es el de ajuste, en ese caso se lo desasocia del ejercicio
+			for(Asiento asiento : asientos) {
+				if(asiento.getId().equals(ejercicio.getAsientoAjusteId())) ejercicioService.desasociarAsientosEspeciales(ejercicio, asiento);
+			}
 		}
 		
-		// Se eliminan los asientos
-		asientoDao.deleteByIds(ejercicio, ids);
+		log.debug("Se eliminan {} asientos del ejercicio {}", asientos.size(), ejercicio);
+		
+		int eliminados = 0;
+		for(List<Long> lote : CollectionUtils.partition(CollectionUtils.toIdList(asientos), LOTE_ELIMINACION)) {
+			// Se eliminan las imputaciones de todos los asientos del lote
+			imputacionService.eliminarByAsientos(lote);
+			
+			// Se eliminan los asientos del lote
+			eliminados += asientoDao.eliminar(ejercicio.getId(), lote);
+		}
+		return eliminados;
 	}
 	
 	/**
-	 * Elimina todos los asientos de un ejercicio y sus imputaciones (hace cascade manual).
-	 * <p>Se usa cuando se desea eliminar un ejercicio.</p>
-	 * <p>Ejecuta solo 2 queries en total: una para TODOS los asientos y otra para TODAS las imputaciones.</p>
-	 * @param ejercicio
-	 * @throws EntityNotFoundException
-	 * @throws EjercicioFinalizadoException
+	 * Elimina un lote de asientos de un ejercicio y sus imputaciones (hace cascade manual), <b>sin validaciones</b>.
+	 * <p>Se usa para eliminar un ejercicio por partes, cada lote en su propia transaccion, para no generar
+	 * una transaccion gigante ni bloquear las tablas durante toda la eliminacion.</p>
+	 * @param ejercicio ejercicio que se esta eliminando
+	 * <p>Si el ejercicio esta archivado, se eliminan del archivo.</p>
+	 * @param cantidad cantidad maxima de asientos a eliminar
+	 * @return cantidad de asientos eliminados (cero si ya no quedan)
 	 */
 	@Transactional
-	public void eliminarTodos(Ejercicio ejercicio) {
-		log.debug("Eliminando todos los asientos del ejercicio con id {}: {}", ejercicio.getId(), ejercicio);
+	public int eliminarLote(Ejercicio ejercicio, int cantidad) {
+		if(ejercicio.isArchivado()) return archivoDao.eliminarLote(ejercicio, cantidad);
 		
-		imputacionService.eliminarByEjercicio(ejercicio);
-		asientoDao.deleteByEjercicio(ejercicio);
+		List<Long> ids = asientoDao.findIdsByEjercicio(ejercicio, PageRequest.of(0, cantidad));
+		if(ids.isEmpty()) return 0;
+		
+		imputacionService.eliminarByAsientos(ids);
+		return asientoDao.eliminar(ejercicio.getId(), ids);
+	}
+	
+	/** Cantidad de asientos del ejercicio */
+	public long contarAsientos(Ejercicio ejercicio) {
+		return ejercicio.isArchivado() ? archivoDao.contarAsientos(ejercicio) : asientoDao.countByEjercicio(ejercicio);
 	}
 	
 	/**
 	 * Renumera los asientos de un ejercicio por fecha primero y por orden de creacion despues.
+	 * <p>Solo se modifican los asientos cuyo numero cambia.</p>
 	 * @param ejercicio
+	 * @return cantidad de asientos renumerados
 	 */
 	@Transactional
-	public void renumerarAsientos(Ejercicio ejercicio) {
+	public int renumerarAsientos(Ejercicio ejercicio) {
 		log.info("Se renumeran por fecha los asientos del {}", ejercicio);
-		asientoDao.renumerarByEjercicio(ejercicio.getId());
+		
+		// Afecta a todos los asientos del ejercicio
+		ejercicio = ejercicioLock.lockExclusivo(ejercicio);
+		
+		int cantidad = asientoDao.renumerar(ejercicio.getId());
+		log.info("Se renumeraron {} asientos del {}", cantidad, ejercicio);
+		return cantidad;
 	}
 	
 	/**
@@ -394,6 +488,57 @@ public class AsientoService {
 		return this.persistir(apertura);
 	}
 	
+	/**
+	 * Actualiza el asiento de apertura a partir de los saldos de cierre del ejercicio anterior, solo si cambiaron.
+	 * <p>Se compara por cuenta el importe actual de la apertura con el inverso del cierre. Si son iguales, no se modifica nada.</p>
+	 * @param apertura asiento de apertura (con imputaciones)
+	 * @param cierreAnterior imputaciones de cierre (reales o calculadas) del ejercicio anterior
+	 * @return <code>true</code> si se actualizo el asiento, <code>false</code> si no habia cambios.
+	 */
+	@Transactional
+	public boolean actualizarAperturaSiCambio(Asiento apertura, List<Linea> cierreAnterior) {
+		// Diferencia por cuenta entre la apertura esperada (inversa al cierre) y la actual
+		Map<Long, Long> diferencias = new HashMap<>();
+		for(Linea linea : cierreAnterior) diferencias.merge(linea.getCuentaId(), -SaldosPorMoneda.toCentavos(linea.getImporte()), Long::sum);
+		for(Imputacion imp : apertura.getImputaciones()) diferencias.merge(imp.getCuenta().getId(), -SaldosPorMoneda.toCentavos(imp.getImporte()), Long::sum);
+		
+		if(diferencias.values().stream().allMatch(d -> d == 0)) {
+			log.debug("El asiento de apertura del {} no cambio", apertura.getEjercicio());
+			return false;
+		}
+		
+		log.info("Actualizando el asiento de apertura (id: {}) del {}", apertura.getId(), apertura.getEjercicio());
+		
+		// Se borran las imputaciones anteriores y se crean las inversas al cierre
+		imputacionService.eliminarByAsiento(apertura);
+		apertura.getImputaciones().clear();
+		
+		List<Linea> inversas = cierreAnterior.stream().map(Linea::crearInversa).collect(Collectors.toList());
+		apertura.agregarImputaciones(this.crearImputaciones(inversas, "Apertura de Libros"));
+		
+		this.persistir(apertura);
+		return true;
+	}
+	
+	/**
+	 * Obtiene las imputaciones de cierre de un ejercicio.
+	 * <p>Si el ejercicio esta cerrado, son las del asiento de cierre. Si no, se calculan (sin modificar el ejercicio).</p>
+	 * @param ejercicio
+	 * @return las imputaciones de cierre, que pueden estar vacias si el ejercicio no tiene saldos.
+	 */
+	@Transactional(readOnly = true)
+	public List<Linea> getImputacionesDeCierre(Ejercicio ejercicio) {
+		if(ejercicio.getAsientoCierreId() == null) return this.calcularCierre(ejercicio).getCierre();
+		
+		Asiento cierre = this.getByIdOrThrow(ejercicio, ejercicio.getAsientoCierreId(), true);
+		List<Linea> result = new ArrayList<>(cierre.getImputaciones().size());
+		for(Imputacion imp : cierre.getImputaciones()) {
+			Cuenta cuenta = imp.getCuenta();
+			result.add(new Linea(cuenta.getId(), cuenta.getCodigo(), cuenta.getDescripcion(), cuenta.getMoneda().getId(), imp.getImporte()));
+		}
+		return result;
+	}
+	
 	/**
 	 * Dado un asiento de apertura (nuevo o existente), calcula y agrega las imputaciones necesarias.
 	 * <p>
@@ -418,86 +563,68 @@ public class AsientoService {
 	/**
 	 * Simula como seria el asiento de cierre de un ejercicio activo.
 	 * <p>Se utiliza para crear el asiento de apertura del siguiente ejercicio sin la necesidad de que el actual este finalizado.</p> 
-	 * <p>Las diferencias con {@link #crearCierre(Ejercicio, Short)} son que este
-	 * metodo <b>NO</b> modifica el ejercicio, solo calcula el asiento en memoria, y ademas asume que no existe el asiento de refundicion de resultados, por lo que lo calcula internamente.
-	 * <br>Termina generando las mismas imputaciones que {@link #crearCierre(Ejercicio, Short)} pero sin modificar la base de datos.</p>
+	 * <p>Las diferencias con {@link #crearCierre(Ejercicio, CierreEjercicioDTO, Short)} son que este
+	 * metodo <b>NO</b> modifica el ejercicio, solo calcula el asiento en memoria.
+	 * <br>Termina generando las mismas imputaciones (ver {@link #calcularCierre(Ejercicio)}) pero sin modificar la base de datos.</p>
+	 * <p>Los saldos del ejercicio se cachean mientras no se modifique (ver {@link CierreSnapshotService}).</p>
 	 * @param ejercicio
 	 * @return
 	 */
 	@Transactional(readOnly = true)
 	public Asiento simularCierre(Ejercicio ejercicio) {
+		CierreEjercicioDTO calculo = this.calcularCierre(ejercicio);
+		List<Imputacion> imputaciones = this.crearImputaciones(calculo.getCierre(), "Cierre de Libros");
 		
-		// Se buscan las cuentas de balanceo y si no existen, no se puede continuar
-		List<Cuenta> balanceadoras = cuentaService.findCuentasQueBalanceanResultados(ejercicio.getOrganizacion());
-		if(balanceadoras.isEmpty()) throw new InvalidRequestException("No existen cuentas que balanceen los resultados");
-		
-		// Se buscan el saldo de las cuentas de resultados para cada moneda.
-		// Estas tienen que ir a las cuentas que balancean los resultados
-		List<Categoria> categoriasResultado = catService.findCategoriasDeResultados(ejercicio.getOrganizacion());
-		FiltroBalance filtroTotales = new FiltroBalance(ejercicio);
-		filtroTotales.soloEnCategorias(categoriasResultado);
-		filtroTotales.setPeriodo(ejercicio.getInicio(), ejercicio.getFinalizacion());
-		Map<Long, BigDecimal> saldos = informeDao.getBalanceTotales(filtroTotales);
+		log.debug("Se simulo el cierre del {} con {} imputaciones", ejercicio, imputaciones.size());
 		
-		// Se crean las imputaciones de cierre de las cuentas que balancean
-		List<Imputacion> imputaciones = this.crearImputacionesDeBalanceoDeResultados(balanceadoras, saldos);
-		
-		// Se buscan los saldos de las cuentas que NO son de resultados
-		// Las de resultados, sabemos que seran cero, no van a estar en el asiento de cierre
-		FiltroBalance filtro = new FiltroBalance(ejercicio);
-		filtro.excluirCategorias(categoriasResultado);
-		Stream<BalanceCuenta> balance = informeDao.streamBalance(filtro);
-		
-		balance.forEach(b -> {
-			// Se busca si ya existe una imputacion en el asiento para la cuenta
-			Imputacion imp = imputaciones.stream()
-					.filter(i -> i.getCuenta().getId().equals(b.getId()))
-					.findFirst()
-					.orElse(null);
-			
-			if(imp != null) {
-				// Si encontro la imputacion, es de resultados, se debe acumular con lo calculado arriba
-				imp.setImporte(imp.getImporte().add(b.getSaldo().negate()));
-			} else {
-				// Si no la encontro, crear la imputacion
-				// Tiene que ser inverso: lleva el balance a cero
-				imputaciones.add(new Imputacion(cuentaDao.getOne(b.getId()), b.getSaldo().negate(), "Cierre de Libros"));
-			}
-		});
+		return new Asiento(ejercicio, null, ejercicio.getFinalizacion(), "Cierre de Libros", imputaciones);
+	}
+
+	/**
+	 * Calcula las imputaciones de los asientos de refundicion de cuentas de resultado, de cierre y de apertura del ejercicio siguiente.
+	 * <p>Se obtiene el balance de todas las cuentas del ejercicio <b>una sola vez</b> y a partir de el se calculan los tres asientos
+	 * (ver {@link CierreCalculator}).</p>
+	 * <p>Este metodo <b>NO</b> modifica la base de datos, por lo que tambien sirve para previsualizar el cierre.</p>
+	 * @param ejercicio
+	 * @return las imputaciones de los tres asientos
+	 * @throws InvalidRequestException si no existen cuentas que balanceen los resultados
+	 */
+	@Transactional(readOnly = true)
+	public CierreEjercicioDTO calcularCierre(Ejercicio ejercicio) throws InvalidRequestException {
+		log.debug("Calculando asientos de cierre para {}", ejercicio);
 		
-		log.debug("Se encontraron {} cuentas de resultados con saldo <> 0 en el ejercicio", imputaciones.size());
+		// Se obtienen las cuentas que balancean resultados. Falla si no existen
+		List<Cuenta> balanceadoras = cuentaService.findCuentasQueBalanceanResultados(ejercicio.getOrganizacion());
+		if(balanceadoras.isEmpty()) throw new InvalidRequestException("No existen cuentas que balanceen los resultados");
 		
-		// Se ordena por cuenta
-		// TODO Deberia ser por "c.orden"
-		imputaciones.sort((i, i2) -> i.getCuenta().getId().compareTo(i2.getCuenta().getId()));
+		// Se obtiene el saldo de todas las cuentas en el ejercicio (una sola query o de la cache)
+		CierreCalculator saldos = cierreSnapshots.getSaldos(ejercicio);
 		
-		return new Asiento(ejercicio, null, ejercicio.getFinalizacion(), "Cierre de Libros", imputaciones);
+		CierreEjercicioDTO calculo = saldos.calcular(catService.findCategoriasDeResultados(ejercicio.getOrganizacion()), balanceadoras);
+		log.debug("Se calcularon {} imputaciones de refundicion y {} de cierre en el {}", calculo.getRefundicion().size(), calculo.getCierre().size(), ejercicio);
+		return calculo;
 	}
 
 	/**
-	 * Calcula, crea y persiste el asiento de cierre del ejercicio.
+	 * Crea y persiste el asiento de cierre del ejercicio a partir del calculo de cierre.
 	 * <p>Este asiento genera que los saldos de todas las cuentas queden en cero.</p>
-	 * <p>Este metodo modifica el ejercicio y debe llamarse <b>despues</b> de crear el asiento de refundicion de resultados.</p>
+	 * <p>Este metodo modifica el ejercicio. El calculo ya contempla la refundicion de resultados.</p>
 	 * @param ejercicio
+	 * @param calculo resultado de {@link #calcularCierre(Ejercicio)}
 	 * @param numeroAsiento numero de asiento a utilizar 
 	 * @return el asiento persistido
+	 * @throws InvalidRequestException si el asiento de cierre queda vacio
 	 */
 	@Transactional
-	public Asiento crearCierre(Ejercicio ejercicio, Short numeroAsiento) {
+	public Asiento crearCierre(Ejercicio ejercicio, CierreEjercicioDTO calculo, Short numeroAsiento) throws InvalidRequestException {
 		log.debug("Creando Asiento de Cierre de ejercicio para {}", ejercicio);
 		
+		// Si el asiento esta vacio, el plan de cuentas esta mal configurado
+		if(calculo.getCierre().isEmpty()) throw new InvalidRequestException("El asiento de cierre no puede estar vacio, compruebe la configuracion");
+		
 		// El asiento tendra la fecha de finalizacion del ejercicio
 		Asiento asiento = new Asiento(ejercicio, numeroAsiento, ejercicio.getFinalizacion(), "Cierre de Libros", null);
-		
-		// Se obtiene el saldo de todas las cuentas en el ejercicio
-		Stream<BalanceCuenta> balance = informeDao.streamBalance(new FiltroBalance(ejercicio));
-		balance.forEach(b -> {
-			// Tiene que ser inverso: lleva el balance a cero
-			asiento.agregarImputacion(new Imputacion(cuentaDao.getOne(b.getId()), b.getSaldo().negate(), "Cierre de Libros"));
-		});
-		
-		// Si el asiento esta vacio, el plan de cuentas esta mal configurado
-		if(asiento.getImputaciones().isEmpty()) throw new InvalidRequestException("El asiento de cierre no puede estar vacio, compruebe la configuracion");
+		asiento.agregarImputaciones(this.crearImputaciones(calculo.getCierre(), "Cierre de Libros"));
 		
 		Asiento cierre = this.persistir(asiento);
 		log.info("Se creo el asiento de Cierre de ejercicio con numero {} con {} imputaciones en el {}", cierre.getNumero(), cierre.getImputaciones().size(), ejercicio);
@@ -506,7 +633,7 @@ public class AsientoService {
 	}
 	
 	/**
-	 * Calcula, crea y persiste el asiento de refundicion de cuentas de resultado, en caso de ser necesario.
+	 * Crea y persiste el asiento de refundicion de cuentas de resultado a partir del calculo de cierre, en caso de ser necesario.
 	 * <p>Este asiento lleva a cero el saldo de todas las cuentas descendientes de categorias de resultados (Ej: INGRESOS y EGRESOS).</p>
 	 * <p>Para que el asiento tenga saldo 0, los saldos resultantes se asignan (inversos) a las cuentas que fueron
 	 * designadas como "balanceadoras de resultados" (ej: RESULTADOS DEL EJERCICIO).
@@ -514,53 +641,36 @@ public class AsientoService {
 	 * <p>Si las cuentas de resultado ya tienen saldo 0, no se genera ninguna imputacion y por lo tanto, no tiene sentido
 	 * crear este asiento. En ese caso <b>no se persiste</b> y se devuelve un opcional vacio.</p>
 	 * @param ejercicio
+	 * @param calculo resultado de {@link #calcularCierre(Ejercicio)}
 	 * @param numAsiento
 	 * @return el asiento persistido si fue creado o un optional vacio en caso contrario.
 	 */
 	@Transactional
-	public Optional<Asiento> crearRefundicion(Ejercicio ejercicio, Short numAsiento) {
-		log.debug("Calculando Asiento de refundicion de cuentas de resultado para {}", ejercicio);
-		
-		// Se obtienen las cuentas que balancean resultados. Falla si no existen
-		List<Cuenta> balanceadoras = cuentaService.findCuentasQueBalanceanResultados(ejercicio.getOrganizacion());
-		if(balanceadoras.isEmpty()) throw new InvalidRequestException("No existen cuentas que balanceen los resultados");
+	public Optional<Asiento> crearRefundicion(Ejercicio ejercicio, CierreEjercicioDTO calculo, Short numAsiento) {
+		if(calculo.getRefundicion().isEmpty()) {
+			log.warn("Las cuentas de resultado tienen saldo en cero, no se genera el asiento de refundicion de cuentas de resultado ({})", ejercicio);
+			return Optional.empty();
+		}
 		
 		// Se crea el asiento con la fecha de finalizacion del ejercicio
 		Asiento asiento = new Asiento(ejercicio, numAsiento, ejercicio.getFinalizacion(), "Refundición de cuentas de resultado", null);
+		asiento.agregarImputaciones(this.crearImputaciones(calculo.getRefundicion(), "Refundición de cuentas de resultado"));
 		
-		
-		// Se buscan los saldos de las cuentas de resultados
-		List<Categoria> categoriasResultado = catService.findCategoriasDeResultados(ejercicio.getOrganizacion());
-		FiltroBalance filtro = new FiltroBalance(ejercicio);
-		filtro.soloEnCategorias(categoriasResultado);
-		Stream<BalanceCuenta> balance = informeDao.streamBalance(filtro);
-		
-		// Para cada saldo, se crea una imputacion que lo lleva a cero (inversa)
-		balance.forEach(b -> {
-			asiento.agregarImputacion(new Imputacion(cuentaDao.getOne(b.getId()), b.getSaldo().negate(), "Refundición de cuentas de resultado"));
-		});
-		
-		// Se obtienen la cantidad de cuentas de resultados con saldo <> 0
-		Integer cantCuentas = asiento.getImputaciones().size();
-		
-		// Aqui ya estan las imputaciones que hacen 0 los saldos de las cuentas de resultados
-		// Pero el asiento no tendra saldo 0, entonces se crean imputaciones a las cuentas "balanceadoras" (una por moneda) para
-		// llevar el asiento a saldo 0.
-		Map<Long, BigDecimal> saldos = asiento.getSaldos();
-		asiento.agregarImputaciones(this.crearImputacionesDeBalanceoDeResultados(balanceadoras, saldos));
-		
-		if(asiento.getImputaciones().isEmpty()) {
-			log.warn("Las cuentas de resultado tienen saldo en cero, no se genera el asiento de refundicion de cuentas de resultado ({})", ejercicio);
-			return Optional.empty();
-
-		} else {
-			Asiento refundicion = this.persistir(asiento);
-			if(log.isDebugEnabled()) {
-				log.debug("Se encontraron {} cuentas de resultados con saldo <> 0 en el ejercicio y {} monedas distintas", cantCuentas, saldos.size());
-			}
-			log.info("Se creo el asiento de Refundicion de cuentas de resultado con numero {} y {} imputaciones en el {}", asiento.getNumero(), cantCuentas + saldos.size(), ejercicio);
-			return Optional.of(refundicion);
+		Asiento refundicion = this.persistir(asiento);
+		log.info("Se creo el asiento de Refundicion de cuentas de resultado con numero {} y {} imputaciones en el {}", asiento.getNumero(), asiento.getImputaciones().size(), ejercicio);
+		return Optional.of(refundicion);
+	}
+	
+	/**
+	 * Convierte las lineas calculadas en imputaciones (sin persistir).
+	 * <p>Las cuentas se obtienen como referencia, sin cargarlas.</p>
+	 */
+	private List<Imputacion> crearImputaciones(List<Linea> lineas, String detalle) {
+		List<Imputacion> result = new ArrayList<>(lineas.size());
+		for(Linea linea : lineas) {
+			result.add(new Imputacion(cuentaDao.getOne(linea.getCuentaId()), linea.getImporte(), detalle));
 		}
+		return result;
 	}
 	
 	/**
@@ -646,16 +756,8 @@ public class AsientoService {
 		List<Cuenta> balanceadoras = cuentaService.findCuentasQueBalanceanAjustables(ejercicio.getOrganizacion());
 		if(balanceadoras.isEmpty()) throw new InvalidRequestException("No existen cuentas que balanceen a las ajustables");
 		
-		// Se buscan los saldos por mes de cada cuenta ajustable
-		FiltroBalance filtro = new FiltroBalance(ejercicio);
-		filtro.setSoloAjustables(true);
-		Stream<BalanceMensualCuenta> balance = informeDao.streamBalanceMensual(filtro);
-		
-		// Se crea un calculador de inflacion y se le pasa los indices dentro del periodo deseado
-		InflacionCalculator calculator = new InflacionCalculator(ejercicio, inflacionDao.findByPeriodo(ejercicio.getInicio(), ejercicio.getFinalizacion()));
-		
-		// Se acumulan los saldos
-		balance.forEach(calculator::add);
+		// Se acumulan los saldos mensuales ajustados
+		InflacionCalculator calculator = this.calcularInflacion(ejercicio);
 
 		// Por cada cuenta, se obtiene la diferencia de saldo y se genera una imputacion
 		for(Long cuentaId : calculator.getCuentasIds()) {
@@ -674,7 +776,7 @@ public class AsientoService {
 		if(cantCuentas == 0) return false;
 		
 		// Se calculan las imputaciones para balancear el asiento (una por moneda)
-		Map<Long, BigDecimal> saldos = asiento.getSaldos();
+		SaldosPorMoneda saldos = asiento.calcularSaldos();
 		asiento.agregarImputaciones(this.crearImputacionesDeBalanceo(balanceadoras, saldos, "las ajustables por inflacion", "Ajuste por inflación"));
 		
 		log.debug("Se encontraron {} cuentas ajustables con saldo <> 0 en el ejercicio y {} monedas distintas", cantCuentas, saldos.size());
@@ -683,46 +785,70 @@ public class AsientoService {
 		return true;
 	}
 	
+	/**
+	 * Calcula el ajuste por inflacion de cada cuenta ajustable del ejercicio, <b>sin</b> persistir nada.
+	 * <p>Permite previsualizar las imputaciones que tendria el asiento de ajuste (sin las de balanceo).</p>
+	 * @param ejercicio
+	 * @return el saldo nominal, el ajustado y la diferencia de cada cuenta ajustable con movimientos
+	 * @throws IndiceInflacionFaltante si falta el indice de inflacion para algun mes y moneda del ejercicio
+	 */
+	@Transactional(readOnly = true)
+	public List<AjusteInflacionCuenta> calcularAjustePorInflacion(Ejercicio ejercicio) throws IndiceInflacionFaltante {
+		return this.calcularInflacion(ejercicio).getAjustes();
+	}
+	
+	/**
+	 * Busca los saldos por mes de cada cuenta ajustable y los acumula ajustados por inflacion.
+	 * @throws IndiceInflacionFaltante si falta algun indice mensual de inflacion.
+	 */
+	private InflacionCalculator calcularInflacion(Ejercicio ejercicio) throws IndiceInflacionFaltante {
+		// Se crea un calculador de inflacion con los indices en memoria
+		InflacionCalculator calculator = new InflacionCalculator(ejercicio, inflacionService.getTabla());
+		
+		// Se buscan los saldos por mes de cada cuenta ajustable
+		FiltroBalance filtro = new FiltroBalance(ejercicio);
+		filtro.setSoloAjustables(true);
+		
+		// Se acumulan los saldos (del libro en memoria, si esta cargado)
+		try(Stream<BalanceMensualCuenta> balance = libroService.streamBalanceMensual(filtro).orElseGet(() -> informeDao.streamBalanceMensual(filtro))) {
+			balance.forEach(calculator::add);
+		}
+		return calculator;
+	}
+	
 	/**
 	 * Dado un conjunto de cuentas balanceadoras (una por moneda) y un conjunto de saldos (uno por moneda),
 	 * se crean las imputaciones en dichas cuentas para llevar los saldos a 0 (o sea se invierten).
 	 * @param cuentasBalanceadoras
-	 * @param saldos mapa cuya clave es el id de moneda y value es el saldo
+	 * @param saldos saldos por moneda
 	 * @param tipo tipo de balanceo que hace la cuenta (ej "resultados" o "cuentas ajustables")
 	 * @param detalleImputacion detalle a incluir en las imputaciones que se creen
 	 * 
 	 * @return imputaciones que cancelan dichos saldos
 	 */
-	private List<Imputacion> crearImputacionesDeBalanceo(List<Cuenta> cuentasBalanceadoras, Map<Long, BigDecimal> saldos, String tipo, String detalleImputacion) {
-		List<Imputacion> result = new ArrayList<>();
+	private List<Imputacion> crearImputacionesDeBalanceo(List<Cuenta> cuentasBalanceadoras, SaldosPorMoneda saldos, String tipo, String detalleImputacion) {
+		List<Imputacion> result = new ArrayList<>(saldos.size());
 		
 		// Por cada saldo (uno por moneda)
-		for(Entry<Long, BigDecimal> entry : saldos.entrySet()) {
+		for(int i = 0; i < saldos.size(); i++) {
+			long monedaId = saldos.getMonedaId(i);
 			
 			// Se busca la cuenta balanceadora para dicha moneda (falla si no existe)
-			Cuenta balanceadora = cuentasBalanceadoras.stream()
-					.filter(c -> c.getMoneda().getId().equals(entry.getKey()))
-					.findFirst()
-					.orElseThrow(() -> new InvalidRequestException("No existe cuenta que balancee " + tipo + " para la moneda con id " + entry.getKey()));
-					
-			BigDecimal saldo = entry.getValue();
+			Cuenta balanceadora = null;
+			for(Cuenta c : cuentasBalanceadoras) {
+				if(c.getMoneda().getId() == monedaId) {
+					balanceadora = c;
+					break;
+				}
+			}
+			if(balanceadora == null) throw new InvalidRequestException("No existe cuenta que balancee " + tipo + " para la moneda con id " + monedaId);
 			
 			// Se crea la imputacion en dicha cuenta que lleva el saldo a 0
-			result.add(new Imputacion(balanceadora, saldo.negate(), detalleImputacion));
+			result.add(new Imputacion(balanceadora, SaldosPorMoneda.fromCentavos(-saldos.getCentavos(i)), detalleImputacion));
 		}
 		return result;
 	}
 	
-	/**
-	 * Genera las imputaciones para balancear los resultados de la Refundicion de Cuentas de Resultado.
-	 * @param cuentasBalanceadoras
-	 * @param saldos mapa cuya clave es el id de moneda y value es el saldo
-	 * @return imputaciones que cancelan dichos saldos
-	 */
-	private List<Imputacion> crearImputacionesDeBalanceoDeResultados(List<Cuenta> cuentasBalanceadoras, Map<Long, BigDecimal> saldos) {
-		return this.crearImputacionesDeBalanceo(cuentasBalanceadoras, saldos, "resultados", "Refundición de cuentas de resultado");
-	}
-	
 	/**
 	 * Guarda un asiento y todas sus imputaciones.
 	 * <p>Realiza el save en cascada de manera manual.</p>
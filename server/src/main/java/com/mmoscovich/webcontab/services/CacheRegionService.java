@@ -0,0 +1,144 @@
+package com.mmoscovich.webcontab.services;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.ehcache.config.ResourcePools;
+import org.ehcache.config.ResourceType;
+import org.ehcache.config.SizedResourcePool;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.MemoryUnit;
+import org.springframework.stereotype.Service;
+
+import com.mmoscovich.webcontab.exception.EntityNotFoundException;
+import com.mmoscovich.webcontab.exception.InvalidRequestException;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Permite consultar y redimensionar en runtime las regiones de la cache de segundo nivel (configuradas en <code>ehcache.xml</code>).
+ * <p>
+ * Las estadisticas se leen de los MBeans de JSR-107 (habilitados en la configuracion) y se acumulan desde el inicio.
+ * Si una region tiene muchos desalojos y pocos aciertos, su conjunto de trabajo no entra en el heap asignado y conviene agrandarla.
+ * </p>
+ * <p>Los cambios de tamanio no se guardan: al reiniciar se vuelve a los de <code>ehcache.xml</code>.</p>
+ */
+@Slf4j
+@Service
+public class CacheRegionService {
+
+	@Inject
+	private CacheManager cacheManager;
+
+	/**
+	 * Obtiene el tamanio y las estadisticas de todas las regiones.
+	 */
+	public List<EstadisticasRegion> getRegiones() {
+		List<EstadisticasRegion> result = new ArrayList<>();
+		for(String nombre : cacheManager.getCacheNames()) {
+			Cache<?, ?> cache = cacheManager.getCache(nombre);
+			if(cache != null) result.add(this.getEstadisticas(nombre, cache));
+		}
+		return result;
+	}
+
+	/**
+	 * Cambia el tamanio en memoria (heap) de una region.
+	 * @param nombre nombre de la region
+	 * @param heapMb nuevo tamanio en MB
+	 * @return las estadisticas de la region con el nuevo tamanio
+	 * @throws EntityNotFoundException si no existe la region
+	 * @throws InvalidRequestException si el tamanio no es valido para la region (ej: es mayor a su nivel off-heap o se dimensiona por entradas)
+	 */
+	public EstadisticasRegion redimensionar(String nombre, long heapMb) throws EntityNotFoundException, InvalidRequestException {
+		if(heapMb <= 0) throw new InvalidRequestException("El tamanio debe ser mayor a 0");
+
+		Cache<?, ?> cache = cacheManager.getCache(nombre);
+		if(cache == null) throw new EntityNotFoundException("No existe la region de cache " + nombre);
+
+		ResourcePools pools = ResourcePoolsBuilder.newResourcePoolsBuilder().heap(heapMb, MemoryUnit.MB).build();
+		try {
+			cache.unwrap(org.ehcache.Cache.class).getRuntimeConfiguration().updateResourcePools(pools);
+		} catch(IllegalArgumentException | UnsupportedOperationException e) {
+			throw new InvalidRequestException("No se puede redimensionar la region " + nombre + ": " + e.getMessage(), e);
+		}
+
+		log.info("Se redimensiono la region de cache {} a {} MB", nombre, heapMb);
+		return this.getEstadisticas(nombre, cache);
+	}
+
+	private EstadisticasRegion getEstadisticas(String nombre, Cache<?, ?> cache) {
+		ResourcePools pools = cache.unwrap(org.ehcache.Cache.class).getRuntimeConfiguration().getResourcePools();
+		SizedResourcePool heap = pools.getPoolForResource(ResourceType.Core.HEAP);
+		SizedResourcePool offheap = pools.getPoolForResource(ResourceType.Core.OFFHEAP);
+
+		EstadisticasRegion result = new EstadisticasRegion(
+				nombre,
+				heap == null ? null : heap.getSize() + " " + heap.getUnit(),
+				offheap == null ? null : offheap.getSize() + " " + offheap.getUnit(),
+				0, 0, 0, 0, 0);
+
+		ObjectName mbean = this.buscarMBean(nombre);
+		if(mbean == null) return result;
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			result.hits = (Long) server.getAttribute(mbean, "CacheHits");
+			result.misses = (Long) server.getAttribute(mbean, "CacheMisses");
+			result.puts = (Long) server.getAttribute(mbean, "CachePuts");
+			result.desalojos = (Long) server.getAttribute(mbean, "CacheEvictions");
+			result.porcentajeHits = (Float) server.getAttribute(mbean, "CacheHitPercentage");
+		} catch(JMException e) {
+			log.warn("No se pudieron leer las estadisticas de la region " + nombre, e);
+		}
+		return result;
+	}
+
+	/** Busca el MBean de estadisticas JSR-107 de la region */
+	private ObjectName buscarMBean(String nombre) {
+		// El nombre en el MBean tiene reemplazados los caracteres especiales de JMX
+		final String nombreMBean = nombre.replaceAll("[,:=\n]", ".");
+		try {
+			Set<ObjectName> names = ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName("javax.cache:type=CacheStatistics,*"), null);
+			return names.stream().filter(n -> nombreMBean.equals(n.getKeyProperty("Cache"))).findFirst().orElse(null);
+		} catch(JMException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Tamanio y estadisticas de una region de la cache.
+	 */
+	@Getter
+	@AllArgsConstructor
+	public static class EstadisticasRegion {
+		private String nombre;
+
+		/** Tamanio en heap (ej: "32 MB" o "1000 entries") */
+		private String heap;
+
+		/** Tamanio off-heap o null si no tiene */
+		private String offheap;
+
+		private long hits;
+		private long misses;
+		private long puts;
+
+		/** Entradas descartadas por falta de espacio */
+		private long desalojos;
+
+		/** Porcentaje de aciertos (0-100) */
+		private float porcentajeHits;
+	}
+}
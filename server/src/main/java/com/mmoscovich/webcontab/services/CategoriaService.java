@@ -3,7 +3,13 @@ package com.mmoscovich.webcontab.services;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import javax.inject.Inject;
@@ -13,6 +19,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.mmoscovich.webcontab.dao.CategoriaRepository;
+import com.mmoscovich.webcontab.dao.CuentaBaseRepository;
 import com.mmoscovich.webcontab.dto.CuentaDTO;
 import com.mmoscovich.webcontab.dto.IdNameModel;
 import com.mmoscovich.webcontab.exception.ConflictException;
@@ -24,7 +31,8 @@ import com.mmoscovich.webcontab.exporter.ExcelPlanDeCuentasExporter;
 import com.mmoscovich.webcontab.model.Categoria;
 import com.mmoscovich.webcontab.model.CuentaBase;
 import com.mmoscovich.webcontab.model.Organizacion;
-import com.mmoscovich.webcontab.util.CollectionUtils;
+import com.mmoscovich.webcontab.model.User;
+import com.mmoscovich.webcontab.util.PlanCuentas;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -41,6 +49,9 @@ public class CategoriaService extends CuentaBaseService<Categoria> {
 	@Inject
 	private CategoriaRepository dao;
 	
+	@Inject
+	private CuentaBaseRepository baseDao;
+	
 	@Inject
 	private EntityManager em;
 	
@@ -67,7 +78,13 @@ public class CategoriaService extends CuentaBaseService<Categoria> {
 	 * @param ids ids de las categorias
 	 */
 	public List<Categoria> findByIds(Organizacion org, List<Long> ids) {
-		return CollectionUtils.filter(this.list(org), cat -> ids.contains(cat.getId()));
+		PlanCuentas plan = planService.getPlan(org);
+		
+		// Los ids que no son categorias de la organizacion se ignoran
+		List<PlanCuentas.Nodo> nodos = new ArrayList<>();
+		for(Long id : ids) plan.getNodo(id).filter(n -> !n.isImputable()).ifPresent(nodos::add);
+		
+		return this.findByNodos(nodos, Categoria.class);
 	}
 	
 	/**
@@ -82,15 +99,15 @@ public class CategoriaService extends CuentaBaseService<Categoria> {
 //		// Usando query
 //		return dao.searchByText(org, queryMinuscula + "%");
 		
-		// Usando cache y filtro en memoria
-		return new CategoriasSearcher(query).search(this.list(org));
+		// Usando el indice del plan y filtro en memoria
+		return this.findByNodos(new CategoriasSearcher(query).search(planService.getPlan(org).getCategorias()), Categoria.class);
 	}
 	
 	/**
-	 * Obtiene y cachea la lista de categorias de una organizacion
+	 * Obtiene la lista de categorias de una organizacion, ordenadas (del indice del plan y la cache)
 	 */
 	public Collection<Categoria> list(Organizacion org) {
-		return dao.findByOrganizacion(org);
+		return this.findByNodos(planService.getPlan(org).getCategorias(), Categoria.class);
 	}
 	
 	/**
@@ -100,8 +117,8 @@ public class CategoriaService extends CuentaBaseService<Categoria> {
 //		// Usando Query
 //		return dao.findRoots(org);
 		
-		// Usando cache y filtrando en memoria
-		return CollectionUtils.filter(this.list(org), Categoria::isRaiz);
+		// Usando el indice del plan
+		return this.findByNodos(planService.getPlan(org).getRaices(), Categoria.class);
 	}
 	
 	/** Obtiene las cuentas de resultados (con resultado = true) */
@@ -161,6 +178,7 @@ public class CategoriaService extends CuentaBaseService<Categoria> {
     	}
     	
     	// Se guarda
+    	planService.invalidar(org);
 		return dao.save(categoria);
     }
     
@@ -190,6 +208,7 @@ public class CategoriaService extends CuentaBaseService<Categoria> {
     	if(categoria.getResultado() != null) existing.setResultado(categoria.getResultado());
     	
     	// Se guarda
+    	planService.invalidar(org);
     	return dao.save(existing);
     }
     
@@ -211,6 +230,7 @@ public class CategoriaService extends CuentaBaseService<Categoria> {
     	// Si hay categorias o cuentas hijas, no se permite eliminar 
     	if(this.findByCategoria(categoria).size() > 0) throw new CuentaUtilizadaException(categoria);
     	
+    	planService.invalidar(organizacion);
     	dao.delete(categoria);
     }
     
@@ -221,31 +241,119 @@ public class CategoriaService extends CuentaBaseService<Categoria> {
     public void eliminarTodas(Organizacion organizacion) {
     	log.debug("Se eliminan todas las categorias de la organizacion {}", organizacion);
     	
+    	planService.invalidar(organizacion);
     	dao.removeHierarchyByOrganizacion(organizacion);
     	dao.deleteByOrganizacion(organizacion);
     }
     
+    /**
+     * Copia el plan de cuentas completo (categorias y cuentas, con moneda y flags) de una organizacion a otra.
+     * <p>Se hace con queries masivas en la base, sin crear cada item con el servicio.</p>
+     * @param destino organizacion destino (no debe tener plan)
+     * @param origen organizacion cuyo plan se copia
+     * @param user usuario de creacion
+     * @return cantidad de categorias y cuentas copiadas
+     * @throws InvalidRequestException si las organizaciones son la misma o el origen no tiene plan
+     * @throws ConflictException si el destino ya tiene categorias o cuentas
+     */
+    @Transactional
+    public int clonarPlan(Organizacion destino, Organizacion origen, User user) throws InvalidRequestException, ConflictException {
+    	if(destino.getId().equals(origen.getId())) throw new InvalidRequestException("La organizacion origen y destino son la misma");
+    	if(baseDao.existsByOrganizacion(destino)) throw new ConflictException("La organizacion ya tiene plan de cuentas");
+    	
+    	log.info("Copiando el plan de cuentas de la organizacion {} a la {}", origen, destino);
+    	final long inicio = System.currentTimeMillis();
+    	
+    	planService.invalidar(destino);
+    	int cantidad = baseDao.clonarPlan(origen, destino, user);
+    	if(cantidad == 0) throw new InvalidRequestException("La organizacion " + origen.getNombre() + " no tiene plan de cuentas");
+    	
+    	log.info("Se copiaron {} categorias y cuentas a la organizacion {} en {} ms", cantidad, destino, System.currentTimeMillis() - inicio);
+    	return cantidad;
+    }
+    
     /**
      * Dada una categoria o cuenta, obtiene el path.
      * <br>Este consiste en una lista de items [id, descripcion] con la ruta desde la raiz hasta la cuenta
      * especificada.
      * <p>Se usa para generar la {@link CuentaDTO}.</p>
+     * <p>Se obtiene del indice del plan, sin consultar la base.</p>
      * @param cuenta
      * @return
      */
 	public List<IdNameModel<Long>> getPath(CuentaBase cuenta) {
 		// Cuando el item es raiz, el path es null
  		if(cuenta.getCategoria() == null) return null;
-
- 		Categoria cat = this.dao.findById(cuenta.getCategoria().getId())
- 				.orElseThrow(() -> new ServerException("No se encontro una categoria del Path (id=" + cuenta.getCategoria().getId() + ")"));
-		
- 		// Se obtiene el path del padre recursivamente
- 		List<IdNameModel<Long>> r = this.getPath(cat);
  		
-		if(r == null) r = new ArrayList<>();
-		r.add(new IdNameModel<>(cat.getId(), cat.getDescripcion()));
-		return r;
+ 		return this.getPaths(List.of(cuenta)).get(cuenta.getId());
+	}
+	
+	/**
+	 * Obtiene los paths de varias categorias o cuentas a la vez (por ej, las de una pagina).
+	 * <p>
+	 * Se arman con el indice del plan, sin consultar la base. Si alguna no esta en el indice (no deberia pasar),
+	 * se buscan los ancestros de todas las faltantes en una sola query por codigo.
+	 * </p>
+	 * @param cuentas categorias o cuentas
+	 * @return mapa de id al path. Las raiz no se incluyen (su path es null)
+	 */
+	public Map<Long, List<IdNameModel<Long>>> getPaths(Collection<? extends CuentaBase> cuentas) {
+		Map<Long, List<IdNameModel<Long>>> result = new HashMap<>();
+		
+		// Se agrupan por organizacion (en general es una sola) para pedir su plan una vez
+		Map<Long, List<CuentaBase>> porOrganizacion = new LinkedHashMap<>();
+		for(CuentaBase cuenta : cuentas) {
+			if(cuenta.getCategoria() != null) porOrganizacion.computeIfAbsent(cuenta.getOrganizacion().getId(), id -> new ArrayList<>()).add(cuenta);
+		}
+		
+		porOrganizacion.values().forEach(items -> {
+			PlanCuentas plan = planService.getPlan(items.get(0).getOrganizacion());
+			
+			List<CuentaBase> faltantes = new ArrayList<>();
+			for(CuentaBase cuenta : items) {
+				Optional<PlanCuentas.Nodo> nodo = plan.getNodo(cuenta.getId());
+				if(nodo.isPresent()) result.put(cuenta.getId(), plan.getPath(nodo.get()));
+				else faltantes.add(cuenta);
+			}
+			
+			if(!faltantes.isEmpty()) result.putAll(this.getPathsDesdeBase(items.get(0).getOrganizacion(), faltantes));
+		});
+		return result;
+	}
+	
+	/**
+	 * Arma los paths buscando todos los ancestros en la base con una sola query.
+	 * <p>El codigo incluye el de todos sus ancestros (ej: los de 1.2.34 son 1 y 1.2).</p>
+	 */
+	private Map<Long, List<IdNameModel<Long>>> getPathsDesdeBase(Organizacion org, List<CuentaBase> cuentas) {
+		Set<String> codigos = new HashSet<>();
+		for(CuentaBase cuenta : cuentas) {
+			codigos.addAll(getCodigosAncestros(cuenta.getCodigo()));
+		}
+		
+		Map<String, Categoria> ancestros = new HashMap<>();
+		dao.findByOrganizacionAndCodigoIn(org, codigos).forEach(c -> ancestros.put(c.getCodigo(), c));
+		
+		Map<Long, List<IdNameModel<Long>>> result = new HashMap<>();
+		for(CuentaBase cuenta : cuentas) {
+			List<IdNameModel<Long>> path = new ArrayList<>();
+			for(String codigo : getCodigosAncestros(cuenta.getCodigo())) {
+				Categoria cat = ancestros.get(codigo);
+				if(cat == null) throw new ServerException("No se encontro una categoria del Path (codigo=" + codigo + ")");
+				path.add(new IdNameModel<>(cat.getId(), cat.getDescripcion()));
+			}
+			if(!path.isEmpty()) result.put(cuenta.getId(), path);
+		}
+		return result;
+	}
+	
+	/** Codigos de los ancestros, desde la raiz (ej: para 1.2.34 devuelve [1, 1.2]) */
+	private static List<String> getCodigosAncestros(String codigo) {
+		List<String> result = new ArrayList<>();
+		for(int i = codigo.indexOf('.'); i >= 0; i = codigo.indexOf('.', i + 1)) {
+			result.add(codigo.substring(0, i));
+		}
+		return result;
 	}
 	
 //	@Override
@@ -8,14 +8,14 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 
-import com.mmoscovich.webcontab.model.Categoria;
+import com.mmoscovich.webcontab.util.PlanCuentas.Nodo;
 
 /**
- * Clase que permite hacer busquedas de categorias por texto libre en memoria.
+ * Clase que permite hacer busquedas de categorias por texto libre en memoria (sobre el indice del plan).
  * <p>Filtrar y ordena los resultados.</p>
  *
  */
-public class CategoriasSearcher implements Predicate<Categoria>, Comparator<Categoria> {
+public class CategoriasSearcher implements Predicate<Nodo>, Comparator<Nodo> {
 	/** Texto a buscar */
 	private String query;
 	
@@ -34,7 +34,7 @@ public class CategoriasSearcher implements Predicate<Categoria>, Comparator<Cate
 	/**
 	 * Dada una lista de categorias, las filtra y ordena por la query
 	 */
-	public List<Categoria> search(Collection<Categoria> categorias) {
+	public List<Nodo> search(Collection<Nodo> categorias) {
 		return categorias.stream()
 				.filter(this)
 				.sorted(this)
@@ -42,13 +42,13 @@ public class CategoriasSearcher implements Predicate<Categoria>, Comparator<Cate
 	}
 	
 	@Override
-	public boolean test(Categoria cat) {
+	public boolean test(Nodo cat) {
 		// Se debe incluir la categoria si contiene el texto en la descripcion o en el codigo
 		return cat.getDescripcion().toLowerCase().contains(query) || (isCodigo && cat.getCodigo().startsWith(query));
 	}
 	
 	@Override
-	public int compare(Categoria c1, Categoria c2) {
+	public int compare(Nodo c1, Nodo c2) {
 		// Si el texto es un codigo, se intenta ordenar primero por codigo
 		if(isCodigo) {
 			// Si una de las categorias tiene el texto en el codigo, esa tiene prioridad (por sobre la que lo tiene en la descripcion)
@@ -0,0 +1,156 @@
+package com.mmoscovich.webcontab.services;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.mmoscovich.webcontab.dto.CierreEjercicioDTO;
+import com.mmoscovich.webcontab.dto.CierreEjercicioDTO.Linea;
+import com.mmoscovich.webcontab.dto.informes.BalanceCuenta;
+import com.mmoscovich.webcontab.exception.InvalidRequestException;
+import com.mmoscovich.webcontab.model.Categoria;
+import com.mmoscovich.webcontab.model.Cuenta;
+import com.mmoscovich.webcontab.model.CuentaBase;
+import com.mmoscovich.webcontab.util.SaldosPorCuenta;
+import com.mmoscovich.webcontab.util.SaldosPorMoneda;
+
+/**
+ * Clase encargada de calcular los asientos de fin de ejercicio a partir de una sola pasada del balance.
+ * <p>Con los saldos de todas las cuentas del ejercicio calcula:
+ * <ul>
+ * 	<li>La refundicion de las cuentas de resultado (y su balanceo en las cuentas designadas, una por moneda)</li>
+ * 	<li>El cierre, con los saldos que quedarian luego de la refundicion</li>
+ * 	<li>La apertura del ejercicio siguiente (inversa al cierre)</li>
+ * </ul>
+ * </p>
+ * <p>Genera las mismas imputaciones que calcular cada asiento por separado, pero sin persistir la refundicion
+ * para volver a consultar el balance.</p>
+ * <p>Una vez acumulado el balance, {@link #calcular(List, List)} no modifica el estado, por lo que se puede
+ * reutilizar (y compartir entre threads) mientras el ejercicio no cambie.</p>
+ */
+public class CierreCalculator {
+
+	/** Saldos de cada cuenta, en el orden del balance */
+	private final SaldosPorCuenta saldos = new SaldosPorCuenta(512);
+
+	/** Datos de cada cuenta (mismo indice que {@link #saldos}) */
+	private final List<BalanceCuenta> cuentas = new ArrayList<>(512);
+
+	/**
+	 * Acumula el saldo de una cuenta.
+	 * <p>El balance se debe agregar ordenado por cuenta, ya que ese es el orden de las imputaciones generadas.</p>
+	 * @param balance saldo de la cuenta en el ejercicio
+	 * @throws InvalidRequestException si el saldo tiene mas de 2 decimales
+	 */
+	public void add(BalanceCuenta balance) throws InvalidRequestException {
+		int i = saldos.sumarCentavos(balance.getId(), balance.getMonedaId(), SaldosPorMoneda.toCentavos(balance.getSaldo()));
+
+		// Si es una cuenta nueva, se guardan sus datos
+		if(i == cuentas.size()) cuentas.add(balance);
+	}
+
+	/**
+	 * Calcula las imputaciones de los tres asientos.
+	 * @param categoriasResultado categorias cuyas cuentas se refunden
+	 * @param balanceadoras cuentas que balancean los resultados (una por moneda)
+	 * @return las imputaciones de refundicion, cierre y apertura
+	 * @throws InvalidRequestException si no existe cuenta que balancee los resultados de alguna moneda
+	 */
+	public CierreEjercicioDTO calcular(List<Categoria> categoriasResultado, List<Cuenta> balanceadoras) throws InvalidRequestException {
+		CierreEjercicioDTO result = new CierreEjercicioDTO();
+		
+		// Se marcan las cuentas de resultados (por indice)
+		BitSet resultados = this.marcarResultados(categoriasResultado);
+
+		// Saldo final de cada cuenta luego de la refundicion
+		long[] finales = new long[saldos.size()];
+
+		// Las cuentas de resultado con saldo se llevan a cero y se acumula su saldo por moneda
+		SaldosPorMoneda totalResultados = new SaldosPorMoneda();
+		for(int i = 0; i < saldos.size(); i++) {
+			long saldo = saldos.getCentavos(i);
+			if(!resultados.get(i)) {
+				finales[i] = saldo;
+			} else if(saldo != 0) {
+				result.getRefundicion().add(this.crearLinea(i, -saldo));
+				totalResultados.sumarCentavos(saldos.getMonedaId(i), saldo);
+			}
+		}
+
+		// Por cada moneda, la cuenta balanceadora recibe el saldo de los resultados
+		List<Linea> balanceadorasSinSaldo = new ArrayList<>();
+		for(int m = 0; m < totalResultados.size(); m++) {
+			Cuenta balanceadora = buscarBalanceadora(balanceadoras, totalResultados.getMonedaId(m));
+			long importe = totalResultados.getCentavos(m);
+			result.getRefundicion().add(crearLinea(balanceadora, importe));
+
+			// Se acumula al saldo que ya tenia. Si no tenia, se agrega luego al cierre
+			int i = saldos.indexOf(balanceadora.getId());
+			if(i >= 0) {
+				finales[i] = Math.addExact(finales[i], importe);
+			} else if(importe != 0) {
+				balanceadorasSinSaldo.add(crearLinea(balanceadora, -importe));
+			}
+		}
+
+		// El cierre lleva a cero los saldos finales
+		for(int i = 0; i < finales.length; i++) {
+			if(finales[i] != 0) result.getCierre().add(this.crearLinea(i, -finales[i]));
+		}
+
+		// Las balanceadoras que no tenian saldo se ubican segun el orden del plan de cuentas
+		for(Linea linea : balanceadorasSinSaldo) insertarEnOrden(result.getCierre(), linea);
+
+		// La apertura es inversa al cierre
+		for(Linea linea : result.getCierre()) result.getApertura().add(linea.crearInversa());
+
+		return result;
+	}
+
+	/** Cantidad de cuentas con saldo */
+	public int size() {
+		return saldos.size();
+	}
+
+	/** Marca las cuentas que pertenecen a alguna de las categorias (por prefijo de codigo, ej "4.") */
+	private BitSet marcarResultados(List<Categoria> categoriasResultado) {
+		List<String> prefijos = categoriasResultado.stream().map(c -> c.getCodigo() + ".").collect(Collectors.toList());
+		
+		BitSet result = new BitSet(cuentas.size());
+		for(int i = 0; i < cuentas.size(); i++) {
+			String codigo = cuentas.get(i).getCodigo();
+			for(String prefijo : prefijos) {
+				if(codigo.startsWith(prefijo)) {
+					result.set(i);
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	private Linea crearLinea(int index, long importe) {
+		BalanceCuenta cuenta = cuentas.get(index);
+		return new Linea(cuenta.getId(), cuenta.getCodigo(), cuenta.getDescripcion(), cuenta.getMonedaId(), SaldosPorMoneda.fromCentavos(importe));
+	}
+
+	private static Linea crearLinea(Cuenta cuenta, long importe) {
+		return new Linea(cuenta.getId(), cuenta.getCodigo(), cuenta.getDescripcion(), cuenta.getMoneda().getId(), SaldosPorMoneda.fromCentavos(importe));
+	}
+
+	private static Cuenta buscarBalanceadora(List<Cuenta> balanceadoras, long monedaId) throws InvalidRequestException {
+		for(Cuenta c : balanceadoras) {
+			if(c.getMoneda().getId() == monedaId) return c;
+		}
+		throw new InvalidRequestException("No existe cuenta que balancee resultados para la moneda con id " + monedaId);
+	}
+
+	/** Inserta la linea antes de la primera cuyo orden sea mayor */
+	private static void insertarEnOrden(List<Linea> lineas, Linea linea) {
+		String orden = CuentaBase.calcularOrden(linea.getCuentaCodigo());
+		int pos = 0;
+		while(pos < lineas.size() && CuentaBase.calcularOrden(lineas.get(pos).getCuentaCodigo()).compareTo(orden) < 0) pos++;
+		lineas.add(pos, linea);
+	}
+}
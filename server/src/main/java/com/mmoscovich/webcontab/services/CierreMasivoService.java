@@ -0,0 +1,134 @@
+package com.mmoscovich.webcontab.services;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.concurrent.DelegatingSecurityContextCallable;
+import org.springframework.stereotype.Service;
+
+import com.mmoscovich.webcontab.dao.OrganizacionRepository;
+import com.mmoscovich.webcontab.dto.CierreMasivoDTO;
+import com.mmoscovich.webcontab.dto.CierreOrganizacionDTO;
+import com.mmoscovich.webcontab.exception.EntityNotFoundException;
+import com.mmoscovich.webcontab.exception.InvalidRequestException;
+import com.mmoscovich.webcontab.exception.ServerException;
+import com.mmoscovich.webcontab.model.Ejercicio;
+import com.mmoscovich.webcontab.model.Organizacion;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Servicio que cierra ejercicios de varias organizaciones en paralelo.
+ * <p>Usa un pool fijo de threads (configurable con <code>webcontab.cierre.threads</code>).
+ * <br>Cada ejercicio se cierra en su propia transaccion y con su propio lock (ver {@link EjercicioService#cerrarEjercicio(Ejercicio)}),
+ * por lo que si uno falla, los demas no se ven afectados.</p>
+ */
+@Slf4j
+@Service
+public class CierreMasivoService {
+
+	/** Cantidad maxima de ejercicios por pedido */
+	private static final int MAX_ITEMS = 500;
+
+	@Inject
+	private EjercicioService ejercicioService;
+
+	@Inject
+	private OrganizacionRepository orgDao;
+
+	private final int threads;
+
+	private final ExecutorService executor;
+
+	public CierreMasivoService(@Value("${webcontab.cierre.threads:4}") int threads) {
+		this.threads = threads;
+		this.executor = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("cierre-"));
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Cierra los ejercicios indicados en paralelo y espera a que terminen todos.
+	 * <p>Las tareas se ejecutan con el usuario actual (para la auditoria de los asientos creados).</p>
+	 * @param items organizacion y ejercicio a cerrar
+	 * @return el resultado de cada cierre y los totales
+	 * @throws InvalidRequestException si no hay items, hay demasiados o hay ejercicios repetidos
+	 */
+	public CierreMasivoDTO cerrar(List<CierreOrganizacionDTO> items) throws InvalidRequestException {
+		if(items == null || items.isEmpty()) throw new InvalidRequestException("No se indicaron ejercicios a cerrar");
+		if(items.size() > MAX_ITEMS) throw new InvalidRequestException("No se pueden cerrar mas de " + MAX_ITEMS + " ejercicios a la vez");
+
+		Set<Long> ejercicios = new HashSet<>();
+		for(CierreOrganizacionDTO item : items) {
+			if(!ejercicios.add(item.getEjercicioId())) throw new InvalidRequestException("El ejercicio " + item.getEjercicioId() + " esta repetido");
+		}
+
+		log.info("Cerrando {} ejercicios con {} threads", items.size(), threads);
+		final long inicio = System.nanoTime();
+
+		// Cada tarea se ejecuta con el contexto de seguridad actual
+		List<Callable<CierreOrganizacionDTO>> tareas = new ArrayList<>(items.size());
+		for(CierreOrganizacionDTO item : items) {
+			tareas.add(new DelegatingSecurityContextCallable<>(() -> this.cerrar(item)));
+		}
+
+		List<CierreOrganizacionDTO> resultados = new ArrayList<>(items.size());
+		try {
+			for(Future<CierreOrganizacionDTO> future : executor.invokeAll(tareas)) resultados.add(future.get());
+
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServerException("Se interrumpio el cierre masivo", e);
+		} catch(ExecutionException e) {
+			// No deberia pasar, cada tarea captura sus errores
+			throw new ServerException("Error en el cierre masivo", e.getCause());
+		}
+
+		final long duracionMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+		int exitosos = (int) resultados.stream().filter(CierreOrganizacionDTO::getExito).count();
+		double porSegundo = duracionMs == 0 ? exitosos : exitosos * 1000d / duracionMs;
+
+		log.info("Cierre masivo finalizado en {} ms: {} cerrados y {} con error", duracionMs, exitosos, resultados.size() - exitosos);
+		return new CierreMasivoDTO(resultados, exitosos, resultados.size() - exitosos, threads, duracionMs, porSegundo);
+	}
+
+	/**
+	 * Cierra un ejercicio, capturando el error si falla.
+	 */
+	private CierreOrganizacionDTO cerrar(CierreOrganizacionDTO item) {
+		final long inicio = System.nanoTime();
+		CierreOrganizacionDTO result = new CierreOrganizacionDTO(item.getOrganizacionId(), item.getEjercicioId());
+
+		try {
+			Organizacion org = orgDao.findById(item.getOrganizacionId()).orElseThrow(() -> new EntityNotFoundException(Organizacion.class, item.getOrganizacionId()));
+			Ejercicio ejercicio = ejercicioService.cerrarEjercicio(ejercicioService.getByIdOrThrow(org, item.getEjercicioId()));
+
+			result.setAsientoCierreId(ejercicio.getAsientoCierreId());
+			result.setExito(true);
+
+		} catch(Exception e) {
+			log.warn("No se pudo cerrar el ejercicio {} de la organizacion {}: {}", item.getEjercicioId(), item.getOrganizacionId(), e.getMessage());
+			result.setError(e.getMessage());
+			result.setExito(false);
+		}
+
+		result.setDuracionMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio));
+		return result;
+	}
+}
@@ -0,0 +1,115 @@
+package com.mmoscovich.webcontab.services;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.mmoscovich.webcontab.dao.InformeRepository;
+import com.mmoscovich.webcontab.dao.helper.QueryBalance.FiltroBalance;
+import com.mmoscovich.webcontab.dto.informes.BalanceCuenta;
+import com.mmoscovich.webcontab.model.Ejercicio;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cache de los saldos de cierre de cada ejercicio.
+ * <p>Guarda el balance acumulado ({@link CierreCalculator}) junto con la version de datos del ejercicio
+ * (ver {@link EjercicioLockService#getVersion(Ejercicio)}) y la del plan de cuentas de la organizacion
+ * (ver {@link PlanCuentasService#getVersionPlan(com.mmoscovich.webcontab.model.Organizacion)}).
+ * Si alguna cambia, el balance se vuelve a consultar.</p>
+ * <p>El balance incluye el codigo, la descripcion y la moneda de cada cuenta, por eso tambien depende del plan.
+ * Las categorias de resultado y las cuentas balanceadoras se obtienen en cada calculo.</p>
+ */
+@Slf4j
+@Service
+public class CierreSnapshotService {
+
+	/** Cantidad maxima de ejercicios cacheados */
+	private static final int MAX_SNAPSHOTS = 32;
+
+	@Inject
+	private InformeRepository informeDao;
+
+	@Inject
+	private EjercicioLockService ejercicioLock;
+
+	@Inject
+	private PlanCuentasService planService;
+
+	/** Snapshots por id de ejercicio (LRU) */
+	private final Map<Long, Snapshot> snapshots = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Snapshot> eldest) {
+			return size() > MAX_SNAPSHOTS;
+		}
+	});
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Obtiene los saldos de todas las cuentas del ejercicio, listos para calcular el cierre.
+	 * <p>El resultado se comparte, no se le deben agregar saldos.</p>
+	 * @param ejercicio
+	 */
+	@Transactional(readOnly = true)
+	public CierreCalculator getSaldos(Ejercicio ejercicio) {
+		// Si la transaccion actual tiene el lock del ejercicio o modifico el plan, puede tener cambios sin confirmar. No se usa la cache
+		if(ejercicioLock.isTomadoPorThreadActual(ejercicio) || planService.modificadaEnTransaccion(ejercicio.getOrganizacion())) {
+			return this.consultarSaldos(ejercicio);
+		}
+
+		// Las versiones se leen antes de consultar. Si cambian mientras se consulta, el snapshot queda viejo y no se usa.
+		final long version = ejercicioLock.getVersion(ejercicio);
+		final long versionPlan = planService.getVersionPlan(ejercicio.getOrganizacion());
+
+		Snapshot snapshot = snapshots.get(ejercicio.getId());
+		if(snapshot != null && snapshot.version == version && snapshot.versionPlan == versionPlan) {
+			hits.increment();
+			return snapshot.saldos;
+		}
+
+		misses.increment();
+		CierreCalculator saldos = this.consultarSaldos(ejercicio);
+		snapshots.put(ejercicio.getId(), new Snapshot(version, versionPlan, saldos));
+
+		log.debug("Se guardaron los saldos de cierre del {} (version {}, plan {}, {} cuentas)", ejercicio, version, versionPlan, saldos.size());
+		return saldos;
+	}
+
+	/** Cantidad de veces que se usaron saldos cacheados */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/** Cantidad de veces que se consulto el balance */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/** Acumula el saldo de todas las cuentas en el ejercicio (una sola query) */
+	private CierreCalculator consultarSaldos(Ejercicio ejercicio) {
+		CierreCalculator calculator = new CierreCalculator();
+		try(Stream<BalanceCuenta> balance = informeDao.streamBalance(new FiltroBalance(ejercicio))) {
+			balance.forEach(calculator::add);
+		}
+		return calculator;
+	}
+
+	@AllArgsConstructor
+	private static class Snapshot {
+		private final long version;
+		private final long versionPlan;
+		private final CierreCalculator saldos;
+	}
+}
@@ -1,7 +1,9 @@
 package com.mmoscovich.webcontab.services;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 
@@ -18,6 +20,7 @@ import com.mmoscovich.webcontab.exception.InvalidRequestException;
 import com.mmoscovich.webcontab.model.Categoria;
 import com.mmoscovich.webcontab.model.CuentaBase;
 import com.mmoscovich.webcontab.model.Organizacion;
+import com.mmoscovich.webcontab.util.PlanCuentas;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -44,6 +47,9 @@ public abstract class CuentaBaseService<T extends CuentaBase> {
 	@Inject
 	protected CuentaMapper cuentaMapper;
 	
+	@Inject
+	protected PlanCuentasService planService;
+	
 //	protected abstract void checkCuentaNoUtilizadaEnEjercicio(Ejercicio ejercicio, T cuenta) throws CuentaUtilizadaException;
 	
 	/**
@@ -142,10 +148,31 @@ public abstract class CuentaBaseService<T extends CuentaBase> {
     
     /**
      * Devuelve las categorias o cuentas que son hijas directas de la especificada
+     * <p>Los hijos se obtienen del indice del plan y cada uno se busca por id (de la cache).</p>
      * @param categoria
      * @return
      */
     public List<CuentaBase> findByCategoria(Categoria categoria) {
-		return dao.findByCategoriaOrderByOrden(categoria);
+    	Optional<PlanCuentas.Nodo> nodo = planService.getPlan(categoria.getOrganizacion()).getNodo(categoria.getId());
+    	
+    	// Si no esta en el plan (no deberia pasar), se consulta
+    	if(nodo.isEmpty()) return dao.findByCategoriaOrderByOrden(categoria);
+    	
+		return this.findByNodos(nodo.get().getHijos(), CuentaBase.class);
 	}
+    
+    /**
+     * Busca las categorias o cuentas de los nodos del plan, por id (de la cache), manteniendo el orden.
+     * <br>Las que no estan en la cache se buscan en una sola query (ver {@link CuentaBaseRepository#findByIdsEnOrden(List)}).
+     * @param nodos nodos del plan
+     * @param cls tipo de los items (los de otro tipo se ignoran)
+     */
+    protected <C extends CuentaBase> List<C> findByNodos(List<PlanCuentas.Nodo> nodos, Class<C> cls) {
+    	if(nodos.isEmpty()) return new ArrayList<>();
+    	
+    	return dao.findByIdsEnOrden(nodos.stream().map(PlanCuentas.Nodo::getId).collect(Collectors.toList())).stream()
+    			.filter(cls::isInstance)
+    			.map(cls::cast)
+    			.collect(Collectors.toList());
+    }
 }
@@ -1,17 +1,28 @@
 package com.mmoscovich.webcontab.services;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.mmoscovich.webcontab.dao.CuentaBaseRepository;
 import com.mmoscovich.webcontab.dao.CuentaRepository;
 import com.mmoscovich.webcontab.dao.MonedaRepository;
+import com.mmoscovich.webcontab.dto.CuentaLoteDTO;
+import com.mmoscovich.webcontab.dto.CuentaLoteResultadoDTO;
+import com.mmoscovich.webcontab.dto.CuentaLoteResultadoDTO.Estado;
 import com.mmoscovich.webcontab.exception.ConflictException;
 import com.mmoscovich.webcontab.exception.CuentaUtilizadaException;
 import com.mmoscovich.webcontab.exception.EntityNotFoundException;
@@ -21,6 +32,8 @@ import com.mmoscovich.webcontab.model.Cuenta;
 import com.mmoscovich.webcontab.model.CuentaBase;
 import com.mmoscovich.webcontab.model.Moneda;
 import com.mmoscovich.webcontab.model.Organizacion;
+import com.mmoscovich.webcontab.model.User;
+import com.mmoscovich.webcontab.util.PlanCuentas;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -31,6 +44,9 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class CuentaService extends CuentaBaseService<Cuenta> {
 
+	/** Cantidad maxima de cuentas por modificacion masiva */
+	private static final int MAX_LOTE = 5000;
+
 	@Inject
 	private CuentaRepository dao;
 	
@@ -83,36 +99,55 @@ public class CuentaService extends CuentaBaseService<Cuenta> {
 		log.debug("Buscando Cuentas{} con query {}", includeCategories ? " y Categorias" : "", query);
     	long start = System.currentTimeMillis();
     	
+    	// Usando el indice del plan en memoria (ver BuscadorCuentas para el orden de los resultados)
+    	PlanCuentas plan = planService.getPlan(org);
+    	
 		// Se busca categorias con esa descripcion o codigo primero
-		List<Categoria> categorias = catService.search(org, query);
+    	List<PlanCuentas.Nodo> categorias = new CategoriasSearcher(query).search(plan.getCategorias());
 		
 		// Se busca cuentas o categorias que tienen esa descripcion, codigo o que son hijas de las categorias encontradas
-		Slice<? extends CuentaBase> result = includeCategories ? baseDao.searchAllByText(org, query.toLowerCase(), categorias, pageParams) : baseDao.searchCuentasByText(org, query.toLowerCase(), categorias, pageParams);
-		log.debug("Query ejecutada en {}ms", System.currentTimeMillis() - start);
-		return result;
+    	Slice<Long> ids = plan.getBuscador().buscar(query, categorias, includeCategories, pageParams);
+    	
+    	// Solo se buscan las entidades de la pagina (por id, de la cache)
+    	List<CuentaBase> content = this.findByNodos(ids.map(id -> plan.getNodo(id).get()).getContent(), CuentaBase.class);
+		log.debug("Busqueda ejecutada en {}ms", System.currentTimeMillis() - start);
+		return new SliceImpl<>(content, pageParams, ids.hasNext());
 	}
 	
 	/** 
 	 * Obtiene todas las cuentas de la organizacion descendientes de las categorias especificadas.
 	 */
 	public List<Cuenta> findCuentasDescendientes(Organizacion org, List<Categoria> categorias) {
-		return baseDao.getCuentasDescendientes(org, categorias);
+		Set<Long> ids = this.findIdsCuentasDescendientes(org, categorias.stream().map(Categoria::getId).collect(Collectors.toList()));
+		if(ids.isEmpty()) return new ArrayList<>();
+		
+		return dao.findByIds(org, new ArrayList<>(ids));
+	}
+	
+	/** 
+	 * Obtiene los ids de todas las cuentas de la organizacion descendientes de las categorias especificadas (del indice del plan).
+	 * <p>Los ids que no son categorias de la organizacion se ignoran.</p>
+	 */
+	public Set<Long> findIdsCuentasDescendientes(Organizacion org, Collection<Long> categoriaIds) {
+		return planService.getPlan(org).getCuentasDescendientes(categoriaIds);
 	}
 	
 	/** 
 	 * Obtiene todas las cuentas de la organizacion que balancean resultados (una por moneda).
 	 * <br>Se usa para la refundicion de cuentas de resultados. 
+	 * <p>Se obtienen del indice del plan (y las entidades de la cache), sin consultar la base.</p>
 	 */
 	public List<Cuenta> findCuentasQueBalanceanResultados(Organizacion org) {
-		return dao.findCuentasQueBalanceanResultados(org);
+		return this.findByNodos(planService.getPlan(org).getBalanceanResultados(), Cuenta.class);
 	}
 	
 	/** 
 	 * Obtiene todas las cuentas de la organizacion que balancean las ajustables por inflacion (una por moneda).
 	 * <br>Se usa para el ajuste por inflacion. 
+	 * <p>Se obtienen del indice del plan (y las entidades de la cache), sin consultar la base.</p>
 	 */
 	public List<Cuenta> findCuentasQueBalanceanAjustables(Organizacion org) {
-		return dao.findCuentasQueBalanceanAjustables(org);
+		return this.findByNodos(planService.getPlan(org).getBalanceanAjustables(), Cuenta.class);
 	}
 
     /**
@@ -135,6 +170,7 @@ public class CuentaService extends CuentaBaseService<Cuenta> {
     	log.debug("El codigo de la cuenta es {} (categoria {})", cuenta.getCodigo(), cuenta.getCategoria().getDescripcion());
     	
     	// Guarda
+    	planService.invalidar(org);
     	return dao.save(cuenta);
     }
     
@@ -192,9 +228,113 @@ public class CuentaService extends CuentaBaseService<Cuenta> {
     		this.validarYCompletarBalanceadoraDeAjustables(existing, cuenta.getBalanceaAjustables());
     	}
     	
+    	planService.invalidar(org);
     	return dao.save(existing);
     }
     
+    /**
+     * Modifica activa, moneda y/o ajustable de varias cuentas de la organizacion (por ids y/o las descendientes de una categoria).
+     * <p>
+     * Se validan todas las cuentas en memoria (con una query para su estado y otra para las imputaciones) y se modifican
+     * las validas con queries masivas. Las que no se pueden modificar se informan con el error y no impiden modificar el resto.
+     * <br>Se aplican las mismas reglas que al actualizar una cuenta. Ademas, no se puede cambiar la moneda de una cuenta balanceadora
+     * (quedaria mas de una para la moneda nueva).
+     * </p>
+     * @param org organizacion
+     * @param lote cuentas y cambios a realizar
+     * @param user usuario que realiza la modificacion
+     * @return el resultado de cada cuenta
+     * @throws InvalidRequestException si no se indicaron cambios o cuentas, o son demasiadas
+     * @throws EntityNotFoundException si no existe la categoria o la moneda
+     */
+    @Transactional
+    public CuentaLoteResultadoDTO actualizarLote(Organizacion org, CuentaLoteDTO lote, User user) throws InvalidRequestException, EntityNotFoundException {
+    	if(lote.getActiva() == null && lote.getMonedaId() == null && lote.getAjustable() == null) {
+    		throw new InvalidRequestException("Debe indicar al menos un cambio (activa, moneda o ajustable)");
+    	}
+    	
+    	// Se arma la lista de cuentas (sin repetidos)
+    	Set<Long> ids = new LinkedHashSet<>();
+    	if(lote.getIds() != null) ids.addAll(lote.getIds());
+    	if(lote.getCategoriaId() != null) {
+    		PlanCuentas plan = planService.getPlan(org);
+    		plan.getNodo(lote.getCategoriaId())
+    			.filter(n -> !n.isImputable())
+    			.orElseThrow(() -> new EntityNotFoundException(Categoria.class, lote.getCategoriaId()));
+    		ids.addAll(plan.getCuentasDescendientes(List.of(lote.getCategoriaId())));
+    	}
+    	ids.remove(null);
+    	if(ids.isEmpty()) throw new InvalidRequestException("Debe indicar las cuentas o una categoria con cuentas");
+    	if(ids.size() > MAX_LOTE) throw new InvalidRequestException("No se pueden modificar mas de " + MAX_LOTE + " cuentas a la vez");
+    	
+    	final Moneda moneda = lote.getMonedaId() == null ? null :
+    		monedaDao.findById(lote.getMonedaId()).orElseThrow(() -> new EntityNotFoundException(Moneda.class, lote.getMonedaId()));
+    	
+    	log.debug("Modificando {} cuentas de la organizacion {}", ids.size(), org);
+    	
+    	// Estado actual de las cuentas (sin cargar las entidades)
+    	Map<Long, EstadoCuenta> estados = new HashMap<>();
+    	dao.findEstados(org, ids).forEach(r -> estados.put(((Number) r[0]).longValue(), new EstadoCuenta(r)));
+    	
+    	// Si se cambia la moneda, se buscan las que tienen imputaciones (solo de las que la cambian)
+    	Set<Long> conImputaciones = Set.of();
+    	if(moneda != null) {
+    		conImputaciones = imputacionService.findCuentasConImputaciones(estados.values().stream()
+    				.filter(e -> e.monedaId != moneda.getId())
+    				.map(e -> e.id)
+    				.collect(Collectors.toList()));
+    	}
+    	
+    	// Monedas actuales de las cuentas (de la cache)
+    	Map<Long, Moneda> monedas = new HashMap<>();
+    	
+    	CuentaLoteResultadoDTO result = new CuentaLoteResultadoDTO();
+    	List<Long> modificar = new ArrayList<>();
+    	for(Long id : ids) {
+    		EstadoCuenta estado = estados.get(id);
+    		if(estado == null) {
+    			result.add(new CuentaLoteResultadoDTO.Item(id, null, Estado.ERROR, "No existe la cuenta"));
+    			continue;
+    		}
+    		
+    		// Valores finales de la cuenta
+    		boolean cambiaMoneda = moneda != null && estado.monedaId != moneda.getId();
+    		boolean cambiaActiva = lote.getActiva() != null && lote.getActiva() != estado.activa;
+    		boolean cambiaAjustable = lote.getAjustable() != null && lote.getAjustable() != estado.ajustable;
+    		Moneda monedaFinal = moneda != null ? moneda : monedas.computeIfAbsent(estado.monedaId, mId -> monedaDao.findById(mId).orElse(null));
+    		boolean ajustableFinal = lote.getAjustable() != null ? lote.getAjustable() : estado.ajustable;
+    		
+    		String error = null;
+    		if(cambiaMoneda && conImputaciones.contains(id)) {
+    			error = "La cuenta tiene imputaciones, no se puede cambiar la moneda";
+    		} else if(cambiaMoneda && (estado.balanceaResultados || estado.balanceaAjustables)) {
+    			error = "La cuenta es balanceadora, no se puede cambiar la moneda";
+    		} else if(ajustableFinal && (monedaFinal == null || !monedaFinal.isAjustable())) {
+    			error = "La cuenta no puede ser ajustable porque su moneda no lo es";
+    		} else if(ajustableFinal && estado.balanceaAjustables) {
+    			error = "La cuenta no puede ser ajustable ya que balancea las ajustables";
+    		}
+    		
+    		if(error != null) {
+    			result.add(new CuentaLoteResultadoDTO.Item(id, estado.codigo, Estado.ERROR, error));
+    		} else if(!cambiaMoneda && !cambiaActiva && !cambiaAjustable) {
+    			result.add(new CuentaLoteResultadoDTO.Item(id, estado.codigo, Estado.SIN_CAMBIOS, null));
+    		} else {
+    			result.add(new CuentaLoteResultadoDTO.Item(id, estado.codigo, Estado.ACTUALIZADA, null));
+    			modificar.add(id);
+    		}
+    	}
+    	
+    	// Se modifican todas las cuentas validas juntas (los valores que ya tenian no cambian)
+    	if(!modificar.isEmpty()) {
+    		baseDao.actualizarCuentas(modificar, lote.getActiva(), moneda, lote.getAjustable(), user);
+    		planService.invalidar(org);
+    	}
+    	
+    	log.debug("Cuentas modificadas: {}, sin cambios: {}, con error: {}", result.getActualizadas(), result.getSinCambios(), result.getFallidas());
+    	return result;
+    }
+    
     /**
      * Valida y completa los datos de una cuenta nueva
      * @param org organizacion en la que se crea
@@ -305,6 +445,7 @@ public class CuentaService extends CuentaBaseService<Cuenta> {
     	// Si la cuenta tiene imputaciones, no se puede eliminar
     	if(imputacionService.cuentaTieneImputaciones(cuenta)) throw new CuentaUtilizadaException(cuenta);
     	
+    	planService.invalidar(organizacion);
     	dao.delete(cuenta);
     }
     
@@ -314,6 +455,7 @@ public class CuentaService extends CuentaBaseService<Cuenta> {
     @Transactional
     public void eliminarTodas(Organizacion organizacion) {
     	log.debug("Se eliminan todas las cuentas de la organizacion {}", organizacion);
+    	planService.invalidar(organizacion);
     	dao.deleteByOrganizacion(organizacion);
     }
     
@@ -384,6 +526,7 @@ public class CuentaService extends CuentaBaseService<Cuenta> {
     	log.debug("Desactivando cuentas ajustables y las que las balancean para la moneda {} en TODAS las organizaciones", moneda);
     	
     	dao.desactivarCuentasAjustablesYBalanceadora(moneda);
+    	planService.invalidarTodas();
     }
     
 //	@Override
@@ -392,4 +535,27 @@ public class CuentaService extends CuentaBaseService<Cuenta> {
 //			throw new CuentaUtilizadaException(cuenta, ejercicio);
 //		}
 //	}
+    
+    /**
+     * Estado de una cuenta para validar una modificacion masiva (ver {@link CuentaRepository#findEstados})
+     */
+    private static class EstadoCuenta {
+    	private final long id;
+    	private final String codigo;
+    	private final boolean activa;
+    	private final long monedaId;
+    	private final boolean ajustable;
+    	private final boolean balanceaResultados;
+    	private final boolean balanceaAjustables;
+    	
+    	EstadoCuenta(Object[] row) {
+    		this.id = ((Number) row[0]).longValue();
+    		this.codigo = (String) row[1];
+    		this.activa = Boolean.TRUE.equals(row[2]);
+    		this.monedaId = ((Number) row[3]).longValue();
+    		this.ajustable = Boolean.TRUE.equals(row[4]);
+    		this.balanceaResultados = Boolean.TRUE.equals(row[5]);
+    		this.balanceaAjustables = Boolean.TRUE.equals(row[6]);
+    	}
+    }
 }
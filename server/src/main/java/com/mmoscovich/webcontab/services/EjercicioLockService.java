@@ -0,0 +1,222 @@
+package com.mmoscovich.webcontab.services;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.mmoscovich.webcontab.exception.ConflictException;
+import com.mmoscovich.webcontab.exception.EntityNotFoundException;
+import com.mmoscovich.webcontab.exception.ServerException;
+import com.mmoscovich.webcontab.model.Ejercicio;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Servicio que serializa las modificaciones sobre un mismo ejercicio.
+ * <p>Usa un lock por ejercicio (se crea la primera vez que se pide), con dos modos:
+ * <ul>
+ * 	<li><b>Compartido</b>: para la carga normal de asientos. Se pueden ejecutar en paralelo.</li>
+ * 	<li><b>Exclusivo</b>: para operaciones que afectan a todo el ejercicio (cierre, reapertura, renumeracion, ajuste, etc).</li>
+ * </ul>
+ * Ejercicios distintos se pueden modificar en paralelo. Los locks no se eliminan, pero hay pocos ejercicios.
+ * </p>
+ * <p>El lock se toma dentro de la transaccion y se libera cuando esta termina (commit o rollback), para que
+ * otra operacion no lea datos sin confirmar.
+ * <br>Al obtenerlo se vuelve a leer el ejercicio de la base: mientras se esperaba, otra operacion pudo modificarlo
+ * (ej: cerrarlo o confirmar asientos). Las validaciones del ejercicio se deben hacer sobre la instancia devuelta.</p>
+ * <p>Como toda modificacion de un ejercicio pasa por aca, tambien se lleva una <b>version de datos</b> por ejercicio,
+ * que se incrementa cada vez que se confirma una transaccion que tomo su lock. Permite invalidar calculos cacheados.</p>
+ */
+@Slf4j
+@Service
+public class EjercicioLockService {
+
+	/** Tipos de lock */
+	public static enum TipoLock {
+		COMPARTIDO, EXCLUSIVO
+	}
+
+	/** Tiempo maximo de espera para obtener el lock */
+	private static final long TIMEOUT_SEGUNDOS = 30;
+
+	@Inject
+	private EntityManager em;
+
+	/** Lock de cada ejercicio (por id) */
+	private final ConcurrentHashMap<Long, ReentrantReadWriteLock> locks = new ConcurrentHashMap<>();
+
+	private final Map<TipoLock, Contadores> contadores = new EnumMap<>(TipoLock.class);
+
+	/** Version de datos de cada ejercicio (por id) */
+	private final ConcurrentHashMap<Long, AtomicLong> versiones = new ConcurrentHashMap<>();
+
+	public EjercicioLockService() {
+		for(TipoLock tipo : TipoLock.values()) contadores.put(tipo, new Contadores());
+	}
+
+	/**
+	 * Toma el lock compartido del ejercicio hasta que finalice la transaccion actual.
+	 * <p>Se usa para crear, modificar o eliminar asientos.</p>
+	 * @param ejercicio
+	 * @return el ejercicio leido luego de obtener el lock (o el mismo si la transaccion ya lo tenia)
+	 * @throws ConflictException si no se pudo obtener el lock en el tiempo maximo
+	 * @throws EntityNotFoundException si el ejercicio ya no existe
+	 */
+	public Ejercicio lockCompartido(Ejercicio ejercicio) throws ConflictException, EntityNotFoundException {
+		return this.lock(ejercicio, TipoLock.COMPARTIDO);
+	}
+
+	/**
+	 * Toma el lock exclusivo del ejercicio hasta que finalice la transaccion actual.
+	 * <p>Se usa para operaciones que afectan a todo el ejercicio (cierre, reapertura, renumeracion, ajuste, etc).</p>
+	 * @param ejercicio
+	 * @return el ejercicio leido luego de obtener el lock (o el mismo si la transaccion ya lo tenia)
+	 * @throws ConflictException si no se pudo obtener el lock en el tiempo maximo
+	 * @throws EntityNotFoundException si el ejercicio ya no existe
+	 */
+	public Ejercicio lockExclusivo(Ejercicio ejercicio) throws ConflictException, EntityNotFoundException {
+		return this.lock(ejercicio, TipoLock.EXCLUSIVO);
+	}
+
+	/**
+	 * Obtiene la version de datos del ejercicio.
+	 * <p>Se debe leer <b>antes</b> de consultar los datos que se quieren asociar a la version.</p>
+	 */
+	public long getVersion(Ejercicio ejercicio) {
+		AtomicLong version = versiones.get(ejercicio.getId());
+		return version == null ? 0 : version.get();
+	}
+
+	/**
+	 * Indica si el thread actual tiene tomado (compartido o exclusivo) el lock del ejercicio.
+	 * <p>En ese caso, la transaccion actual puede tener modificaciones del ejercicio sin confirmar.</p>
+	 */
+	public boolean isTomadoPorThreadActual(Ejercicio ejercicio) {
+		ReentrantReadWriteLock rw = locks.get(ejercicio.getId());
+		return rw != null && (rw.getReadHoldCount() > 0 || rw.isWriteLockedByCurrentThread());
+	}
+
+	/**
+	 * Obtiene las estadisticas de espera de cada tipo de lock.
+	 */
+	public Map<TipoLock, EstadisticasLock> getEstadisticas() {
+		Map<TipoLock, EstadisticasLock> result = new EnumMap<>(TipoLock.class);
+		contadores.forEach((tipo, c) -> result.put(tipo, c.toEstadisticas()));
+		return result;
+	}
+
+	private Ejercicio lock(Ejercicio ejercicio, TipoLock tipo) {
+		if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+			throw new ServerException("El lock del ejercicio solo se puede tomar dentro de una transaccion");
+		}
+
+		ReentrantReadWriteLock rw = locks.computeIfAbsent(ejercicio.getId(), id -> new ReentrantReadWriteLock());
+
+		// Si la transaccion ya tenia el lock, el ejercicio no pudo cambiar (y puede tener modificaciones propias sin guardar)
+		final boolean reentrante = rw.getReadHoldCount() > 0 || rw.isWriteLockedByCurrentThread();
+
+		// Un lock compartido no se puede convertir en exclusivo (se bloquearia para siempre)
+		if(tipo == TipoLock.EXCLUSIVO && rw.getReadHoldCount() > 0 && !rw.isWriteLockedByCurrentThread()) {
+			throw new ServerException("No se puede tomar el lock exclusivo del ejercicio teniendo el compartido");
+		}
+
+		Lock lock = (tipo == TipoLock.EXCLUSIVO) ? rw.writeLock() : rw.readLock();
+
+		long inicio = System.nanoTime();
+		boolean obtenido;
+		try {
+			obtenido = lock.tryLock(TIMEOUT_SEGUNDOS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			obtenido = false;
+		}
+		contadores.get(tipo).registrar(System.nanoTime() - inicio, obtenido);
+
+		if(!obtenido) {
+			log.warn("No se pudo obtener el lock {} del {}", tipo, ejercicio);
+			throw new ConflictException("El ejercicio esta siendo modificado por otra operacion, intente nuevamente");
+		}
+
+		// Se libera al terminar la transaccion. Si se confirmo, cambia la version del ejercicio
+		final Long ejercicioId = ejercicio.getId();
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int status) {
+				if(status == STATUS_COMMITTED) versiones.computeIfAbsent(ejercicioId, id -> new AtomicLong()).incrementAndGet();
+				lock.unlock();
+			}
+		});
+
+		if(reentrante) return ejercicio;
+
+		// Se vuelve a leer de la base, ya que pudo cambiar mientras se esperaba el lock
+		Ejercicio actual = em.contains(ejercicio) ? ejercicio : em.find(Ejercicio.class, ejercicioId);
+		if(actual == null) throw new EntityNotFoundException(Ejercicio.class, ejercicioId);
+		em.refresh(actual);
+		return actual;
+	}
+
+	/**
+	 * Contadores de espera de un tipo de lock.
+	 */
+	private static class Contadores {
+		private final LongAdder obtenidos = new LongAdder();
+		private final LongAdder timeouts = new LongAdder();
+		private final LongAdder esperaTotal = new LongAdder();
+		private final LongAccumulator esperaMaxima = new LongAccumulator(Math::max, 0);
+
+		void registrar(long esperaNanos, boolean obtenido) {
+			if(obtenido) obtenidos.increment(); else timeouts.increment();
+			esperaTotal.add(esperaNanos);
+			esperaMaxima.accumulate(esperaNanos);
+		}
+
+		EstadisticasLock toEstadisticas() {
+			long cantidad = obtenidos.sum() + timeouts.sum();
+			long total = esperaTotal.sum();
+			return new EstadisticasLock(
+					obtenidos.sum(),
+					timeouts.sum(),
+					TimeUnit.NANOSECONDS.toMillis(total),
+					cantidad == 0 ? 0 : total / cantidad / 1000,
+					TimeUnit.NANOSECONDS.toMillis(esperaMaxima.get()));
+		}
+	}
+
+	/**
+	 * Estadisticas de espera de un tipo de lock.
+	 */
+	@Getter
+	@AllArgsConstructor
+	public static class EstadisticasLock {
+		/** Cantidad de veces que se obtuvo el lock */
+		private long obtenidos;
+
+		/** Cantidad de veces que se agoto el tiempo de espera */
+		private long timeouts;
+
+		/** Tiempo total de espera (ms) */
+		private long esperaTotalMs;
+
+		/** Tiempo promedio de espera (microsegundos) */
+		private long esperaPromedioUs;
+
+		/** Tiempo maximo de espera (ms) */
+		private long esperaMaximaMs;
+	}
+}
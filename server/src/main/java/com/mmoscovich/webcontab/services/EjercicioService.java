@@ -11,8 +11,13 @@ import javax.persistence.EntityManager;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.mmoscovich.webcontab.dao.ArchivoRepository;
 import com.mmoscovich.webcontab.dao.EjercicioRepository;
+import com.mmoscovich.webcontab.dto.CierreEjercicioDTO;
+import com.mmoscovich.webcontab.dto.CierreEjercicioDTO.Linea;
 import com.mmoscovich.webcontab.dto.Periodo;
+import com.mmoscovich.webcontab.dto.RecalculoAperturaTask;
+import com.mmoscovich.webcontab.dto.informes.AjusteInflacionCuenta;
 import com.mmoscovich.webcontab.exception.ConflictException;
 import com.mmoscovich.webcontab.exception.EjercicioFechaInvalidaException;
 import com.mmoscovich.webcontab.exception.EjercicioFinalizadoException;
@@ -36,21 +41,45 @@ public class EjercicioService {
 
 	@Inject
 	private EjercicioRepository dao;
+	
+	@Inject
+	private ArchivoRepository archivoDao;
 
 	@Inject
 	private AsientoService asientoService;
 
 	@Inject
 	private EntityManager em;
+	
+	@Inject
+	private EjercicioLockService ejercicioLock;
+	
+	@Inject
+	private LibroColumnarService libroService;
 
 	/**
 	 * Lista los ejercicios de una organizacion.
+	 * <p>No incluye los que se estan eliminando.</p>
 	 * 
 	 * @param org
 	 * @return
 	 */
 	public List<Ejercicio> findByOrganizacion(Organizacion org) {
-		return dao.findByOrganizacion(org);
+		return dao.findNoEliminadosByOrganizacion(org);
+	}
+	
+	/**
+	 * Indica si la organizacion tiene ejercicios, incluyendo los que se estan eliminando.
+	 */
+	public boolean tieneEjercicios(Organizacion org) {
+		return !dao.findByOrganizacion(org).isEmpty();
+	}
+	
+	/**
+	 * Lista los ejercicios que se estan eliminando (de todas las organizaciones).
+	 */
+	public List<Ejercicio> findEliminados() {
+		return dao.findByEliminadoTrue();
 	}
 
 	/**
@@ -62,25 +91,67 @@ public class EjercicioService {
 	 */
 	public Ejercicio getByIdOrThrow(Organizacion organizacion, Long id) {
 		Ejercicio ejercicio = dao.findById(id).orElseThrow(() -> new EntityNotFoundException(Ejercicio.class, id));
-		if(!ejercicio.perteceneA(organizacion)) throw new EntityNotFoundException(Ejercicio.class, id);
+		if(!ejercicio.perteceneA(organizacion) || ejercicio.isEliminado()) throw new EntityNotFoundException(Ejercicio.class, id);
 		return ejercicio;
 	}
 
 	/**
-	 * Elimina el ejercicio junto con sus asientos e imputaciones (cascade manual)
+	 * Marca el ejercicio como eliminado, para que deje de ser visible inmediatamente.
+	 * <p>Los asientos, imputaciones y el ejercicio en si se borran luego, por lotes (ver {@link #eliminarLote(Long, int)}).</p>
 	 * 
+	 * @param organizacion
 	 * @param ej
+	 * @return el ejercicio marcado
 	 */
 	@Transactional
-	public void eliminar(Organizacion organizacion, Ejercicio ej) {
+	public Ejercicio marcarEliminado(Organizacion organizacion, Ejercicio ej) {
 		ej = this.getByIdOrThrow(organizacion, ej.getId());
 		
-		log.debug("Eliminando {}", ej);
+		log.info("Se marca como eliminado el {}", ej);
+		ej = ejercicioLock.lockExclusivo(ej);
+		if(ej.isEliminado()) throw new EntityNotFoundException(Ejercicio.class, ej.getId());
+		
+		ej.setEliminado(true);
+		libroService.descartar(ej);
+		return dao.save(ej);
+	}
+	
+	/**
+	 * Elimina un lote de asientos (e imputaciones) de un ejercicio marcado como eliminado.
+	 * <p>Toma el lock exclusivo solo durante el lote, por lo que entre lotes pueden ejecutarse otras operaciones.</p>
+	 * 
+	 * @param ejercicioId id del ejercicio marcado como eliminado
+	 * @param cantidad cantidad maxima de asientos a eliminar
+	 * @return cantidad de asientos eliminados (cero si ya no quedan)
+	 * @throws EntityNotFoundException si el ejercicio no existe o no esta marcado como eliminado
+	 */
+	@Transactional
+	public int eliminarLote(Long ejercicioId, int cantidad) throws EntityNotFoundException {
+		Ejercicio ej = ejercicioLock.lockExclusivo(this.getEliminadoOrThrow(ejercicioId));
 		
-		asientoService.eliminarTodos(ej);
+		return asientoService.eliminarLote(ej, cantidad);
+	}
+	
+	/**
+	 * Borra definitivamente un ejercicio marcado como eliminado que ya no tiene asientos.
+	 * 
+	 * @param ejercicioId id del ejercicio marcado como eliminado
+	 * @throws EntityNotFoundException si el ejercicio no existe o no esta marcado como eliminado
+	 * @throws ConflictException si el ejercicio todavia tiene asientos
+	 */
+	@Transactional
+	public void eliminarDefinitivo(Long ejercicioId) throws EntityNotFoundException, ConflictException {
+		Ejercicio ej = ejercicioLock.lockExclusivo(this.getEliminadoOrThrow(ejercicioId));
+		
+		if(asientoService.contarAsientos(ej) > 0) throw new ConflictException("El ejercicio todavia tiene asientos");
+		
+		log.info("Se borra definitivamente el {}", ej);
 		dao.delete(ej);
-		em.flush();
-		em.clear();
+	}
+	
+	/** Obtiene un ejercicio marcado como eliminado */
+	private Ejercicio getEliminadoOrThrow(Long id) throws EntityNotFoundException {
+		return dao.findById(id).filter(Ejercicio::isEliminado).orElseThrow(() -> new EntityNotFoundException(Ejercicio.class, id));
 	}
 
 	/**
@@ -116,14 +187,22 @@ public class EjercicioService {
 			throw new InvalidRequestException("El ejercicio debe comenzar despues de " + last.getFinalizacion());
 		}
 
-		// Si se pidio cerrar el anterior y no esta finalizado, se lo cierra
-		if(cerrarUltimo && !last.isFinalizado()) last = this.cerrarEjercicio(last);
-
 		// Se debe crear el asiento de apertura, inverso al de cierre anterior.
 		Asiento asientoCierreAnterior = null;
 
-		// Si existe cierre anterior, se lo busca (con imputaciones) para crear el de apertura
-		if(last.getAsientoCierreId() != null) asientoCierreAnterior = asientoService.getByIdOrThrow(last, last.getAsientoCierreId(), true);
+		// Si se pidio cerrar el anterior, se toma su lock antes de ver si esta finalizado
+		if(cerrarUltimo) last = ejercicioLock.lockExclusivo(last);
+		
+		// Si se pidio cerrar el anterior y no esta finalizado, se lo cierra.
+		// El asiento de cierre queda en memoria, no hace falta volver a buscarlo
+		if(cerrarUltimo && !last.isFinalizado()) {
+			asientoCierreAnterior = this.cerrar(last);
+			last = dao.save(last);
+			
+		} else if(last.getAsientoCierreId() != null) {
+			// Si existe cierre anterior, se lo busca (con imputaciones) para crear el de apertura
+			asientoCierreAnterior = asientoService.getByIdOrThrow(last, last.getAsientoCierreId(), true);
+		}
 
 		// Si no existe cierre anterior, se simula dicho asiento (pero sin modificar ese ejercicio)
 		if(asientoCierreAnterior == null) {
@@ -157,17 +236,48 @@ public class EjercicioService {
 	 */
 	@Transactional
 	public Ejercicio cerrarEjercicio(Ejercicio ej) throws EjercicioFinalizadoException {
+		ej = ejercicioLock.lockExclusivo(ej);
+		this.cerrar(ej);
+		return dao.save(ej);
+	}
+	
+	/**
+	 * Calcula los asientos de refundicion, cierre y apertura del ejercicio siguiente, sin modificar el ejercicio.
+	 * 
+	 * @param ej
+	 * @return las imputaciones que tendria cada asiento
+	 * 
+	 * @throws EjercicioFinalizadoException si el ejercicio ya esta cerrado.
+	 */
+	@Transactional(readOnly = true)
+	public CierreEjercicioDTO previsualizarCierre(Ejercicio ej) throws EjercicioFinalizadoException {
+		if(ej.isFinalizado()) throw new EjercicioFinalizadoException(ej);
+		return asientoService.calcularCierre(ej);
+	}
+	
+	/**
+	 * Crea los asientos de refundicion y cierre a partir de un unico calculo del balance y marca el ejercicio como finalizado.
+	 * <p>Los asientos se persisten juntos al hacer flush (en batch).</p>
+	 * <p>Se debe tener el lock exclusivo del ejercicio (ver {@link EjercicioLockService#lockExclusivo(Ejercicio)}).</p>
+	 * @param ej ejercicio leido luego de obtener el lock
+	 * @return el asiento de cierre (con sus imputaciones)
+	 * @throws EjercicioFinalizadoException si el ejercicio ya esta cerrado.
+	 */
+	private Asiento cerrar(Ejercicio ej) throws EjercicioFinalizadoException {
 		log.info("Cerrando {}", ej);
 
 		// Si ya esta cerrado, lanzar error
 		if(ej.isFinalizado()) throw new EjercicioFinalizadoException(ej);
 
+		// Se calculan todos los asientos con una sola consulta del balance
+		CierreEjercicioDTO calculo = asientoService.calcularCierre(ej);
+		
 		// Obtiene el prox num de asiento
 		Short numAsiento = asientoService.getProximoNumero(ej);
 
-		// Se calcula y guarda el asiento de refundicion de cuentas de resultado
+		// Se guarda el asiento de refundicion de cuentas de resultado
 		// Este solo sera necesario si las cuentas de resultado tienen saldo <> 0
-		Optional<Asiento> refundicion = asientoService.crearRefundicion(ej, numAsiento);
+		Optional<Asiento> refundicion = asientoService.crearRefundicion(ej, calculo, numAsiento);
 
 		// Si hay refundicion, se incrementa el num de asiento y se asocia al ejercicio
 		if(refundicion.isPresent()) {
@@ -175,14 +285,17 @@ public class EjercicioService {
 			ej.setAsientoRefundicionId(refundicion.get().getId());
 		}
 
-		// Se calcula, persiste y asocia el asiento de cierre
-		Asiento cierre = asientoService.crearCierre(ej, numAsiento);
+		// Se persiste y asocia el asiento de cierre
+		Asiento cierre = asientoService.crearCierre(ej, calculo, numAsiento);
 		ej.setAsientoCierreId(cierre.getId());
 
 		// Se indica que el ejercicio esta finalizado
 		ej.setFinalizado(true);
 
-		return dao.save(ej);
+		// Al confirmarse, se genera el archivo del libro (para no consultar las imputaciones de un ejercicio cerrado)
+		libroService.generarArchivoAlConfirmar(ej);
+
+		return cierre;
 	}
 
 	/**
@@ -194,12 +307,14 @@ public class EjercicioService {
 	 * 
 	 * @param ej
 	 * @return el ejercicio reabierto
-	 * @throws ConflictException si el ejercicio esta abierto
+	 * @throws ConflictException si el ejercicio esta abierto o archivado
 	 */
 	@Transactional
 	public Ejercicio reabrirEjercicio(Ejercicio ej) throws ConflictException {
 		log.info("Reabriendo {}", ej);
+		ej = ejercicioLock.lockExclusivo(ej);
 		if(!ej.isFinalizado()) throw new ConflictException("El ejercicio no esta cerrado");
+		if(ej.isArchivado()) throw new ConflictException("El ejercicio esta archivado. Debe desarchivarse antes de reabrirlo");
 
 		// Se pone en no finalizado primero para que al eliminar los asientos no lance error.
 		ej.setFinalizado(false);
@@ -208,6 +323,9 @@ public class EjercicioService {
 		log.info("Se eliminan los asientos de refundicion y cierre en el ejercicio {}", ej);
 		asientoService.eliminar(ej, Set.of(ej.getAsientoRefundicionId(), ej.getAsientoCierreId()), true);
 
+		// Se descarta el libro del cierre (y su archivo)
+		libroService.descartar(ej);
+
 		ej.setAsientoRefundicionId(null);
 		ej.setAsientoCierreId(null);
 
@@ -217,6 +335,49 @@ public class EjercicioService {
 		return dao.save(ej);
 	}
 	
+	/**
+	 * Archiva un ejercicio cerrado.
+	 * <p>Sus asientos e imputaciones se mueven a una tabla de archivo compacta, desde donde se siguen leyendo
+	 * el balance, el mayor y el diario. Asi las tablas de asientos e imputaciones solo contienen los ejercicios en uso.</p>
+	 * <p>Se ejecuta en una sola transaccion con queries masivas, con el lock exclusivo del ejercicio.</p>
+	 * 
+	 * @param ej ejercicio a archivar
+	 * @return el ejercicio archivado
+	 * @throws ConflictException si el ejercicio no esta cerrado o ya esta archivado
+	 */
+	@Transactional
+	public Ejercicio archivar(Ejercicio ej) throws ConflictException {
+		ej = ejercicioLock.lockExclusivo(ej);
+		if(!ej.isFinalizado()) throw new ConflictException("Solo se pueden archivar ejercicios cerrados");
+		if(ej.isArchivado()) throw new ConflictException("El ejercicio ya esta archivado");
+		
+		int asientos = archivoDao.archivar(ej);
+		log.info("Se archivaron {} asientos del {}", asientos, ej);
+		
+		ej.setArchivado(true);
+		libroService.descartar(ej);
+		return dao.save(ej);
+	}
+	
+	/**
+	 * Desarchiva un ejercicio, volviendo sus asientos e imputaciones a las tablas normales (con los mismos ids).
+	 * 
+	 * @param ej ejercicio a desarchivar
+	 * @return el ejercicio desarchivado (sigue cerrado)
+	 * @throws ConflictException si el ejercicio no esta archivado
+	 */
+	@Transactional
+	public Ejercicio desarchivar(Ejercicio ej) throws ConflictException {
+		ej = ejercicioLock.lockExclusivo(ej);
+		if(!ej.isArchivado()) throw new ConflictException("El ejercicio no esta archivado");
+		
+		int asientos = archivoDao.desarchivar(ej);
+		log.info("Se desarchivaron {} asientos del {}", asientos, ej);
+		
+		ej.setArchivado(false);
+		return dao.save(ej);
+	}
+	
 	/**
 	 * Crea o recalcula y actualiza el asiento de ajuste por inflacion del ejercicio.
 	 * 
@@ -226,6 +387,8 @@ public class EjercicioService {
 	 */
 	@Transactional
 	public Ejercicio ajustarPorInflacion(Ejercicio ej) {
+		ej = ejercicioLock.lockExclusivo(ej);
+		
 		Optional<Asiento> inflacion;
 		
 		if(ej.getAsientoAjusteId() == null) {
@@ -252,6 +415,18 @@ public class EjercicioService {
 		return dao.save(ej);
 	}
 	
+	/**
+	 * Calcula el ajuste por inflacion de cada cuenta ajustable del ejercicio, sin crear ni modificar el asiento de ajuste.
+	 * 
+	 * @param ej ejercicio a calcular
+	 * 
+	 * @return el ajuste de cada cuenta
+	 */
+	@Transactional(readOnly = true)
+	public List<AjusteInflacionCuenta> previsualizarAjustePorInflacion(Ejercicio ej) {
+		return asientoService.calcularAjustePorInflacion(ej);
+	}
+	
 	/**
 	 * Recalcula y actualiza el asiento de apertura del ejercicio.
 	 * @param ej ejercicio en el cual actualizar el asiento de apertura
@@ -260,6 +435,8 @@ public class EjercicioService {
 	 */
 	@Transactional
 	public Ejercicio recalcularApertura(Ejercicio ej) {
+		ej = ejercicioLock.lockExclusivo(ej);
+		
 		if(ej.getAsientoAperturaId() == null) throw new ConflictException("El ejercicio no tiene asiento de apertura");
 		
 		// Se busca el asiento de apertura
@@ -297,9 +474,73 @@ public class EjercicioService {
 		return ej;
 	}
 
+	/**
+	 * Obtiene los ejercicios posteriores a uno, ordenados por fecha de inicio.
+	 * @param ejercicioId id del ejercicio (se lee en esta transaccion)
+	 * @throws EntityNotFoundException si el ejercicio no existe
+	 */
+	@Transactional(readOnly = true)
+	public List<Ejercicio> findPosteriores(Long ejercicioId) throws EntityNotFoundException {
+		Ejercicio ej = dao.findById(ejercicioId).orElseThrow(() -> new EntityNotFoundException(Ejercicio.class, ejercicioId));
+		return dao.findEjerciciosPosterioresA(ej.getOrganizacion(), ej.getFinalizacion());
+	}
+	
+	/**
+	 * Primer paso del recalculo encadenado de aperturas: obtiene los saldos de cierre del ejercicio modificado.
+	 * @param ejercicioId id del ejercicio (se lee en esta transaccion)
+	 * @throws EntityNotFoundException si el ejercicio no existe
+	 */
+	@Transactional(readOnly = true)
+	public List<Linea> getImputacionesDeCierre(Long ejercicioId) throws EntityNotFoundException {
+		Ejercicio ej = dao.findById(ejercicioId).orElseThrow(() -> new EntityNotFoundException(Ejercicio.class, ejercicioId));
+		return asientoService.getImputacionesDeCierre(ej);
+	}
+	
+	/**
+	 * Paso del recalculo encadenado de aperturas: actualiza la apertura del ejercicio con los saldos de cierre del anterior 
+	 * y devuelve los saldos de cierre de este ejercicio, para usarlos en el siguiente.
+	 * <p>Si la apertura no cambia, no se modifica. Los ejercicios cerrados no se modifican (se usa su asiento de cierre).</p>
+	 * 
+	 * @param ejercicioId ejercicio a actualizar
+	 * @param cierreAnterior imputaciones de cierre del ejercicio anterior
+	 * @param calcularCierre indica si se deben calcular los saldos de cierre de este ejercicio (no es necesario en el ultimo)
+	 * @param task tarea en la que se registra el resultado
+	 * @return las imputaciones de cierre de este ejercicio o <code>null</code> si no se pidieron
+	 */
+	@Transactional
+	public List<Linea> recalcularAperturaEncadenada(Long ejercicioId, List<Linea> cierreAnterior, boolean calcularCierre, RecalculoAperturaTask task) {
+		Ejercicio ej = dao.findById(ejercicioId).orElseThrow(() -> new EntityNotFoundException(Ejercicio.class, ejercicioId));
+		task.setEjercicioActualId(ejercicioId);
+		
+		// Se toma el lock antes de ver el estado del ejercicio, para que no se cierre mientras se actualiza
+		ej = ejercicioLock.lockExclusivo(ej);
+		
+		if(ej.getAsientoAperturaId() == null) {
+			log.info("El {} no tiene asiento de apertura, se omite", ej);
+			task.omitido();
+			
+		} else if(ej.isFinalizado()) {
+			log.warn("El {} esta cerrado, no se recalcula su apertura", ej);
+			task.omitido();
+			
+		} else {
+			Asiento apertura = asientoService.getByIdOrThrow(ej, ej.getAsientoAperturaId(), true);
+			
+			if(asientoService.actualizarAperturaSiCambio(apertura, cierreAnterior)) {
+				// Se envian los cambios para que el calculo del cierre los incluya
+				em.flush();
+				task.actualizado();
+			} else {
+				task.sinCambios();
+			}
+		}
+		
+		return calcularCierre ? asientoService.getImputacionesDeCierre(ej) : null;
+	}
+
 	/**
 	 * Renumera los asientos de un ejercicio y establece o actualiza la fecha de confirmacion de asientos del ejercicio.
-	 * <p>Se renumeran <b>TODOS</b> los asientos del ejercicio.
+	 * <p>Se renumeran <b>TODOS</b> los asientos del ejercicio (aunque solo se modifican los que cambian de numero).
 	 * <br>La fecha se utiliza para establecer hasta que fecha estan <b>confirmados</b> los asientos.
 	 * No se podran crear, modificar ni borrar asientos anteriores a esa fecha.
 	 * <br>El ejercicio queda <b>read only</b> hasta el dia anterior a esa fecha.
@@ -322,6 +563,9 @@ public class EjercicioService {
 	 */
 	@Transactional
 	public Ejercicio confirmarAsientos(Ejercicio ej, LocalDate fechaConfirmacion) throws EjercicioFechaInvalidaException {
+		// La renumeracion afecta a todo el ejercicio
+		ej = ejercicioLock.lockExclusivo(ej);
+		
 		// Valida que la fecha este dentro del ejercicio y sea posterior a la fecha de confirmacion actual
 		ej.validateFecha(fechaConfirmacion);
 		
@@ -0,0 +1,163 @@
+package com.mmoscovich.webcontab.services;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.inject.Inject;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import com.mmoscovich.webcontab.dto.EliminacionEjercicioTask;
+import com.mmoscovich.webcontab.dto.EliminacionEjercicioTask.EliminacionStatus;
+import com.mmoscovich.webcontab.exception.EntityNotFoundException;
+import com.mmoscovich.webcontab.exception.ServerException;
+import com.mmoscovich.webcontab.model.Ejercicio;
+import com.mmoscovich.webcontab.model.Organizacion;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Servicio de eliminacion de ejercicios en background.
+ * <p>
+ * El ejercicio se marca como eliminado (deja de verse inmediatamente) y luego se borran sus asientos por lotes,
+ * cada uno en su propia transaccion. Asi se evita una transaccion gigante que bloquee las tablas por mucho tiempo.
+ * </p>
+ * <p>Para no afectar al resto de los usuarios:
+ * <ul>
+ * 	<li>Se hace una pausa entre lotes (configurable con <code>webcontab.eliminacion.pausa-ms</code>)</li>
+ * 	<li>Se ejecuta una sola eliminacion a la vez. Las demas esperan su turno.</li>
+ * </ul>
+ * </p>
+ * <p>Si el servidor se detiene durante una eliminacion, se retoma al iniciar.</p>
+ */
+@Slf4j
+@Service
+public class EliminacionEjercicioService {
+
+	/** Mapa de tareas por UUID */
+	private ConcurrentHashMap<UUID, EliminacionEjercicioTask> tasks = new ConcurrentHashMap<>();
+
+	/** Solo se ejecuta una eliminacion a la vez */
+	private final Lock ejecucion = new ReentrantLock();
+
+	@Inject
+	private EjercicioService ejercicioService;
+
+	@Inject
+	private AsientoService asientoService;
+
+	/** Cantidad de asientos eliminados por transaccion */
+	@Value("${webcontab.eliminacion.lote:500}")
+	private int tamanioLote;
+
+	/** Pausa entre lotes (ms) */
+	@Value("${webcontab.eliminacion.pausa-ms:100}")
+	private long pausaMs;
+
+	/**
+	 * Obtiene una tarea de la organizacion por UUID.
+	 * @param org organizacion actual
+	 * @param uuid
+	 * @return la tarea
+	 * @throws EntityNotFoundException si no existe tarea con ese UUID en la organizacion.
+	 */
+	public EliminacionEjercicioTask getOrThrow(Organizacion org, UUID uuid) throws EntityNotFoundException {
+		EliminacionEjercicioTask task = tasks.get(uuid);
+		if(task == null || !task.getOrganizacionId().equals(org.getId())) throw new EntityNotFoundException(EliminacionEjercicioTask.class, uuid);
+		return task;
+	}
+
+	/**
+	 * Marca el ejercicio como eliminado y crea la tarea que lo elimina.
+	 * <p>Se eliminan las tareas terminadas de la organizacion.</p>
+	 * @param org organizacion actual
+	 * @param ejercicio ejercicio a eliminar
+	 * @return la tarea creada (pendiente)
+	 * @throws EntityNotFoundException si el ejercicio no existe en la organizacion
+	 */
+	public EliminacionEjercicioTask create(Organizacion org, Ejercicio ejercicio) throws EntityNotFoundException {
+		Ejercicio eliminado = ejercicioService.marcarEliminado(org, ejercicio);
+		tasks.values().removeIf(t -> t.getOrganizacionId().equals(org.getId()) && t.isTerminada());
+
+		return this.crearTask(eliminado);
+	}
+
+	/**
+	 * Ejecuta de manera async una tarea de eliminacion.
+	 * @param task
+	 */
+	@Async
+	public void run(EliminacionEjercicioTask task) {
+		this.ejecutar(task);
+	}
+
+	/**
+	 * Retoma las eliminaciones que quedaron sin terminar (por ejemplo, si se detuvo el servidor).
+	 * <p>Se ejecuta async al iniciar la aplicacion.</p>
+	 */
+	@Async
+	@EventListener(ApplicationReadyEvent.class)
+	public void reanudarPendientes() {
+		List<Ejercicio> pendientes = ejercicioService.findEliminados();
+		if(pendientes.isEmpty()) return;
+
+		log.info("Se retoma la eliminacion de {} ejercicios", pendientes.size());
+		for(Ejercicio ejercicio : pendientes) this.ejecutar(this.crearTask(ejercicio));
+	}
+
+	private EliminacionEjercicioTask crearTask(Ejercicio ejercicio) {
+		EliminacionEjercicioTask task = new EliminacionEjercicioTask(ejercicio.getOrganizacion().getId(), ejercicio.getId());
+		task.setTotal(asientoService.contarAsientos(ejercicio));
+		tasks.put(task.getUuid(), task);
+		return task;
+	}
+
+	/**
+	 * Elimina los asientos por lotes y luego el ejercicio.
+	 */
+	private void ejecutar(EliminacionEjercicioTask task) {
+		ejecucion.lock();
+		long inicio = System.currentTimeMillis();
+		task.setStatus(EliminacionStatus.RUNNING);
+
+		try {
+			log.info("Eliminando {} asientos del ejercicio con id {} en lotes de {}", task.getTotal(), task.getEjercicioId(), tamanioLote);
+
+			int cantidad;
+			while((cantidad = ejercicioService.eliminarLote(task.getEjercicioId(), tamanioLote)) > 0) {
+				task.lote(cantidad);
+				this.pausa();
+			}
+			ejercicioService.eliminarDefinitivo(task.getEjercicioId());
+
+			task.success();
+			log.info("Se elimino el ejercicio con id {} ({} asientos en {} lotes)", task.getEjercicioId(), task.getEliminados(), task.getLotes());
+
+		} catch(Exception e) {
+			log.error("Error al eliminar el ejercicio con id " + task.getEjercicioId(), e);
+			task.error(e.getMessage());
+
+		} finally {
+			task.setDuracionMs(System.currentTimeMillis() - inicio);
+			ejecucion.unlock();
+		}
+	}
+
+	/** Pausa entre lotes, para dejar pasar las operaciones de los usuarios */
+	private void pausa() {
+		if(pausaMs <= 0) return;
+		try {
+			Thread.sleep(pausaMs);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServerException("Se interrumpio la eliminacion del ejercicio", e);
+		}
+	}
+}
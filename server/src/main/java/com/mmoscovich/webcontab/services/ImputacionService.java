@@ -2,10 +2,11 @@ package com.mmoscovich.webcontab.services;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -13,13 +14,13 @@ import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.mmoscovich.webcontab.dao.ArchivoRepository;
 import com.mmoscovich.webcontab.dao.CuentaRepository;
 import com.mmoscovich.webcontab.dao.ImputacionRepository;
 import com.mmoscovich.webcontab.exception.EntityNotFoundException;
 import com.mmoscovich.webcontab.exception.InvalidRequestException;
 import com.mmoscovich.webcontab.model.Asiento;
 import com.mmoscovich.webcontab.model.Cuenta;
-import com.mmoscovich.webcontab.model.Ejercicio;
 import com.mmoscovich.webcontab.model.Imputacion;
 import com.mmoscovich.webcontab.model.Moneda;
 import com.mmoscovich.webcontab.model.Moneda.MonedaDefaultIdComparator;
@@ -44,6 +45,9 @@ public class ImputacionService {
 	@Inject 
 	private ImputacionRepository dao;
 	
+	@Inject
+	private ArchivoRepository archivoDao;
+	
 	/** 
 	 * Busca las imputaciones de una serie de asientos.
 	 * Util cuando ya se tiene los asientos y se quieren cargar sus imputaciones
@@ -83,14 +87,13 @@ public class ImputacionService {
 	}
 	
 	/**
-	 * Elimina todas las imputaciones de <b>TODOS</b> los asientos de un ejercicio en una sola query.
-	 * <p>Se utiliza al eliminar un ejercicio.</p>
+	 * Elimina todas las imputaciones de un conjunto de asientos en una sola query.
+	 * <p>Se utiliza al eliminar varios asientos juntos.</p>
+	 * @param asientoIds ids de los asientos
 	 */
 	@Transactional
-	public void eliminarByEjercicio(Ejercicio ejercicio) {
-		log.debug("Eliminando todos las imputaciones del ejercicio con id {}: {}", ejercicio.getId(), ejercicio);
-		
-		dao.deleteByEjercicio(ejercicio);
+	public void eliminarByAsientos(Collection<Long> asientoIds) {
+		if(!asientoIds.isEmpty()) dao.deleteByAsientoIds(asientoIds);
 	}
 	
 	/**
@@ -171,9 +174,18 @@ public class ImputacionService {
 		return existing;
 	}
 	
-	/** Determina si existen imputaciones para una cuenta determinada en <b>cualquier</b> ejercicio */
+	/** Determina si existen imputaciones para una cuenta determinada en <b>cualquier</b> ejercicio (incluyendo los archivados) */
 	public boolean cuentaTieneImputaciones(Cuenta cuenta) {
-		return dao.existsByCuenta(cuenta);
+		return dao.existsByCuenta(cuenta) || archivoDao.existsByCuenta(cuenta);
+	}
+	
+	/** Obtiene, de las cuentas especificadas, las que tienen imputaciones en <b>cualquier</b> ejercicio (incluyendo los archivados) */
+	public Set<Long> findCuentasConImputaciones(Collection<Long> cuentaIds) {
+		if(cuentaIds.isEmpty()) return Set.of();
+		
+		Set<Long> result = new HashSet<>(dao.findCuentasConImputaciones(cuentaIds));
+		result.addAll(archivoDao.findCuentasConImputaciones(cuentaIds));
+		return result;
 	}
 	
 	/**
@@ -187,51 +199,56 @@ public class ImputacionService {
 	 * @param imputaciones lista a ordenar
 	 */
 	private void ordenarImputacionesPorMoneda(List<Imputacion> imputaciones) {
-		Map<Moneda, List<Imputacion>> monedas = new HashMap<>();
+		int n = imputaciones.size();
 		
-		// Se recorren las imputaciones y se crea una lista por cada moneda
-		for(Imputacion imp : imputaciones) {
-			List<Imputacion> impMoneda = monedas.computeIfAbsent(imp.getCuenta().getMoneda(), m -> new ArrayList<>());
-			impMoneda.add(imp);
+		// Se obtienen las monedas distintas (son pocas, se buscan linealmente)
+		Moneda[] monedas = new Moneda[n];
+		int cantMonedas = 0;
+		int[] monedaDeImputacion = new int[n];
+		for(int i = 0; i < n; i++) {
+			Moneda moneda = imputaciones.get(i).getCuenta().getMoneda();
+			int m = indexOf(monedas, cantMonedas, moneda);
+			if(m < 0) {
+				m = cantMonedas++;
+				monedas[m] = moneda;
+			}
+			monedaDeImputacion[i] = m;
 		}
 		
-		// Se limpian las imputaciones originales para colocarlas ordenadas
-		imputaciones.clear();
+		// Se ordenan las monedas y se calcula la posicion de cada una
+		Moneda[] ordenadas = Arrays.copyOf(monedas, cantMonedas);
+		Arrays.sort(ordenadas, MONEDA_COMPARATOR);
+		int[] posicionMoneda = new int[cantMonedas];
+		for(int m = 0; m < cantMonedas; m++) posicionMoneda[m] = indexOf(ordenadas, cantMonedas, monedas[m]);
 		
-		// Se ordenan las imputaciones por moneda
-		monedas.keySet().stream().sorted(MONEDA_COMPARATOR).forEach(m -> {
-			List<Imputacion> impMoneda = monedas.get(m);
-			
-			// Se ordena por debe-haber
-			this.ordenarImputacionesPorDebeHaber(impMoneda);
-			
-			// Se agrega a la lista final
-			imputaciones.addAll(impMoneda);
-		});
+		// Cada imputacion va a un "grupo": moneda primero y DEBE antes que HABER.
+		// Se cuenta cuantas hay en cada grupo (counting sort, mantiene el orden de ingreso dentro del grupo)
+		int[] grupo = new int[n];
+		int[] inicioGrupo = new int[cantMonedas * 2 + 1];
+		for(int i = 0; i < n; i++) {
+			grupo[i] = posicionMoneda[monedaDeImputacion[i]] * 2 + (imputaciones.get(i).esHaber() ? 1 : 0);
+			inicioGrupo[grupo[i] + 1]++;
+		}
+		for(int g = 1; g < inicioGrupo.length; g++) inicioGrupo[g] += inicioGrupo[g - 1];
 		
-		// Una vez ordenados, se incluye el orden (empezando de 1)
-		for(int i = 0; i < imputaciones.size(); i++) {
-			imputaciones.get(i).setOrden((short) (i + 1));
+		// Se colocan las imputaciones en su posicion final
+		Imputacion[] result = new Imputacion[n];
+		for(int i = 0; i < n; i++) result[inicioGrupo[grupo[i]]++] = imputaciones.get(i);
+		
+		// Se reemplazan las imputaciones originales por las ordenadas 
+		// y se incluye el orden (empezando de 1)
+		for(int i = 0; i < n; i++) {
+			imputaciones.set(i, result[i]);
+			result[i].setOrden((short) (i + 1));
 		}
 	}
 	
-	/**
-	 * Ordena la lista de imputaciones especificada, colocando las de DEBE antes que las de HABER.
-	 * <br>El orden entre las similares es el mismo que estaba.
-	 * 
-	 * @param imputaciones lista a ordenar
-	 */
-	private void ordenarImputacionesPorDebeHaber(List<Imputacion> imputaciones) {
-		List<Imputacion> haber = new ArrayList<>();
-
-		// Deja las que son DEBE y quita las que son HABER pero antes las guarda en otra lista
-		imputaciones.removeIf(imputacion -> {
-			if(imputacion.esHaber()) return haber.add(imputacion);
-			return false;
-		});
-		
-		// Agrega al final las del DEBE
-		imputaciones.addAll(haber);
+	/** Busca la posicion de la moneda (por id) dentro de las primeras <code>size</code> del array (o -1 si no esta) */
+	private static int indexOf(Moneda[] monedas, int size, Moneda moneda) {
+		for(int i = 0; i < size; i++) {
+			if(monedas[i].getId().equals(moneda.getId())) return i;
+		}
+		return -1;
 	}
 	
 //	/** Determina si existen imputaciones para una cuenta determinada en un ejercicio especifico. */
@@ -3,50 +3,105 @@ package com.mmoscovich.webcontab.services;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.mmoscovich.webcontab.dto.informes.AjusteInflacionCuenta;
 import com.mmoscovich.webcontab.dto.informes.BalanceMensualCuenta;
 import com.mmoscovich.webcontab.exception.IndiceInflacionFaltante;
 import com.mmoscovich.webcontab.model.Ejercicio;
-import com.mmoscovich.webcontab.model.InflacionMes;
-
-import lombok.Getter;
+import com.mmoscovich.webcontab.util.TablaInflacion;
 
 /**
- * Clase encargada de calcular los ajustes por inflacion de las distintas cuentas en base a los saldos mensuales. 
+ * Clase encargada de calcular los ajustes por inflacion de las distintas cuentas en base a los saldos mensuales.
+ * <p>Los indices se guardan en una tabla densa (mes del ejercicio x moneda) y los saldos se acumulan como enteros
+ * con 4 decimales (long), por lo que procesar cada saldo mensual no genera objetos.
+ * <br>Si algun calculo no entra en un long, se hace con {@link BigDecimal}. El redondeo es el mismo en ambos casos.</p>
+ * <p>Los indices se toman de la {@link TablaInflacion} en memoria, sin consultar la base.</p>
  */
 public class InflacionCalculator {
-	
-	/** Mapa que contiene como clave el mes y la moneda y como valor el indice de inflacion correspondiente */
-	private Map<String, BigDecimal> indices = new HashMap<>();
-	
-	/** Lista que se usa para conservar el orden de las cuentas */
-	@Getter
-	private List<Long> cuentasIds = new ArrayList<>();
-	
-	/** 
-	 * Mapa que contiene como clave el id de la cuenta 
-	 * y como valor acumula los saldos normales y ajustados para cada cuenta en todo el ejercicio (sumando cada mes) 
+
+	/** Cantidad de decimales usados en los calculos */
+	private static final int ESCALA = 4;
+
+	/** Potencias de 10 que entran en un long */
+	private static final long[] POTENCIAS_10 = new long[19];
+	static {
+		POTENCIAS_10[0] = 1;
+		for(int i = 1; i < POTENCIAS_10.length; i++) POTENCIAS_10[i] = POTENCIAS_10[i - 1] * 10;
+	}
+
+	/** Primer mes del ejercicio (fila 0 de la tabla) */
+	private final YearMonth mesInicial;
+
+	/** Ids de las monedas que tienen indices (columnas de la tabla) */
+	private final long[] monedas;
+
+	/** Indice de cada mes y moneda con 4 decimales. Null si no se cargo */
+	private final BigDecimal[][] indices;
+
+	/** Valor sin escala de {@link #indices}. Cero si no entra en un long */
+	private final long[][] divisores;
+
+	/** Indice del mes final del ejercicio para cada moneda (sin redondear) */
+	private final BigDecimal[] indicesFinales;
+
+	/** Valor sin escala de {@link #indicesFinales} */
+	private final long[] multiplicadores;
+
+	/** Escala de {@link #indicesFinales}. -1 si no se puede calcular con long */
+	private final int[] escalasFinales;
+
+	/**
+	 * Mapa que contiene como clave el id de la cuenta (en el orden en que aparecen)
+	 * y como valor acumula los saldos normales y ajustados para cada cuenta en todo el ejercicio (sumando cada mes)
 	 */
-	private Map<Long, SaldoCuenta> saldos = new HashMap<>();
-	
-	/** Sin que representa el mes final en formato "yyyy-mm". Se usa como clave en el mapa */
-	private String mesFinalizacion;
-	
-	/** Incializa un Calculador en base al ejercicio y la lista de indices de inflacion */
-	public InflacionCalculator(Ejercicio ejercicio, List<InflacionMes> items) {
-		// Se obtiene el string "yyyy-mm" del mes de finalizacion del ejercicio
-		this.mesFinalizacion = YearMonth.from(ejercicio.getFinalizacion()).toString();
-		
-		// Por cada indice, se incluye en el mapa usando como clave "yyyy-mm|id_moneda".
-		for(InflacionMes indice : items) {
-			indices.put(indice.getYearMonth().toString() + "|" + indice.getMoneda().getId(), indice.getIndice());
+	private final Map<Long, SaldoCuenta> saldos = new LinkedHashMap<>();
+
+	/**
+	 * Incializa un Calculador en base al ejercicio y la tabla de indices de inflacion.
+	 * <p>Solo se copian los indices de los meses del ejercicio.</p>
+	 */
+	public InflacionCalculator(Ejercicio ejercicio, TablaInflacion tabla) {
+		this.mesInicial = YearMonth.from(ejercicio.getInicio());
+		final int meses = (int) mesInicial.until(YearMonth.from(ejercicio.getFinalizacion()), ChronoUnit.MONTHS) + 1;
+
+		this.monedas = tabla.getMonedas();
+		this.indices = new BigDecimal[meses][monedas.length];
+		this.divisores = new long[meses][monedas.length];
+		this.indicesFinales = new BigDecimal[monedas.length];
+		this.multiplicadores = new long[monedas.length];
+		this.escalasFinales = new int[monedas.length];
+
+		// Se ubica cada indice del ejercicio en la tabla segun su mes y moneda
+		for(int moneda = 0; moneda < monedas.length; moneda++) {
+			for(int mes = 0; mes < meses; mes++) {
+				BigDecimal indiceMes = tabla.getIndice(monedas[moneda], mesInicial.plusMonths(mes));
+				if(indiceMes == null) continue;
+
+				BigDecimal indice = indiceMes.setScale(ESCALA, RoundingMode.DOWN);
+				indices[mes][moneda] = indice;
+				divisores[mes][moneda] = toLongOrZero(indice);
+			}
+
+			// El indice del mes de finalizacion se usa sin redondear
+			BigDecimal indiceFinal = tabla.getIndice(monedas[moneda], mesInicial.plusMonths(meses - 1));
+			if(indiceFinal != null) {
+				indicesFinales[moneda] = indiceFinal;
+				multiplicadores[moneda] = toLongOrZero(indiceFinal);
+				escalasFinales[moneda] = (indiceFinal.scale() >= 0 && indiceFinal.scale() < POTENCIAS_10.length && multiplicadores[moneda] != 0) ? indiceFinal.scale() : -1;
+			}
 		}
 	}
-	
+
+	/** Lista de ids de cuentas, en el orden en que se agregaron */
+	public List<Long> getCuentasIds() {
+		return new ArrayList<>(saldos.keySet());
+	}
+
 	/**
 	 * Devuelve la diferencia entre el saldo ajustado por inflacion y el normal para una cuenta.
 	 * <p>Estos saldos son los acumulados para todo el ejercicio</p>
@@ -54,73 +109,111 @@ public class InflacionCalculator {
 	 * @return
 	 */
 	public BigDecimal getDiferenciaAjuste(Long cuentaId) {
-		SaldoCuenta saldo = this.saldos.get(cuentaId);
-		
-		// Se devuelve la diferencia usando solo 2 decimales
-		return saldo.saldoAjustado.subtract(saldo.saldoNormal).setScale(2, RoundingMode.HALF_DOWN);
+		return this.saldos.get(cuentaId).getDiferencia();
+	}
+
+	/**
+	 * Devuelve el ajuste calculado de cada cuenta, en el orden en que se agregaron.
+	 */
+	public List<AjusteInflacionCuenta> getAjustes() {
+		List<AjusteInflacionCuenta> result = new ArrayList<>(saldos.size());
+		saldos.forEach((id, s) -> result.add(new AjusteInflacionCuenta(id, s.codigo, s.descripcion, s.monedaId,
+				BigDecimal.valueOf(s.saldoNormal, ESCALA), BigDecimal.valueOf(s.saldoAjustado, ESCALA), s.getDiferencia())));
+		return result;
 	}
-	
-	/** 
+
+	/**
 	 * Acumula para una cuenta el valor del saldo normal y ajustado en un determinado mes.
 	 * @param balance saldo de una cuenta en un determinado mes
-	 * 
+	 *
 	 * @throws IndiceInflacionFaltante si no se cargo el indice de inflacion para ese mes y moneda
 	 */
 	public void add(BalanceMensualCuenta balance) throws IndiceInflacionFaltante {
-		final Long cuentaId = balance.getId();
-		
-		// Se agrega la cuenta a la lista ordenada, si aun no se agrego
-		if(!this.cuentasIds.contains(cuentaId)) cuentasIds.add(cuentaId);
-		
 		// Se obtiene o crea el acumulado para esa cuenta
-		SaldoCuenta saldo = saldos.computeIfAbsent(cuentaId, id -> new SaldoCuenta());
-
-		// Se obtiene el saldo del mes (se ponen 4 decimales para los calculos)
-		BigDecimal saldoNormal = balance.getSaldo().setScale(4);
-		
-		// Se obtiene el saldo ajustado haciendo ("saldo del mes" / "indice del mes") * "indice del mes final del ejercicio"
-		BigDecimal saldoAjustado = saldoNormal.divide(getIndiceOrThrow(balance), 4, RoundingMode.DOWN)
-											  .multiply(getIndiceFinalOrThrow(balance))
-											  .setScale(4, RoundingMode.DOWN);
-		
+		SaldoCuenta saldo = saldos.computeIfAbsent(balance.getId(), id -> new SaldoCuenta(balance));
+
+		final int mes = this.indexOfMes(balance.getMes());
+		final int moneda = this.indexOfMoneda(balance.getMonedaId());
+
+		// Se valida que existan el indice del mes y el del mes final
+		if(mes < 0 || moneda < 0 || indices[mes][moneda] == null) throw new IndiceInflacionFaltante(balance.getDescripcion(), balance.getMes());
+		if(indicesFinales[moneda] == null) throw new IndiceInflacionFaltante("No se definio el indice final del ejercicio para la moneda de la cuenta " + balance.getDescripcion());
+
+		// Se obtiene el saldo del mes (con 4 decimales para los calculos)
+		final long saldoNormal = balance.getSaldo().movePointRight(ESCALA).longValueExact();
+
 		// Se acumulan a los saldos de meses anteriores para la misma cuenta
-		saldo.saldoNormal = saldo.saldoNormal.add(saldoNormal).setScale(4, RoundingMode.DOWN);
-		saldo.saldoAjustado = saldo.saldoAjustado.add(saldoAjustado).setScale(4, RoundingMode.DOWN);
+		saldo.saldoNormal = Math.addExact(saldo.saldoNormal, saldoNormal);
+		saldo.saldoAjustado = Math.addExact(saldo.saldoAjustado, this.ajustar(saldoNormal, mes, moneda));
 	}
-	
-	/** 
-	 * Obtiene el indice de inflacion para un item de balance.
-	 * <br>Se obtiene a partir del mes y la cuenta (por lo tanto la moneda) del item. 
-	 * 
-	 * @param balance
-	 * @return
-	 * @throws IndiceInflacionFaltante si no se cargo el indice de inflacion para ese mes y la moneda de la cuenta
-	 */
-	private BigDecimal getIndiceOrThrow(BalanceMensualCuenta balance) throws IndiceInflacionFaltante {
-		// Se busca con la key mes-moneda
-		BigDecimal indice = indices.get(balance.getMes().toString() + "|" + balance.getMonedaId());
-		if(indice == null) throw new IndiceInflacionFaltante(balance.getDescripcion(), balance.getMes());
-		return indice.setScale(4, RoundingMode.DOWN);
-	}
-	
+
 	/**
-	 * Obtiene el indice de inflacion del mes final de ejercicio para una item de balance (usando su cuenta).
-	 * @param balance
-	 * @return
-	 * @throws IndiceInflacionFaltante si no se cargo el indice de inflacion del mes final para la moneda de la cuenta
+	 * Obtiene el saldo ajustado haciendo ("saldo del mes" / "indice del mes") * "indice del mes final del ejercicio".
+	 * <p>Cada operacion se trunca a 4 decimales.</p>
+	 * @param saldo saldo del mes con 4 decimales (sin escala)
+	 * @return saldo ajustado con 4 decimales (sin escala)
 	 */
-	private BigDecimal getIndiceFinalOrThrow(BalanceMensualCuenta balance) throws IndiceInflacionFaltante {
-		// Se busca con la key mes-moneda, usando el mes de finalizacion
-		BigDecimal indice = indices.get(this.mesFinalizacion + "|" + balance.getMonedaId());
-		if(indice == null) throw new IndiceInflacionFaltante("No se definio el indice final del ejercicio para la moneda de la cuenta " + balance.getDescripcion());
-		return indice;
+	private long ajustar(long saldo, int mes, int moneda) {
+		final long divisor = divisores[mes][moneda];
+		final int escalaFinal = escalasFinales[moneda];
+
+		if(divisor != 0 && escalaFinal >= 0) {
+			try {
+				// La division entera trunca hacia cero, igual que RoundingMode.DOWN
+				long cociente = Math.multiplyExact(saldo, POTENCIAS_10[ESCALA]) / divisor;
+				return Math.multiplyExact(cociente, multiplicadores[moneda]) / POTENCIAS_10[escalaFinal];
+			} catch(ArithmeticException e) {
+				// No entra en un long, se calcula con BigDecimal
+			}
+		}
+
+		return BigDecimal.valueOf(saldo, ESCALA)
+				.divide(indices[mes][moneda], ESCALA, RoundingMode.DOWN)
+				.multiply(indicesFinales[moneda])
+				.setScale(ESCALA, RoundingMode.DOWN)
+				.unscaledValue().longValueExact();
+	}
+
+	/** Posicion del mes en la tabla o -1 si esta fuera del ejercicio */
+	private int indexOfMes(YearMonth mes) {
+		final long i = mesInicial.until(mes, ChronoUnit.MONTHS);
+		return (i < 0 || i >= indices.length) ? -1 : (int) i;
+	}
+
+	/** Posicion de la moneda en la tabla o -1 si no tiene indices */
+	private int indexOfMoneda(long monedaId) {
+		for(int i = 0; i < monedas.length; i++) {
+			if(monedas[i] == monedaId) return i;
+		}
+		return -1;
+	}
+
+	/** Valor sin escala del numero o cero si no entra en un long */
+	private static long toLongOrZero(BigDecimal value) {
+		return value.unscaledValue().bitLength() < Long.SIZE ? value.unscaledValue().longValue() : 0;
 	}
 
 	/**
-	 * Clase usada como estructura para guardar los dos saldos que nos interesan: el normal y el ajustado
+	 * Clase usada como estructura para guardar los dos saldos que nos interesan: el normal y el ajustado.
+	 * <p>Ambos se guardan con 4 decimales (sin escala).</p>
 	 */
 	private static class SaldoCuenta {
-		private BigDecimal saldoNormal = BigDecimal.ZERO;
-		private BigDecimal saldoAjustado = BigDecimal.ZERO;
+		private final String codigo;
+		private final String descripcion;
+		private final Long monedaId;
+
+		private long saldoNormal;
+		private long saldoAjustado;
+
+		SaldoCuenta(BalanceMensualCuenta balance) {
+			this.codigo = balance.getCodigo();
+			this.descripcion = balance.getDescripcion();
+			this.monedaId = balance.getMonedaId();
+		}
+
+		/** Diferencia entre el saldo ajustado y el normal, usando solo 2 decimales */
+		BigDecimal getDiferencia() {
+			return BigDecimal.valueOf(Math.subtractExact(saldoAjustado, saldoNormal), ESCALA).setScale(2, RoundingMode.HALF_DOWN);
+		}
 	}
 }
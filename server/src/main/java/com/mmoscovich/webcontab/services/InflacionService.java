@@ -0,0 +1,145 @@
+package com.mmoscovich.webcontab.services;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.mmoscovich.webcontab.dao.InflacionRepository;
+import com.mmoscovich.webcontab.dto.InflacionLoteDTO;
+import com.mmoscovich.webcontab.exception.InvalidRequestException;
+import com.mmoscovich.webcontab.model.InflacionMes;
+import com.mmoscovich.webcontab.model.Moneda;
+import com.mmoscovich.webcontab.util.TablaInflacion;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Servicio de indices de inflacion.
+ * <p>Mantiene en memoria una {@link TablaInflacion} con todos los indices, asociada a una version.
+ * <br>Cada modificacion de indices debe llamar a {@link #invalidar()}, que incrementa la version al confirmarse la transaccion.
+ * La tabla se vuelve a leer de la base solo cuando la version cambio.</p>
+ */
+@Slf4j
+@Service
+public class InflacionService {
+
+	/** Cantidad maxima de indices por carga masiva */
+	private static final int MAX_ITEMS = 2000;
+
+	@Inject
+	private InflacionRepository dao;
+
+	/** Version actual de los indices */
+	private final AtomicLong version = new AtomicLong();
+
+	/** Ultima tabla leida (puede estar desactualizada) */
+	private volatile TablaInflacion tabla = null;
+
+	/**
+	 * Obtiene la tabla de indices de todas las monedas.
+	 * <p>Solo se consulta la base si los indices se modificaron desde la ultima lectura.</p>
+	 */
+	@Transactional(readOnly = true)
+	public TablaInflacion getTabla() {
+		// La version se lee antes de consultar. Si cambia mientras se consulta, la tabla queda vieja y se vuelve a leer.
+		final long actual = version.get();
+
+		TablaInflacion result = this.tabla;
+		if(result != null && result.getVersion() == actual) return result;
+
+		result = new TablaInflacion(actual, dao.findAll());
+		this.tabla = result;
+
+		log.debug("Se cargaron los indices de inflacion (version {}, {} meses)", actual, result.size());
+		return result;
+	}
+
+	/**
+	 * Indica que se modificaron indices de inflacion en la transaccion actual.
+	 * <p>La version se incrementa al confirmarse la transaccion (o inmediatamente si no hay transaccion).</p>
+	 */
+	public void invalidar() {
+		if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+			version.incrementAndGet();
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				version.incrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Crea o actualiza los indices de una moneda.
+	 * <p>Los indices de meses que ya existen se actualizan y el resto se crean (en batch).
+	 * <br>Los meses que no estan en la lista no se modifican.</p>
+	 * @param moneda moneda persistida (ajustable)
+	 * @param items indices con mes e indice
+	 * @return la cantidad de indices creados, actualizados y sin cambios
+	 * @throws InvalidRequestException si no hay indices, hay demasiados, hay meses repetidos o algun indice no es positivo
+	 */
+	@Transactional
+	public InflacionLoteDTO guardar(Moneda moneda, List<InflacionMes> items) throws InvalidRequestException {
+		if(items == null || items.isEmpty()) throw new InvalidRequestException("No se indicaron indices");
+		if(items.size() > MAX_ITEMS) throw new InvalidRequestException("No se pueden cargar mas de " + MAX_ITEMS + " indices a la vez");
+
+		// Se validan los indices y se busca el rango de meses
+		Map<YearMonth, InflacionMes> porMes = new HashMap<>(items.size() * 2);
+		YearMonth desde = null;
+		YearMonth hasta = null;
+		for(InflacionMes item : items) {
+			if(item.getMes() == null || item.getIndice() == null) throw new InvalidRequestException("Todos los indices deben tener mes e indice");
+			if(item.getIndice().signum() <= 0) throw new InvalidRequestException("El indice debe ser un numero mayor a cero (mes " + item.getYearMonth() + ")");
+
+			YearMonth mes = item.getYearMonth();
+			if(porMes.put(mes, item) != null) throw new InvalidRequestException("El mes " + mes + " esta repetido");
+			if(desde == null || mes.isBefore(desde)) desde = mes;
+			if(hasta == null || mes.isAfter(hasta)) hasta = mes;
+		}
+
+		InflacionLoteDTO result = new InflacionLoteDTO();
+
+		// Se actualizan los existentes (una sola query para todo el rango)
+		for(InflacionMes existente : dao.findByMonedaAndPeriodo(moneda, desde.atDay(1), hasta.atEndOfMonth())) {
+			InflacionMes item = porMes.remove(existente.getYearMonth());
+			if(item == null) continue;
+
+			if(existente.getIndice().compareTo(item.getIndice()) == 0) {
+				result.setSinCambios(result.getSinCambios() + 1);
+			} else {
+				existente.setIndice(item.getIndice());
+				result.setActualizados(result.getActualizados() + 1);
+			}
+		}
+
+		// Se crean los que no existian
+		List<InflacionMes> nuevos = new ArrayList<>(porMes.size());
+		for(InflacionMes item : porMes.values()) {
+			InflacionMes nuevo = new InflacionMes();
+			nuevo.setYearMonth(item.getYearMonth());
+			nuevo.setMoneda(moneda);
+			nuevo.setIndice(item.getIndice());
+			nuevos.add(nuevo);
+		}
+		dao.saveAll(nuevos);
+		result.setCreados(nuevos.size());
+
+		if(result.getCreados() > 0 || result.getActualizados() > 0) this.invalidar();
+
+		log.info("Carga de indices de la moneda {}: {} creados, {} actualizados y {} sin cambios", moneda.getCodigo(), result.getCreados(), result.getActualizados(), result.getSinCambios());
+		return result;
+	}
+}
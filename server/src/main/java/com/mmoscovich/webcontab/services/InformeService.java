@@ -8,6 +8,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Stream;
 
@@ -21,6 +22,7 @@ import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.mmoscovich.webcontab.dao.ArchivoRepository;
 import com.mmoscovich.webcontab.dao.AsientoRepository;
 import com.mmoscovich.webcontab.dao.InformeRepository;
 import com.mmoscovich.webcontab.dao.helper.QueryBalance.FiltroBalance;
@@ -38,6 +40,7 @@ import com.mmoscovich.webcontab.model.Cuenta;
 import com.mmoscovich.webcontab.model.Ejercicio;
 import com.mmoscovich.webcontab.model.Imputacion;
 import com.mmoscovich.webcontab.services.ImputacionService.ImputacionesCuenta;
+import com.mmoscovich.webcontab.util.LibroColumnar;
 
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -63,6 +66,12 @@ public class InformeService {
 	@Inject
 	private AsientoRepository asientoDao;
 	
+	@Inject
+	private ArchivoRepository archivoDao;
+	
+	@Inject
+	private LibroColumnarService libroService;
+	
 	@Inject
 	private EntityManager em;
 
@@ -86,8 +95,8 @@ public class InformeService {
 		filtroQuery.setIncluirCero(filtro.isIncludeCuentasEnCero());
 		filtroQuery.soloEnCategorias(categorias);
 		
-		// Se realiza la query
-		return dao.getBalance(filtroQuery, includeCount, pagination);			
+		// Se calcula en memoria si el libro del ejercicio esta cargado. Si no, se realiza la query
+		return libroService.getBalance(filtroQuery, includeCount, pagination).orElseGet(() -> dao.getBalance(filtroQuery, includeCount, pagination));
 	}
 	
 	/**
@@ -154,8 +163,12 @@ public class InformeService {
 	 * @throws EjercicioNoSeleccionadoException
 	 */
 	public ImputacionesCuenta getMayor(Ejercicio ejercicio, Cuenta cuenta, AsientoFilter asientoFilter, Pageable pagination) {
-		// Obtiene la pagina de mayor
-		Page<Imputacion> page = dao.getMayor(ejercicio, cuenta, asientoFilter, pagination);
+		// Obtiene la pagina de mayor (del libro en memoria, si esta cargado)
+		Optional<LibroColumnar> libro = libroService.getLibro(ejercicio);
+		Optional<Page<Imputacion>> pageLibro = libro.flatMap(l -> libroService.getMayor(l, cuenta, asientoFilter, pagination));
+		if(pageLibro.isEmpty()) libro = Optional.empty();
+		
+		Page<Imputacion> page = pageLibro.orElseGet(() -> dao.getMayor(ejercicio, cuenta, asientoFilter, pagination));
 		
 		BigDecimal saldo;
 		if(asientoFilter.esFiltroNumeros()) {
@@ -166,7 +179,7 @@ public class InformeService {
 			LocalDate desde = asientoFilter.getDesde();
 			LocalDate hasta = asientoFilter.getHasta() == null ? ejercicio.getFinalizacion() : asientoFilter.getHasta();
 			
-			saldo = calculateSaldoAnterior(ejercicio, cuenta, page, desde == null || desde.isAfter(ejercicio.getInicio()), hasta);
+			saldo = calculateSaldoAnterior(ejercicio, libro, cuenta, page, desde == null || desde.isAfter(ejercicio.getInicio()), hasta);
 		}
 		
 		return new ImputacionesCuenta(page, saldo);
@@ -175,13 +188,14 @@ public class InformeService {
 	/**
 	 * Calcula el saldo de la cuenta anterior a las imputaciones especificadas
 	 * @param ejercicio ejercicio para el cual se genera el mayor
+	 * @param libro libro en memoria del ejercicio (si esta vacio, se realiza la query)
 	 * @param cuenta
 	 * @param page pagina de imputaciones que se va a retornar al usuario
 	 * @param cotaInferiorFiltrada indica si se esta mostrando la primera imputacion del ejercicio (para devolver saldo anterior = 0)
 	 * @param hasta fecha maxima en la que buscar si no hay items en la pagina
 	 * @return
 	 */
-	private BigDecimal calculateSaldoAnterior(Ejercicio ejercicio, Cuenta cuenta, Page<Imputacion> page, boolean cotaInferiorFiltrada, LocalDate hasta) {
+	private BigDecimal calculateSaldoAnterior(Ejercicio ejercicio, Optional<LibroColumnar> libro, Cuenta cuenta, Page<Imputacion> page, boolean cotaInferiorFiltrada, LocalDate hasta) {
 		if(page.isFirst() && !cotaInferiorFiltrada) {
 			// Si es la primera pagina y la cota inferior no filtra nada, el saldo sera cero 
 			return BigDecimal.ZERO;
@@ -199,6 +213,8 @@ public class InformeService {
 		}
 		
 		// Se busca el saldo anterior de la cuenta
+		if(libro.isPresent()) return libroService.getMayorSaldoAnterior(libro.get(), cuenta, hasta, numeroAsiento, firstId);
+		
 		Map<Long, BigDecimal> result = dao.getMayorSaldoAnterior(ejercicio, Set.of(cuenta.getId()), hasta, numeroAsiento, firstId);
 		
 		// Como la query anterior esta pensada para multiples cuentas pero se envio una, se pide solo la primera entry.
@@ -242,8 +258,8 @@ public class InformeService {
 		if(min == null) min = 0;
 		if(max == null) max = Short.MAX_VALUE; 
 		
-		// Genera el stream de asientos
-		Stream<Asiento> asientos = asientoDao.findByNumerosReport(ejercicio, min, max);
+		// Genera el stream de asientos (del archivo si el ejercicio esta archivado)
+		Stream<Asiento> asientos = ejercicio.isArchivado() ? archivoDao.streamDiarioPorNumeros(ejercicio, min, max) : asientoDao.findByNumerosReport(ejercicio, min, max);
 		
 		// Se genera el reporte
 		return new ExcelDiarioExporter().exportar(em, ejercicio, asientos);
@@ -262,8 +278,8 @@ public class InformeService {
 		if(desde == null) desde = ejercicio.getInicio();
 		if(hasta == null) hasta = ejercicio.getFinalizacion();
 		
-		// Genera el stream de asientos
-		Stream<Asiento> asientos = asientoDao.findByPeriodoReport(ejercicio, desde, hasta);
+		// Genera el stream de asientos (del archivo si el ejercicio esta archivado)
+		Stream<Asiento> asientos = ejercicio.isArchivado() ? archivoDao.streamDiarioPorPeriodo(ejercicio, desde, hasta) : asientoDao.findByPeriodoReport(ejercicio, desde, hasta);
 		
 		// Se genera el reporte
 		return new ExcelDiarioExporter().exportar(em, ejercicio, asientos);
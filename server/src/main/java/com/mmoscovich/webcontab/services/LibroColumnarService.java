@@ -0,0 +1,467 @@
+package com.mmoscovich.webcontab.services;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.mmoscovich.webcontab.dao.ImputacionRepository;
+import com.mmoscovich.webcontab.dao.InformeRepository;
+import com.mmoscovich.webcontab.dao.helper.QueryBalance.FiltroBalance;
+import com.mmoscovich.webcontab.dto.AsientoFilter;
+import com.mmoscovich.webcontab.dto.informes.BalanceCuenta;
+import com.mmoscovich.webcontab.dto.informes.BalanceMensualCuenta;
+import com.mmoscovich.webcontab.exception.ConflictException;
+import com.mmoscovich.webcontab.exception.ServerException;
+import com.mmoscovich.webcontab.model.Cuenta;
+import com.mmoscovich.webcontab.model.Ejercicio;
+import com.mmoscovich.webcontab.model.Imputacion;
+import com.mmoscovich.webcontab.util.LibroColumnar;
+import com.mmoscovich.webcontab.util.LibroColumnarArchivo;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Mantiene en memoria un {@link LibroColumnar} por ejercicio, para responder el balance y el mayor sin consultar la base.
+ * <p>
+ * Cada libro esta asociado a la version de datos del ejercicio (ver {@link EjercicioLockService#getVersion(Ejercicio)}).
+ * Como toda modificacion de asientos toma el lock del ejercicio, al confirmarse cambia la version y el libro deja de usarse.
+ * </p>
+ * <p>
+ * Si no hay libro (o esta desactualizado) se devuelve vacio, para que se use la query, y se carga en background
+ * (un ejercicio a la vez, con una sola query). Asi una modificacion nunca hace esperar a la consulta siguiente.
+ * </p>
+ * <p>
+ * La memoria total esta limitada (<code>webcontab.libro-columnar.memoria-mb</code>). Al superarla, se descartan
+ * los libros de los ejercicios usados hace mas tiempo. Se puede desactivar con <code>webcontab.libro-columnar.habilitado</code>.
+ * </p>
+ * <p>
+ * Los libros de ejercicios cerrados ademas se guardan en archivos (ver {@link LibroColumnarArchivo}) en el directorio
+ * <code>webcontab.libro-columnar.dir</code>. Se generan al cerrar el ejercicio (o a pedido) y, cuando no hay libro en memoria
+ * (por ejemplo, luego de reiniciar), se mapean directamente sin consultar las imputaciones. Los libros mapeados no ocupan heap.
+ * </p>
+ */
+@Slf4j
+@Service
+public class LibroColumnarService {
+
+	@Inject
+	private InformeRepository informeDao;
+
+	@Inject
+	private ImputacionRepository imputacionDao;
+
+	@Inject
+	private EjercicioLockService ejercicioLock;
+
+	private final boolean habilitado;
+
+	/** Memoria maxima de todos los libros (bytes) */
+	private final long maxBytes;
+
+	/** Directorio de los archivos de libros de ejercicios cerrados */
+	private final Path directorio;
+
+	/** Carga los libros en background */
+	private final ExecutorService executor;
+
+	/** Libros por id de ejercicio (LRU). Se accede sincronizando sobre el mapa */
+	private final LinkedHashMap<Long, LibroColumnar> libros = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Memoria de los libros en el mapa (bytes). Se accede sincronizando sobre el mapa */
+	private long bytes = 0;
+
+	/** Ejercicios cuyo libro se esta cargando */
+	private final Set<Long> cargando = ConcurrentHashMap.newKeySet();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder cargas = new LongAdder();
+	private final LongAdder desalojos = new LongAdder();
+	private final LongAdder archivosMapeados = new LongAdder();
+	private final LongAdder archivosEscritos = new LongAdder();
+
+	public LibroColumnarService(@Value("${webcontab.libro-columnar.habilitado:true}") boolean habilitado,
+			@Value("${webcontab.libro-columnar.memoria-mb:64}") int memoriaMb,
+			@Value("${webcontab.libro-columnar.dir:libros}") String directorio) {
+		this.habilitado = habilitado;
+		this.maxBytes = memoriaMb * 1024L * 1024L;
+		this.directorio = Paths.get(directorio);
+		this.executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("libro-"));
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Obtiene el libro actualizado del ejercicio.
+	 * <p>Si no existe o esta desactualizado y el ejercicio esta cerrado, se intenta mapear su archivo.
+	 * Si tampoco se puede, se programa su carga y se devuelve vacio.</p>
+	 * @param ejercicio
+	 * @return el libro o vacio si se debe usar la query
+	 */
+	public Optional<LibroColumnar> getLibro(Ejercicio ejercicio) {
+		return this.obtenerLibro(ejercicio, true);
+	}
+
+	/**
+	 * Si el libro del ejercicio no esta en memoria y actualizado, mapea su archivo o programa su carga (igual que {@link #getLibro(Ejercicio)}).
+	 * <p>Para la precarga: no cuenta aciertos ni fallos, ya que no hay un pedido que use el libro.</p>
+	 * @param ejercicio
+	 * @return true si el libro ya estaba disponible
+	 */
+	public boolean precargar(Ejercicio ejercicio) {
+		return this.obtenerLibro(ejercicio, false).isPresent();
+	}
+
+	/**
+	 * Implementacion de {@link #getLibro(Ejercicio)}.
+	 * @param contar indica si se cuentan los aciertos y fallos
+	 */
+	private Optional<LibroColumnar> obtenerLibro(Ejercicio ejercicio, boolean contar) {
+		if(!habilitado || ejercicio.isArchivado()) return Optional.empty();
+
+		// Si la transaccion actual tiene el lock del ejercicio, puede tener cambios sin confirmar. No se usa el libro
+		if(ejercicioLock.isTomadoPorThreadActual(ejercicio)) return Optional.empty();
+
+		final long version = ejercicioLock.getVersion(ejercicio);
+
+		LibroColumnar libro;
+		synchronized(libros) {
+			libro = libros.get(ejercicio.getId());
+		}
+
+		if(libro != null && libro.getVersion() == version) {
+			if(contar) hits.increment();
+			return Optional.of(libro);
+		}
+
+		if(contar) misses.increment();
+
+		// Si ya se esta cargando, el archivo no existe o esta desactualizado
+		if(ejercicio.isFinalizado() && !cargando.contains(ejercicio.getId())) {
+			Optional<LibroColumnar> mapeado = this.mapearArchivo(ejercicio, version);
+			if(mapeado.isPresent()) return mapeado;
+		}
+
+		this.programarCarga(ejercicio, libro == null ? 0 : libro.size());
+		return Optional.empty();
+	}
+
+	/**
+	 * Descarta el libro de un ejercicio (por ejemplo, al reabrirlo, archivarlo o eliminarlo), para liberar la memoria.
+	 * <p>Tambien se eliminan sus archivos.</p>
+	 * @param ejercicio
+	 */
+	public void descartar(Ejercicio ejercicio) {
+		synchronized(libros) {
+			LibroColumnar libro = libros.remove(ejercicio.getId());
+			if(libro != null) bytes -= libro.getBytesHeap();
+		}
+		this.eliminarArchivos(ejercicio);
+	}
+
+	/**
+	 * Programa la generacion del archivo del libro del ejercicio al confirmarse la transaccion actual (por ejemplo, al cerrarlo).
+	 * @param ejercicio
+	 */
+	public void generarArchivoAlConfirmar(Ejercicio ejercicio) {
+		if(!habilitado) return;
+		if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+			this.programarCarga(ejercicio, 0);
+			return;
+		}
+
+		// Se usa afterCompletion para que ya este actualizada la version del ejercicio (ver EjercicioLockService)
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int status) {
+				if(status == TransactionSynchronization.STATUS_COMMITTED) programarCarga(ejercicio, 0);
+			}
+		});
+	}
+
+	/**
+	 * Genera (o regenera) el archivo del libro de un ejercicio cerrado y lo deja mapeado en memoria.
+	 * @param ejercicio
+	 * @return estadisticas del libro generado
+	 * @throws ConflictException si el ejercicio no esta cerrado, esta archivado o los libros estan desactivados
+	 * @throws ServerException si no se pudo escribir el archivo
+	 */
+	public Map<String, Long> generarArchivo(Ejercicio ejercicio) throws ConflictException, ServerException {
+		if(!habilitado) throw new ConflictException("Los libros en memoria estan desactivados");
+		if(!ejercicio.isFinalizado()) throw new ConflictException("Solo se pueden generar libros de ejercicios cerrados");
+		if(ejercicio.isArchivado()) throw new ConflictException("El ejercicio esta archivado");
+
+		final long version = ejercicioLock.getVersion(ejercicio);
+		final LibroColumnarArchivo.Firma firma = informeDao.getFirmaLibro(ejercicio);
+		LibroColumnar libro = informeDao.cargarLibroColumnar(ejercicio, version, 0);
+		cargas.increment();
+
+		try {
+			libro = this.escribirArchivo(ejercicio, libro, firma);
+		} catch(IOException e) {
+			throw new ServerException("No se pudo escribir el libro del ejercicio", e);
+		}
+		this.guardar(ejercicio.getId(), libro);
+
+		Map<String, Long> result = new LinkedHashMap<>();
+		result.put("cuentas", (long) libro.getCuentas());
+		result.put("imputaciones", (long) libro.size());
+		result.put("bytes", libro.getBytes());
+		return result;
+	}
+
+	/**
+	 * Obtiene una pagina del balance desde memoria.
+	 * <p>Equivalente a {@link InformeRepository#getBalance(FiltroBalance, boolean, Pageable)}.</p>
+	 * @return la pagina o vacio si se debe usar la query
+	 */
+	public Optional<Slice<BalanceCuenta>> getBalance(FiltroBalance filtro, boolean incluirCount, Pageable pageReq) {
+		Optional<LibroColumnar> libro = this.getLibro(filtro.getEjercicio());
+		if(libro.isEmpty()) return Optional.empty();
+
+		List<BalanceCuenta> items = new ArrayList<>();
+		for(BalanceCuenta cuenta : informeDao.findCuentasBalance(filtro)) {
+			cuenta.setSaldo(libro.get().getSaldo(cuenta.getId(), filtro.getDesde(), filtro.getHasta()));
+			if(filtro.isIncluirCero() || cuenta.getSaldo().signum() != 0) items.add(cuenta);
+		}
+
+		int desde = (int) Math.min(items.size(), pageReq.getOffset());
+		int hasta = Math.min(items.size(), desde + pageReq.getPageSize());
+		List<BalanceCuenta> content = new ArrayList<>(items.subList(desde, hasta));
+
+		Slice<BalanceCuenta> result = incluirCount ? new PageImpl<>(content, pageReq, items.size()) : new SliceImpl<>(content, pageReq, hasta < items.size());
+		return Optional.of(result);
+	}
+
+	/**
+	 * Obtiene el balance <b>POR MES</b> desde memoria (sin los meses con saldo cero).
+	 * <p>Equivalente a {@link InformeRepository#streamBalanceMensual(FiltroBalance)}.</p>
+	 * @return el stream o vacio si se debe usar la query
+	 */
+	public Optional<Stream<BalanceMensualCuenta>> streamBalanceMensual(FiltroBalance filtro) {
+		Optional<LibroColumnar> libro = this.getLibro(filtro.getEjercicio());
+		if(libro.isEmpty()) return Optional.empty();
+
+		List<BalanceMensualCuenta> result = new ArrayList<>();
+		for(BalanceCuenta c : informeDao.findCuentasBalance(filtro)) {
+			libro.get().getSaldosMensuales(c.getId(), filtro.getDesde(), filtro.getHasta(), (mes, saldo) -> {
+				result.add(new BalanceMensualCuenta(c.getId(), c.getCodigo(), c.getDescripcion(), c.getMonedaId(), saldo, mes));
+			});
+		}
+		return Optional.of(result.stream());
+	}
+
+	/**
+	 * Obtiene una pagina del mayor de una cuenta usando el libro.
+	 * <p>Los ids se obtienen del libro y las imputaciones (con su asiento) se buscan por id.</p>
+	 * @param libro libro actualizado del ejercicio
+	 * @return la pagina o vacio si alguna imputacion ya no existe (el libro se desactualizo)
+	 */
+	public Optional<Page<Imputacion>> getMayor(LibroColumnar libro, Cuenta cuenta, AsientoFilter filtro, Pageable pagination) {
+		Page<Long> ids = libro.getMayor(cuenta.getId(), filtro, pagination);
+		if(ids.getContent().isEmpty()) return Optional.of(new PageImpl<>(List.of(), pagination, ids.getTotalElements()));
+
+		Map<Long, Imputacion> porId = imputacionDao.findByIdsWithAsiento(ids.getContent()).stream().collect(Collectors.toMap(Imputacion::getId, Function.identity()));
+		if(porId.size() != ids.getContent().size()) return Optional.empty();
+
+		List<Imputacion> content = ids.getContent().stream().map(porId::get).collect(Collectors.toList());
+		return Optional.of(new PageImpl<>(content, pagination, ids.getTotalElements()));
+	}
+
+	/**
+	 * Obtiene el saldo de la cuenta anterior a una imputacion del mayor usando el libro.
+	 * <p>Equivalente a {@link InformeRepository#getMayorSaldoAnterior(Ejercicio, Set, LocalDate, Short, Long)} para una cuenta.</p>
+	 */
+	public BigDecimal getMayorSaldoAnterior(LibroColumnar libro, Cuenta cuenta, LocalDate hasta, Short numeroAsiento, Long firstId) {
+		return libro.getSaldoAnterior(cuenta.getId(), hasta, numeroAsiento == null ? 0 : numeroAsiento, firstId == null ? 0 : firstId);
+	}
+
+	/** Estadisticas de uso de los libros */
+	public Map<String, Long> getEstadisticas() {
+		Map<String, Long> result = new LinkedHashMap<>();
+		synchronized(libros) {
+			result.put("ejercicios", (long) libros.size());
+			result.put("bytes", bytes);
+			result.put("mapeados", libros.values().stream().filter(LibroColumnar::isMapeado).count());
+		}
+		result.put("maxBytes", maxBytes);
+		result.put("hits", hits.sum());
+		result.put("misses", misses.sum());
+		result.put("cargas", cargas.sum());
+		result.put("desalojos", desalojos.sum());
+		result.put("archivosMapeados", archivosMapeados.sum());
+		result.put("archivosEscritos", archivosEscritos.sum());
+		return result;
+	}
+
+	/** Programa la carga del libro del ejercicio, si no se esta cargando */
+	private void programarCarga(Ejercicio ejercicio, int capacidad) {
+		if(!cargando.add(ejercicio.getId())) return;
+
+		try {
+			executor.execute(() -> this.cargar(ejercicio, capacidad));
+		} catch(RejectedExecutionException e) {
+			cargando.remove(ejercicio.getId());
+		}
+	}
+
+	/** Carga el libro del ejercicio. Del ejercicio solo se usa el id, ya que se ejecuta en otro thread */
+	private void cargar(Ejercicio ejercicio, int capacidad) {
+		final Long ejercicioId = ejercicio.getId();
+		try {
+			// La version se lee antes de consultar. Si cambia mientras se consulta, el libro queda viejo y no se usa.
+			final long version = ejercicioLock.getVersion(ejercicio);
+			final long inicio = System.nanoTime();
+
+			// Idem con la firma del archivo: si cambian los datos, el archivo no coincide y se vuelve a generar
+			final LibroColumnarArchivo.Firma firma = ejercicio.isFinalizado() ? informeDao.getFirmaLibro(ejercicio) : null;
+
+			LibroColumnar libro = informeDao.cargarLibroColumnar(ejercicio, version, capacidad);
+			cargas.increment();
+			log.debug("Se cargo el libro del ejercicio con id {} (version {}, {} imputaciones, {} KB) en {} ms", ejercicioId, version,
+					libro.size(), libro.getBytes() / 1024, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio));
+
+			if(firma != null) {
+				try {
+					libro = this.escribirArchivo(ejercicio, libro, firma);
+				} catch(IOException e) {
+					log.warn("No se pudo escribir el libro del ejercicio con id " + ejercicioId, e);
+				}
+			}
+
+			this.guardar(ejercicioId, libro);
+
+		} catch(Exception e) {
+			log.warn("No se pudo cargar el libro del ejercicio con id " + ejercicioId, e);
+
+		} finally {
+			cargando.remove(ejercicioId);
+		}
+	}
+
+	/** Guarda el libro y descarta los menos usados hasta no superar la memoria maxima */
+	private void guardar(Long ejercicioId, LibroColumnar libro) {
+		synchronized(libros) {
+			LibroColumnar anterior = libros.remove(ejercicioId);
+			if(anterior != null) bytes -= anterior.getBytesHeap();
+
+			if(libro.getBytesHeap() > maxBytes) {
+				log.info("El libro del ejercicio con id {} ({} KB) supera la memoria maxima, se usaran queries", ejercicioId, libro.getBytesHeap() / 1024);
+				return;
+			}
+
+			libros.put(ejercicioId, libro);
+			bytes += libro.getBytesHeap();
+
+			Iterator<Map.Entry<Long, LibroColumnar>> it = libros.entrySet().iterator();
+			while(bytes > maxBytes && it.hasNext()) {
+				Map.Entry<Long, LibroColumnar> entry = it.next();
+				if(entry.getKey().equals(ejercicioId)) continue;
+
+				bytes -= entry.getValue().getBytesHeap();
+				it.remove();
+				desalojos.increment();
+			}
+		}
+	}
+
+	/** Archivo del libro de un ejercicio cerrado. Incluye el asiento de cierre para no confundirlo con el de un cierre anterior */
+	private Path getArchivo(Ejercicio ejercicio) {
+		return directorio.resolve("ejercicio-" + ejercicio.getId() + "-" + ejercicio.getAsientoCierreId() + ".lib");
+	}
+
+	/**
+	 * Mapea el archivo del libro del ejercicio y lo guarda en memoria.
+	 * @return el libro o vacio si no existe o esta desactualizado
+	 */
+	private Optional<LibroColumnar> mapearArchivo(Ejercicio ejercicio, long version) {
+		final Path path = this.getArchivo(ejercicio);
+		if(!Files.isRegularFile(path)) return Optional.empty();
+
+		try {
+			// La version se lee antes que la firma (ver cargar)
+			Optional<LibroColumnar> libro = LibroColumnarArchivo.mapear(path, version, informeDao.getFirmaLibro(ejercicio));
+			if(libro.isPresent()) {
+				archivosMapeados.increment();
+				log.debug("Se mapeo el libro del ejercicio con id {} ({} imputaciones)", ejercicio.getId(), libro.get().size());
+				this.guardar(ejercicio.getId(), libro.get());
+			}
+			return libro;
+
+		} catch(IOException e) {
+			log.warn("No se pudo leer el libro " + path, e);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Escribe el libro en su archivo y lo vuelve a mapear, para no ocupar heap.
+	 * @return el libro mapeado (o el original si no se pudo mapear)
+	 */
+	private LibroColumnar escribirArchivo(Ejercicio ejercicio, LibroColumnar libro, LibroColumnarArchivo.Firma firma) throws IOException {
+		final Path path = this.getArchivo(ejercicio);
+		LibroColumnarArchivo.escribir(path, libro, firma, ejercicio.getId(), ejercicio.getAsientoCierreId());
+		archivosEscritos.increment();
+		log.info("Se genero el libro {} ({} imputaciones, {} KB)", path, libro.size(), libro.getBytes() / 1024);
+
+		return LibroColumnarArchivo.mapear(path, libro.getVersion(), firma).orElse(libro);
+	}
+
+	/**
+	 * Elimina los archivos de libros del ejercicio (de cualquier cierre).
+	 * <p>Es best effort: en algunos SO no se puede eliminar un archivo mapeado. Si queda, no se usa porque su firma no coincide.</p>
+	 */
+	private void eliminarArchivos(Ejercicio ejercicio) {
+		if(!Files.isDirectory(directorio)) return;
+
+		try(DirectoryStream<Path> archivos = Files.newDirectoryStream(directorio, "ejercicio-" + ejercicio.getId() + "-*.lib")) {
+			for(Path path : archivos) {
+				try {
+					Files.deleteIfExists(path);
+				} catch(IOException e) {
+					log.debug("No se pudo eliminar el libro {}: {}", path, e.getMessage());
+				}
+			}
+		} catch(IOException e) {
+			log.warn("No se pudieron eliminar los libros del ejercicio con id " + ejercicio.getId(), e);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.mmoscovich.webcontab.services;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import com.mmoscovich.webcontab.dao.MonedaRepository;
+import com.mmoscovich.webcontab.model.Moneda;
+import com.mmoscovich.webcontab.model.PersistentEntity;
+import com.mmoscovich.webcontab.util.CacheVersionada;
+
+/**
+ * Servicio de monedas.
+ * <p>Mantiene en memoria los ids de todas las monedas (ver {@link CacheVersionada}) y las busca por id en la cache de segundo nivel,
+ * por lo que listarlas no consulta la base.
+ * <br>Cada modificacion de monedas debe llamar a {@link #invalidar()}.</p>
+ */
+@Service
+public class MonedaService {
+
+	@Inject
+	private MonedaRepository dao;
+
+	/** Ids de las monedas, ordenados */
+	private final CacheVersionada<List<Long>> ids = new CacheVersionada<>();
+
+	/**
+	 * Obtiene todas las monedas (ordenadas por id).
+	 */
+	public List<Moneda> getMonedas() {
+		return ids.get(this::leerIds).stream()
+				.map(dao::findById)
+				.flatMap(Optional::stream)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Obtiene la moneda default, si existe.
+	 */
+	public Optional<Moneda> getDefault() {
+		return this.getMonedas().stream().filter(Moneda::isDefault).findFirst();
+	}
+
+	/**
+	 * Indica que se modificaron monedas en la transaccion actual.
+	 * <p>Las monedas se vuelven a leer al confirmarse la transaccion.</p>
+	 */
+	public void invalidar() {
+		ids.invalidar();
+	}
+
+	private List<Long> leerIds() {
+		return dao.findAll(Sort.by("id")).stream().map(PersistentEntity::getId).collect(Collectors.toUnmodifiableList());
+	}
+}
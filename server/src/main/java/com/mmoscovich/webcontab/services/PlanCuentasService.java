@@ -0,0 +1,171 @@
+package com.mmoscovich.webcontab.services;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.mmoscovich.webcontab.dao.CuentaBaseRepository;
+import com.mmoscovich.webcontab.model.Organizacion;
+import com.mmoscovich.webcontab.util.PlanCuentas;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Mantiene en memoria un {@link PlanCuentas} (indice de la jerarquia del plan) por organizacion.
+ * <p>
+ * Cada plan esta asociado a una version de la organizacion. Toda modificacion de categorias o cuentas debe llamar a
+ * {@link #invalidar(Organizacion)}, que incrementa la version al terminar la transaccion. El plan se vuelve a leer
+ * (con una sola query) solo cuando la version cambio.
+ * </p>
+ * <p>
+ * Dentro de una transaccion que modifico el plan, se arma uno nuevo en cada pedido (sin guardarlo),
+ * para que refleje los cambios sin confirmar y no los vean otras transacciones.
+ * </p>
+ */
+@Slf4j
+@Service
+public class PlanCuentasService {
+
+	@Inject
+	private CuentaBaseRepository dao;
+
+	/** Version actual del plan de cada organizacion (por id) */
+	private final Map<Long, AtomicLong> versiones = new ConcurrentHashMap<>();
+
+	/** Ultimo plan leido de cada organizacion (puede estar desactualizado) */
+	private final Map<Long, PlanCuentas> planes = new ConcurrentHashMap<>();
+
+	/** Clave del recurso de la transaccion con los ids de las organizaciones modificadas */
+	private final Object recursoModificadas = new Object();
+
+	/**
+	 * Obtiene el plan de la organizacion.
+	 * <p>Solo se consulta la base si el plan se modifico desde la ultima lectura.</p>
+	 */
+	@Transactional(readOnly = true)
+	public PlanCuentas getPlan(Organizacion org) {
+		if(this.modificadaEnTransaccion(org)) return this.cargar(org, -1);
+
+		// La version se lee antes de consultar. Si cambia mientras se consulta, el plan queda viejo y se vuelve a leer.
+		final long actual = this.getVersion(org).get();
+
+		PlanCuentas plan = planes.get(org.getId());
+		if(plan != null && plan.getVersion() == actual) return plan;
+
+		plan = this.cargar(org, actual);
+		planes.put(org.getId(), plan);
+		return plan;
+	}
+
+	/**
+	 * Indica si el plan de la organizacion ya esta en memoria y actualizado (o sea, {@link #getPlan(Organizacion)} no consulta la base).
+	 */
+	public boolean isActualizado(Organizacion org) {
+		PlanCuentas plan = planes.get(org.getId());
+		return plan != null && plan.getVersion() == this.getVersion(org).get();
+	}
+
+	/**
+	 * Indica que se modificaron categorias o cuentas de la organizacion en la transaccion actual.
+	 * <p>La version se incrementa al terminar la transaccion (o inmediatamente si no hay transaccion).</p>
+	 */
+	public void invalidar(Organizacion org) {
+		if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+			this.incrementarVersion(org.getId());
+			return;
+		}
+
+		@SuppressWarnings("unchecked")
+		Set<Long> modificadas = (Set<Long>) TransactionSynchronizationManager.getResource(recursoModificadas);
+		if(modificadas == null) {
+			final Set<Long> ids = new HashSet<>();
+			TransactionSynchronizationManager.bindResource(recursoModificadas, ids);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					// Tambien ante un rollback, por si algun plan se armo con los cambios descartados
+					TransactionSynchronizationManager.unbindResourceIfPossible(recursoModificadas);
+					ids.forEach(id -> incrementarVersion(id));
+				}
+			});
+			modificadas = ids;
+		}
+		modificadas.add(org.getId());
+	}
+
+	/**
+	 * Indica que se modificaron cuentas de todas las organizaciones (ej: al cambiar una moneda).
+	 * <p>Las versiones se incrementan al terminar la transaccion (o inmediatamente si no hay transaccion).</p>
+	 */
+	public void invalidarTodas() {
+		if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+			versiones.keySet().forEach(this::incrementarVersion);
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int status) {
+				versiones.keySet().forEach(id -> incrementarVersion(id));
+			}
+		});
+	}
+
+	/**
+	 * Obtiene la version actual del plan de la organizacion (se incrementa con cada modificacion).
+	 * <p>Permite que otras caches que usan datos del plan detecten que quedaron desactualizadas.</p>
+	 */
+	public long getVersionPlan(Organizacion org) {
+		return this.getVersion(org).get();
+	}
+
+	/**
+	 * Indica si la transaccion actual modifico el plan de la organizacion (los cambios todavia no se reflejan en la version).
+	 */
+	public boolean modificadaEnTransaccion(Organizacion org) {
+		Object modificadas = TransactionSynchronizationManager.getResource(recursoModificadas);
+		return modificadas != null && ((Set<?>) modificadas).contains(org.getId());
+	}
+
+	private AtomicLong getVersion(Organizacion org) {
+		return versiones.computeIfAbsent(org.getId(), id -> new AtomicLong());
+	}
+
+	private void incrementarVersion(Long orgId) {
+		versiones.computeIfAbsent(orgId, id -> new AtomicLong()).incrementAndGet();
+		planes.remove(orgId);
+	}
+
+	private PlanCuentas cargar(Organizacion org, long version) {
+		List<Object[]> rows = dao.findJerarquia(org.getId());
+
+		List<PlanCuentas.Item> items = new ArrayList<>(rows.size());
+		for(Object[] r : rows) {
+			items.add(new PlanCuentas.Item(
+					((Number) r[0]).longValue(),
+					(String) r[1],
+					(String) r[2],
+					(String) r[3],
+					(String) r[4],
+					((Number) r[5]).intValue() == 1,
+					r[6] == null ? null : ((Number) r[6]).longValue(),
+					Boolean.TRUE.equals(r[7]),
+					Boolean.TRUE.equals(r[8])));
+		}
+
+		PlanCuentas plan = new PlanCuentas(version, items);
+		log.debug("Se cargo el plan de la organizacion {} (version {}, {} items)", org, version, plan.size());
+		return plan;
+	}
+}
@@ -0,0 +1,218 @@
+package com.mmoscovich.webcontab.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import com.mmoscovich.webcontab.dao.EjercicioRepository;
+import com.mmoscovich.webcontab.dao.OrganizacionRepository;
+import com.mmoscovich.webcontab.model.Ejercicio;
+import com.mmoscovich.webcontab.model.Organizacion;
+import com.mmoscovich.webcontab.util.PlanCuentas;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Precarga en background las caches de una organizacion o ejercicio cuando un usuario ingresa
+ * (ver {@link SessionService#setOrganizacion(Long)} y {@link SessionService#setEjercicio(Long)}),
+ * para que las primeras consultas no las encuentren vacias.
+ * <p>
+ * De la organizacion se cargan el plan de cuentas y su indice de busqueda (ver {@link PlanCuentasService}), las categorias,
+ * las monedas y las cuentas que balancean resultados y ajustables. Del ejercicio, el libro en memoria (ver {@link LibroColumnarService}).
+ * <br>Las cuentas no se cargan todas en la cache de entidades, ya que su region es compartida entre organizaciones.
+ * </p>
+ * <p>
+ * Si varios usuarios ingresan a la misma organizacion, la precarga se hace una sola vez: se ignora si ya se esta haciendo
+ * o si se hizo hace menos de <code>webcontab.precarga.intervalo-segundos</code>.
+ * La cola es acotada: si esta llena, la precarga se descarta (las caches se llenaran con el uso).
+ * Se puede desactivar con <code>webcontab.precarga.habilitada</code>.
+ * </p>
+ */
+@Slf4j
+@Service
+public class PrecargaService {
+
+	/** Maximo de precargas pendientes */
+	private static final int MAX_PENDIENTES = 100;
+
+	@Inject
+	private OrganizacionRepository orgDao;
+
+	@Inject
+	private EjercicioRepository ejDao;
+
+	@Inject
+	private CategoriaService categoriaService;
+
+	@Inject
+	private CuentaService cuentaService;
+
+	@Inject
+	private MonedaService monedaService;
+
+	@Inject
+	private PlanCuentasService planService;
+
+	@Inject
+	private LibroColumnarService libroService;
+
+	private final boolean habilitada;
+
+	/** Tiempo minimo entre precargas de la misma organizacion o ejercicio (ms) */
+	private final long intervaloMs;
+
+	/** Realiza las precargas en background */
+	private final ThreadPoolExecutor executor;
+
+	/** Claves de las precargas pendientes o en curso */
+	private final Set<String> enCurso = ConcurrentHashMap.newKeySet();
+
+	/** Momento en que termino la ultima precarga de cada clave (ms) */
+	private final Map<String, Long> ultimas = new ConcurrentHashMap<>();
+
+	private final LongAdder solicitadas = new LongAdder();
+	private final LongAdder omitidas = new LongAdder();
+	private final LongAdder rechazadas = new LongAdder();
+	private final LongAdder organizaciones = new LongAdder();
+	private final LongAdder ejercicios = new LongAdder();
+	private final LongAdder errores = new LongAdder();
+	private final LongAdder planesCargados = new LongAdder();
+	private final LongAdder planesEnMemoria = new LongAdder();
+	private final LongAdder librosEnMemoria = new LongAdder();
+	private final LongAdder librosProgramados = new LongAdder();
+	private final LongAdder milisegundos = new LongAdder();
+
+	public PrecargaService(@Value("${webcontab.precarga.habilitada:true}") boolean habilitada,
+			@Value("${webcontab.precarga.threads:1}") int threads,
+			@Value("${webcontab.precarga.intervalo-segundos:300}") int intervaloSegundos) {
+		this.habilitada = habilitada;
+		this.intervaloMs = intervaloSegundos * 1000L;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(MAX_PENDIENTES), new CustomizableThreadFactory("precarga-"));
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Programa la precarga de las caches de la organizacion.
+	 * @param orgId id de la organizacion
+	 */
+	public void precargarOrganizacion(Long orgId) {
+		this.programar("org:" + orgId, () -> this.precargarOrganizacionAhora(orgId));
+	}
+
+	/**
+	 * Programa la precarga del libro en memoria del ejercicio.
+	 * @param ejId id del ejercicio
+	 */
+	public void precargarEjercicio(Long ejId) {
+		this.programar("ej:" + ejId, () -> this.precargarEjercicioAhora(ejId));
+	}
+
+	/**
+	 * Obtiene la cantidad de precargas solicitadas, omitidas (por duplicadas), rechazadas y realizadas,
+	 * y cuantas caches estaban frias y se cargaron.
+	 */
+	public Map<String, Long> getEstadisticas() {
+		Map<String, Long> result = new LinkedHashMap<>();
+		result.put("solicitadas", solicitadas.sum());
+		result.put("omitidas", omitidas.sum());
+		result.put("rechazadas", rechazadas.sum());
+		result.put("pendientes", (long) enCurso.size());
+		result.put("organizaciones", organizaciones.sum());
+		result.put("ejercicios", ejercicios.sum());
+		result.put("errores", errores.sum());
+		result.put("planesCargados", planesCargados.sum());
+		result.put("planesEnMemoria", planesEnMemoria.sum());
+		result.put("librosProgramados", librosProgramados.sum());
+		result.put("librosEnMemoria", librosEnMemoria.sum());
+		result.put("milisegundos", milisegundos.sum());
+		return result;
+	}
+
+	/** Programa la precarga, si no esta en curso ni se hizo recientemente */
+	private void programar(String clave, Runnable precarga) {
+		if(!habilitada) return;
+		solicitadas.increment();
+
+		Long ultima = ultimas.get(clave);
+		if((ultima != null && System.currentTimeMillis() - ultima < intervaloMs) || !enCurso.add(clave)) {
+			omitidas.increment();
+			return;
+		}
+
+		try {
+			executor.execute(() -> {
+				final long inicio = System.currentTimeMillis();
+				try {
+					precarga.run();
+				} catch(Exception e) {
+					errores.increment();
+					log.warn("No se pudo realizar la precarga de " + clave, e);
+				} finally {
+					final long fin = System.currentTimeMillis();
+					milisegundos.add(fin - inicio);
+					ultimas.put(clave, fin);
+					enCurso.remove(clave);
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			rechazadas.increment();
+			enCurso.remove(clave);
+		}
+	}
+
+	private void precargarOrganizacionAhora(Long orgId) {
+		Organizacion org = orgDao.findById(orgId).orElse(null);
+		if(org == null) return;
+
+		// Plan de cuentas e indice de busqueda
+		if(planService.isActualizado(org)) {
+			planesEnMemoria.increment();
+		} else {
+			planesCargados.increment();
+		}
+		PlanCuentas plan = planService.getPlan(org);
+		plan.getBuscador();
+
+		// Cache de entidades
+		categoriaService.list(org);
+		monedaService.getMonedas();
+		cuentaService.findCuentasQueBalanceanResultados(org);
+		cuentaService.findCuentasQueBalanceanAjustables(org);
+
+		organizaciones.increment();
+		log.debug("Se precargo la {} ({} items en el plan)", org, plan.size());
+	}
+
+	private void precargarEjercicioAhora(Long ejId) {
+		Ejercicio ej = ejDao.findById(ejId).orElse(null);
+		if(ej == null || ej.isEliminado()) return;
+
+		// Si no esta en memoria, se programa su carga (en el executor de los libros)
+		if(libroService.precargar(ej)) {
+			librosEnMemoria.increment();
+		} else {
+			librosProgramados.increment();
+		}
+
+		ejercicios.increment();
+		log.debug("Se precargo el {}", ej);
+	}
+}
@@ -0,0 +1,51 @@
+package com.mmoscovich.webcontab.services;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import com.mmoscovich.webcontab.dao.ProvinciaRepository;
+import com.mmoscovich.webcontab.model.PersistentEntity;
+import com.mmoscovich.webcontab.model.Provincia;
+import com.mmoscovich.webcontab.util.CacheVersionada;
+
+/**
+ * Servicio de provincias.
+ * <p>Mantiene en memoria los ids de todas las provincias (ver {@link CacheVersionada}) y las busca por id en la cache de segundo nivel.
+ * <br>Cada modificacion de provincias debe llamar a {@link #invalidar()}.</p>
+ */
+@Service
+public class ProvinciaService {
+
+	@Inject
+	private ProvinciaRepository dao;
+
+	/** Ids de las provincias, ordenados */
+	private final CacheVersionada<List<Long>> ids = new CacheVersionada<>();
+
+	/**
+	 * Obtiene todas las provincias (ordenadas por id).
+	 */
+	public List<Provincia> getProvincias() {
+		return ids.get(this::leerIds).stream()
+				.map(dao::findById)
+				.flatMap(Optional::stream)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Indica que se modificaron provincias en la transaccion actual.
+	 */
+	public void invalidar() {
+		ids.invalidar();
+	}
+
+	private List<Long> leerIds() {
+		return dao.findAll(Sort.by("id")).stream().map(PersistentEntity::getId).collect(Collectors.toUnmodifiableList());
+	}
+}
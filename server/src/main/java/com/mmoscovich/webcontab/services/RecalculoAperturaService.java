@@ -0,0 +1,115 @@
+package com.mmoscovich.webcontab.services;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import com.mmoscovich.webcontab.dto.CierreEjercicioDTO.Linea;
+import com.mmoscovich.webcontab.dto.RecalculoAperturaTask;
+import com.mmoscovich.webcontab.dto.RecalculoAperturaTask.RecalculoStatus;
+import com.mmoscovich.webcontab.exception.ConflictException;
+import com.mmoscovich.webcontab.exception.EntityNotFoundException;
+import com.mmoscovich.webcontab.model.Ejercicio;
+import com.mmoscovich.webcontab.model.Organizacion;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Servicio de recalculo encadenado de asientos de apertura.
+ * <p>
+ * Cuando se modifica un ejercicio que tiene ejercicios posteriores, las aperturas de estos quedan desactualizadas.
+ * <br>Este servicio recorre los ejercicios posteriores en orden, usando los saldos de cierre calculados para un ejercicio
+ * como apertura del siguiente (cada ejercicio se consulta una sola vez).
+ * </p>
+ * <p>Administra las tareas ({@link RecalculoAperturaTask}), que se ejecutan asincronicamente. Solo puede haber una tarea
+ * en curso por organizacion.</p>
+ */
+@Slf4j
+@Service
+public class RecalculoAperturaService {
+
+	/** Mapa de tareas por UUID */
+	private ConcurrentHashMap<UUID, RecalculoAperturaTask> tasks = new ConcurrentHashMap<>();
+
+	@Inject
+	private EjercicioService ejercicioService;
+
+	/**
+	 * Obtiene una tarea de la organizacion por UUID.
+	 * @param org organizacion actual
+	 * @param uuid
+	 * @return la tarea
+	 * @throws EntityNotFoundException si no existe tarea con ese UUID en la organizacion.
+	 */
+	public RecalculoAperturaTask getOrThrow(Organizacion org, UUID uuid) throws EntityNotFoundException {
+		RecalculoAperturaTask task = tasks.get(uuid);
+		if(task == null || !task.getOrganizacionId().equals(org.getId())) throw new EntityNotFoundException(RecalculoAperturaTask.class, uuid);
+		return task;
+	}
+
+	/**
+	 * Crea una tarea de recalculo de las aperturas posteriores a un ejercicio.
+	 * <p>Se eliminan las tareas terminadas de la organizacion.</p>
+	 * @param ejercicio ejercicio modificado
+	 * @return la tarea creada (pendiente)
+	 * @throws ConflictException si ya hay una tarea en curso para la organizacion
+	 */
+	public synchronized RecalculoAperturaTask create(Ejercicio ejercicio) throws ConflictException {
+		final Long orgId = ejercicio.getOrganizacion().getId();
+
+		for(RecalculoAperturaTask task : tasks.values()) {
+			if(task.getOrganizacionId().equals(orgId) && !task.isTerminada()) {
+				throw new ConflictException("Ya hay un recalculo de aperturas en curso para la organizacion");
+			}
+		}
+		tasks.values().removeIf(t -> t.getOrganizacionId().equals(orgId));
+
+		RecalculoAperturaTask task = new RecalculoAperturaTask(orgId, ejercicio.getId());
+		tasks.put(task.getUuid(), task);
+		return task;
+	}
+
+	/**
+	 * Ejecuta de manera async una tarea de recalculo.
+	 * <p>Cada ejercicio se lee y actualiza en su propia transaccion.</p>
+	 * @param task tarea creada con {@link #create(Ejercicio)} (indica el ejercicio modificado)
+	 */
+	@Async
+	public void run(RecalculoAperturaTask task) {
+		long inicio = System.currentTimeMillis();
+		task.setStatus(RecalculoStatus.RUNNING);
+
+		try {
+			List<Ejercicio> posteriores = ejercicioService.findPosteriores(task.getEjercicioId());
+			task.setTotal(posteriores.size());
+			log.info("Recalculando las aperturas de {} ejercicios posteriores al ejercicio con id {}", posteriores.size(), task.getEjercicioId());
+
+			if(!posteriores.isEmpty()) {
+				// Saldos de cierre del ejercicio modificado
+				List<Linea> cierre = ejercicioService.getImputacionesDeCierre(task.getEjercicioId());
+
+				// Cada paso devuelve los saldos de cierre que se usan como apertura del siguiente
+				for(int i = 0; i < posteriores.size(); i++) {
+					boolean ultimo = (i == posteriores.size() - 1);
+					cierre = ejercicioService.recalcularAperturaEncadenada(posteriores.get(i).getId(), cierre, !ultimo, task);
+				}
+			}
+
+			task.success();
+			log.info("Recalculo de aperturas finalizado: {} actualizadas, {} sin cambios y {} omitidas", task.getActualizados(), task.getSinCambios(), task.getOmitidos());
+
+		} catch(Exception e) {
+			log.error("Error al recalcular las aperturas posteriores al ejercicio con id " + task.getEjercicioId(), e);
+			task.error(e.getMessage());
+
+		} finally {
+			task.setEjercicioActualId(null);
+			task.setDuracionMs(System.currentTimeMillis() - inicio);
+		}
+	}
+}
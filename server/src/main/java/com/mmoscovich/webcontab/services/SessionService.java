@@ -63,6 +63,9 @@ public class SessionService {
 	
 	@Inject
 	private GrantedAuthoritiesMapper authorityMapper;
+	
+	@Inject
+	private PrecargaService precargaService;
 
 	/**
 	 * Obtiene el ejercicio actual de la sesion, si existe.
@@ -70,7 +73,9 @@ public class SessionService {
 	 */
 	public Optional<Ejercicio> getEjercicio() {
 		if (ctx.getEjercicioId() == null) return Optional.empty();
-		return ejDao.findById(ctx.getEjercicioId());
+		
+		// Si el ejercicio se esta eliminando, ya no esta disponible
+		return ejDao.findById(ctx.getEjercicioId()).filter(ej -> !ej.isEliminado());
 	}
 
 	/**
@@ -209,6 +214,9 @@ public class SessionService {
 		}
 		
 		ctx.setOrganizacionId(orgId);
+		
+		// Se cargan en background el plan, monedas, etc de la org para que las primeras consultas no esperen
+		if(org != null) precargaService.precargarOrganizacion(orgId);
 	}
 
 	/**
@@ -222,13 +230,16 @@ public class SessionService {
 		if (ejId != null) {
 			// Busca el ejercicio y comprueba que pertenezca a la organizacion
 			Ejercicio ej = ejDao.findById(ejId).orElseThrow(() -> new EntityNotFoundException(Ejercicio.class, ejId));
-			if(!ej.perteceneA(this.getOrganizacionOrThrow())) throw new EntityNotFoundException(Ejercicio.class, ejId);
+			if(!ej.perteceneA(this.getOrganizacionOrThrow()) || ej.isEliminado()) throw new EntityNotFoundException(Ejercicio.class, ejId);
 			
 			log.info("El {} entra en el {}", user, ej);
 		} else {
 			log.info("El {} sale del ejercicio", user);
 		}
 		ctx.setEjercicioId(ejId);
+		
+		// Se carga en background el libro del ejercicio (para el balance y el mayor)
+		if(ejId != null) precargaService.precargarEjercicio(ejId);
 	}
 	
 	/**
@@ -0,0 +1,329 @@
+package com.mmoscovich.webcontab.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+
+import com.mmoscovich.webcontab.util.PlanCuentas.Nodo;
+
+/**
+ * Indice inmutable para buscar categorias y cuentas de un {@link PlanCuentas} por texto (typeahead).
+ * <p>
+ * Tiene un indice de trigramas sobre <code>lower(descripcion|alias)</code> y los codigos ordenados para buscar por prefijo.
+ * Los descendientes de las categorias se obtienen de los rangos del plan.
+ * </p>
+ * <p>
+ * Devuelve las que tienen el texto en la descripcion o alias, las que tienen un codigo que empieza con el texto
+ * (solo si es numerico) y las descendientes de las categorias encontradas (ver {@link com.mmoscovich.webcontab.services.CategoriasSearcher}), ordenadas:
+ * <ol>
+ * <li>Primero las que tienen el texto en la descripcion o alias, luego las hijas de las categorias (en el orden de las categorias) y luego el resto</li>
+ * <li>Las categorias antes que las cuentas</li>
+ * <li>Por posicion del texto en la descripcion/alias o, si no coincide, por longitud del orden</li>
+ * <li>Por orden</li>
+ * </ol>
+ * </p>
+ */
+public class BuscadorCuentas {
+
+	/** Separador entre descripcion y alias */
+	private static final String SEPARADOR = "|";
+
+	/** Nodos ordenados por orden */
+	private final List<Nodo> nodos;
+
+	/** Texto de busqueda de cada nodo: <code>lower(descripcion|alias)</code> */
+	private final String[] textos;
+
+	/** Posiciones de los nodos que contienen cada trigrama (ordenadas) */
+	private final Map<Long, int[]> trigramas;
+
+	/** Posiciones de los nodos, ordenadas por codigo (para buscar por prefijo) */
+	private final int[] porCodigo;
+
+	BuscadorCuentas(PlanCuentas plan) {
+		this.nodos = plan.getNodos();
+		final int n = nodos.size();
+
+		this.textos = new String[n];
+		Map<Long, ListaPosiciones> listas = new HashMap<>();
+		for(int i = 0; i < n; i++) {
+			Nodo nodo = nodos.get(i);
+			String texto = (nodo.getDescripcion() + SEPARADOR + StringUtils.defaultString(nodo.getAlias())).toLowerCase();
+			textos[i] = texto;
+
+			for(int j = 0; j + 3 <= texto.length(); j++) {
+				listas.computeIfAbsent(trigrama(texto, j), k -> new ListaPosiciones()).add(i);
+			}
+		}
+
+		this.trigramas = new HashMap<>(listas.size() * 2);
+		listas.forEach((k, lista) -> trigramas.put(k, lista.toArray()));
+
+		this.porCodigo = IntStream.range(0, n).boxed()
+				.sorted(Comparator.comparing(i -> nodos.get(i).getCodigo()))
+				.mapToInt(Integer::intValue)
+				.toArray();
+	}
+
+	/**
+	 * Busca una pagina de categorias o cuentas.
+	 * @param query texto a buscar (en descripcion, alias o prefijo del codigo)
+	 * @param categorias categorias que coinciden con el texto, ordenadas por prioridad. Tambien se incluyen sus descendientes
+	 * @param incluirCategorias si es false, solo se devuelven cuentas
+	 * @param pageReq pagina
+	 * @return ids de las categorias o cuentas de la pagina
+	 */
+	public Slice<Long> buscar(String query, List<Nodo> categorias, boolean incluirCategorias, Pageable pageReq) {
+		final String texto = query.toLowerCase();
+
+		// Se mantienen solo los primeros (hasta el final de la pagina, mas uno para saber si hay siguiente)
+		final long limite = pageReq.getOffset() + pageReq.getPageSize() + 1;
+		Primeros primeros = new Primeros((int) Math.min(limite, nodos.size()));
+
+		// Primero van los que tienen el texto en la descripcion o alias
+		BitSet coincidencias = new BitSet(nodos.size());
+		int cantidad = this.buscarTexto(texto, incluirCategorias, coincidencias, primeros);
+
+		// Si ya completan la pagina, el resto (hijas de las categorias y prefijo del codigo) no puede entrar.
+		// Es el caso de los textos cortos, que coinciden con casi todo el plan
+		if(cantidad < limite) this.buscarPorCodigo(texto, categorias, incluirCategorias, coincidencias, primeros);
+
+		long[] ordenados = primeros.getOrdenados();
+
+		List<Long> content = new ArrayList<>(pageReq.getPageSize());
+		for(long i = pageReq.getOffset(); i < ordenados.length && content.size() < pageReq.getPageSize(); i++) {
+			content.add(nodos.get(posicion(ordenados[(int) i])).getId());
+		}
+		return new SliceImpl<>(content, pageReq, ordenados.length == limite);
+	}
+
+	/**
+	 * Agrega los nodos que tienen el texto en la descripcion o alias.
+	 * <p>Claves de orden: 0 (coincide en descripcion/alias), primero las categorias, posicion del texto (desde 1) y orden.</p>
+	 * @param coincidencias se marcan los nodos que coinciden (aunque se filtren por tipo)
+	 * @return cantidad de nodos agregados
+	 */
+	private int buscarTexto(String texto, boolean incluirCategorias, BitSet coincidencias, Primeros primeros) {
+		int cantidad = 0;
+
+		// Con menos de 3 caracteres, se recorren todos
+		if(texto.length() < 3) {
+			for(int i = 0; i < textos.length; i++) {
+				if(this.agregarSiCoincide(i, texto, incluirCategorias, coincidencias, primeros)) cantidad++;
+			}
+			return cantidad;
+		}
+
+		// Se intersectan las posiciones de todos los trigramas del texto, empezando por la mas corta
+		List<int[]> listas = new ArrayList<>();
+		for(int j = 0; j + 3 <= texto.length(); j++) {
+			int[] lista = trigramas.get(trigrama(texto, j));
+			if(lista == null) return 0;
+			listas.add(lista);
+		}
+		listas.sort(Comparator.comparingInt(l -> l.length));
+
+		int[] posiciones = listas.get(0);
+		for(int k = 1; k < listas.size() && posiciones.length > 0; k++) {
+			posiciones = interseccion(posiciones, listas.get(k));
+		}
+
+		// Tener los trigramas no garantiza que esten juntos, se verifica
+		for(int i : posiciones) {
+			if(this.agregarSiCoincide(i, texto, incluirCategorias, coincidencias, primeros)) cantidad++;
+		}
+		return cantidad;
+	}
+
+	/** Si el nodo tiene el texto en la descripcion o alias, lo marca y, si es del tipo pedido, lo agrega */
+	private boolean agregarSiCoincide(int i, String texto, boolean incluirCategorias, BitSet coincidencias, Primeros primeros) {
+		int indice = textos[i].indexOf(texto);
+		if(indice < 0) return false;
+
+		coincidencias.set(i);
+		Nodo nodo = nodos.get(i);
+		if(!incluirCategorias && !nodo.isImputable()) return false;
+
+		primeros.add(clave(0, nodo.isImputable(), indice + 1, i));
+		return true;
+	}
+
+	/**
+	 * Agrega los nodos cuyo codigo empieza con el texto y los descendientes de las categorias (que no coinciden por texto).
+	 * <p>Claves de orden: prioridad de su categoria (o ultimo si no tiene), primero las categorias, longitud del orden y orden.</p>
+	 */
+	private void buscarPorCodigo(String texto, List<Nodo> categorias, boolean incluirCategorias, BitSet coincidencias, Primeros primeros) {
+		// Codigos de las categorias, sin los que son hijos de otros ya incluidos. El valor es la prioridad
+		Map<String, Integer> codigos = new LinkedHashMap<>();
+		for(Nodo cat : categorias) {
+			if(!tienePrefijo(codigos.keySet(), cat.getCodigo())) codigos.put(cat.getCodigo(), codigos.size() + 1);
+		}
+
+		BitSet candidatos = new BitSet(nodos.size());
+
+		// Prefijo del codigo (solo si el texto puede ser un codigo)
+		if(StringUtils.isNumeric(texto.replace(".", ""))) {
+			int[] rango = this.rangoPrefijoCodigo(texto);
+			for(int i = rango[0]; i < rango[1]; i++) candidatos.set(porCodigo[i]);
+		}
+
+		// Descendientes de las categorias
+		for(Nodo cat : categorias) {
+			if(codigos.containsKey(cat.getCodigo()) && cat.fin > cat.posicion + 1) candidatos.set(cat.posicion + 1, cat.fin);
+		}
+
+		// Los que coinciden por texto ya se agregaron
+		candidatos.andNot(coincidencias);
+		if(candidatos.isEmpty()) return;
+
+		// Prioridad de la categoria de cada nodo: se toma la primera categoria cuyo codigo es prefijo del de la cuenta
+		int[] grupos = new int[nodos.size()];
+		codigos.forEach((codigo, prioridad) -> {
+			int[] rango = this.rangoPrefijoCodigo(codigo);
+			for(int i = rango[0]; i < rango[1]; i++) {
+				if(grupos[porCodigo[i]] == 0) grupos[porCodigo[i]] = prioridad;
+			}
+		});
+		final int sinGrupo = codigos.size() + 1;
+
+		for(int i = candidatos.nextSetBit(0); i >= 0; i = candidatos.nextSetBit(i + 1)) {
+			Nodo nodo = nodos.get(i);
+			if(!incluirCategorias && !nodo.isImputable()) continue;
+
+			primeros.add(clave(grupos[i] == 0 ? sinGrupo : grupos[i], nodo.isImputable(), nodo.getOrden().length(), i));
+		}
+	}
+
+	/** Rango de posiciones en {@link #porCodigo} de los nodos cuyo codigo empieza con el prefijo */
+	private int[] rangoPrefijoCodigo(String prefijo) {
+		// Busqueda binaria del primer codigo mayor o igual al prefijo. Los que empiezan con el prefijo estan a continuacion
+		int lo = 0;
+		int hi = porCodigo.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(nodos.get(porCodigo[mid]).getCodigo().compareTo(prefijo) < 0) lo = mid + 1;
+			else hi = mid;
+		}
+
+		int fin = lo;
+		while(fin < porCodigo.length && nodos.get(porCodigo[fin]).getCodigo().startsWith(prefijo)) fin++;
+		return new int[] { lo, fin };
+	}
+
+	/**
+	 * Arma una clave de orden en un long: grupo (22 bits), tipo (1 bit), longitud (16 bits) y posicion (24 bits).
+	 * Comparar las claves equivale a comparar por cada campo en ese orden.
+	 */
+	private static long clave(int grupo, boolean imputable, int longitud, int posicion) {
+		return ((long) grupo << 41) | ((imputable ? 1L : 0L) << 40) | ((long) longitud << 24) | posicion;
+	}
+
+	private static int posicion(long clave) {
+		return (int) (clave & 0xFFFFFF);
+	}
+
+	/**
+	 * Determina si la coleccion ya tiene un codigo que contiene al que se especifica.
+	 * <p>Ej: Si el codigo es "1.2.34" y la coleccion ya tiene "1" o "1.2" devuelve true.
+	 */
+	private static boolean tienePrefijo(Collection<String> codigos, String codigo) {
+		for(String prefijo : codigos) {
+			if(codigo.length() > prefijo.length() && codigo.charAt(prefijo.length()) == '.' && codigo.startsWith(prefijo)) return true;
+		}
+		return false;
+	}
+
+	private static long trigrama(String texto, int pos) {
+		return ((long) texto.charAt(pos) << 32) | ((long) texto.charAt(pos + 1) << 16) | texto.charAt(pos + 2);
+	}
+
+	private static int[] interseccion(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, k = 0;
+		while(i < a.length && j < b.length) {
+			if(a[i] < b[j]) i++;
+			else if(a[i] > b[j]) j++;
+			else {
+				result[k++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, k);
+	}
+
+	/**
+	 * Mantiene las menores claves agregadas (heap de maximo de tamanio fijo)
+	 */
+	private static class Primeros {
+		private final long[] heap;
+		private int size = 0;
+
+		Primeros(int max) {
+			this.heap = new long[max];
+		}
+
+		void add(long clave) {
+			if(heap.length == 0) return;
+			if(size < heap.length) {
+				// Se agrega al final y se sube
+				int i = size++;
+				while(i > 0 && heap[(i - 1) / 2] < clave) {
+					heap[i] = heap[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				heap[i] = clave;
+				return;
+			}
+			if(clave >= heap[0]) return;
+
+			// Reemplaza a la mayor y se baja
+			int i = 0;
+			while(true) {
+				int hijo = 2 * i + 1;
+				if(hijo >= size) break;
+				if(hijo + 1 < size && heap[hijo + 1] > heap[hijo]) hijo++;
+				if(heap[hijo] <= clave) break;
+				heap[i] = heap[hijo];
+				i = hijo;
+			}
+			heap[i] = clave;
+		}
+
+		long[] getOrdenados() {
+			long[] result = Arrays.copyOf(heap, size);
+			Arrays.sort(result);
+			return result;
+		}
+	}
+
+	/**
+	 * Lista de posiciones creciente (sin repetidos), para armar el indice
+	 */
+	private static class ListaPosiciones {
+		private int[] items = new int[4];
+		private int size = 0;
+
+		void add(int pos) {
+			if(size > 0 && items[size - 1] == pos) return;
+			if(size == items.length) items = Arrays.copyOf(items, size * 2);
+			items[size++] = pos;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(items, size);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.mmoscovich.webcontab.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Cache en memoria de un valor (ej: los ids de una tabla de referencia) asociado a una version.
+ * <p>
+ * Cada modificacion de los datos debe llamar a {@link #invalidar()}, que incrementa la version al confirmarse la transaccion.
+ * El valor se vuelve a leer solo cuando la version cambio. Es el mismo esquema que usan
+ * {@link com.mmoscovich.webcontab.services.InflacionService} y {@link com.mmoscovich.webcontab.services.PlanCuentasService}.
+ * </p>
+ * <p>El valor debe ser inmutable, ya que se comparte entre threads. Conviene guardar ids y buscar las entidades en la cache de segundo nivel.</p>
+ *
+ * @param <V> tipo del valor
+ */
+public class CacheVersionada<V> {
+
+	/** Version actual de los datos */
+	private final AtomicLong version = new AtomicLong();
+
+	/** Ultimo valor leido (puede estar desactualizado) */
+	private volatile Valor<V> valor = null;
+
+	/**
+	 * Obtiene el valor, leyendolo solo si los datos se modificaron desde la ultima lectura.
+	 * @param loader lee el valor de la base
+	 */
+	public V get(Supplier<V> loader) {
+		// La version se lee antes de leer el valor. Si cambia mientras se lee, el valor queda viejo y se vuelve a leer.
+		final long actual = version.get();
+
+		Valor<V> result = this.valor;
+		if(result != null && result.version == actual) return result.valor;
+
+		result = new Valor<>(actual, loader.get());
+		this.valor = result;
+		return result.valor;
+	}
+
+	/**
+	 * Indica que se modificaron los datos en la transaccion actual.
+	 * <p>La version se incrementa al confirmarse la transaccion (o inmediatamente si no hay transaccion).</p>
+	 */
+	public void invalidar() {
+		if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+			version.incrementAndGet();
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				version.incrementAndGet();
+			}
+		});
+	}
+
+	public long getVersion() {
+		return version.get();
+	}
+
+	private static class Valor<V> {
+		private final long version;
+		private final V valor;
+
+		Valor(long version, V valor) {
+			this.version = version;
+			this.valor = valor;
+		}
+	}
+}
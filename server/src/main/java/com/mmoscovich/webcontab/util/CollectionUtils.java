@@ -1,5 +1,6 @@
 package com.mmoscovich.webcontab.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -106,6 +107,27 @@ public class CollectionUtils {
 		return items.stream().map(mapper).collect(Collectors.toSet());
 	}
 	
+	/**
+	 * Divide una coleccion en listas (lotes) de como maximo el tamanio especificado, respetando el orden de iteracion.
+	 * @param <T> tipo de item
+	 * @param items coleccion a dividir
+	 * @param size tamanio maximo de cada lote
+	 * @return lista de lotes
+	 */
+	public <T> List<List<T>> partition(Collection<T> items, int size) {
+		List<List<T>> result = new ArrayList<>();
+		List<T> lote = new ArrayList<>(Math.min(size, items.size()));
+		for(T item : items) {
+			lote.add(item);
+			if(lote.size() == size) {
+				result.add(lote);
+				lote = new ArrayList<>(size);
+			}
+		}
+		if(!lote.isEmpty()) result.add(lote);
+		return result;
+	}
+	
 	/**
 	 * Compara los items de dos colecciones en base a una funcion especificada por parametro 
 	 * y devuelve un objeto que posee 4 colecciones:
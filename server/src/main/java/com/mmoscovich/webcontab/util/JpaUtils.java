@@ -1,8 +1,12 @@
 package com.mmoscovich.webcontab.util;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Stream;
 
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.metamodel.EntityType;
@@ -11,6 +15,8 @@ import org.hibernate.collection.spi.PersistentCollection;
 import org.hibernate.jpa.QueryHints;
 import org.hibernate.proxy.HibernateProxy;
 import org.hibernate.proxy.LazyInitializer;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.mmoscovich.webcontab.model.PersistentEntity;
 
@@ -98,4 +104,28 @@ public class JpaUtils {
         		.setHint(QueryHints.HINT_READONLY, true)
         		.getResultStream();
 	}
+	
+	/**
+	 * Invalida de la cache de segundo nivel las entidades indicadas, ahora y al terminar la transaccion actual.
+	 * <p>Para usar luego de queries nativas de modificacion que no invalidan la region completa.
+	 * Mientras la transaccion no termina, otra sesion puede leer la fila anterior y volver a guardarla en la cache,
+	 * por lo que no alcanza con invalidar antes del commit.</p>
+	 * @param em entity manager de la transaccion
+	 * @param cls clase de las entidades
+	 * @param ids ids de las entidades modificadas o eliminadas
+	 */
+	public static void evict(EntityManager em, Class<?> cls, Collection<Long> ids) {
+		final Cache cache = em.getEntityManagerFactory().getCache();
+		final List<Long> copia = new ArrayList<>(ids);
+		copia.forEach(id -> cache.evict(cls, id));
+		
+		if(!TransactionSynchronizationManager.isSynchronizationActive()) return;
+		
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int status) {
+				copia.forEach(id -> cache.evict(cls, id));
+			}
+		});
+	}
 }
@@ -0,0 +1,339 @@
+package com.mmoscovich.webcontab.util;
+
+import java.math.BigDecimal;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import com.mmoscovich.webcontab.dto.AsientoFilter;
+
+/**
+ * Representacion en memoria (por columnas) de todas las imputaciones de un ejercicio.
+ * <p>
+ * Las imputaciones se guardan en columnas de tipos primitivos, ordenadas por cuenta, fecha, numero de asiento e id.
+ * Las de cada cuenta quedan contiguas: {@link #cuentaIds} tiene las cuentas (ordenadas por id) y {@link #inicios}
+ * la posicion de la primera imputacion de cada una.
+ * </p>
+ * <p>
+ * Los importes se guardan en centavos como suma acumulada, por lo que el saldo de cualquier rango es una resta.
+ * Junto con la busqueda binaria por fecha, el balance y el mayor se resuelven sin recorrer las imputaciones.
+ * </p>
+ * <p>Es inmutable y esta asociado a una version de datos del ejercicio.</p>
+ * <p>Las columnas son buffers, que pueden estar en el heap (ver {@link Builder}) o mapeados desde un archivo (ver {@link LibroColumnarArchivo}).</p>
+ */
+public class LibroColumnar {
+
+	/** Bytes aproximados por imputacion (fecha, numero, id y acumulado) */
+	private static final int BYTES_POR_IMPUTACION = Integer.BYTES + Short.BYTES + Long.BYTES + Long.BYTES;
+
+	/** Bytes aproximados por cuenta (id e inicio) */
+	private static final int BYTES_POR_CUENTA = Long.BYTES + Integer.BYTES;
+
+	/** Version de datos del ejercicio con la que se construyo */
+	private final long version;
+
+	/** Ids de las cuentas con imputaciones (ordenados) */
+	final LongBuffer cuentaIds;
+
+	/** Posicion de la primera imputacion de cada cuenta. Tiene un elemento mas (el total) */
+	final IntBuffer inicios;
+
+	/** Fecha del asiento (epoch day) */
+	final IntBuffer fechas;
+
+	/** Numero del asiento */
+	final ShortBuffer numeros;
+
+	/** Id de la imputacion */
+	final LongBuffer ids;
+
+	/**
+	 * Suma acumulada de los importes (en centavos). Tiene un elemento mas.
+	 * <br>El importe de la imputacion <code>i</code> es <code>acumulados[i + 1] - acumulados[i]</code>.
+	 */
+	final LongBuffer acumulados;
+
+	/** Indica si las columnas estan mapeadas desde un archivo (no ocupan heap) */
+	private final boolean mapeado;
+
+	LibroColumnar(long version, LongBuffer cuentaIds, IntBuffer inicios, IntBuffer fechas, ShortBuffer numeros, LongBuffer ids, LongBuffer acumulados, boolean mapeado) {
+		this.version = version;
+		this.cuentaIds = cuentaIds;
+		this.inicios = inicios;
+		this.fechas = fechas;
+		this.numeros = numeros;
+		this.ids = ids;
+		this.acumulados = acumulados;
+		this.mapeado = mapeado;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/** Cantidad de imputaciones */
+	public int size() {
+		return ids.limit();
+	}
+
+	/** Cantidad de cuentas con imputaciones */
+	public int getCuentas() {
+		return cuentaIds.limit();
+	}
+
+	public boolean isMapeado() {
+		return mapeado;
+	}
+
+	/** Memoria aproximada que ocupan las columnas (bytes) */
+	public long getBytes() {
+		return (long) ids.limit() * BYTES_POR_IMPUTACION + (long) cuentaIds.limit() * BYTES_POR_CUENTA;
+	}
+
+	/** Memoria de heap que ocupan las columnas (bytes). Es cero si estan mapeadas */
+	public long getBytesHeap() {
+		return mapeado ? 0 : this.getBytes();
+	}
+
+	/**
+	 * Saldo de una cuenta entre dos fechas (inclusive).
+	 * @param cuentaId
+	 * @param desde si es null, desde el inicio
+	 * @param hasta si es null, hasta el final
+	 * @return el saldo (cero si no tiene imputaciones)
+	 */
+	public BigDecimal getSaldo(long cuentaId, LocalDate desde, LocalDate hasta) {
+		int c = this.buscarCuenta(cuentaId);
+		if(c < 0) return centavos(0);
+
+		int desdePos = desde == null ? inicios.get(c) : this.primeraPosicion(c, (int) desde.toEpochDay());
+		int hastaPos = hasta == null ? inicios.get(c + 1) : this.primeraPosicion(c, (int) hasta.toEpochDay() + 1);
+		return centavos(acumulados.get(hastaPos) - acumulados.get(desdePos));
+	}
+
+	/**
+	 * Saldo de una cuenta anterior a una imputacion del mayor (por fecha, numero de asiento e id).
+	 * <p>Equivalente a la query de saldo anterior del mayor.</p>
+	 * @param cuentaId
+	 * @param hasta fecha de la imputacion
+	 * @param numero numero de asiento de la imputacion
+	 * @param id id de la imputacion
+	 */
+	public BigDecimal getSaldoAnterior(long cuentaId, LocalDate hasta, short numero, long id) {
+		int c = this.buscarCuenta(cuentaId);
+		if(c < 0) return centavos(0);
+
+		// Busqueda binaria de la primera imputacion que no es anterior
+		final int fecha = (int) hasta.toEpochDay();
+		int lo = inicios.get(c);
+		int hi = inicios.get(c + 1);
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(this.compare(mid, fecha, numero, id) < 0) lo = mid + 1;
+			else hi = mid;
+		}
+		return centavos(acumulados.get(lo) - acumulados.get(inicios.get(c)));
+	}
+
+	/**
+	 * Obtiene los saldos por mes de una cuenta entre dos fechas (inclusive). No incluye los meses con saldo cero.
+	 * @param cuentaId
+	 * @param desde si es null, desde el inicio
+	 * @param hasta si es null, hasta el final
+	 * @param consumer recibe el mes y el saldo
+	 */
+	public void getSaldosMensuales(long cuentaId, LocalDate desde, LocalDate hasta, SaldoMensualConsumer consumer) {
+		int c = this.buscarCuenta(cuentaId);
+		if(c < 0) return;
+
+		int pos = desde == null ? inicios.get(c) : this.primeraPosicion(c, (int) desde.toEpochDay());
+		int fin = hasta == null ? inicios.get(c + 1) : this.primeraPosicion(c, (int) hasta.toEpochDay() + 1);
+
+		while(pos < fin) {
+			YearMonth mes = YearMonth.from(LocalDate.ofEpochDay(fechas.get(pos)));
+
+			// Las imputaciones del mes son contiguas, se busca la primera del mes siguiente
+			int finMes = Math.min(fin, this.primeraPosicion(c, (int) mes.plusMonths(1).atDay(1).toEpochDay()));
+			long saldo = acumulados.get(finMes) - acumulados.get(pos);
+			if(saldo != 0) consumer.accept(mes, centavos(saldo));
+			pos = finMes;
+		}
+	}
+
+	/**
+	 * Obtiene una pagina de ids de imputaciones del mayor de una cuenta, en el orden del mayor (fecha, numero e id).
+	 * @param cuentaId
+	 * @param filtro filtro por fechas o numeros de asiento
+	 * @param pagination
+	 * @return pagina de ids de imputaciones
+	 */
+	public Page<Long> getMayor(long cuentaId, AsientoFilter filtro, Pageable pagination) {
+		int c = this.buscarCuenta(cuentaId);
+		if(c < 0) return new PageImpl<>(List.of(), pagination, 0);
+
+		int desde = inicios.get(c);
+		int hasta = inicios.get(c + 1);
+
+		if(filtro.esFiltroFechas()) {
+			// Por fecha, las imputaciones son contiguas
+			if(filtro.getDesde() != null) desde = this.primeraPosicion(c, (int) filtro.getDesde().toEpochDay());
+			if(filtro.getHasta() != null) hasta = this.primeraPosicion(c, (int) filtro.getHasta().toEpochDay() + 1);
+			return this.pagina(desde, Math.max(desde, hasta), pagination);
+		}
+
+		if(!filtro.esFiltroNumeros()) return this.pagina(desde, hasta, pagination);
+
+		// Por numero, se recorren las imputaciones de la cuenta
+		final short min = filtro.getMin() == null ? Short.MIN_VALUE : filtro.getMin();
+		final short max = filtro.getMax() == null ? Short.MAX_VALUE : filtro.getMax();
+		final long offset = pagination.getOffset();
+
+		List<Long> content = new ArrayList<>(pagination.getPageSize());
+		int total = 0;
+		for(int i = desde; i < hasta; i++) {
+			if(numeros.get(i) < min || numeros.get(i) > max) continue;
+			if(total >= offset && content.size() < pagination.getPageSize()) content.add(ids.get(i));
+			total++;
+		}
+		return new PageImpl<>(content, pagination, total);
+	}
+
+	private Page<Long> pagina(int desde, int hasta, Pageable pagination) {
+		long inicio = Math.min(hasta, desde + pagination.getOffset());
+		long fin = Math.min(hasta, inicio + pagination.getPageSize());
+
+		List<Long> content = new ArrayList<>((int) (fin - inicio));
+		for(long i = inicio; i < fin; i++) content.add(ids.get((int) i));
+		return new PageImpl<>(content, pagination, hasta - desde);
+	}
+
+	/** Busqueda binaria de la posicion de la cuenta (negativo si no tiene imputaciones) */
+	private int buscarCuenta(long cuentaId) {
+		int lo = 0;
+		int hi = cuentaIds.limit() - 1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long id = cuentaIds.get(mid);
+			if(id < cuentaId) lo = mid + 1;
+			else if(id > cuentaId) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/** Busqueda binaria de la primera imputacion de la cuenta con fecha mayor o igual a la indicada */
+	private int primeraPosicion(int cuenta, int fecha) {
+		int lo = inicios.get(cuenta);
+		int hi = inicios.get(cuenta + 1);
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(fechas.get(mid) < fecha) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/** Compara la imputacion en la posicion indicada con la fecha, numero e id especificados */
+	private int compare(int pos, int fecha, short numero, long id) {
+		if(fechas.get(pos) != fecha) return Integer.compare(fechas.get(pos), fecha);
+		if(numeros.get(pos) != numero) return Short.compare(numeros.get(pos), numero);
+		return Long.compare(ids.get(pos), id);
+	}
+
+	private static BigDecimal centavos(long importe) {
+		return BigDecimal.valueOf(importe, 2);
+	}
+
+	/** Recibe el saldo de un mes */
+	@FunctionalInterface
+	public static interface SaldoMensualConsumer {
+		void accept(YearMonth mes, BigDecimal saldo);
+	}
+
+	/**
+	 * Construye un {@link LibroColumnar}.
+	 * <p>Las imputaciones se deben agregar ordenadas por cuenta, fecha, numero de asiento e id.</p>
+	 */
+	public static class Builder {
+		private final long version;
+
+		private long[] cuentaIds = new long[64];
+		private int[] inicios = new int[65];
+		private int cuentas = 0;
+
+		private int[] fechas;
+		private short[] numeros;
+		private long[] ids;
+		private long[] acumulados;
+		private int size = 0;
+
+		/**
+		 * @param version version de datos del ejercicio
+		 * @param capacidad cantidad estimada de imputaciones
+		 */
+		public Builder(long version, int capacidad) {
+			this.version = version;
+			capacidad = Math.max(capacidad, 16);
+			this.fechas = new int[capacidad];
+			this.numeros = new short[capacidad];
+			this.ids = new long[capacidad];
+			this.acumulados = new long[capacidad + 1];
+		}
+
+		/**
+		 * Agrega una imputacion.
+		 * @throws IllegalStateException si no respeta el orden
+		 * @throws ArithmeticException si el importe tiene mas de 2 decimales
+		 */
+		public Builder add(long cuentaId, LocalDate fecha, short numero, long id, BigDecimal importe) {
+			if(cuentas == 0 || cuentaIds[cuentas - 1] != cuentaId) {
+				if(cuentas > 0 && cuentaIds[cuentas - 1] > cuentaId) throw new IllegalStateException("Las imputaciones no estan ordenadas por cuenta");
+				if(cuentas == cuentaIds.length) {
+					cuentaIds = Arrays.copyOf(cuentaIds, cuentas * 2);
+					inicios = Arrays.copyOf(inicios, cuentas * 2 + 1);
+				}
+				cuentaIds[cuentas] = cuentaId;
+				inicios[cuentas] = size;
+				cuentas++;
+			}
+
+			if(size == ids.length) {
+				int capacidad = size * 2;
+				fechas = Arrays.copyOf(fechas, capacidad);
+				numeros = Arrays.copyOf(numeros, capacidad);
+				ids = Arrays.copyOf(ids, capacidad);
+				acumulados = Arrays.copyOf(acumulados, capacidad + 1);
+			}
+
+			fechas[size] = (int) fecha.toEpochDay();
+			numeros[size] = numero;
+			ids[size] = id;
+			acumulados[size + 1] = acumulados[size] + importe.movePointRight(2).longValueExact();
+			size++;
+			return this;
+		}
+
+		public LibroColumnar build() {
+			int[] iniciosFinal = Arrays.copyOf(inicios, cuentas + 1);
+			iniciosFinal[cuentas] = size;
+
+			return new LibroColumnar(version,
+					LongBuffer.wrap(Arrays.copyOf(cuentaIds, cuentas)),
+					IntBuffer.wrap(iniciosFinal),
+					IntBuffer.wrap(Arrays.copyOf(fechas, size)),
+					ShortBuffer.wrap(Arrays.copyOf(numeros, size)),
+					LongBuffer.wrap(Arrays.copyOf(ids, size)),
+					LongBuffer.wrap(Arrays.copyOf(acumulados, size + 1)),
+					false);
+		}
+	}
+}
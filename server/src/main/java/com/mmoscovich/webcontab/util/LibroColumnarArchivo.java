@@ -0,0 +1,227 @@
+package com.mmoscovich.webcontab.util;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Lectura y escritura de un {@link LibroColumnar} en un archivo binario.
+ * <p>
+ * El archivo tiene las mismas columnas que el libro, de ancho fijo, por lo que se lee con {@link FileChannel#map}
+ * sin copiar nada al heap: las columnas del libro son vistas del archivo mapeado (servidas desde el cache de paginas del SO).
+ * </p>
+ * <p>
+ * Formato (little endian):
+ * <ul>
+ * <li>Encabezado de {@value #HEADER_BYTES} bytes: magic, version de formato, ejercicio, asiento de cierre, fecha de creacion,
+ * {@link Firma}, cantidad de cuentas, cantidad de imputaciones y CRC32 de los datos.</li>
+ * <li>Datos: ids de cuentas, ids de imputaciones, acumulados, inicios, fechas y numeros (primero los longs para mantener la alineacion).</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Al leer se valida el formato, la firma (contra la del ejercicio en la base) y el CRC. Si algo no coincide, el archivo
+ * se considera desactualizado o corrupto y se debe volver a generar.
+ * </p>
+ */
+@Slf4j
+public class LibroColumnarArchivo {
+
+	/** "WCLB" */
+	private static final int MAGIC = 0x57434C42;
+
+	/** Version del formato. Se debe incrementar ante cualquier cambio del formato */
+	private static final int FORMATO = 1;
+
+	private static final int HEADER_BYTES = 80;
+
+	/**
+	 * Firma de los datos del ejercicio con los que se genero el archivo.
+	 * <p>
+	 * Se calcula a partir de los asientos (cantidad, numeracion y ultima modificacion) y la cantidad de imputaciones.
+	 * Si cambia algun asiento (o se renumeran) la firma deja de coincidir.
+	 * </p>
+	 */
+	@Getter
+	@ToString
+	@EqualsAndHashCode
+	@AllArgsConstructor
+	public static class Firma {
+		private long asientos;
+		private long imputaciones;
+		/** Suma de id * numero de los asientos. Detecta renumeraciones, que no cambian la fecha de modificacion */
+		private long numeracion;
+		/** Ultima fecha de creacion o modificacion de un asiento (millis) */
+		private long ultimaModificacion;
+	}
+
+	private LibroColumnarArchivo() {}
+
+	/**
+	 * Escribe el libro en el archivo especificado.
+	 * <p>Se escribe en un archivo temporal y luego se reemplaza, para que nunca se lea un archivo a medio escribir.</p>
+	 * @param path archivo destino
+	 * @param libro libro a escribir
+	 * @param firma firma de los datos con los que se cargo el libro
+	 * @param ejercicioId
+	 * @param asientoCierreId
+	 * @throws IOException si no se puede escribir
+	 */
+	public static void escribir(Path path, LibroColumnar libro, Firma firma, long ejercicioId, Long asientoCierreId) throws IOException {
+		final int cuentas = libro.getCuentas();
+		final int size = libro.size();
+
+		ByteBuffer[] datos = {
+			longs(libro.cuentaIds),
+			longs(libro.ids),
+			longs(libro.acumulados),
+			ints(libro.inicios),
+			ints(libro.fechas),
+			shorts(libro.numeros)
+		};
+
+		CRC32 crc = new CRC32();
+		for(ByteBuffer b : datos) {
+			crc.update(b.duplicate());
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(FORMATO);
+		header.putLong(ejercicioId);
+		header.putLong(asientoCierreId == null ? 0 : asientoCierreId);
+		header.putLong(System.currentTimeMillis());
+		header.putLong(firma.getAsientos());
+		header.putLong(firma.getImputaciones());
+		header.putLong(firma.getNumeracion());
+		header.putLong(firma.getUltimaModificacion());
+		header.putInt(cuentas);
+		header.putInt(size);
+		header.putLong(crc.getValue());
+		header.flip();
+
+		Files.createDirectories(path.toAbsolutePath().getParent());
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try(FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			escribirTodo(channel, header);
+			for(ByteBuffer b : datos) escribirTodo(channel, b);
+			channel.force(true);
+		}
+
+		try {
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Mapea el archivo a un {@link LibroColumnar}, validando formato, firma y CRC.
+	 * @param path archivo
+	 * @param version version de datos del ejercicio, leida <b>antes</b> de calcular la firma
+	 * @param firma firma actual de los datos del ejercicio
+	 * @return el libro o vacio si el archivo no existe, esta desactualizado o corrupto
+	 * @throws IOException si no se puede leer
+	 */
+	public static Optional<LibroColumnar> mapear(Path path, long version, Firma firma) throws IOException {
+		if(!Files.isRegularFile(path)) return Optional.empty();
+
+		MappedByteBuffer buffer;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if(channel.size() < HEADER_BYTES) return invalido(path, "es demasiado chico");
+			// El mapeo sigue siendo valido luego de cerrar el canal
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if(buffer.getInt(0) != MAGIC) return invalido(path, "no es un libro");
+		if(buffer.getInt(4) != FORMATO) return invalido(path, "tiene otro formato (" + buffer.getInt(4) + ")");
+
+		Firma firmaArchivo = new Firma(buffer.getLong(32), buffer.getLong(40), buffer.getLong(48), buffer.getLong(56));
+		if(!firmaArchivo.equals(firma)) return invalido(path, "esta desactualizado");
+
+		final int cuentas = buffer.getInt(64);
+		final int size = buffer.getInt(68);
+
+		// Largo esperado (se calcula en long para no desbordar si el encabezado es invalido)
+		final long esperado = HEADER_BYTES + (long) cuentas * (Long.BYTES + Integer.BYTES) + Integer.BYTES
+				+ (long) size * (Long.BYTES * 2 + Integer.BYTES + Short.BYTES) + Long.BYTES;
+		if(cuentas < 0 || size < 0 || esperado != buffer.capacity()) return invalido(path, "tiene un largo incorrecto");
+
+		// Offsets de cada columna
+		int pos = HEADER_BYTES;
+		final int cuentaIdsPos = pos;  pos += cuentas * Long.BYTES;
+		final int idsPos = pos;        pos += size * Long.BYTES;
+		final int acumuladosPos = pos; pos += (size + 1) * Long.BYTES;
+		final int iniciosPos = pos;    pos += (cuentas + 1) * Integer.BYTES;
+		final int fechasPos = pos;     pos += size * Integer.BYTES;
+		final int numerosPos = pos;    pos += size * Short.BYTES;
+
+		CRC32 crc = new CRC32();
+		crc.update(slice(buffer, HEADER_BYTES, pos - HEADER_BYTES));
+		if(crc.getValue() != buffer.getLong(72)) return invalido(path, "esta corrupto");
+
+		return Optional.of(new LibroColumnar(version,
+				slice(buffer, cuentaIdsPos, cuentas * Long.BYTES).asLongBuffer(),
+				slice(buffer, iniciosPos, (cuentas + 1) * Integer.BYTES).asIntBuffer(),
+				slice(buffer, fechasPos, size * Integer.BYTES).asIntBuffer(),
+				slice(buffer, numerosPos, size * Short.BYTES).asShortBuffer(),
+				slice(buffer, idsPos, size * Long.BYTES).asLongBuffer(),
+				slice(buffer, acumuladosPos, (size + 1) * Long.BYTES).asLongBuffer(),
+				true));
+	}
+
+	private static Optional<LibroColumnar> invalido(Path path, String motivo) {
+		log.info("El libro {} {}", path, motivo);
+		return Optional.empty();
+	}
+
+	/** Vista de una parte del buffer (el slice pierde el orden, por eso se vuelve a setear) */
+	private static ByteBuffer slice(ByteBuffer buffer, int index, int length) {
+		return buffer.slice(index, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void escribirTodo(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) channel.write(buffer);
+	}
+
+	private static ByteBuffer longs(LongBuffer columna) {
+		ByteBuffer b = allocate(columna, Long.BYTES);
+		b.asLongBuffer().put(columna.duplicate().rewind());
+		return b;
+	}
+
+	private static ByteBuffer ints(IntBuffer columna) {
+		ByteBuffer b = allocate(columna, Integer.BYTES);
+		b.asIntBuffer().put(columna.duplicate().rewind());
+		return b;
+	}
+
+	private static ByteBuffer shorts(ShortBuffer columna) {
+		ByteBuffer b = allocate(columna, Short.BYTES);
+		b.asShortBuffer().put(columna.duplicate().rewind());
+		return b;
+	}
+
+	private static ByteBuffer allocate(Buffer columna, int bytes) {
+		return ByteBuffer.allocate(columna.limit() * bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,300 @@
+package com.mmoscovich.webcontab.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import com.mmoscovich.webcontab.dto.IdNameModel;
+
+/**
+ * Indice inmutable del plan de cuentas (categorias y cuentas) de una organizacion.
+ * <p>
+ * Los nodos se guardan ordenados por {@link com.mmoscovich.webcontab.model.CuentaBase#getOrden() orden}, por lo que
+ * los descendientes de cada categoria quedan contiguos. Cada nodo conoce a su padre, sus hijos y el rango de su descendencia.
+ * Asi el path se obtiene en O(profundidad) y los hijos o descendientes en O(cantidad), sin consultar la base.
+ * </p>
+ * <p>Solo tiene los datos de la jerarquia (y que cuentas son balanceadoras). Las entidades se deben buscar por id.</p>
+ * <p>Tiene la version de los datos con la que se construyo (ver {@link com.mmoscovich.webcontab.services.PlanCuentasService}).</p>
+ */
+public class PlanCuentas {
+
+	/** Version del plan de la organizacion */
+	private final long version;
+
+	/** Nodos ordenados por orden */
+	private final List<Nodo> nodos;
+
+	private final Map<Long, Nodo> porId;
+	private final Map<String, Nodo> porCodigo;
+
+	/** Categorias raiz, ordenadas */
+	private final List<Nodo> raices;
+
+	/** Cuentas que balancean resultados y ajustables (una por moneda) */
+	private final List<Nodo> balanceanResultados;
+	private final List<Nodo> balanceanAjustables;
+
+	/** Indice de busqueda por texto. Se crea al usarlo por primera vez */
+	private volatile BuscadorCuentas buscador;
+
+	/**
+	 * Item del plan (categoria o cuenta)
+	 */
+	public static class Nodo {
+		private final long id;
+		private final String codigo;
+		private final String descripcion;
+		private final String alias;
+		private final String orden;
+		private final boolean imputable;
+		private final boolean balanceaResultados;
+		private final boolean balanceaAjustables;
+		private final Nodo padre;
+
+		/** Hijos directos, ordenados (solo se agrega al construir) */
+		private final List<Nodo> hijos = new ArrayList<>();
+
+		/** Posicion en la lista de nodos */
+		final int posicion;
+
+		/** Posicion siguiente al ultimo descendiente (solo se asigna al construir) */
+		int fin;
+
+		private Nodo(Item item, Nodo padre, int posicion) {
+			this.id = item.id;
+			this.codigo = item.codigo;
+			this.descripcion = item.descripcion;
+			this.alias = item.alias;
+			this.orden = item.orden;
+			this.imputable = item.imputable;
+			this.balanceaResultados = item.balanceaResultados;
+			this.balanceaAjustables = item.balanceaAjustables;
+			this.padre = padre;
+			this.posicion = posicion;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public String getCodigo() {
+			return codigo;
+		}
+
+		public String getDescripcion() {
+			return descripcion;
+		}
+
+		public String getAlias() {
+			return alias;
+		}
+
+		public String getOrden() {
+			return orden;
+		}
+
+		public boolean isImputable() {
+			return imputable;
+		}
+
+		public boolean isBalanceaResultados() {
+			return balanceaResultados;
+		}
+
+		public boolean isBalanceaAjustables() {
+			return balanceaAjustables;
+		}
+
+		public boolean isRaiz() {
+			return padre == null;
+		}
+
+		/** Id de la categoria padre (null si es raiz) */
+		public Long getPadreId() {
+			return padre == null ? null : padre.id;
+		}
+
+		/** Hijos directos, ordenados */
+		public List<Nodo> getHijos() {
+			return Collections.unmodifiableList(hijos);
+		}
+	}
+
+	/**
+	 * Item del plan leido de la base
+	 */
+	public static class Item {
+		private final long id;
+		private final String codigo;
+		private final String descripcion;
+		private final String alias;
+		private final String orden;
+		private final boolean imputable;
+		private final Long padreId;
+		private final boolean balanceaResultados;
+		private final boolean balanceaAjustables;
+
+		public Item(long id, String codigo, String descripcion, String alias, String orden, boolean imputable, Long padreId,
+				boolean balanceaResultados, boolean balanceaAjustables) {
+			this.id = id;
+			this.codigo = codigo;
+			this.descripcion = descripcion;
+			this.alias = alias;
+			this.orden = orden;
+			this.imputable = imputable;
+			this.padreId = padreId;
+			this.balanceaResultados = balanceaResultados;
+			this.balanceaAjustables = balanceaAjustables;
+		}
+	}
+
+	/**
+	 * Crea el indice.
+	 * @param version version del plan de la organizacion
+	 * @param items items del plan, <b>ordenados por orden</b> (los padres siempre antes que sus hijos)
+	 */
+	public PlanCuentas(long version, List<Item> items) {
+		this.version = version;
+
+		List<Nodo> nodos = new ArrayList<>(items.size());
+		Map<Long, Nodo> porId = new HashMap<>(items.size() * 2);
+		Map<String, Nodo> porCodigo = new HashMap<>(items.size() * 2);
+		List<Nodo> raices = new ArrayList<>();
+		List<Nodo> balanceanResultados = new ArrayList<>();
+		List<Nodo> balanceanAjustables = new ArrayList<>();
+
+		for(Item item : items) {
+			Nodo padre = item.padreId == null ? null : porId.get(item.padreId);
+			if(item.padreId != null && padre == null) throw new IllegalStateException("El padre de " + item.codigo + " no esta antes en el plan");
+
+			Nodo nodo = new Nodo(item, padre, nodos.size());
+			nodos.add(nodo);
+			porId.put(nodo.id, nodo);
+			porCodigo.put(nodo.codigo, nodo);
+
+			if(padre == null) raices.add(nodo);
+			else padre.hijos.add(nodo);
+
+			if(nodo.balanceaResultados) balanceanResultados.add(nodo);
+			if(nodo.balanceaAjustables) balanceanAjustables.add(nodo);
+		}
+
+		// Por estar ordenados, la descendencia de un nodo termina donde empieza el siguiente hermano (o el de algun ancestro)
+		for(int i = nodos.size() - 1; i >= 0; i--) {
+			Nodo nodo = nodos.get(i);
+			nodo.fin = nodo.hijos.isEmpty() ? i + 1 : nodo.hijos.get(nodo.hijos.size() - 1).fin;
+		}
+
+		this.nodos = nodos;
+		this.porId = porId;
+		this.porCodigo = porCodigo;
+		this.raices = raices;
+		this.balanceanResultados = balanceanResultados;
+		this.balanceanAjustables = balanceanAjustables;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/** Cantidad de categorias y cuentas */
+	public int size() {
+		return nodos.size();
+	}
+
+	/** Nodos ordenados por orden */
+	List<Nodo> getNodos() {
+		return nodos;
+	}
+
+	/**
+	 * Obtiene el indice de busqueda por texto del plan.
+	 * <p>Se crea la primera vez que se usa (y queda asociado a esta version del plan).</p>
+	 */
+	public BuscadorCuentas getBuscador() {
+		BuscadorCuentas result = buscador;
+		if(result == null) {
+			synchronized(this) {
+				if(buscador == null) buscador = new BuscadorCuentas(this);
+				result = buscador;
+			}
+		}
+		return result;
+	}
+
+	/** Busca una categoria o cuenta por id */
+	public Optional<Nodo> getNodo(Long id) {
+		return Optional.ofNullable(porId.get(id));
+	}
+
+	/** Busca una categoria o cuenta por codigo */
+	public Optional<Nodo> getNodo(String codigo) {
+		return Optional.ofNullable(porCodigo.get(codigo));
+	}
+
+	/** Categorias raiz, ordenadas */
+	public List<Nodo> getRaices() {
+		return Collections.unmodifiableList(raices);
+	}
+
+	/** Cuentas que balancean resultados (una por moneda) */
+	public List<Nodo> getBalanceanResultados() {
+		return Collections.unmodifiableList(balanceanResultados);
+	}
+
+	/** Cuentas que balancean las ajustables por inflacion (una por moneda) */
+	public List<Nodo> getBalanceanAjustables() {
+		return Collections.unmodifiableList(balanceanAjustables);
+	}
+
+	/** Todas las categorias, ordenadas */
+	public List<Nodo> getCategorias() {
+		List<Nodo> result = new ArrayList<>();
+		for(Nodo nodo : nodos) {
+			if(!nodo.imputable) result.add(nodo);
+		}
+		return result;
+	}
+
+	/**
+	 * Obtiene el path de una categoria o cuenta: la lista de [id, descripcion] de sus ancestros, desde la raiz.
+	 * @param nodo
+	 * @return el path (null si es raiz)
+	 */
+	public List<IdNameModel<Long>> getPath(Nodo nodo) {
+		if(nodo.padre == null) return null;
+
+		List<IdNameModel<Long>> path = new ArrayList<>();
+		for(Nodo n = nodo.padre; n != null; n = n.padre) {
+			path.add(new IdNameModel<>(n.id, n.descripcion));
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	/**
+	 * Obtiene los ids de las cuentas (imputables) descendientes de las categorias especificadas.
+	 * <p>Los ids que no estan en el plan (o no son categorias) se ignoran.</p>
+	 * @param categoriaIds
+	 * @return los ids en el orden del plan (sin repetidos)
+	 */
+	public Set<Long> getCuentasDescendientes(Collection<Long> categoriaIds) {
+		Set<Long> result = new LinkedHashSet<>();
+		for(Long id : categoriaIds) {
+			Nodo cat = porId.get(id);
+			if(cat == null || cat.imputable) continue;
+
+			for(int i = cat.posicion + 1; i < cat.fin; i++) {
+				Nodo nodo = nodos.get(i);
+				if(nodo.imputable) result.add(nodo.id);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,130 @@
+package com.mmoscovich.webcontab.util;
+
+import java.util.Arrays;
+
+/**
+ * Mapa de saldos por id de cuenta, con tipos primitivos.
+ * <p>Los saldos se guardan en centavos (long) junto con la moneda de la cuenta, en arrays paralelos
+ * que conservan el orden en que se agregaron las cuentas.
+ * <br>El indice por id es una tabla de hash con direccionamiento abierto, por lo que acumular no genera objetos
+ * (ni boxing de los ids).</p>
+ * <p>Los ids de cuenta deben ser mayores a cero (el cero indica posicion libre en la tabla).</p>
+ */
+public class SaldosPorCuenta {
+
+	/** Tabla de hash con los ids de cuenta (0 = libre). Su tamanio siempre es potencia de 2 */
+	private long[] tabla;
+
+	/** Posicion en los arrays de datos de cada id de la tabla */
+	private int[] posiciones;
+
+	/** Ids de las cuentas, en el orden en que se agregaron */
+	private long[] cuentas;
+
+	/** Id de la moneda de cada cuenta (mismo indice que {@link #cuentas}) */
+	private long[] monedas;
+
+	/** Saldo en centavos de cada cuenta (mismo indice que {@link #cuentas}) */
+	private long[] centavos;
+
+	private int size;
+
+	public SaldosPorCuenta() {
+		this(64);
+	}
+
+	/**
+	 * @param capacidad cantidad estimada de cuentas
+	 */
+	public SaldosPorCuenta(int capacidad) {
+		int tamanio = Math.max(16, Integer.highestOneBit(Math.max(capacidad, 1) * 2 - 1) << 1);
+		this.tabla = new long[tamanio];
+		this.posiciones = new int[tamanio];
+		this.cuentas = new long[tamanio / 2];
+		this.monedas = new long[tamanio / 2];
+		this.centavos = new long[tamanio / 2];
+	}
+
+	/**
+	 * Suma un importe en centavos al saldo de la cuenta, agregandola si no existe.
+	 * @param cuentaId id de la cuenta
+	 * @param monedaId id de la moneda de la cuenta (se usa solo al agregarla)
+	 * @param importe importe en centavos
+	 * @return la posicion de la cuenta
+	 */
+	public int sumarCentavos(long cuentaId, long monedaId, long importe) {
+		int i = this.indexOf(cuentaId);
+		if(i < 0) i = this.agregar(cuentaId, monedaId);
+		centavos[i] = Math.addExact(centavos[i], importe);
+		return i;
+	}
+
+	/**
+	 * Busca la posicion de una cuenta.
+	 * @return la posicion o -1 si la cuenta no existe
+	 */
+	public int indexOf(long cuentaId) {
+		final int mask = tabla.length - 1;
+		for(int slot = hash(cuentaId) & mask; tabla[slot] != 0; slot = (slot + 1) & mask) {
+			if(tabla[slot] == cuentaId) return posiciones[slot];
+		}
+		return -1;
+	}
+
+	/** Cantidad de cuentas */
+	public int size() {
+		return size;
+	}
+
+	/** Id de la cuenta en la posicion indicada */
+	public long getCuentaId(int index) {
+		return cuentas[index];
+	}
+
+	/** Id de la moneda de la cuenta en la posicion indicada */
+	public long getMonedaId(int index) {
+		return monedas[index];
+	}
+
+	/** Saldo en centavos de la cuenta en la posicion indicada */
+	public long getCentavos(int index) {
+		return centavos[index];
+	}
+
+	private int agregar(long cuentaId, long monedaId) {
+		if(cuentaId <= 0) throw new IllegalArgumentException("Id de cuenta invalido: " + cuentaId);
+
+		// Se mantiene la tabla ocupada a lo sumo a la mitad
+		if((size + 1) * 2 > tabla.length) this.agrandarTabla();
+		if(size == cuentas.length) {
+			cuentas = Arrays.copyOf(cuentas, size * 2);
+			monedas = Arrays.copyOf(monedas, size * 2);
+			centavos = Arrays.copyOf(centavos, size * 2);
+		}
+
+		cuentas[size] = cuentaId;
+		monedas[size] = monedaId;
+		this.insertar(cuentaId, size);
+		return size++;
+	}
+
+	private void insertar(long cuentaId, int posicion) {
+		final int mask = tabla.length - 1;
+		int slot = hash(cuentaId) & mask;
+		while(tabla[slot] != 0) slot = (slot + 1) & mask;
+		tabla[slot] = cuentaId;
+		posiciones[slot] = posicion;
+	}
+
+	private void agrandarTabla() {
+		tabla = new long[tabla.length * 2];
+		posiciones = new int[tabla.length];
+		for(int i = 0; i < size; i++) this.insertar(cuentas[i], i);
+	}
+
+	/** Dispersa los ids (que suelen ser consecutivos) */
+	private static int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,128 @@
+package com.mmoscovich.webcontab.util;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.mmoscovich.webcontab.exception.InvalidRequestException;
+
+/**
+ * Acumulador de saldos por moneda.
+ * <p>Los importes se acumulan en centavos (long), ya que las imputaciones tienen 2 decimales.
+ * Las monedas se indexan en un array (son pocas), por lo que acumular no genera objetos.</p>
+ * <p>Solo se convierte a {@link BigDecimal} al leer los saldos.</p>
+ */
+public class SaldosPorMoneda {
+	/** Cantidad de decimales de los importes */
+	private static final int DECIMALES = 2;
+
+	/** Ids de las monedas, en el orden en que se agregaron */
+	private long[] monedas = new long[4];
+
+	/** Saldo en centavos de cada moneda (mismo indice que {@link #monedas}) */
+	private long[] centavos = new long[4];
+
+	private int size;
+
+	/**
+	 * Crea un acumulador a partir de un mapa de saldos por id de moneda.
+	 */
+	public static SaldosPorMoneda of(Map<Long, BigDecimal> saldos) {
+		SaldosPorMoneda result = new SaldosPorMoneda();
+		for(Entry<Long, BigDecimal> e : saldos.entrySet()) result.sumar(e.getKey(), e.getValue());
+		return result;
+	}
+
+	/**
+	 * Convierte un importe a centavos.
+	 * @throws InvalidRequestException si el importe tiene mas de 2 decimales
+	 */
+	public static long toCentavos(BigDecimal importe) throws InvalidRequestException {
+		try {
+			return importe.movePointRight(DECIMALES).longValueExact();
+		} catch(ArithmeticException e) {
+			throw new InvalidRequestException("El importe " + importe + " no puede tener mas de " + DECIMALES + " decimales", e);
+		}
+	}
+
+	/**
+	 * Convierte un importe en centavos a {@link BigDecimal} (con 2 decimales).
+	 */
+	public static BigDecimal fromCentavos(long centavos) {
+		return BigDecimal.valueOf(centavos, DECIMALES);
+	}
+
+	/**
+	 * Suma un importe al saldo de la moneda.
+	 * @param monedaId id de la moneda
+	 * @param importe importe a sumar
+	 * @throws InvalidRequestException si el importe tiene mas de 2 decimales
+	 */
+	public void sumar(long monedaId, BigDecimal importe) throws InvalidRequestException {
+		this.sumarCentavos(monedaId, toCentavos(importe));
+	}
+
+	/**
+	 * Suma un importe en centavos al saldo de la moneda.
+	 */
+	public void sumarCentavos(long monedaId, long importe) {
+		int i = this.indexOf(monedaId);
+		if(i < 0) i = this.agregarMoneda(monedaId);
+		centavos[i] = Math.addExact(centavos[i], importe);
+	}
+
+	/** Indica si el saldo de todas las monedas es cero */
+	public boolean todosEnCero() {
+		for(int i = 0; i < size; i++) {
+			if(centavos[i] != 0) return false;
+		}
+		return true;
+	}
+
+	/** Cantidad de monedas con saldo (aunque sea cero) */
+	public int size() {
+		return size;
+	}
+
+	/** Id de la moneda en la posicion indicada */
+	public long getMonedaId(int index) {
+		return monedas[index];
+	}
+
+	/** Saldo en centavos de la moneda en la posicion indicada */
+	public long getCentavos(int index) {
+		return centavos[index];
+	}
+
+	/** Saldo de la moneda en la posicion indicada */
+	public BigDecimal getSaldo(int index) {
+		return fromCentavos(centavos[index]);
+	}
+
+	/**
+	 * Convierte los saldos a un mapa cuya clave es el id de moneda y value es el saldo
+	 */
+	public Map<Long, BigDecimal> toMap() {
+		Map<Long, BigDecimal> result = new HashMap<>();
+		for(int i = 0; i < size; i++) result.put(monedas[i], this.getSaldo(i));
+		return result;
+	}
+
+	private int indexOf(long monedaId) {
+		for(int i = 0; i < size; i++) {
+			if(monedas[i] == monedaId) return i;
+		}
+		return -1;
+	}
+
+	private int agregarMoneda(long monedaId) {
+		if(size == monedas.length) {
+			monedas = Arrays.copyOf(monedas, size * 2);
+			centavos = Arrays.copyOf(centavos, size * 2);
+		}
+		monedas[size] = monedaId;
+		return size++;
+	}
+}
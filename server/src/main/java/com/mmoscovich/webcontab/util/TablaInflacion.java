@@ -0,0 +1,101 @@
+package com.mmoscovich.webcontab.util;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mmoscovich.webcontab.model.InflacionMes;
+
+/**
+ * Tabla inmutable con los indices de inflacion de todas las monedas.
+ * <p>Para cada moneda se guarda un array denso de indices desde el primer mes cargado hasta el ultimo
+ * (los meses sin indice quedan en null), por lo que buscar un indice no requiere armar claves ni consultar la base.</p>
+ * <p>Tiene la version de los datos con la que se construyo (ver {@link com.mmoscovich.webcontab.services.InflacionService}).</p>
+ */
+public class TablaInflacion {
+
+	/** Version de los indices */
+	private final long version;
+
+	/** Indices de cada moneda (por id) */
+	private final Map<Long, IndicesMoneda> monedas;
+
+	/**
+	 * Crea la tabla a partir de los indices persistidos.
+	 * @param version version de los indices
+	 * @param items indices de todas las monedas (en cualquier orden)
+	 */
+	public TablaInflacion(long version, List<InflacionMes> items) {
+		this.version = version;
+
+		// Se busca el rango de meses de cada moneda
+		Map<Long, YearMonth[]> rangos = new HashMap<>();
+		for(InflacionMes item : items) {
+			YearMonth mes = item.getYearMonth();
+			YearMonth[] rango = rangos.computeIfAbsent(item.getMoneda().getId(), id -> new YearMonth[] { mes, mes });
+			if(mes.isBefore(rango[0])) rango[0] = mes;
+			if(mes.isAfter(rango[1])) rango[1] = mes;
+		}
+
+		Map<Long, IndicesMoneda> result = new HashMap<>(rangos.size() * 2);
+		rangos.forEach((id, rango) -> result.put(id, new IndicesMoneda(rango[0], (int) rango[0].until(rango[1], ChronoUnit.MONTHS) + 1)));
+
+		// Se ubica cada indice en su posicion
+		for(InflacionMes item : items) {
+			IndicesMoneda indices = result.get(item.getMoneda().getId());
+			indices.indices[indices.indexOf(item.getYearMonth())] = item.getIndice();
+		}
+
+		this.monedas = result;
+	}
+
+	/** Version de los indices con la que se construyo la tabla */
+	public long getVersion() {
+		return version;
+	}
+
+	/** Ids de las monedas que tienen algun indice */
+	public long[] getMonedas() {
+		return monedas.keySet().stream().mapToLong(Long::longValue).toArray();
+	}
+
+	/**
+	 * Obtiene el indice de un mes para una moneda.
+	 * @param monedaId
+	 * @param mes
+	 * @return el indice o <code>null</code> si no se cargo
+	 */
+	public BigDecimal getIndice(long monedaId, YearMonth mes) {
+		IndicesMoneda indices = monedas.get(monedaId);
+		if(indices == null) return null;
+
+		int i = indices.indexOf(mes);
+		return (i < 0 || i >= indices.indices.length) ? null : indices.indices[i];
+	}
+
+	/** Cantidad total de indices (incluyendo los meses sin cargar dentro del rango de cada moneda) */
+	public int size() {
+		return monedas.values().stream().mapToInt(i -> i.indices.length).sum();
+	}
+
+	/**
+	 * Indices consecutivos de una moneda
+	 */
+	private static class IndicesMoneda {
+		private final YearMonth desde;
+		private final BigDecimal[] indices;
+
+		IndicesMoneda(YearMonth desde, int meses) {
+			this.desde = desde;
+			this.indices = new BigDecimal[meses];
+		}
+
+		int indexOf(YearMonth mes) {
+			long i = desde.until(mes, ChronoUnit.MONTHS);
+			return (i < 0 || i > Integer.MAX_VALUE) ? -1 : (int) i;
+		}
+	}
+}
@@ -0,0 +1,3 @@
+ALTER TABLE 
+	EJERCICIO 
+ADD COLUMN IF NOT EXISTS "ELIMINADO" BOOLEAN NOT NULL DEFAULT FALSE;
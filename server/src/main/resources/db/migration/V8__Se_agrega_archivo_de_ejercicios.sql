@@ -0,0 +1,28 @@
+ALTER TABLE 
+	EJERCICIO 
+ADD COLUMN IF NOT EXISTS "ARCHIVADO" BOOLEAN NOT NULL DEFAULT FALSE;
+
+-- Imputaciones de los ejercicios archivados, con los datos de su asiento (una sola tabla, sin foreign keys)
+CREATE TABLE IF NOT EXISTS IMPUTACION_ARCHIVADA (
+	ID BIGINT NOT NULL PRIMARY KEY,
+	EJERCICIO_ID BIGINT NOT NULL,
+	ASIENTO_ID BIGINT NOT NULL,
+	NUMERO SMALLINT NOT NULL,
+	FECHA DATE NOT NULL,
+	ASIENTO_DETALLE VARCHAR(70),
+	ASIENTO_CREATION_DATE TIMESTAMP NOT NULL,
+	ASIENTO_CREATION_USER_ID BIGINT,
+	ASIENTO_UPDATE_DATE TIMESTAMP,
+	ASIENTO_UPDATE_USER_ID BIGINT,
+	ORDEN SMALLINT NOT NULL,
+	CUENTA_ID BIGINT NOT NULL,
+	IMPORTE DECIMAL(15, 2) NOT NULL,
+	DETALLE VARCHAR(50) NOT NULL,
+	CREATION_DATE TIMESTAMP NOT NULL,
+	CREATION_USER_ID BIGINT,
+	UPDATE_DATE TIMESTAMP,
+	UPDATE_USER_ID BIGINT
+);
+
+CREATE INDEX IF NOT EXISTS IDX_IMPUTACION_ARCHIVADA_ASIENTOS ON IMPUTACION_ARCHIVADA(EJERCICIO_ID, FECHA, NUMERO, ORDEN);
+CREATE INDEX IF NOT EXISTS IDX_IMPUTACION_ARCHIVADA_CUENTAS ON IMPUTACION_ARCHIVADA(CUENTA_ID, EJERCICIO_ID);
@@ -0,0 +1,200 @@
+package com.mmoscovich.webcontab.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.mmoscovich.webcontab.dto.AsientoFilter;
+import com.mmoscovich.webcontab.model.Asiento;
+import com.mmoscovich.webcontab.model.Categoria;
+import com.mmoscovich.webcontab.model.Cuenta;
+import com.mmoscovich.webcontab.model.CuentaBase;
+import com.mmoscovich.webcontab.model.Ejercicio;
+import com.mmoscovich.webcontab.model.Imputacion;
+import com.mmoscovich.webcontab.model.Moneda;
+import com.mmoscovich.webcontab.model.Organizacion;
+
+/**
+ * Verifica que las lecturas principales (lista de asientos, mayor, busqueda de cuentas y exportacion del plan)
+ * ejecuten una cantidad acotada de queries, sin importar el tamanio de la pagina.
+ * <p>Se cuentan los statements de Hibernate con la cache de segundo nivel vacia (el peor caso).
+ * Los maximos son los valores actuales: si alguna asociacion se buscara de a una (N+1), se superan.</p>
+ */
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:webcontab-test;DB_CLOSE_DELAY=-1",
+		"spring.jpa.hibernate.ddl-auto=create-drop",
+		"webcontab.db.backup.dir=target/test/backup",
+		"webcontab.db.backup.cron=-",
+		"webcontab.importer.backupDir=target/test/importer",
+		"webcontab.updater.url=http://localhost/",
+		"webcontab.updater.versionFile=version.properties",
+		"webcontab.updater.backupDir=target/test/updater",
+		"webcontab.precarga.habilitada=false",
+		"webcontab.libro-columnar.habilitado=false"
+})
+@TestInstance(Lifecycle.PER_CLASS)
+class CantidadDeQueriesTest {
+
+	private static final int RUBROS = 2;
+	private static final int CUENTAS_POR_RUBRO = 10;
+	private static final int ASIENTOS = 30;
+	private static final int IMPUTACIONES_POR_ASIENTO = 4;
+	private static final int PAGINA = 25;
+
+
+	@Inject
+	private EntityManager em;
+
+	@Inject
+	private PlatformTransactionManager txManager;
+
+	@Inject
+	private AsientoService asientoService;
+
+	@Inject
+	private InformeService informeService;
+
+	@Inject
+	private CuentaService cuentaService;
+
+	@Inject
+	private CategoriaService categoriaService;
+
+	private Organizacion org;
+	private Categoria raiz;
+	private Cuenta cuenta;
+	private Ejercicio ejercicio;
+
+	@BeforeAll
+	void crearDatos() {
+		new TransactionTemplate(txManager).executeWithoutResult(status -> {
+			Moneda moneda = new Moneda("Peso", "$", "ARS", true, true);
+			em.persist(moneda);
+
+			org = new Organizacion("30000000007", "Organizacion de prueba");
+			em.persist(org);
+
+			raiz = new Categoria(org, (short) 1, "Activo", false);
+			em.persist(raiz);
+
+			List<Cuenta> cuentas = new ArrayList<>();
+			for(short r = 1; r <= RUBROS; r++) {
+				Categoria rubro = new Categoria(org, r, "Rubro " + r, raiz, false);
+				em.persist(rubro);
+
+				for(short c = 1; c <= CUENTAS_POR_RUBRO; c++) {
+					Cuenta nueva = new Cuenta(org, c, "Cuenta " + r + "." + c, rubro, false, false, moneda);
+					em.persist(nueva);
+					cuentas.add(nueva);
+				}
+			}
+			cuenta = cuentas.get(0);
+
+			ejercicio = new Ejercicio(org, LocalDate.of(2020, 1, 1), LocalDate.of(2020, 12, 31));
+			em.persist(ejercicio);
+
+			// Las imputaciones de cada asiento van a cuentas distintas, para que la pagina tenga muchas cuentas
+			for(short a = 1; a <= ASIENTOS; a++) {
+				Asiento asiento = new Asiento(ejercicio, a, ejercicio.getInicio().plusDays(a), "Asiento " + a, null);
+				em.persist(asiento);
+
+				for(short o = 1; o <= IMPUTACIONES_POR_ASIENTO; o++) {
+					BigDecimal importe = BigDecimal.valueOf(o % 2 == 0 ? -100 : 100);
+					Imputacion imputacion = new Imputacion(cuentas.get((a + o) % cuentas.size()), importe, "Imputacion " + o);
+					imputacion.setOrden(o);
+					asiento.agregarImputacion(imputacion);
+					em.persist(imputacion);
+				}
+			}
+		});
+	}
+
+	@Test
+	void listaDeAsientosConImputaciones() {
+		long queries = this.contarQueries(() -> {
+			Page<Asiento> page = asientoService.findByPeriodo(ejercicio, null, null, true, PageRequest.of(0, PAGINA));
+			assertEquals(PAGINA, page.getNumberOfElements());
+
+			// Se recorre como al serializar
+			page.forEach(a -> a.getImputaciones().forEach(i -> i.getCuenta().getCodigo()));
+		});
+		// Pagina, count e imputaciones (con sus cuentas)
+		assertTrue(queries <= 3, () -> "La lista de asientos ejecuto " + queries + " queries");
+	}
+
+	@Test
+	void mayor() {
+		long queries = this.contarQueries(() -> {
+			Page<Imputacion> page = informeService.getMayor(ejercicio, cuenta, new AsientoFilter(), PageRequest.of(0, PAGINA)).getPage();
+			assertTrue(page.getNumberOfElements() > 1);
+
+			// Se recorre como al serializar
+			page.forEach(i -> i.getAsiento().getNumero());
+		});
+		// Pagina, asientos (en batch) y saldo anterior
+		assertTrue(queries <= 3, () -> "El mayor ejecuto " + queries + " queries");
+	}
+
+	@Test
+	void busquedaDeCuentas() {
+		long queries = this.contarQueries(() -> {
+			Slice<? extends CuentaBase> page = cuentaService.search(org, "cuenta", true, PageRequest.of(0, 10));
+			assertEquals(10, page.getNumberOfElements());
+
+			// Como en el resource, los paths de la pagina se piden juntos
+			categoriaService.getPaths(page.getContent());
+		});
+		// Plan en memoria y cuentas de la pagina (los paths salen del plan)
+		assertTrue(queries <= 2, () -> "La busqueda de cuentas ejecuto " + queries + " queries");
+	}
+
+	@Test
+	void exportacionDelPlan() throws IOException {
+		List<Path> archivos = new ArrayList<>();
+		long queries = this.contarQueries(() -> archivos.add(categoriaService.exportarPlan(org, raiz)));
+		for(Path archivo : archivos) Files.deleteIfExists(archivo);
+
+		// Plan y moneda
+		assertTrue(queries <= 2, () -> "La exportacion del plan ejecuto " + queries + " queries");
+	}
+
+	/**
+	 * Ejecuta la lectura en una transaccion de solo lectura, con la cache de segundo nivel vacia.
+	 * @return cantidad de statements preparados
+	 */
+	private long contarQueries(Runnable lectura) {
+		em.getEntityManagerFactory().getCache().evictAll();
+
+		Statistics stats = em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		stats.clear();
+
+		TransactionTemplate tx = new TransactionTemplate(txManager);
+		tx.setReadOnly(true);
+		tx.executeWithoutResult(status -> lectura.run());
+
+		return stats.getPrepareStatementCount();
+	}
+}